@@ -47,18 +47,19 @@ public class StethoInterceptor implements Interceptor {
 
   @Override
   public Response intercept(Chain chain) throws IOException {
-    String requestId = mEventReporter.nextRequestId();
-
     Request request = chain.request();
-
-    RequestBodyHelper requestBodyHelper = null;
-    if (mEventReporter.isEnabled()) {
-      requestBodyHelper = new RequestBodyHelper(mEventReporter, requestId);
-      OkHttpInspectorRequest inspectorRequest =
-          new OkHttpInspectorRequest(requestId, request, requestBodyHelper);
-      mEventReporter.requestWillBeSent(inspectorRequest);
+    if (!mEventReporter.isEnabled()) {
+      // Requests which start while no peer is attached are never reported, so don't pay for
+      // anything beyond this check.
+      return chain.proceed(request);
     }
 
+    String requestId = mEventReporter.nextRequestId();
+    RequestBodyHelper requestBodyHelper = new RequestBodyHelper(mEventReporter, requestId);
+    OkHttpInspectorRequest inspectorRequest =
+        new OkHttpInspectorRequest(requestId, request, requestBodyHelper);
+    mEventReporter.requestWillBeSent(inspectorRequest);
+
     Response response;
     try {
       response = chain.proceed(request);
@@ -70,7 +71,7 @@ public class StethoInterceptor implements Interceptor {
     }
 
     if (mEventReporter.isEnabled()) {
-      if (requestBodyHelper != null && requestBodyHelper.hasBody()) {
+      if (requestBodyHelper.hasBody()) {
         requestBodyHelper.reportDataSent();
       }
 
@@ -128,6 +128,28 @@ public class StethoInterceptorTest {
     inOrder.verifyNoMoreInteractions();
   }
 
+  @Test
+  public void testDisabled() throws IOException {
+    Mockito.when(mMockEventReporter.isEnabled()).thenReturn(false);
+
+    Request request = new Request.Builder()
+        .url("http://www.facebook.com/nowhere")
+        .build();
+    Response reply = new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("text/plain"), "Success!"))
+        .build();
+    Response filteredResponse =
+        mInterceptor.intercept(
+            new SimpleTestChain(request, reply, null));
+
+    assertSame(reply, filteredResponse);
+    Mockito.verify(mMockEventReporter).isEnabled();
+    Mockito.verifyNoMoreInteractions(mMockEventReporter);
+  }
+
   @Test
   public void testWithRequestCompression() throws IOException {
     AtomicReference<NetworkEventReporter.InspectorRequest> capturedRequest =
@@ -28,7 +28,7 @@ import java.net.HttpURLConnection;
  */
 class StethoURLConnectionManagerImpl {
   private final NetworkEventReporter mStethoHook = NetworkEventReporterImpl.get();
-  private final String mRequestId;
+  @Nullable private String mRequestId;
   @Nullable
   private final String mFriendlyName;
 
@@ -37,7 +37,6 @@ class StethoURLConnectionManagerImpl {
   @Nullable private RequestBodyHelper mRequestBodyHelper;
 
   public StethoURLConnectionManagerImpl(@Nullable String friendlyName) {
-    mRequestId = mStethoHook.nextRequestId();
     mFriendlyName = friendlyName;
   }
 
@@ -136,6 +135,10 @@ class StethoURLConnectionManagerImpl {
    */
   @Nonnull
   public String getStethoRequestId() {
+    // Assigned on first use so that connections made while Stetho is inactive never need one.
+    if (mRequestId == null) {
+      mRequestId = mStethoHook.nextRequestId();
+    }
     return mRequestId;
   }
 }
@@ -23,6 +23,7 @@ import com.facebook.stetho.dumpapp.DumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.CrashDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.FilesDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.HprofDumperPlugin;
+import com.facebook.stetho.dumpapp.plugins.NetworkDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.SharedPreferencesDumperPlugin;
 import com.facebook.stetho.inspector.DevtoolsSocketHandler;
 import com.facebook.stetho.inspector.console.RuntimeReplFactory;
@@ -37,6 +38,14 @@ import com.facebook.stetho.inspector.elements.DocumentProviderFactory;
 import com.facebook.stetho.inspector.elements.android.ActivityTracker;
 import com.facebook.stetho.inspector.elements.android.AndroidDocumentConstants;
 import com.facebook.stetho.inspector.elements.android.AndroidDocumentProviderFactory;
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy;
+import com.facebook.stetho.inspector.network.NetworkEventCoalescingConfig;
+import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
+import com.facebook.stetho.inspector.network.NetworkPeerManager;
+import com.facebook.stetho.inspector.network.RequestBodyCaptureConfig;
+import com.facebook.stetho.inspector.network.ResponseCaptureConfig;
+import com.facebook.stetho.inspector.network.RuleBasedCapturePolicy;
+import com.facebook.stetho.inspector.network.ResponseBodyStoreConfig;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.module.CSS;
 import com.facebook.stetho.inspector.protocol.module.Console;
@@ -54,19 +63,26 @@ import com.facebook.stetho.inspector.protocol.module.Runtime;
 import com.facebook.stetho.inspector.protocol.module.Worker;
 import com.facebook.stetho.inspector.runtime.RhinoDetectingRuntimeReplFactory;
 import com.facebook.stetho.server.AddressNameHelper;
+import com.facebook.stetho.server.EventLoopGroup;
+import com.facebook.stetho.server.EventLoopSocketHandler;
 import com.facebook.stetho.server.LazySocketHandler;
 import com.facebook.stetho.server.LocalSocketServer;
 import com.facebook.stetho.server.ServerManager;
 import com.facebook.stetho.server.ProtocolDetectingSocketHandler;
 import com.facebook.stetho.server.SocketHandler;
 import com.facebook.stetho.server.SocketHandlerFactory;
+import com.facebook.stetho.server.WorkerPoolConfig;
+import com.facebook.stetho.websocket.CompressionConfig;
+import com.facebook.stetho.websocket.WriteQueueConfig;
 
 import javax.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -224,6 +240,7 @@ public class Stetho {
       provideIfDesired(new SharedPreferencesDumperPlugin(mContext));
       provideIfDesired(new CrashDumperPlugin());
       provideIfDesired(new FilesDumperPlugin(mContext));
+      provideIfDesired(new NetworkDumperPlugin());
       return mDelegate.finish();
     }
   }
@@ -404,6 +421,13 @@ public class Stetho {
    * or they can construct a concrete instance using {@link #newInitializerBuilder(Context)}.
    */
   public static abstract class Initializer {
+    /**
+     * Name of the server which handles both DevTools and {@code dumpapp} connections.
+     *
+     * @see #getWorkerPoolConfig(String)
+     */
+    public static final String SERVER_NAME_MAIN = "main";
+
     private final Context mContext;
 
     protected Initializer(Context context) {
@@ -416,13 +440,101 @@ public class Stetho {
     @Nullable
     protected abstract Iterable<ChromeDevtoolsDomain> getInspectorModules();
 
+    /**
+     * Configure the pool of worker threads which services accepted connections for the named
+     * server.  Override to trade off the number of concurrent DevTools/{@code dumpapp} sessions
+     * against the threads Stetho may hold in the app process.  The default doesn't bound the
+     * pool, which gives each connection its own thread as Stetho always has.
+     *
+     * @param serverName Name of the server being started, such as {@link #SERVER_NAME_MAIN}.
+     */
+    protected WorkerPoolConfig getWorkerPoolConfig(String serverName) {
+      return WorkerPoolConfig.createDefault();
+    }
+
+    /**
+     * Number of event loop threads used to multiplex connections for the named server, or 0
+     * (the default) to dedicate a thread to each connection for its entire lifetime.  With an
+     * event loop, idle DevTools sessions and keep-alive HTTP connections hold no thread; the
+     * worker pool from {@link #getWorkerPoolConfig} is then only used for short-lived work.
+     * <p />
+     * Requires Lollipop or later and is ignored on earlier releases.
+     *
+     * @param serverName Name of the server being started, such as {@link #SERVER_NAME_MAIN}.
+     */
+    protected int getEventLoopThreadCount(String serverName) {
+      return 0;
+    }
+
+    /**
+     * Configure the outbound queue of each DevTools session: how much may be queued for a
+     * peer that is not keeping up and what to do with high-frequency notifications (such as
+     * {@code Page.screencastFrame}) once that is exceeded.
+     */
+    protected WriteQueueConfig getWebSocketWriteQueueConfig() {
+      return WriteQueueConfig.createDefault();
+    }
+
+    /**
+     * Configure {@code permessage-deflate} compression of DevTools sessions, which is only
+     * used if the peer offers it.
+     */
+    protected CompressionConfig getWebSocketCompressionConfig() {
+      return CompressionConfig.createDefault();
+    }
+
+    /**
+     * Configure merging of the {@code Network.dataReceived} notifications reported for each
+     * chunk of a response body.
+     */
+    protected NetworkEventCoalescingConfig getNetworkEventCoalescingConfig() {
+      return NetworkEventCoalescingConfig.createDefault();
+    }
+
+    /**
+     * Configure how much disk space captured response bodies may use.
+     */
+    protected ResponseBodyStoreConfig getResponseBodyStoreConfig() {
+      return ResponseBodyStoreConfig.createDefault();
+    }
+
+    /**
+     * Configure how much of each request body is sent inline with
+     * {@code Network.requestWillBeSent}.
+     */
+    protected RequestBodyCaptureConfig getRequestBodyCaptureConfig() {
+      return RequestBodyCaptureConfig.createDefault();
+    }
+
+    /**
+     * Configure whether response bodies are decompressed and stored on the thread reading
+     * them or in the background.
+     */
+    protected ResponseCaptureConfig getResponseCaptureConfig() {
+      return ResponseCaptureConfig.createDefault();
+    }
+
+    /**
+     * Choose which requests are captured, and how much of each, while DevTools is attached.
+     */
+    protected NetworkCapturePolicy getNetworkCapturePolicy() {
+      return RuleBasedCapturePolicy.createDefault();
+    }
+
     final void start() {
+      NetworkEventReporterImpl.setCoalescingConfig(getNetworkEventCoalescingConfig());
+      NetworkPeerManager.setResponseBodyStoreConfig(getResponseBodyStoreConfig());
+      NetworkPeerManager.setRequestBodyCaptureConfig(getRequestBodyCaptureConfig());
+      NetworkPeerManager.setResponseCaptureConfig(getResponseCaptureConfig());
+      NetworkEventReporterImpl.setCapturePolicy(getNetworkCapturePolicy());
+
       // Note that _devtools_remote is a magic suffix understood by Chrome which causes
       // the discovery process to begin.
       LocalSocketServer server = new LocalSocketServer(
-          "main",
+          SERVER_NAME_MAIN,
           AddressNameHelper.createCustomAddress("_devtools_remote"),
-          new LazySocketHandler(new RealSocketHandlerFactory()));
+          new LazySocketHandler(new RealSocketHandlerFactory()),
+          getWorkerPoolConfig(SERVER_NAME_MAIN));
 
       ServerManager serverManager = new ServerManager(server);
       serverManager.start();
@@ -459,7 +571,20 @@ public class Stetho {
         if (inspectorModules != null) {
           socketHandler.addHandler(
               new ProtocolDetectingSocketHandler.AlwaysMatchMatcher(),
-              new DevtoolsSocketHandler(mContext, inspectorModules));
+              new DevtoolsSocketHandler(
+                  mContext,
+                  inspectorModules,
+                  getWebSocketWriteQueueConfig(),
+                  getWebSocketCompressionConfig()));
+        }
+
+        int loopThreads = getEventLoopThreadCount(SERVER_NAME_MAIN);
+        if (loopThreads > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+          EventLoopGroup eventLoopGroup = new EventLoopGroup(
+              SERVER_NAME_MAIN,
+              loopThreads,
+              getWorkerPoolConfig(SERVER_NAME_MAIN));
+          return new EventLoopSocketHandler(mContext, eventLoopGroup, socketHandler);
         }
 
         return socketHandler;
@@ -475,6 +600,15 @@ public class Stetho {
 
     @Nullable DumperPluginsProvider mDumperPlugins;
     @Nullable InspectorModulesProvider mInspectorModules;
+    final Map<String, WorkerPoolConfig> mWorkerPoolConfigs = new HashMap<>();
+    final Map<String, Integer> mEventLoopThreadCounts = new HashMap<>();
+    @Nullable WriteQueueConfig mWebSocketWriteQueueConfig;
+    @Nullable CompressionConfig mWebSocketCompressionConfig;
+    @Nullable NetworkEventCoalescingConfig mNetworkEventCoalescingConfig;
+    @Nullable ResponseBodyStoreConfig mResponseBodyStoreConfig;
+    @Nullable RequestBodyCaptureConfig mRequestBodyCaptureConfig;
+    @Nullable ResponseCaptureConfig mResponseCaptureConfig;
+    @Nullable NetworkCapturePolicy mNetworkCapturePolicy;
 
     private InitializerBuilder(Context context) {
       mContext = context.getApplicationContext();
@@ -503,6 +637,104 @@ public class Stetho {
       return this;
     }
 
+    /**
+     * Limit the number of threads (and queued connections) used to service the named server.
+     * By default {@link WorkerPoolConfig#createDefault()} is used.
+     *
+     * @param serverName Server to configure, such as {@link Initializer#SERVER_NAME_MAIN}.
+     * @param config Pool limits and the policy to apply once they are exceeded.
+     */
+    public InitializerBuilder workerPool(String serverName, WorkerPoolConfig config) {
+      mWorkerPoolConfigs.put(Util.throwIfNull(serverName), Util.throwIfNull(config));
+      return this;
+    }
+
+    /**
+     * Multiplex the named server's connections over a small number of event loop threads
+     * instead of dedicating a thread to each connection.  Requires Lollipop or later and is
+     * ignored on earlier releases.
+     *
+     * @param serverName Server to configure, such as {@link Initializer#SERVER_NAME_MAIN}.
+     * @param loopThreads Number of event loop threads, for example
+     *     {@link EventLoopGroup#DEFAULT_LOOP_THREADS}.
+     */
+    public InitializerBuilder eventLoop(String serverName, int loopThreads) {
+      if (loopThreads <= 0) {
+        throw new IllegalArgumentException("loopThreads must be positive: " + loopThreads);
+      }
+      mEventLoopThreadCounts.put(Util.throwIfNull(serverName), loopThreads);
+      return this;
+    }
+
+    /**
+     * Bound the output queued for each DevTools session and choose how low priority
+     * notifications are treated once a peer falls behind.  By default
+     * {@link WriteQueueConfig#createDefault()} is used.
+     */
+    public InitializerBuilder webSocketWriteQueue(WriteQueueConfig config) {
+      mWebSocketWriteQueueConfig = Util.throwIfNull(config);
+      return this;
+    }
+
+    /**
+     * Control compression of large DevTools messages, or disable it with
+     * {@link CompressionConfig#createDisabled()}.  By default
+     * {@link CompressionConfig#createDefault()} is used.
+     */
+    public InitializerBuilder webSocketCompression(CompressionConfig config) {
+      mWebSocketCompressionConfig = Util.throwIfNull(config);
+      return this;
+    }
+
+    /**
+     * Merge the {@code Network.dataReceived} notifications of each request over a short window,
+     * or send every one with {@link NetworkEventCoalescingConfig#createDisabled()}.  By
+     * default {@link NetworkEventCoalescingConfig#createDefault()} is used.
+     */
+    public InitializerBuilder networkEventCoalescing(NetworkEventCoalescingConfig config) {
+      mNetworkEventCoalescingConfig = Util.throwIfNull(config);
+      return this;
+    }
+
+    /**
+     * Bound the space used to keep response bodies for {@code Network.getResponseBody} and
+     * choose whether they are compressed.  By default
+     * {@link ResponseBodyStoreConfig#createDefault()} is used.
+     */
+    public InitializerBuilder responseBodyStore(ResponseBodyStoreConfig config) {
+      mResponseBodyStoreConfig = Util.throwIfNull(config);
+      return this;
+    }
+
+    /**
+     * Limit the request body held in memory and sent inline as {@code postData}; larger bodies
+     * are kept with the response bodies until DevTools asks for them.  By default
+     * {@link RequestBodyCaptureConfig#createDefault()} is used.
+     */
+    public InitializerBuilder requestBodyCapture(RequestBodyCaptureConfig config) {
+      mRequestBodyCaptureConfig = Util.throwIfNull(config);
+      return this;
+    }
+
+    /**
+     * Move the work of capturing response bodies off the threads reading them with
+     * {@link ResponseCaptureConfig#createOffThread()}, at the risk of truncating bodies which
+     * are read very quickly.  By default {@link ResponseCaptureConfig#createDefault()} is used.
+     */
+    public InitializerBuilder responseCapture(ResponseCaptureConfig config) {
+      mResponseCaptureConfig = Util.throwIfNull(config);
+      return this;
+    }
+
+    /**
+     * Sample or filter the requests captured, for instance to leave out high volume endpoints
+     * with a {@link RuleBasedCapturePolicy}.  By default every request is captured in full.
+     */
+    public InitializerBuilder networkCapturePolicy(NetworkCapturePolicy policy) {
+      mNetworkCapturePolicy = Util.throwIfNull(policy);
+      return this;
+    }
+
     public Initializer build() {
       return new BuilderBasedInitializer(this);
     }
@@ -511,11 +743,29 @@ public class Stetho {
   private static class BuilderBasedInitializer extends Initializer {
     @Nullable private final DumperPluginsProvider mDumperPlugins;
     @Nullable private final InspectorModulesProvider mInspectorModules;
+    private final Map<String, WorkerPoolConfig> mWorkerPoolConfigs;
+    private final Map<String, Integer> mEventLoopThreadCounts;
+    @Nullable private final WriteQueueConfig mWebSocketWriteQueueConfig;
+    @Nullable private final CompressionConfig mWebSocketCompressionConfig;
+    @Nullable private final NetworkEventCoalescingConfig mNetworkEventCoalescingConfig;
+    @Nullable private final ResponseBodyStoreConfig mResponseBodyStoreConfig;
+    @Nullable private final RequestBodyCaptureConfig mRequestBodyCaptureConfig;
+    @Nullable private final ResponseCaptureConfig mResponseCaptureConfig;
+    @Nullable private final NetworkCapturePolicy mNetworkCapturePolicy;
 
     private BuilderBasedInitializer(InitializerBuilder b) {
       super(b.mContext);
       mDumperPlugins = b.mDumperPlugins;
       mInspectorModules = b.mInspectorModules;
+      mWorkerPoolConfigs = new HashMap<>(b.mWorkerPoolConfigs);
+      mEventLoopThreadCounts = new HashMap<>(b.mEventLoopThreadCounts);
+      mWebSocketWriteQueueConfig = b.mWebSocketWriteQueueConfig;
+      mWebSocketCompressionConfig = b.mWebSocketCompressionConfig;
+      mNetworkEventCoalescingConfig = b.mNetworkEventCoalescingConfig;
+      mResponseBodyStoreConfig = b.mResponseBodyStoreConfig;
+      mRequestBodyCaptureConfig = b.mRequestBodyCaptureConfig;
+      mResponseCaptureConfig = b.mResponseCaptureConfig;
+      mNetworkCapturePolicy = b.mNetworkCapturePolicy;
     }
 
     @Nullable
@@ -529,5 +779,66 @@ public class Stetho {
     protected Iterable<ChromeDevtoolsDomain> getInspectorModules() {
       return mInspectorModules != null ? mInspectorModules.get() : null;
     }
+
+    @Override
+    protected WorkerPoolConfig getWorkerPoolConfig(String serverName) {
+      WorkerPoolConfig config = mWorkerPoolConfigs.get(serverName);
+      return config != null ? config : super.getWorkerPoolConfig(serverName);
+    }
+
+    @Override
+    protected int getEventLoopThreadCount(String serverName) {
+      Integer loopThreads = mEventLoopThreadCounts.get(serverName);
+      return loopThreads != null ? loopThreads : super.getEventLoopThreadCount(serverName);
+    }
+
+    @Override
+    protected WriteQueueConfig getWebSocketWriteQueueConfig() {
+      return mWebSocketWriteQueueConfig != null ?
+          mWebSocketWriteQueueConfig :
+          super.getWebSocketWriteQueueConfig();
+    }
+
+    @Override
+    protected CompressionConfig getWebSocketCompressionConfig() {
+      return mWebSocketCompressionConfig != null ?
+          mWebSocketCompressionConfig :
+          super.getWebSocketCompressionConfig();
+    }
+
+    @Override
+    protected NetworkEventCoalescingConfig getNetworkEventCoalescingConfig() {
+      return mNetworkEventCoalescingConfig != null ?
+          mNetworkEventCoalescingConfig :
+          super.getNetworkEventCoalescingConfig();
+    }
+
+    @Override
+    protected ResponseBodyStoreConfig getResponseBodyStoreConfig() {
+      return mResponseBodyStoreConfig != null ?
+          mResponseBodyStoreConfig :
+          super.getResponseBodyStoreConfig();
+    }
+
+    @Override
+    protected RequestBodyCaptureConfig getRequestBodyCaptureConfig() {
+      return mRequestBodyCaptureConfig != null ?
+          mRequestBodyCaptureConfig :
+          super.getRequestBodyCaptureConfig();
+    }
+
+    @Override
+    protected ResponseCaptureConfig getResponseCaptureConfig() {
+      return mResponseCaptureConfig != null ?
+          mResponseCaptureConfig :
+          super.getResponseCaptureConfig();
+    }
+
+    @Override
+    protected NetworkCapturePolicy getNetworkCapturePolicy() {
+      return mNetworkCapturePolicy != null ?
+          mNetworkCapturePolicy :
+          super.getNetworkCapturePolicy();
+    }
   }
 }
@@ -13,8 +13,8 @@ import com.facebook.stetho.server.SocketLike;
 import com.facebook.stetho.server.SocketLikeHandler;
 import com.facebook.stetho.server.http.ExactPathMatcher;
 import com.facebook.stetho.server.http.HandlerRegistry;
-import com.facebook.stetho.server.http.HttpHandler;
 import com.facebook.stetho.server.http.HttpStatus;
+import com.facebook.stetho.server.http.LazyUriHttpHandler;
 import com.facebook.stetho.server.http.LightHttpBody;
 import com.facebook.stetho.server.http.LightHttpRequest;
 import com.facebook.stetho.server.http.LightHttpResponse;
@@ -53,7 +53,7 @@ public class DumpappHttpSocketLikeHandler implements SocketLikeHandler {
     mServer.serve(socket);
   }
 
-  private static class DumpappLegacyHttpHandler implements HttpHandler {
+  private static class DumpappLegacyHttpHandler implements LazyUriHttpHandler {
     private static final String QUERY_PARAM_ARGV = "argv";
     private static final String RESPONSE_HEADER_ALLOW_ORIGIN = "Access-Control-Allow-Origin";
     private static final String CONTENT_TYPE = "application/octet-stream";
@@ -73,7 +73,7 @@ public class DumpappHttpSocketLikeHandler implements SocketLikeHandler {
       boolean getMethod = !postMethod && "GET".equals(request.method);
 
       if (getMethod || postMethod) {
-        List<String> argv = request.uri.getQueryParameters(QUERY_PARAM_ARGV);
+        List<String> argv = request.getUri().getQueryParameters(QUERY_PARAM_ARGV);
 
         ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
         Framer framer = new Framer(
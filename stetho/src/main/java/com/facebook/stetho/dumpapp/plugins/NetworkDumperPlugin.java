@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.dumpapp.plugins;
+
+import com.facebook.stetho.dumpapp.ArgsHelper;
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy;
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy.Capture;
+import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
+import com.facebook.stetho.inspector.network.RuleBasedCapturePolicy;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Shows how many requests the {@link NetworkCapturePolicy} has captured or skipped while
+ * DevTools was attached, both overall and for each rule of a {@link RuleBasedCapturePolicy}.
+ */
+public class NetworkDumperPlugin implements DumperPlugin {
+  private static final String NAME = "network";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void dump(DumperContext dumpContext) throws DumpException {
+    PrintStream writer = dumpContext.getStdout();
+    Iterator<String> argsIter = dumpContext.getArgsAsList().iterator();
+
+    String command = ArgsHelper.nextOptionalArg(argsIter, null);
+    if ("stats".equals(command)) {
+      doStats(writer);
+    } else if ("reset".equals(command)) {
+      doReset();
+    } else {
+      doUsage(writer);
+      if (command != null) {
+        throw new DumpUsageException("Unsupported command: " + command);
+      }
+    }
+  }
+
+  private void doStats(PrintStream writer) {
+    NetworkCapturePolicy policy = NetworkEventReporterImpl.getCapturePolicy();
+    writer.println("Policy: " + policy);
+    writer.println();
+    printCounts(writer, "Total", new Counts() {
+      @Override
+      public long get(Capture capture) {
+        return NetworkEventReporterImpl.getCaptureCount(capture);
+      }
+    });
+    if (policy instanceof RuleBasedCapturePolicy) {
+      for (final RuleBasedCapturePolicy.Rule rule : ((RuleBasedCapturePolicy) policy).getRules()) {
+        printCounts(writer, "Rule " + rule.name, new Counts() {
+          @Override
+          public long get(Capture capture) {
+            return rule.getCount(capture);
+          }
+        });
+      }
+    }
+  }
+
+  private static void printCounts(PrintStream writer, String label, Counts counts) {
+    writer.println(label + ":");
+    for (Capture capture : Capture.values()) {
+      writer.println("  " + capture.name().toLowerCase(Locale.US) + ": " + counts.get(capture));
+    }
+  }
+
+  private void doReset() {
+    NetworkEventReporterImpl.resetCaptureCounts();
+    NetworkCapturePolicy policy = NetworkEventReporterImpl.getCapturePolicy();
+    if (policy instanceof RuleBasedCapturePolicy) {
+      for (RuleBasedCapturePolicy.Rule rule : ((RuleBasedCapturePolicy) policy).getRules()) {
+        rule.resetCounts();
+      }
+    }
+  }
+
+  private static void doUsage(PrintStream writer) {
+    final String cmdName = "dumpapp " + NAME;
+
+    String usagePrefix = "Usage: " + cmdName + " ";
+    String blankPrefix = "       " + cmdName + " ";
+    writer.println(usagePrefix + "<command>");
+    writer.println(usagePrefix + "stats");
+    writer.println(blankPrefix + "reset");
+    writer.println();
+    writer.println(cmdName + " stats: Show requests captured or skipped per capture rule");
+    writer.println();
+    writer.println(cmdName + " reset: Reset all counters");
+  }
+
+  private interface Counts {
+    long get(Capture capture);
+  }
+}
@@ -9,7 +9,10 @@
 
 package com.facebook.stetho.inspector;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
+import java.nio.channels.NotYetConnectedException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -20,6 +23,7 @@ import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
 import com.facebook.stetho.inspector.jsonrpc.PendingRequest;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
@@ -52,6 +56,9 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
   public ChromeDevtoolsServer(Iterable<ChromeDevtoolsDomain> domainModules) {
     mObjectMapper = new ObjectMapper();
     mMethodDispatcher = new MethodDispatcher(mObjectMapper, domainModules);
+    // We are created when Chrome first polls for pages to inspect, usually well before anyone
+    // opens DevTools.
+    mMethodDispatcher.prepareInBackground();
   }
 
   @Override
@@ -116,40 +123,44 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
     }
   }
 
-  private void handleRemoteRequest(JsonRpcPeer peer, JSONObject requestNode)
+  private void handleRemoteRequest(final JsonRpcPeer peer, JSONObject requestNode)
       throws MessageHandlingException {
     JsonRpcRequest request;
     request = mObjectMapper.convertValue(
         requestNode,
         JsonRpcRequest.class);
 
-    JSONObject result = null;
-    JSONObject error = null;
-    try {
-      result = mMethodDispatcher.dispatch(peer,
-          request.method,
-          request.params);
-    } catch (JsonRpcException e) {
-      logDispatchException(e);
-      error = mObjectMapper.convertValue(e.getErrorMessage(), JSONObject.class);
+    final Long requestId = request.id;
+    mMethodDispatcher.dispatch(peer,
+        request.method,
+        request.params,
+        new MethodDispatcher.DispatchCallback() {
+          @Override
+          public void onSuccess(@Nullable JsonRpcResult result) {
+            sendResponse(peer, requestId, result, null /* error */);
+          }
+
+          @Override
+          public void onFailure(JsonRpcException e) {
+            logDispatchException(e);
+            sendResponse(peer, requestId, null /* result */, e.getErrorMessage());
+          }
+        });
+  }
+
+  private static void sendResponse(
+      JsonRpcPeer peer,
+      @Nullable Long requestId,
+      @Nullable JsonRpcResult result,
+      @Nullable JsonRpcError error) {
+    if (requestId == null) {
+      return;
     }
-    if (request.id != null) {
-      JsonRpcResponse response = new JsonRpcResponse();
-      response.id = request.id;
-      response.result = result;
-      response.error = error;
-      JSONObject jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-      String responseString;
-      try {
-        responseString = jsonObject.toString();
-      } catch (OutOfMemoryError e) {
-        // JSONStringer can cause an OOM when the Json to handle is too big.
-        response.result = null;
-        response.error = mObjectMapper.convertValue(e.getMessage(), JSONObject.class);
-        jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-        responseString = jsonObject.toString();
-      }
-      peer.getWebSocket().sendText(responseString);
+    try {
+      peer.sendResponse(requestId, result, error);
+    } catch (NotYetConnectedException e) {
+      // An asynchronous method finished after the peer went away.
+      LogRedirector.d(TAG, "Dropping response to request " + requestId + ": " + e);
     }
   }
 
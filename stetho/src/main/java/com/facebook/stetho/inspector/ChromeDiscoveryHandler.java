@@ -16,8 +16,8 @@ import android.net.Uri;
 import com.facebook.stetho.common.ProcessUtil;
 import com.facebook.stetho.server.http.ExactPathMatcher;
 import com.facebook.stetho.server.http.HandlerRegistry;
-import com.facebook.stetho.server.http.HttpHandler;
 import com.facebook.stetho.server.http.HttpStatus;
+import com.facebook.stetho.server.http.LazyUriHttpHandler;
 import com.facebook.stetho.server.SocketLike;
 import com.facebook.stetho.server.http.LightHttpBody;
 import com.facebook.stetho.server.http.LightHttpRequest;
@@ -34,7 +34,7 @@ import javax.annotation.Nullable;
  * as defined in {@link LocalSocketHttpServer}.  After discovery, we're required to provide
  * some context on how exactly to display and inspect what we have.
  */
-public class ChromeDiscoveryHandler implements HttpHandler {
+public class ChromeDiscoveryHandler implements LazyUriHttpHandler {
   private static final String PAGE_ID = "1";
 
   private static final String PATH_PAGE_LIST = "/json";
@@ -73,7 +73,7 @@ public class ChromeDiscoveryHandler implements HttpHandler {
 
   @Override
   public boolean handleRequest(SocketLike socket, LightHttpRequest request, LightHttpResponse response) {
-    String path = request.uri.getPath();
+    String path = request.getPath();
     try {
       if (PATH_VERSION.equals(path)) {
         handleVersion(response);
@@ -12,24 +12,44 @@ package com.facebook.stetho.inspector;
 import android.content.Context;
 import android.net.LocalSocket;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.server.EventLoopHandler;
+import com.facebook.stetho.server.EventLoopHandlerFactory;
 import com.facebook.stetho.server.SecureSocketHandler;
 import com.facebook.stetho.server.SocketLike;
 import com.facebook.stetho.server.SocketLikeHandler;
 import com.facebook.stetho.server.http.ExactPathMatcher;
 import com.facebook.stetho.server.http.HandlerRegistry;
 import com.facebook.stetho.server.http.LightHttpServer;
+import com.facebook.stetho.websocket.CompressionConfig;
 import com.facebook.stetho.websocket.WebSocketHandler;
+import com.facebook.stetho.websocket.WriteQueueConfig;
 
 import java.io.IOException;
 
-public class DevtoolsSocketHandler implements SocketLikeHandler {
+public class DevtoolsSocketHandler implements SocketLikeHandler, EventLoopHandlerFactory {
   private final Context mContext;
   private final Iterable<ChromeDevtoolsDomain> mModules;
+  private final WriteQueueConfig mWriteQueueConfig;
+  private final CompressionConfig mCompressionConfig;
   private final LightHttpServer mServer;
 
   public DevtoolsSocketHandler(Context context, Iterable<ChromeDevtoolsDomain> modules) {
+    this(
+        context,
+        modules,
+        WriteQueueConfig.createDefault(),
+        CompressionConfig.createDefault());
+  }
+
+  public DevtoolsSocketHandler(
+      Context context,
+      Iterable<ChromeDevtoolsDomain> modules,
+      WriteQueueConfig writeQueueConfig,
+      CompressionConfig compressionConfig) {
     mContext = context;
     mModules = modules;
+    mWriteQueueConfig = writeQueueConfig;
+    mCompressionConfig = compressionConfig;
     mServer = createServer();
   }
 
@@ -42,7 +62,10 @@ public class DevtoolsSocketHandler implements SocketLikeHandler {
     discoveryHandler.register(registry);
     registry.register(
         new ExactPathMatcher(ChromeDevtoolsServer.PATH),
-        new WebSocketHandler(new ChromeDevtoolsServer(mModules)));
+        new WebSocketHandler(
+            new ChromeDevtoolsServer(mModules),
+            mWriteQueueConfig,
+            mCompressionConfig));
 
     return new LightHttpServer(registry);
   }
@@ -51,4 +74,9 @@ public class DevtoolsSocketHandler implements SocketLikeHandler {
   public void onAccepted(SocketLike socket) throws IOException {
     mServer.serve(socket);
   }
+
+  @Override
+  public EventLoopHandler createEventLoopHandler() {
+    return mServer.createEventLoopHandler();
+  }
 }
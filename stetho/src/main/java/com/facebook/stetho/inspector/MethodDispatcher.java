@@ -15,16 +15,23 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.facebook.stetho.common.ExceptionUtil;
+import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
-import com.facebook.stetho.inspector.jsonrpc.protocol.EmptyResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
@@ -33,10 +40,42 @@ import com.facebook.stetho.json.ObjectMapper;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+/**
+ * Routes JSON-RPC requests to the {@link ChromeDevtoolsMethod}s of the registered domains.
+ * <p>
+ * Methods are found by reflection, once per dispatcher, and every call is still made through
+ * {@link Method#invoke}; nothing is generated at build time.  What is kept off the request path
+ * is building the table (see {@link #prepareInBackground}) and any locking to look it up.
+ */
 @ThreadSafe
 public class MethodDispatcher {
-  @GuardedBy("this")
-  private Map<String, MethodDispatchHelper> mMethods;
+  private static final String TAG = "MethodDispatcher";
+  private static final String ASYNC_THREAD_NAME = "StethoAsyncMethod";
+  private static final int ASYNC_IDLE_TIMEOUT_MS = 30000;
+
+  /**
+   * Runs {@link ChromeDevtoolsMethod#async()} methods for all domains; a thread is only held
+   * while some call is in progress.
+   */
+  private static final Executor sAsyncExecutor = new ThreadPoolExecutor(
+      0,
+      Integer.MAX_VALUE,
+      ASYNC_IDLE_TIMEOUT_MS,
+      TimeUnit.MILLISECONDS,
+      new SynchronousQueue<Runnable>(),
+      new AsyncThreadFactory());
+
+  public interface DispatchCallback {
+    void onSuccess(@Nullable JsonRpcResult result);
+
+    void onFailure(JsonRpcException e);
+  }
+
+  /**
+   * Built once and then only read, so lookups need no lock.
+   */
+  @Nullable
+  private volatile Map<String, MethodDispatchHelper> mMethods;
 
   private final ObjectMapper mObjectMapper;
   private final Iterable<ChromeDevtoolsDomain> mDomainHandlers;
@@ -48,21 +87,93 @@ public class MethodDispatcher {
     mDomainHandlers = domainHandlers;
   }
 
-  private synchronized MethodDispatchHelper findMethodDispatcher(String methodName) {
+  /**
+   * Build the dispatch table on a background thread, so that the reflection it requires is
+   * already done by the time the first request arrives.
+   */
+  public void prepareInBackground() {
+    sAsyncExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        getDispatchTable();
+      }
+    });
+  }
+
+  @Nullable
+  private MethodDispatchHelper findMethodDispatcher(String methodName) {
+    Map<String, MethodDispatchHelper> methods = mMethods;
+    if (methods == null) {
+      methods = getDispatchTable();
+    }
+    return methods.get(methodName);
+  }
+
+  private synchronized Map<String, MethodDispatchHelper> getDispatchTable() {
     if (mMethods == null) {
       mMethods = buildDispatchTable(mObjectMapper, mDomainHandlers);
     }
-    return mMethods.get(methodName);
+    return mMethods;
   }
 
-  public JSONObject dispatch(JsonRpcPeer peer, String methodName, @Nullable JSONObject params)
-      throws JsonRpcException {
-    MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
+  /**
+   * Invoke a method and report its outcome to {@code callback}, which happens before returning
+   * unless the method is {@link ChromeDevtoolsMethod#async()}.  Unchecked exceptions thrown by
+   * a synchronous method propagate to the caller as always; for an asynchronous method they are
+   * logged and reported as an internal error.
+   */
+  public void dispatch(
+      final JsonRpcPeer peer,
+      final String methodName,
+      @Nullable final JSONObject params,
+      final DispatchCallback callback) {
+    final MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
     if (dispatchHelper == null) {
-      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
-          "Not implemented: " + methodName,
-          null /* data */));
+      callback.onFailure(
+          new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
+              "Not implemented: " + methodName,
+              null /* data */)));
+      return;
+    }
+    if (dispatchHelper.asyncExecutor == null) {
+      JsonRpcResult result;
+      try {
+        result = invoke(dispatchHelper, peer, params);
+      } catch (JsonRpcException e) {
+        callback.onFailure(e);
+        return;
+      }
+      callback.onSuccess(result);
+      return;
     }
+    dispatchHelper.asyncExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        JsonRpcResult result;
+        try {
+          result = invoke(dispatchHelper, peer, params);
+        } catch (JsonRpcException e) {
+          callback.onFailure(e);
+          return;
+        } catch (RuntimeException e) {
+          LogRedirector.e(TAG, "Unexpected exception in " + methodName, e);
+          callback.onFailure(
+              new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+                  e.toString(),
+                  null /* data */)));
+          return;
+        }
+        callback.onSuccess(result);
+      }
+    });
+  }
+
+  @Nullable
+  private static JsonRpcResult invoke(
+      MethodDispatchHelper dispatchHelper,
+      JsonRpcPeer peer,
+      @Nullable JSONObject params)
+      throws JsonRpcException {
     try {
       return dispatchHelper.invoke(peer, params);
     } catch (InvocationTargetException e) {
@@ -78,28 +189,34 @@ public class MethodDispatcher {
     }
   }
 
+  /**
+   * A {@link ChromeDevtoolsMethod} bound to its domain, invoked reflectively.
+   */
   private static class MethodDispatchHelper {
-    private final ObjectMapper mObjectMapper;
     private final ChromeDevtoolsDomain mInstance;
     private final Method mMethod;
 
-    public MethodDispatchHelper(ObjectMapper objectMapper,
+    /**
+     * Serial executor shared by the domain's asynchronous methods, or null if this method is
+     * invoked synchronously.
+     */
+    @Nullable public final Executor asyncExecutor;
+
+    public MethodDispatchHelper(
         ChromeDevtoolsDomain instance,
-        Method method) {
-      mObjectMapper = objectMapper;
+        Method method,
+        @Nullable Executor asyncExecutor) {
       mInstance = instance;
       mMethod = method;
+      // Skips the access check otherwise made by every invoke.
+      mMethod.setAccessible(true);
+      this.asyncExecutor = asyncExecutor;
     }
 
-    public JSONObject invoke(JsonRpcPeer peer, @Nullable JSONObject params)
+    @Nullable
+    public JsonRpcResult invoke(JsonRpcPeer peer, @Nullable JSONObject params)
         throws InvocationTargetException, IllegalAccessException, JSONException, JsonRpcException {
-      Object internalResult = mMethod.invoke(mInstance, peer, params);
-      if (internalResult == null || internalResult instanceof EmptyResult) {
-        return new JSONObject();
-      } else {
-        JsonRpcResult convertableResult = (JsonRpcResult)internalResult;
-        return mObjectMapper.convertValue(convertableResult, JSONObject.class);
-      }
+      return (JsonRpcResult) mMethod.invoke(mInstance, peer, params);
     }
   }
 
@@ -111,13 +228,20 @@ public class MethodDispatcher {
     for (ChromeDevtoolsDomain domainHandler : Util.throwIfNull(domainHandlers)) {
       Class<?> handlerClass = domainHandler.getClass();
       String domainName = handlerClass.getSimpleName();
+      Executor domainExecutor = null;
 
       for (Method method : handlerClass.getDeclaredMethods()) {
-        if (isDevtoolsMethod(method)) {
-          MethodDispatchHelper dispatchHelper = new MethodDispatchHelper(
-              objectMapper,
-              domainHandler,
-              method);
+        ChromeDevtoolsMethod annotation = getDevtoolsMethodAnnotation(method);
+        if (annotation != null) {
+          Executor asyncExecutor = null;
+          if (annotation.async()) {
+            if (domainExecutor == null) {
+              domainExecutor = new SerialExecutor(sAsyncExecutor);
+            }
+            asyncExecutor = domainExecutor;
+          }
+          MethodDispatchHelper dispatchHelper =
+              new MethodDispatchHelper(domainHandler, method, asyncExecutor);
           methods.put(domainName + "." + method.getName(), dispatchHelper);
         }
       }
@@ -129,12 +253,16 @@ public class MethodDispatcher {
    * Determines if the method is a {@link ChromeDevtoolsMethod}, and validates accordingly
    * if it is.
    *
+   * @return The method's annotation, or null if it is not a {@link ChromeDevtoolsMethod}.
    * @throws IllegalArgumentException Thrown if it is a {@link ChromeDevtoolsMethod} but
    *     it otherwise fails to satisfy requirements.
    */
-  private static boolean isDevtoolsMethod(Method method) throws IllegalArgumentException {
-    if (!method.isAnnotationPresent(ChromeDevtoolsMethod.class)) {
-      return false;
+  @Nullable
+  private static ChromeDevtoolsMethod getDevtoolsMethodAnnotation(Method method)
+      throws IllegalArgumentException {
+    ChromeDevtoolsMethod annotation = method.getAnnotation(ChromeDevtoolsMethod.class);
+    if (annotation == null) {
+      return null;
     } else {
       Class<?> args[] = method.getParameterTypes();
       String methodName = method.getDeclaringClass().getSimpleName() + "." + method.getName();
@@ -158,7 +286,81 @@ public class MethodDispatcher {
             methodName,
             returnType.getName());
       }
-      return true;
+      return annotation;
+    }
+  }
+
+  /**
+   * Runs tasks one at a time, in submission order, on an underlying executor.
+   */
+  @ThreadSafe
+  private static class SerialExecutor implements Executor {
+    private final Executor mExecutor;
+
+    @GuardedBy("this")
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+    @GuardedBy("this")
+    private boolean mRunning;
+
+    public SerialExecutor(Executor executor) {
+      mExecutor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+      mTasks.addLast(task);
+      if (!mRunning) {
+        mRunning = true;
+        mExecutor.execute(mDrainRunnable);
+      }
+    }
+
+    private final Runnable mDrainRunnable = new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          Runnable task;
+          synchronized (SerialExecutor.this) {
+            task = mTasks.pollFirst();
+            if (task == null) {
+              mRunning = false;
+              return;
+            }
+          }
+          boolean completed = false;
+          try {
+            task.run();
+            completed = true;
+          } catch (RuntimeException e) {
+            LogRedirector.e(TAG, "Unexpected exception in asynchronous method", e);
+            completed = true;
+          } finally {
+            if (!completed) {
+              // An Error is killing this thread; carry on with the rest on another.
+              synchronized (SerialExecutor.this) {
+                mRunning = false;
+                if (!mTasks.isEmpty()) {
+                  mRunning = true;
+                  mExecutor.execute(mDrainRunnable);
+                }
+              }
+            }
+          }
+        }
+      }
+    };
+  }
+
+  private static class AsyncThreadFactory implements ThreadFactory {
+    private final AtomicInteger mThreadId = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName(ASYNC_THREAD_NAME + "-" + mThreadId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
     }
   }
 }
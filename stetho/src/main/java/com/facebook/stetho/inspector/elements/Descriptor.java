@@ -37,6 +37,15 @@ public abstract class Descriptor<E> implements NodeDescriptor<E> {
     return mHost;
   }
 
+  /**
+   * Report that {@code element}'s children may have changed, if the host can make use of it.
+   */
+  protected final void notifyChildrenPossiblyChanged(Object element) {
+    if (mHost instanceof ChildrenObservingHost) {
+      ((ChildrenObservingHost) mHost).onChildrenPossiblyChanged(element);
+    }
+  }
+
   @Override
   public final boolean checkThreadAccess() {
     return getHost().checkThreadAccess();
@@ -115,4 +124,16 @@ public abstract class Descriptor<E> implements NodeDescriptor<E> {
         Object element,
         String name);
   }
+
+  /**
+   * A {@link Host} which can re-read just the part of the tree that changed.  Descriptors that
+   * can observe such changes should report them with
+   * {@link Descriptor#notifyChildrenPossiblyChanged}, which checks for this interface.
+   */
+  public interface ChildrenObservingHost extends Host {
+    /**
+     * Report that {@code element}'s children may have changed.
+     */
+    public void onChildrenPossiblyChanged(Object element);
+  }
 }
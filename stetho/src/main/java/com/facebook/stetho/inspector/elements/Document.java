@@ -22,19 +22,36 @@ import javax.annotation.concurrent.GuardedBy;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public final class Document extends ThreadBoundProxy {
+  /**
+   * Longest that walking the tree for an update may hold up the {@link DocumentProvider}'s thread
+   * (the main thread, on Android) before yielding it for about a frame, so that a large tree
+   * doesn't make the app being inspected drop frames.
+   */
+  private static final long UPDATE_SLICE_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+  private static final long UPDATE_SLICE_INTERVAL_MS = 16;
+
   private final DocumentProviderFactory mFactory;
   private final ObjectIdMapper mObjectIdMapper;
   private final Queue<Object> mCachedUpdateQueue;
+  private final Set<Object> mPendingChangedElements;
+  private final SearchTextCache mSearchTextCache;
 
   private DocumentProvider mDocumentProvider;
   private ShadowDocument mShadowDocument;
+  private @Nullable UpdateTreeTask mUpdateTreeTask;
+  private boolean mIsFullUpdatePending;
   private UpdateListenerCollection mUpdateListeners;
   private ChildEventingList mCachedChildEventingList;
   private ArrayListAccumulator<Object> mCachedChildrenAccumulator;
@@ -51,6 +68,8 @@ public final class Document extends ThreadBoundProxy {
     mReferenceCounter = 0;
     mUpdateListeners = new UpdateListenerCollection();
     mCachedUpdateQueue = new ArrayDeque<>();
+    mPendingChangedElements = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    mSearchTextCache = new SearchTextCache();
   }
 
   public synchronized void addRef() {
@@ -74,11 +93,16 @@ public final class Document extends ThreadBoundProxy {
       @Override
       public void run() {
         mShadowDocument = new ShadowDocument(mDocumentProvider.getRootElement());
-        createShadowDocumentUpdate().commit();
+        // Walked in one pass: we're holding our lock until it's done, and the peer can't do
+        // anything with the document until then anyway.
+        mUpdateTreeTask = new UpdateTreeTask(
+            null /* changedElements */,
+            false /* isSliced */,
+            true /* isInitial */);
+        mUpdateTreeTask.run();
         mDocumentProvider.setListener(new ProviderListener());
       }
     });
-
   }
 
   private void cleanUp() {
@@ -86,6 +110,13 @@ public final class Document extends ThreadBoundProxy {
       @Override
       public void run() {
         mDocumentProvider.setListener(null);
+        if (mUpdateTreeTask != null) {
+          mUpdateTreeTask.cancel();
+          mUpdateTreeTask = null;
+        }
+        mIsFullUpdatePending = false;
+        mPendingChangedElements.clear();
+        mSearchTextCache.clear();
         mShadowDocument = null;
         mObjectIdMapper.clear();
         mDocumentProvider.dispose();
@@ -190,44 +221,89 @@ public final class Document extends ThreadBoundProxy {
     return rootElement;
   }
 
-  public void findMatchingElements(String query, Accumulator<Integer> matchedIds) {
-    verifyThreadAccess();
-
-    final Pattern queryPattern = Pattern.compile(Pattern.quote(query), Pattern.CASE_INSENSITIVE);
-    final Object rootElement = mDocumentProvider.getRootElement();
+  /**
+   * Case-insensitively match {@code query} against the node name and attributes of every element
+   * but the root. This may be called from any thread; only the first search needs this one, to
+   * fill the {@link SearchTextCache} which is then kept up to date with the tree.
+   *
+   * @return The IDs of the matching elements, in document order.
+   */
+  public List<Integer> findMatchingElements(String query) {
+    if (!mSearchTextCache.isEnabled()) {
+      postAndWait(new Runnable() {
+        @Override
+        public void run() {
+          buildSearchTextCache();
+        }
+      });
+    }
 
-    findMatches(rootElement, queryPattern, matchedIds);
+    return mSearchTextCache.search(query);
   }
 
-  private void findMatches(Object element, Pattern queryPattern, Accumulator<Integer> matchedIds) {
-    final ElementInfo info = mShadowDocument.getElementInfo(element);
+  private void buildSearchTextCache() {
+    if (mSearchTextCache.isEnabled()) {
+      return;
+    }
 
-    for (int i = 0, size = info.children.size(); i < size; i++) {
-      final Object childElement = info.children.get(i);
+    mSearchTextCache.setEnabled();
+    updateSearchTextCache(true /* refreshText */);
+  }
 
-      if (doesElementMatch(childElement, queryPattern)) {
-        matchedIds.store(mObjectIdMapper.getIdForObject(childElement));
+  /**
+   * Gives the {@link SearchTextCache} the document order of the elements, as found in the
+   * {@link ShadowDocument} rather than by asking the elements themselves, and with
+   * {@code refreshText} asks them for their text again as well.
+   */
+  private void updateSearchTextCache(boolean refreshText) {
+    final Object rootElement = mShadowDocument.getRootElement();
+    int[] nodeIds = new int[64];
+    int size = 0;
+
+    // Not mCachedUpdateQueue, which may be holding a sliced update's place.
+    final ArrayDeque<Object> stack = new ArrayDeque<>();
+    stack.push(rootElement);
+    while (!stack.isEmpty()) {
+      final Object element = stack.pop();
+      if (element != rootElement) {
+        Integer nodeId = mObjectIdMapper.getIdForObject(element);
+        if (nodeId != null) {
+          if (size == nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, size * 2);
+          }
+          nodeIds[size++] = nodeId;
+          if (refreshText) {
+            updateSearchText(element);
+          }
+        }
       }
 
-      findMatches(childElement, queryPattern, matchedIds);
+      List<Object> children = mShadowDocument.getElementInfo(element).children;
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.push(children.get(i));
+      }
     }
+
+    mSearchTextCache.setDocumentOrder(nodeIds, size);
   }
 
-  private boolean doesElementMatch(Object element, Pattern queryPattern) {
+  private void updateSearchText(Object element) {
+    if (!mSearchTextCache.isEnabled() || element == mShadowDocument.getRootElement()) {
+      return;
+    }
+
+    Integer nodeId = mObjectIdMapper.getIdForObject(element);
+    if (nodeId == null) {
+      return;
+    }
+
     AttributeListAccumulator accumulator = acquireCachedAttributeAccumulator();
     NodeDescriptor descriptor = mDocumentProvider.getNodeDescriptor(element);
 
     descriptor.getAttributes(element, accumulator);
-
-    for (int i = 0, N = accumulator.size(); i < N; i++) {
-      if (queryPattern.matcher(accumulator.get(i)).find()) {
-        releaseCachedAttributeAccumulator(accumulator);
-        return true;
-      }
-    }
+    mSearchTextCache.put(nodeId, descriptor.getNodeName(element), accumulator);
 
     releaseCachedAttributeAccumulator(accumulator);
-    return queryPattern.matcher(descriptor.getNodeName(element)).find();
   }
 
   private ChildEventingList acquireChildEventingList(
@@ -259,7 +335,7 @@ public final class Document extends ThreadBoundProxy {
       accumulator = new AttributeListAccumulator();
     }
 
-    mCachedChildrenAccumulator = null;
+    mCachedAttributeAccumulator = null;
 
     return accumulator;
   }
@@ -288,28 +364,190 @@ public final class Document extends ThreadBoundProxy {
     }
   }
 
-  private ShadowDocument.Update createShadowDocumentUpdate() {
-    verifyThreadAccess();
+  /**
+   * Reduce {@code changedElements} to those in the tree with no changed ancestor (whose
+   * sub-trees cover all the others), shallowest first so that the update is built top-down.
+   */
+  private List<Object> getChangedSubTreeRoots(List<Object> changedElements) {
+    final Map<Object, Integer> depths = new IdentityHashMap<>();
+    for (int i = 0, N = changedElements.size(); i < N; ++i) {
+      depths.put(changedElements.get(i), null);
+    }
 
-    if (mDocumentProvider.getRootElement() != mShadowDocument.getRootElement()) {
-      throw new IllegalStateException();
+    List<Object> roots = new ArrayList<>(changedElements.size());
+    for (int i = 0, N = changedElements.size(); i < N; ++i) {
+      final Object element = changedElements.get(i);
+      ElementInfo info = mShadowDocument.getElementInfo(element);
+      if (info == null) {
+        continue;
+      }
+
+      boolean hasChangedAncestor = false;
+      int depth = 0;
+      while (info != null && info.parentElement != null) {
+        if (depths.containsKey(info.parentElement)) {
+          hasChangedAncestor = true;
+          break;
+        }
+        info = mShadowDocument.getElementInfo(info.parentElement);
+        ++depth;
+      }
+
+      if (!hasChangedAncestor) {
+        depths.put(element, depth);
+        roots.add(element);
+      }
+    }
+
+    Collections.sort(roots, new Comparator<Object>() {
+      @Override
+      public int compare(Object lhs, Object rhs) {
+        return depths.get(lhs) - depths.get(rhs);
+      }
+    });
+    return roots;
+  }
+
+  private void updateTree(@Nullable List<Object> changedElements) {
+    if (mUpdateTreeTask != null) {
+      // Picked up once the update in progress has been applied.
+      if (changedElements == null) {
+        mIsFullUpdatePending = true;
+      } else {
+        mPendingChangedElements.addAll(changedElements);
+      }
+      return;
+    }
+
+    mUpdateTreeTask = new UpdateTreeTask(
+        changedElements,
+        true /* isSliced */,
+        false /* isInitial */);
+    mUpdateTreeTask.run();
+  }
+
+  private void startPendingUpdate() {
+    List<Object> changedElements;
+    if (mIsFullUpdatePending) {
+      changedElements = null;
+    } else if (!mPendingChangedElements.isEmpty()) {
+      changedElements = new ArrayList<>(mPendingChangedElements);
+    } else {
+      return;
+    }
+    mIsFullUpdatePending = false;
+    mPendingChangedElements.clear();
+
+    mUpdateTreeTask = new UpdateTreeTask(
+        changedElements,
+        true /* isSliced */,
+        false /* isInitial */);
+    mDocumentProvider.postDelayed(mUpdateTreeTask, UPDATE_SLICE_INTERVAL_MS);
+  }
+
+  /**
+   * Walks the tree breadth-first into a {@link ShadowDocument.UpdateBuilder}, either in its
+   * entirety or, given {@code changedElements}, just the sub-trees of those of them which are
+   * already in the {@link ShadowDocument}. Elements not yet in it can only have been added by a
+   * change to one of their ancestors, and will be reached from there.<p/>
+   *
+   * When sliced, the walk yields the thread whenever it has used up
+   * {@link #UPDATE_SLICE_BUDGET_NANOS}. The tree may change in the meantime, so before the update
+   * is applied (all at once), elements whose children have been taken by another element since
+   * they were walked are walked again, without yielding.
+   */
+  private final class UpdateTreeTask implements Runnable {
+    private final boolean mIsSliced;
+    private final boolean mIsIncremental;
+    private final boolean mIsInitial;
+    private final ShadowDocument.UpdateBuilder mUpdateBuilder;
+    private final ArrayListAccumulator<Object> mChildrenAccumulator;
+    private final Set<Object> mWalkedElements =
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final long mStartTimeMs;
+    private long mWalkTimeNanos;
+    private int mSliceCount;
+    private boolean mIsWalkingStaleElements;
+
+    private final Accumulator<Object> mStaleElementsAccumulator = new Accumulator<Object>() {
+      @Override
+      public void store(Object element) {
+        mCachedUpdateQueue.add(element);
+      }
+    };
+
+    /**
+     * @param isInitial Set for the update that fills an empty {@link ShadowDocument}, which is
+     *     committed without telling any listeners.
+     */
+    public UpdateTreeTask(
+        @Nullable List<Object> changedElements,
+        boolean isSliced,
+        boolean isInitial) {
+      verifyThreadAccess();
+
+      if (mDocumentProvider.getRootElement() != mShadowDocument.getRootElement()) {
+        throw new IllegalStateException();
+      }
+
+      mIsSliced = isSliced;
+      mIsIncremental = changedElements != null;
+      mIsInitial = isInitial;
+      mStartTimeMs = SystemClock.elapsedRealtime();
+      mChildrenAccumulator = acquireChildrenAccumulator();
+
+      mUpdateBuilder = mShadowDocument.beginUpdate();
+      if (changedElements == null) {
+        mCachedUpdateQueue.add(mDocumentProvider.getRootElement());
+      } else {
+        mCachedUpdateQueue.addAll(getChangedSubTreeRoots(changedElements));
+      }
     }
 
-    ArrayListAccumulator<Object> childrenAccumulator = acquireChildrenAccumulator();
+    @Override
+    public void run() {
+      verifyThreadAccess();
 
-    ShadowDocument.UpdateBuilder updateBuilder = mShadowDocument.beginUpdate();
-    mCachedUpdateQueue.add(mDocumentProvider.getRootElement());
+      final long sliceStartNanos = System.nanoTime();
+      ++mSliceCount;
 
-    while (!mCachedUpdateQueue.isEmpty()) {
-      final Object element = mCachedUpdateQueue.remove();
+      while (!mCachedUpdateQueue.isEmpty()) {
+        if (mIsSliced && System.nanoTime() - sliceStartNanos >= UPDATE_SLICE_BUDGET_NANOS) {
+          mWalkTimeNanos += System.nanoTime() - sliceStartNanos;
+          mDocumentProvider.postDelayed(this, UPDATE_SLICE_INTERVAL_MS);
+          return;
+        }
+        walkElement(mCachedUpdateQueue.remove());
+      }
+
+      if (mSliceCount > 1) {
+        // Nothing else can change the tree while we finish up here, so this settles.
+        mIsWalkingStaleElements = true;
+        mUpdateBuilder.getElementsWithStaleChildren(mStaleElementsAccumulator);
+        while (!mCachedUpdateQueue.isEmpty()) {
+          walkElement(mCachedUpdateQueue.remove());
+          if (mCachedUpdateQueue.isEmpty()) {
+            mUpdateBuilder.getElementsWithStaleChildren(mStaleElementsAccumulator);
+          }
+        }
+      }
+
+      mWalkTimeNanos += System.nanoTime() - sliceStartNanos;
+      finish();
+    }
+
+    private void walkElement(Object element) {
       NodeDescriptor descriptor = mDocumentProvider.getNodeDescriptor(element);
       mObjectIdMapper.putObject(element);
-      descriptor.getChildren(element, childrenAccumulator);
+      mWalkedElements.add(element);
+      descriptor.getChildren(element, mChildrenAccumulator);
 
-      for (int i = 0, size = childrenAccumulator.size(); i < size; ++i) {
-        Object child = childrenAccumulator.get(i);
+      for (int i = 0, size = mChildrenAccumulator.size(); i < size; ++i) {
+        Object child = mChildrenAccumulator.get(i);
         if (child != null) {
-          mCachedUpdateQueue.add(child);
+          if (!mWalkedElements.contains(child)) {
+            mCachedUpdateQueue.add(child);
+          }
         } else {
           // This could be indicative of a bug in Stetho code, but could also be caused by a
           // custom element of some kind, e.g. ViewGroup. Let's not allow it to kill the hosting
@@ -320,44 +558,65 @@ public final class Document extends ThreadBoundProxy {
               Integer.toString(i),
               element);
 
-          childrenAccumulator.remove(i);
+          mChildrenAccumulator.remove(i);
           --i;
           --size;
         }
       }
 
-      updateBuilder.setElementChildren(element, childrenAccumulator);
-      childrenAccumulator.clear();
+      if (mIsWalkingStaleElements) {
+        mUpdateBuilder.resetElementChildren(element, mChildrenAccumulator);
+      } else {
+        mUpdateBuilder.setElementChildren(element, mChildrenAccumulator);
+      }
+      mChildrenAccumulator.clear();
     }
 
-    releaseChildrenAccumulator(childrenAccumulator);
+    private void finish() {
+      mUpdateTreeTask = null;
+      releaseChildrenAccumulator(mChildrenAccumulator);
+
+      ShadowDocument.Update docUpdate = mUpdateBuilder.build();
+      boolean isEmpty = docUpdate.isEmpty();
+      if (mIsInitial) {
+        docUpdate.commit();
+      } else if (isEmpty) {
+        docUpdate.abandon();
+      } else {
+        applyDocumentUpdate(docUpdate);
+      }
 
-    return updateBuilder.build();
-  }
+      if (mSearchTextCache.isEnabled() && (!isEmpty || !mIsIncremental)) {
+        // Attributes can change without the provider telling us, so full updates, which it
+        // makes periodically, ask every element for its text again.
+        updateSearchTextCache(!mIsIncremental /* refreshText */);
+      }
 
-  private void updateTree() {
-    long startTimeMs = SystemClock.elapsedRealtime();
+      long deltaMs = SystemClock.elapsedRealtime() - mStartTimeMs;
+      LogUtil.d(
+          "Document.updateTree() completed in %s ms (%s ms walking in %s slices)%s%s",
+          Long.toString(deltaMs),
+          Long.toString(TimeUnit.NANOSECONDS.toMillis(mWalkTimeNanos)),
+          Integer.toString(mSliceCount),
+          mIsIncremental ? " (incremental)" : "",
+          isEmpty ? " (no changes)" : "");
 
-    ShadowDocument.Update docUpdate = createShadowDocumentUpdate();
-    boolean isEmpty = docUpdate.isEmpty();
-    if (isEmpty) {
-      docUpdate.abandon();
-    } else {
-      applyDocumentUpdate(docUpdate);
+      startPendingUpdate();
     }
 
-    long deltaMs = SystemClock.elapsedRealtime() - startTimeMs;
-    LogUtil.d(
-        "Document.updateTree() completed in %s ms%s",
-        Long.toString(deltaMs),
-        isEmpty ? " (no changes)" : "");
+    public void cancel() {
+      mDocumentProvider.removeCallbacks(this);
+      mCachedUpdateQueue.clear();
+      releaseChildrenAccumulator(mChildrenAccumulator);
+      mUpdateBuilder.build().abandon();
+    }
   }
 
   private void applyDocumentUpdate(final ShadowDocument.Update docUpdate) {
     // TODO: it'd be nice if we could delegate our calls into mPeerManager.sendNotificationToPeers()
     //       to a background thread so as to offload the UI from JSON serialization stuff
 
-    // Applying the ShadowDocument.Update is done in five stages:
+    // Applying the ShadowDocument.Update is done in six stages:
 
     // Stage 1: any elements that have been disconnected from the tree, and any elements in those
     // sub-trees which have not been reconnected to the tree, should be garbage collected. For now
@@ -365,8 +624,8 @@ public final class Document extends ThreadBoundProxy {
     // to see if it's also garbage. Then during stage 3 we use this list to unhook all of the
     // garbage elements.
 
-    // This is used to collect the garbage element IDs in stage 1. It is sorted before stage 2 so
-    // that it can use a binary search as a quick "contains()" method.
+    // This is used to collect the garbage element IDs in stage 1. It is sorted as soon as it is
+    // complete so that we can use a binary search as a quick "contains()" method.
     // Note that this could be accomplished in a simpler way by employing a HashSet<Object> and
     // storing the element Objects. However, HashSet wraps HashMap and we would have a lot more
     // allocations (Map.Entry, iterator during stage 3) and thus GC pressure.
@@ -379,22 +638,32 @@ public final class Document extends ThreadBoundProxy {
       @Override
       public void store(Object element) {
         Integer nodeId = Util.throwIfNull(mObjectIdMapper.getIdForObject(element));
-        ElementInfo newElementInfo = docUpdate.getElementInfo(element);
-
-        // Only raise onChildNodeRemoved for the root of a disconnected tree. The remainder of the
-        // sub-tree is included automatically, so we don't need to send events for those.
-        if (newElementInfo.parentElement == null) {
-          ElementInfo oldElementInfo = mShadowDocument.getElementInfo(element);
-          int parentNodeId = mObjectIdMapper.getIdForObject(oldElementInfo.parentElement);
-          mUpdateListeners.onChildNodeRemoved(parentNodeId, nodeId);
-        }
-
         garbageElementIds.add(nodeId);
       }
     });
 
     Collections.sort(garbageElementIds);
 
+    // Only raise onChildNodeRemoved for the root of each disconnected tree as our listener knows
+    // it, i.e. for garbage whose old parent isn't garbage too. The remainder of the sub-tree is
+    // included automatically, so we don't need to send events for those. Nor do we for elements
+    // that came and went while the tree was being walked. Note that such a root may have been
+    // moved into some other garbage sub-tree during the walk, and so needn't be a root in the new
+    // view of the tree.
+    for (int i = 0, N = garbageElementIds.size(); i < N; ++i) {
+      final Integer nodeId = garbageElementIds.get(i);
+      final ElementInfo oldElementInfo =
+          mShadowDocument.getElementInfo(mObjectIdMapper.getObjectForId(nodeId));
+      if (oldElementInfo == null) {
+        continue;
+      }
+
+      final Integer parentNodeId = mObjectIdMapper.getIdForObject(oldElementInfo.parentElement);
+      if (Collections.binarySearch(garbageElementIds, parentNodeId) < 0) {
+        mUpdateListeners.onChildNodeRemoved(docUpdate, parentNodeId, nodeId);
+      }
+    }
+
     // Stage 2: remove all elements that have been reparented. Otherwise we get into trouble if we
     // transmit an event to insert under the new parent before we've transmitted an event to remove
     // it from the old parent. The removal event is ignored because the parent doesn't match the
@@ -418,13 +687,14 @@ public final class Document extends ThreadBoundProxy {
         final ElementInfo newElementInfo = docUpdate.getElementInfo(element);
         if (newElementInfo.parentElement != oldElementInfo.parentElement) {
           int parentNodeId = mObjectIdMapper.getIdForObject(oldElementInfo.parentElement);
-          mUpdateListeners.onChildNodeRemoved(parentNodeId, nodeId);
+          mUpdateListeners.onChildNodeRemoved(docUpdate, parentNodeId, nodeId);
         }
       }
     });
 
-    // Stage 3: unhook garbage elements
+    // Stage 3: unhook garbage elements, and drop their text from the search cache
     for (int i = 0, N = garbageElementIds.size(); i < N; ++i) {
+      mSearchTextCache.remove(garbageElementIds.get(i));
       mObjectIdMapper.removeObjectById(garbageElementIds.get(i));
     }
 
@@ -432,6 +702,8 @@ public final class Document extends ThreadBoundProxy {
     // elements that we removed in the 2nd stage.
     docUpdate.getChangedElements(new Accumulator<Object>() {
       private final HashSet<Object> listenerInsertedElements = new HashSet<>();
+      private final Set<Object> processedElements =
+          Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
 
       private Accumulator<Object> insertedElements = new Accumulator<Object>() {
         @Override
@@ -453,6 +725,19 @@ public final class Document extends ThreadBoundProxy {
           return;
         }
 
+        if (!processedElements.add(element)) {
+          return;
+        }
+
+        // Elements are normally changed top-down, but one that was moved while the tree was being
+        // walked can come before its new parent. That parent has to be seen to first: if it's new,
+        // it brings this element along when it's inserted.
+        final ElementInfo newElementInfo = docUpdate.getElementInfo(element);
+        if (newElementInfo.parentElement != null &&
+            docUpdate.isElementChanged(newElementInfo.parentElement)) {
+          store(newElementInfo.parentElement);
+        }
+
         if (listenerInsertedElements.contains(element)) {
           // This element was already transmitted in its entirety by an onChildNodeInserted event.
           // Trying to send any further updates about it is both unnecessary and incorrect (we'd
@@ -461,7 +746,6 @@ public final class Document extends ThreadBoundProxy {
         }
 
         final ElementInfo oldElementInfo = mShadowDocument.getElementInfo(element);
-        final ElementInfo newElementInfo = docUpdate.getElementInfo(element);
 
         final List<Object> oldChildren = (oldElementInfo != null)
             ? oldElementInfo.children
@@ -490,68 +774,129 @@ public final class Document extends ThreadBoundProxy {
       }
     });
 
-    // Stage 5: Finally, commit the update to the ShadowDocument.
+    // Stage 4 continued: that's all of the events, which listeners can now sum up.
+    mUpdateListeners.onUpdateComplete(docUpdate);
+
+    // Stage 5: cache the text of new elements for search (garbage was dropped in stage 3). Those
+    // which were already there may well have changed along with the tree, so their text is taken
+    // again too. The document order is given to the cache once the update has been committed.
+    if (mSearchTextCache.isEnabled()) {
+      docUpdate.getChangedElements(new Accumulator<Object>() {
+        @Override
+        public void store(Object element) {
+          updateSearchText(element);
+        }
+      });
+    }
+
+    // Stage 6: Finally, commit the update to the ShadowDocument.
     docUpdate.commit();
   }
 
-  private static void updateListenerChildren(
-      ChildEventingList listenerChildren,
+  /**
+   * Bring {@code listenerChildren} in line with {@code newChildren} in as few events as possible.
+   * The longest run of children which are still in the same order relative to each other stays
+   * put, and only the others are removed and inserted again where they now belong (there is no
+   * way to tell our listener about a move as such). Scrolling a list that recycles its views,
+   * for example, rotates its children, which then takes one move per recycled view rather than
+   * one per child.
+   */
+  static void updateListenerChildren(
+      ListenerChildList listenerChildren,
       List<Object> newChildren,
       Accumulator<Object> insertedElements) {
-    int index = 0;
-    while (index <= listenerChildren.size()) {
-      // Insert new items that were added to the end of the list
-      if (index == listenerChildren.size()) {
-        if (index == newChildren.size()) {
-          break;
-        }
+    final int listenerSize = listenerChildren.size();
+    final int newSize = newChildren.size();
 
-        final Object newElement = newChildren.get(index);
-        listenerChildren.addWithEvent(index, newElement, insertedElements);
-        ++index;
-        continue;
-      }
+    // Where each of the listener's children is in newChildren, or -1 if it isn't.
+    final Map<Object, Integer> newIndices = new IdentityHashMap<>(newSize);
+    for (int i = 0; i < newSize; ++i) {
+      newIndices.put(newChildren.get(i), i);
+    }
+    final int[] listenerNewIndices = new int[listenerSize];
+    for (int i = 0; i < listenerSize; ++i) {
+      Integer newIndex = newIndices.get(listenerChildren.get(i));
+      listenerNewIndices[i] = (newIndex != null) ? newIndex : -1;
+    }
 
-      // Remove old items that were removed from the end of the list
-      if (index == newChildren.size()) {
-        listenerChildren.removeWithEvent(index);
-        continue;
-      }
+    final boolean[] isStaying = new boolean[listenerSize];
+    markLongestIncreasingSubsequence(listenerNewIndices, isStaying);
 
-      final Object listenerElement = listenerChildren.get(index);
-      final Object newElement = newChildren.get(index);
+    for (int i = listenerSize - 1; i >= 0; --i) {
+      if (!isStaying[i]) {
+        listenerChildren.removeWithEvent(i);
+      }
+    }
 
-      // This slot has exactly what we need to have here.
-      if (listenerElement == newElement) {
-        ++index;
-        continue;
+    // What's left of listenerChildren is now in the same order as newChildren, so everything
+    // else just needs inserting.
+    for (int i = 0; i < newSize; ++i) {
+      final Object newElement = newChildren.get(i);
+      if (i == listenerChildren.size() || listenerChildren.get(i) != newElement) {
+        listenerChildren.addWithEvent(i, newElement, insertedElements);
       }
+    }
+  }
 
-      int newElementListenerIndex = listenerChildren.indexOf(newElement);
-      if (newElementListenerIndex == -1) {
-        listenerChildren.addWithEvent(index, newElement, insertedElements);
-        ++index;
+  /**
+   * Sets {@code isMember[i]} for each {@code values[i]} in a longest strictly increasing
+   * subsequence of {@code values}, ignoring negative values, in O(n log n) time.
+   */
+  private static void markLongestIncreasingSubsequence(int[] values, boolean[] isMember) {
+    // tails[k] is the index of the smallest value ending an increasing subsequence of length k+1.
+    final int[] tails = new int[values.length];
+    final int[] predecessors = new int[values.length];
+    int length = 0;
+
+    for (int i = 0; i < values.length; ++i) {
+      final int value = values[i];
+      if (value < 0) {
         continue;
       }
 
-      // TODO: use longest common substring to decide whether to
-      //       1) remove(newElementListenerIndex)-then-add(index), or
-      //       2) remove(index) and let a subsequent loop iteration do add() (that is, when index
-      //          catches up the current value of newElementListenerIndex)
-      //       Neither one of these is the best strategy -- it depends on context.
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (values[tails[mid]] < value) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
 
-      listenerChildren.removeWithEvent(newElementListenerIndex);
-      listenerChildren.addWithEvent(index, newElement, insertedElements);
+      predecessors[i] = (low > 0) ? tails[low - 1] : -1;
+      tails[low] = i;
+      if (low == length) {
+        ++length;
+      }
+    }
 
-      ++index;
+    for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+      isMember[i] = true;
     }
   }
 
+  /**
+   * An element's children as our listener knows them, which {@link #updateListenerChildren}
+   * changes one event at a time.
+   */
+  abstract static class ListenerChildList extends ArrayList<Object> {
+    private static final long serialVersionUID = 1L;
+
+    public abstract void addWithEvent(
+        int index,
+        Object element,
+        Accumulator<Object> insertedElements);
+
+    public abstract void removeWithEvent(int index);
+  }
+
   /**
    * A private implementation of {@link List} that transmits our changes to our listener (and,
    * ultimately, to the DevTools client).
    */
-  private final class ChildEventingList extends ArrayList<Object> {
+  private final class ChildEventingList extends ListenerChildList {
     private Object mParentElement = null;
     private int mParentNodeId = -1;
     private DocumentView mDocumentView;
@@ -574,6 +919,7 @@ public final class Document extends ThreadBoundProxy {
       mDocumentView = null;
     }
 
+    @Override
     public void addWithEvent(int index, Object element, Accumulator<Object> insertedElements) {
       Object previousElement = (index == 0) ? null : get(index - 1);
 
@@ -591,10 +937,11 @@ public final class Document extends ThreadBoundProxy {
           insertedElements);
     }
 
+    @Override
     public void removeWithEvent(int index) {
       Object element = remove(index);
       int nodeId = mObjectIdMapper.getIdForObject(element);
-      mUpdateListeners.onChildNodeRemoved(mParentNodeId, nodeId);
+      mUpdateListeners.onChildNodeRemoved(mDocumentView, mParentNodeId, nodeId);
     }
   }
 
@@ -658,9 +1005,9 @@ public final class Document extends ThreadBoundProxy {
     }
 
     @Override
-    public void onChildNodeRemoved(int parentNodeId, int nodeId) {
+    public void onChildNodeRemoved(DocumentView view, int parentNodeId, int nodeId) {
       for (UpdateListener listener : getListenersSnapshot()) {
-        listener.onChildNodeRemoved(parentNodeId, nodeId);
+        listener.onChildNodeRemoved(view, parentNodeId, nodeId);
       }
     }
 
@@ -675,6 +1022,13 @@ public final class Document extends ThreadBoundProxy {
         listener.onChildNodeInserted(view, element, parentNodeId, previousNodeId, insertedItems);
       }
     }
+
+    @Override
+    public void onUpdateComplete(DocumentView view) {
+      for (UpdateListener listener : getListenersSnapshot()) {
+        listener.onUpdateComplete(view);
+      }
+    }
   }
 
   public interface UpdateListener {
@@ -685,6 +1039,7 @@ public final class Document extends ThreadBoundProxy {
     void onInspectRequested(Object element);
 
     void onChildNodeRemoved(
+        DocumentView view,
         int parentNodeId,
         int nodeId);
 
@@ -694,6 +1049,12 @@ public final class Document extends ThreadBoundProxy {
         int parentNodeId,
         int previousNodeId,
         Accumulator<Object> insertedItems);
+
+    /**
+     * Called once all of the child node events for an update have been raised, so that they can
+     * be summed up. {@code view} is the new view of the tree.
+     */
+    void onUpdateComplete(DocumentView view);
   }
 
   private final class DocumentObjectIdMapper extends ObjectIdMapper {
@@ -714,21 +1075,29 @@ public final class Document extends ThreadBoundProxy {
     }
   }
 
-  private final class ProviderListener implements DocumentProviderListener {
+  private final class ProviderListener implements IncrementalDocumentProviderListener {
     @Override
     public void onPossiblyChanged() {
-      updateTree();
+      updateTree(null /* changedElements */);
+    }
+
+    @Override
+    public void onChildrenPossiblyChanged(List<Object> elements) {
+      verifyThreadAccess();
+      updateTree(elements);
     }
 
     @Override
     public void onAttributeModified(Object element, String name, String value) {
       verifyThreadAccess();
+      updateSearchText(element);
       mUpdateListeners.onAttributeModified(element, name, value);
     }
 
     @Override
     public void onAttributeRemoved(Object element, String name) {
       verifyThreadAccess();
+      updateSearchText(element);
       mUpdateListeners.onAttributeRemoved(element, name);
     }
 
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import java.util.List;
+
+/**
+ * A {@link DocumentProviderListener} which can also re-read just part of the document.
+ * Providers should check for it with {@code instanceof}, and call
+ * {@link DocumentProviderListener#onPossiblyChanged()} for listeners which only implement the
+ * base interface.
+ */
+public interface IncrementalDocumentProviderListener extends DocumentProviderListener {
+  /**
+   * Only the children of {@code elements}, and their sub-trees, may have changed.
+   */
+  void onChildrenPossiblyChanged(List<Object> elements);
+}
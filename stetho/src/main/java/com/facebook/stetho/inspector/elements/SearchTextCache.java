@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import android.util.SparseArray;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+/**
+ * The searchable text of each element in a {@link Document} (its node name along with the names
+ * and values of its attributes), keyed by node ID, and the order of those nodes in the document.
+ * It is kept up to date by the {@link Document} on its thread.<p/>
+ *
+ * This is not an index: {@link #search} still scans the text of every element. What it saves is
+ * asking each element's descriptor for that text, on the {@link Document}'s thread, for every
+ * search.
+ */
+final class SearchTextCache {
+  /**
+   * Separates the fields of an element's text, so that a query can't match across two of them.
+   * It can't appear in a query that means anything.
+   */
+  private static final char FIELD_SEPARATOR = '\u0000';
+
+  private static final int[] EMPTY_DOCUMENT_ORDER = new int[0];
+
+  private final Object mSync = new Object();
+
+  @GuardedBy("mSync")
+  private final SparseArray<String> mTextByNodeId = new SparseArray<>();
+
+  /**
+   * Node IDs in document order, which is the order that search results are given in.
+   */
+  @GuardedBy("mSync")
+  private int[] mDocumentOrder = EMPTY_DOCUMENT_ORDER;
+
+  @GuardedBy("mSync")
+  private int mDocumentOrderSize;
+
+  @GuardedBy("mSync")
+  private boolean mIsEnabled;
+
+  // Only used on the Document's thread.
+  private final StringBuilder mCachedTextBuilder = new StringBuilder();
+
+  /**
+   * Whether the cache is being maintained. It starts out empty and disabled, so that inspectors
+   * which never search don't pay for it.
+   */
+  public boolean isEnabled() {
+    synchronized (mSync) {
+      return mIsEnabled;
+    }
+  }
+
+  public void setEnabled() {
+    synchronized (mSync) {
+      mIsEnabled = true;
+    }
+  }
+
+  public void clear() {
+    synchronized (mSync) {
+      mIsEnabled = false;
+      mTextByNodeId.clear();
+      mDocumentOrder = EMPTY_DOCUMENT_ORDER;
+      mDocumentOrderSize = 0;
+    }
+  }
+
+  /**
+   * @param attributes Names and values, alternately, as stored by
+   *     {@link Document.AttributeListAccumulator}.
+   */
+  public void put(int nodeId, String nodeName, List<String> attributes) {
+    StringBuilder builder = mCachedTextBuilder;
+    builder.setLength(0);
+    builder.append(nodeName);
+    for (int i = 0, N = attributes.size(); i < N; ++i) {
+      builder.append(FIELD_SEPARATOR).append(attributes.get(i));
+    }
+    String text = builder.toString().toLowerCase(Locale.US);
+
+    synchronized (mSync) {
+      mTextByNodeId.put(nodeId, text);
+    }
+  }
+
+  public void remove(int nodeId) {
+    synchronized (mSync) {
+      mTextByNodeId.remove(nodeId);
+    }
+  }
+
+  /**
+   * @param nodeIds The first {@code size} of them are the node IDs in document order. Ownership
+   *     passes to the cache.
+   */
+  public void setDocumentOrder(int[] nodeIds, int size) {
+    synchronized (mSync) {
+      mDocumentOrder = nodeIds;
+      mDocumentOrderSize = size;
+    }
+  }
+
+  /**
+   * Case-insensitively match {@code query} anywhere in the text of each element.
+   *
+   * @return The IDs of the matching elements, in document order. They are only boxed as they
+   *     are read.
+   */
+  public List<Integer> search(String query) {
+    final String lowerCaseQuery = query.toLowerCase(Locale.US);
+
+    synchronized (mSync) {
+      final int size = mDocumentOrderSize;
+      int[] nodeIds = new int[Math.min(size, 16)];
+      int count = 0;
+      for (int i = 0; i < size; ++i) {
+        int nodeId = mDocumentOrder[i];
+        String text = mTextByNodeId.get(nodeId);
+        if (text != null && text.contains(lowerCaseQuery)) {
+          if (count == nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, Math.min(size, count * 2));
+          }
+          nodeIds[count++] = nodeId;
+        }
+      }
+      return new NodeIdList(nodeIds, count);
+    }
+  }
+
+  private static final class NodeIdList extends AbstractList<Integer> implements RandomAccess {
+    private final int[] mNodeIds;
+    private final int mSize;
+
+    public NodeIdList(int[] nodeIds, int size) {
+      mNodeIds = nodeIds;
+      mSize = size;
+    }
+
+    @Override
+    public Integer get(int index) {
+      if (index < 0 || index >= mSize) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+      }
+      return mNodeIds[index];
+    }
+
+    @Override
+    public int size() {
+      return mSize;
+    }
+  }
+}
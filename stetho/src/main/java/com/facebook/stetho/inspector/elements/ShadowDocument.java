@@ -14,6 +14,8 @@ import com.facebook.stetho.common.Accumulator;
 import com.facebook.stetho.common.ListUtil;
 import com.facebook.stetho.common.Util;
 
+import javax.annotation.Nullable;
+
 import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashSet;
@@ -186,8 +188,11 @@ public final class ShadowDocument implements DocumentView {
         }
 
         final ElementInfo oldChangesElementInfo = mElementToInfoMap.get(childElement);
-        if (oldChangesElementInfo != null &&
-            oldChangesElementInfo.parentElement == element) {
+        if ((childChangesElementInfo != null) ||
+            (oldChangesElementInfo != null &&
+                oldChangesElementInfo.parentElement == element)) {
+          // This includes children given to element earlier in this same update (which happens
+          // when it's walked again), which have no old parent.
           setElementParent(childElement, null);
         }
       }
@@ -238,6 +243,75 @@ public final class ShadowDocument implements DocumentView {
       }
     }
 
+    /**
+     * Like {@link #setElementChildren}, but also takes back any of {@code children} which another
+     * element has claimed since. For walking again the elements found by
+     * {@link #getElementsWithStaleChildren}, whose children may be unchanged.
+     */
+    public void resetElementChildren(Object element, List<Object> children) {
+      setElementChildren(element, children);
+      for (int i = 0, N = children.size(); i < N; ++i) {
+        setElementParent(children.get(i), element);
+      }
+    }
+
+    /**
+     * Find elements still in the tree whose children, as last given to
+     * {@link #setElementChildren} (or as in the old view of the tree), include an element that
+     * has since been given to another element. This happens when the tree is changed in the
+     * middle of being walked, and those elements need to be walked again before the update can
+     * be committed.
+     */
+    public void getElementsWithStaleChildren(Accumulator<Object> accumulator) {
+      for (ElementInfo elementInfo : mElementToInfoChangesMap.values()) {
+        for (int i = 0, N = elementInfo.children.size(); i < N; ++i) {
+          Object parentElement = getParentElement(elementInfo.children.get(i));
+          if (parentElement != elementInfo.element) {
+            // Either of them could be out of date, unless element is garbage anyway.
+            if (!isAttached(elementInfo.element)) {
+              break;
+            }
+            accumulator.store(elementInfo.element);
+            if (parentElement != null && isAttached(parentElement)) {
+              accumulator.store(parentElement);
+            }
+          }
+        }
+
+        // Moved away from a parent that hasn't been walked since, and so still lists it.
+        ElementInfo oldElementInfo = mElementToInfoMap.get(elementInfo.element);
+        if (oldElementInfo != null &&
+            oldElementInfo.parentElement != null &&
+            oldElementInfo.parentElement != elementInfo.parentElement &&
+            !mElementToInfoChangesMap.containsKey(oldElementInfo.parentElement)) {
+          ElementInfo oldParentElementInfo = mElementToInfoMap.get(oldElementInfo.parentElement);
+          if (oldParentElementInfo != null &&
+              oldParentElementInfo.children.indexOf(elementInfo.element) >= 0 &&
+              isAttached(oldElementInfo.parentElement)) {
+            accumulator.store(oldElementInfo.parentElement);
+          }
+        }
+      }
+    }
+
+    private @Nullable Object getParentElement(Object element) {
+      ElementInfo elementInfo = mElementToInfoChangesMap.get(element);
+      if (elementInfo == null) {
+        elementInfo = mElementToInfoMap.get(element);
+      }
+      return (elementInfo != null) ? elementInfo.parentElement : null;
+    }
+
+    private boolean isAttached(Object element) {
+      while (element != null) {
+        if (element == mRootElement) {
+          return true;
+        }
+        element = getParentElement(element);
+      }
+      return false;
+    }
+
     public Update build() {
       return new Update(mElementToInfoChangesMap, mRootElementChanges);
     }
@@ -315,9 +389,10 @@ public final class ShadowDocument implements DocumentView {
         }
       }
 
-      // BFS traversal from those elements in the old view of the tree and test each element
-      // to see if it's still within a disconnected sub-tree. We can tell if it's garbage if its
-      // parent element in the new view of the tree hasn't changed.
+      // BFS traversal from those elements in the new view of the tree (which, as in commit(),
+      // includes elements that were added and then disconnected again while the tree was being
+      // walked) and test each element to see if it's still within a disconnected sub-tree. We can
+      // tell if it's garbage if its parent element in the new view of the tree hasn't changed.
       while (!queue.isEmpty()) {
         final Object element = queue.remove();
         final Object expectedParent0 = queue.remove();
@@ -327,12 +402,9 @@ public final class ShadowDocument implements DocumentView {
         if (newElementInfo.parentElement == expectedParent) {
           accumulator.store(element);
 
-          ElementInfo oldElementInfo = ShadowDocument.this.getElementInfo(element);
-          if (oldElementInfo != null) {
-            for (int i = 0, N = oldElementInfo.children.size(); i < N; ++i) {
-              queue.add(oldElementInfo.children.get(i));
-              queue.add(element);
-            }
+          for (int i = 0, N = newElementInfo.children.size(); i < N; ++i) {
+            queue.add(newElementInfo.children.get(i));
+            queue.add(element);
           }
         }
       }
@@ -370,6 +442,11 @@ public final class ShadowDocument implements DocumentView {
         Map<Object, ElementInfo> elementToInfoMap,
         Object element) {
       final ElementInfo elementInfo = elementToInfoMap.get(element);
+      if (elementInfo == null) {
+        // Also listed by another garbage element which was removed first. Garbage isn't walked
+        // again when the tree changes while it's being walked, so its children can be stale.
+        return;
+      }
 
       // If this element has a parent (it's not a root), and that parent is still in the tree after
       // changes have been applied and after our caller (removeGarbageSubTree) removed another
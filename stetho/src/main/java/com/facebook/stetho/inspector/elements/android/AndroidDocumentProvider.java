@@ -15,6 +15,7 @@ import android.app.Dialog;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -31,6 +32,7 @@ import com.facebook.stetho.inspector.elements.Descriptor;
 import com.facebook.stetho.inspector.elements.DescriptorProvider;
 import com.facebook.stetho.inspector.elements.DescriptorMap;
 import com.facebook.stetho.inspector.elements.DocumentProviderListener;
+import com.facebook.stetho.inspector.elements.IncrementalDocumentProviderListener;
 import com.facebook.stetho.inspector.elements.NodeDescriptor;
 import com.facebook.stetho.inspector.elements.ObjectDescriptor;
 import com.facebook.stetho.inspector.helper.ThreadBoundProxy;
@@ -38,10 +40,13 @@ import com.facebook.stetho.inspector.helper.ThreadBoundProxy;
 import javax.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 final class AndroidDocumentProvider extends ThreadBoundProxy
-    implements DocumentProvider, AndroidDescriptorHost {
+    implements DocumentProvider, AndroidDescriptorHost, Descriptor.ChildrenObservingHost {
   private static final int INSPECT_OVERLAY_COLOR = 0x40FFFFFF;
   private static final int INSPECT_HOVER_COLOR = 0x404040ff;
 
@@ -55,12 +60,17 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
   private final InspectModeHandler mInspectModeHandler;
   private @Nullable DocumentProviderListener mListener;
 
-  // We don't yet have an an implementation for reliably detecting fine-grained changes in the
-  // View tree. So, for now at least, we have a timer that runs every so often and just reports
-  // that we changed. Our listener will then read the entire Document from us and transmit the
-  // changes to Chrome. Detecting, reporting, and traversing fine-grained changes is a future work
-  // item (see Issue #210).
+  // Descriptors report elements whose children may have changed as they observe it (see
+  // onChildrenPossiblyChanged), and every so often we pass those on to our listener, which then
+  // reads just those sub-trees from us and transmits the changes to Chrome. Not everything can be
+  // observed (elements from third party descriptors, changes that don't cause a layout) so once
+  // in a while we still report that anything may have changed, and the listener reads the entire
+  // Document. So does a listener which can't read just part of it.
   private static final long REPORT_CHANGED_INTERVAL_MS = 1000;
+  private static final long FULL_UPDATE_INTERVAL_MS = 5000;
+  private final Set<Object> mChangedElements =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+  private long mLastFullUpdateTimeMs;
   private boolean mIsReportChangesTimerPosted = false;
   private final Runnable mReportChangesTimer = new Runnable() {
     @Override
@@ -68,9 +78,28 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
       mIsReportChangesTimerPosted = false;
 
       if (mListener != null) {
-        mListener.onPossiblyChanged();
-        mIsReportChangesTimerPosted = true;
-        postDelayed(this, REPORT_CHANGED_INTERVAL_MS);
+        long nowMs = SystemClock.uptimeMillis();
+        if (nowMs - mLastFullUpdateTimeMs >= FULL_UPDATE_INTERVAL_MS) {
+          mLastFullUpdateTimeMs = nowMs;
+          mChangedElements.clear();
+          mListener.onPossiblyChanged();
+        } else if (!mChangedElements.isEmpty()) {
+          List<Object> changedElements = new ArrayList<>(mChangedElements);
+          mChangedElements.clear();
+          if (mListener instanceof IncrementalDocumentProviderListener) {
+            ((IncrementalDocumentProviderListener) mListener)
+                .onChildrenPossiblyChanged(changedElements);
+          } else {
+            mLastFullUpdateTimeMs = nowMs;
+            mListener.onPossiblyChanged();
+          }
+        }
+
+        // The listener may have been removed by the update.
+        if (mListener != null) {
+          mIsReportChangesTimerPosted = true;
+          postDelayed(this, REPORT_CHANGED_INTERVAL_MS);
+        }
       }
     }
   };
@@ -118,6 +147,7 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
     mInspectModeHandler.disable();
     removeCallbacks(mReportChangesTimer);
     mIsReportChangesTimerPosted = false;
+    mChangedElements.clear();
     mListener = null;
   }
 
@@ -126,10 +156,13 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
     verifyThreadAccess();
 
     mListener = listener;
+    mChangedElements.clear();
     if (mListener == null && mIsReportChangesTimerPosted) {
       mIsReportChangesTimerPosted = false;
       removeCallbacks(mReportChangesTimer);
     } else if (mListener != null && !mIsReportChangesTimerPosted) {
+      // The listener has just read the whole Document.
+      mLastFullUpdateTimeMs = SystemClock.uptimeMillis();
       mIsReportChangesTimerPosted = true;
       postDelayed(mReportChangesTimer, REPORT_CHANGED_INTERVAL_MS);
     }
@@ -219,6 +252,16 @@ final class AndroidDocumentProvider extends ThreadBoundProxy
     }
   }
 
+  // Descriptor.ChildrenObservingHost implementation
+  @Override
+  public void onChildrenPossiblyChanged(Object element) {
+    verifyThreadAccess();
+
+    if (mListener != null) {
+      mChangedElements.add(element);
+    }
+  }
+
   // AndroidDescriptorHost implementation
   @Override
   @Nullable
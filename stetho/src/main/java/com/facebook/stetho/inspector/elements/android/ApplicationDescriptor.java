@@ -86,12 +86,12 @@ final class ApplicationDescriptor extends AbstractChainedDescriptor<Application>
     private final ActivityTracker.Listener mListener = new ActivityTracker.Listener() {
       @Override
       public void onActivityAdded(Activity activity) {
-        // TODO: once we have the ability to report fine-grained updates, do that here
+        notifyChildrenPossiblyChanged(mElement);
       }
 
       @Override
       public void onActivityRemoved(Activity activity) {
-        // TODO: once we have the ability to report fine-grained updates, do that here
+        notifyChildrenPossiblyChanged(mElement);
       }
     };
   }
@@ -35,6 +35,7 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -63,11 +64,30 @@ final class ViewDescriptor extends AbstractChainedDescriptor<View>
   private Pattern mWordBoundaryPattern;
 
   /**
+   * Exported properties of each {@link View} class we've been asked to style, including those
+   * inherited from its superclasses. Resolving them takes a good deal of reflection, so it's only
+   * done the first time a class is seen.<p/>
+   *
    * NOTE: Only access this via {@link #getViewProperties}.
    */
-  @Nullable
-  @GuardedBy("this")
-  private volatile List<ViewCSSProperty> mViewProperties;
+  @GuardedBy("mViewPropertiesByClass")
+  private final Map<Class<?>, List<ViewCSSProperty>> mViewPropertiesByClass = new HashMap<>();
+
+  /**
+   * Public instance fields of the values of properties with
+   * {@link ViewDebug.ExportedProperty#deepExport()} (such as {@link View#getLayoutParams()}), by
+   * class.<p/>
+   *
+   * NOTE: Only access this via {@link #getDeepExportedFields}.
+   */
+  @GuardedBy("mDeepExportedFieldsByClass")
+  private final Map<Class<?>, Field[]> mDeepExportedFieldsByClass = new HashMap<>();
+
+  /**
+   * NOTE: Only access this via {@link #convertViewPropertyNameToCSSName}.
+   */
+  @GuardedBy("mCSSNames")
+  private final Map<String, String> mCSSNames = new HashMap<>();
 
   private Pattern getWordBoundaryPattern() {
     if (mWordBoundaryPattern == null) {
@@ -77,50 +97,111 @@ final class ViewDescriptor extends AbstractChainedDescriptor<View>
     return mWordBoundaryPattern;
   }
 
-  private List<ViewCSSProperty> getViewProperties() {
-    if (mViewProperties == null) {
-      synchronized (this) {
-        if (mViewProperties == null) {
-          List<ViewCSSProperty> props = new ArrayList<>();
-
-          for (final Method method : View.class.getDeclaredMethods()) {
-            ViewDebug.ExportedProperty annotation =
-                method.getAnnotation(
-                    ViewDebug.ExportedProperty.class);
-
-            if (annotation != null) {
-              props.add(new MethodBackedCSSProperty(
-                  method,
-                  convertViewPropertyNameToCSSName(method.getName()),
-                  annotation));
-            }
-          }
+  private List<ViewCSSProperty> getViewProperties(Class<?> viewClass) {
+    synchronized (mViewPropertiesByClass) {
+      List<ViewCSSProperty> properties = mViewPropertiesByClass.get(viewClass);
+      if (properties == null) {
+        properties = resolveViewProperties(viewClass);
+        mViewPropertiesByClass.put(viewClass, properties);
+      }
+      return properties;
+    }
+  }
 
-          for (final Field field : View.class.getDeclaredFields()) {
-            ViewDebug.ExportedProperty annotation =
-                field.getAnnotation(
-                    ViewDebug.ExportedProperty.class);
-
-            if (annotation != null) {
-              props.add(new FieldBackedCSSProperty(
-                  field,
-                  convertViewPropertyNameToCSSName(field.getName()),
-                  annotation));
-            }
-          }
+  private List<ViewCSSProperty> resolveViewProperties(Class<?> viewClass) {
+    List<ViewCSSProperty> inheritedProps = (viewClass != View.class)
+        ? getViewProperties(viewClass.getSuperclass())
+        : Collections.<ViewCSSProperty>emptyList();
+
+    Method[] methods;
+    Field[] fields;
+    try {
+      methods = viewClass.getDeclaredMethods();
+      fields = viewClass.getDeclaredFields();
+    } catch (LinkageError e) {
+      // An app's view may refer to classes which aren't there, in members we'd ignore anyway.
+      LogUtil.w(e, "Failed to find exported properties of " + viewClass.getName());
+      return inheritedProps;
+    }
 
-          Collections.sort(props, new Comparator<ViewCSSProperty>() {
-            @Override
-            public int compare(ViewCSSProperty lhs, ViewCSSProperty rhs) {
-              return lhs.getCSSName().compareTo(rhs.getCSSName());
-            }
-          });
-          mViewProperties = Collections.unmodifiableList(props);
-        }
+    List<ViewCSSProperty> props = new ArrayList<>();
+
+    for (final Method method : methods) {
+      ViewDebug.ExportedProperty annotation =
+          method.getAnnotation(
+              ViewDebug.ExportedProperty.class);
+
+      if (annotation != null &&
+          !Modifier.isStatic(method.getModifiers()) &&
+          method.getParameterTypes().length == 0 &&
+          !isOverriddenProperty(method, inheritedProps)) {
+        props.add(new MethodBackedCSSProperty(
+            method,
+            convertViewPropertyNameToCSSName(method.getName()),
+            annotation));
+      }
+    }
+
+    for (final Field field : fields) {
+      ViewDebug.ExportedProperty annotation =
+          field.getAnnotation(
+              ViewDebug.ExportedProperty.class);
+
+      if (annotation != null && !Modifier.isStatic(field.getModifiers())) {
+        props.add(new FieldBackedCSSProperty(
+            field,
+            convertViewPropertyNameToCSSName(field.getName()),
+            annotation));
+      }
+    }
+
+    if (props.isEmpty()) {
+      return inheritedProps;
+    }
+
+    props.addAll(inheritedProps);
+    Collections.sort(props, new Comparator<ViewCSSProperty>() {
+      @Override
+      public int compare(ViewCSSProperty lhs, ViewCSSProperty rhs) {
+        return lhs.getCSSName().compareTo(rhs.getCSSName());
+      }
+    });
+    return Collections.unmodifiableList(props);
+  }
+
+  /**
+   * An exported method that overrides one of a superclass is already covered by it, because the
+   * superclass's method is invoked virtually.
+   */
+  private static boolean isOverriddenProperty(
+      Method method,
+      List<ViewCSSProperty> inheritedProps) {
+    for (int i = 0, size = inheritedProps.size(); i < size; i++) {
+      ViewCSSProperty property = inheritedProps.get(i);
+      if (property instanceof MethodBackedCSSProperty &&
+          ((MethodBackedCSSProperty) property).getMethodName().equals(method.getName())) {
+        return true;
       }
     }
+    return false;
+  }
 
-    return mViewProperties;
+  private Field[] getDeepExportedFields(Class<?> valueClass) {
+    synchronized (mDeepExportedFieldsByClass) {
+      Field[] fields = mDeepExportedFieldsByClass.get(valueClass);
+      if (fields == null) {
+        List<Field> instanceFields = new ArrayList<>();
+        for (Field field : valueClass.getFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            field.setAccessible(true);
+            instanceFields.add(field);
+          }
+        }
+        fields = instanceFields.toArray(new Field[instanceFields.size()]);
+        mDeepExportedFieldsByClass.put(valueClass, fields);
+      }
+      return fields;
+    }
   }
 
   public ViewDescriptor() {
@@ -191,7 +272,7 @@ final class ViewDescriptor extends AbstractChainedDescriptor<View>
   @Override
   protected void onGetStyles(View element, String ruleName, StyleAccumulator accumulator) {
     if (VIEW_STYLE_RULE_NAME.equals(ruleName)) {
-      List<ViewCSSProperty> properties = getViewProperties();
+      List<ViewCSSProperty> properties = getViewProperties(element.getClass());
       for (int i = 0, size = properties.size(); i < size; i++) {
         ViewCSSProperty property = properties.get(i);
         try {
@@ -339,6 +420,17 @@ final class ViewDescriptor extends AbstractChainedDescriptor<View>
   }
 
   private String convertViewPropertyNameToCSSName(String getterName) {
+    synchronized (mCSSNames) {
+      String cssName = mCSSNames.get(getterName);
+      if (cssName == null) {
+        cssName = convertViewPropertyNameToCSSNameUncached(getterName);
+        mCSSNames.put(getterName, cssName);
+      }
+      return cssName;
+    }
+  }
+
+  private String convertViewPropertyNameToCSSNameUncached(String getterName) {
     // Split string by uppercase characters. Thankfully since
     // this is the android source we don't have to worry about
     // internationalization funk.
@@ -449,17 +541,11 @@ final class ViewDescriptor extends AbstractChainedDescriptor<View>
       return;
     }
 
-    Field[] fields = value.getClass().getFields();
+    Field[] fields = getDeepExportedFields(value.getClass());
 
     for (Field field : fields) {
-      int modifiers = field.getModifiers();
-      if (Modifier.isStatic(modifiers)) {
-        continue;
-      }
-
       Object propertyValue;
       try {
-          field.setAccessible(true);
           propertyValue = field.get(value);
       } catch (IllegalAccessException e) {
         LogUtil.e(
@@ -541,9 +627,14 @@ final class ViewDescriptor extends AbstractChainedDescriptor<View>
       mMethod.setAccessible(true);
     }
 
+    public String getMethodName() {
+      return mMethod.getName();
+    }
+
     @Override
     public Object getValue(View view) throws InvocationTargetException, IllegalAccessException {
-      return mMethod.invoke(view);
+      // A null array rather than the empty one that varargs would allocate for every call.
+      return mMethod.invoke(view, (Object[]) null);
     }
   }
 
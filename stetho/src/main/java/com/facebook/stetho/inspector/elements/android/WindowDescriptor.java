@@ -11,6 +11,7 @@ package com.facebook.stetho.inspector.elements.android;
 
 import android.graphics.Rect;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 
 import com.facebook.stetho.common.Accumulator;
@@ -19,14 +20,40 @@ import com.facebook.stetho.inspector.elements.Descriptor;
 
 import javax.annotation.Nullable;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 final class WindowDescriptor extends AbstractChainedDescriptor<Window>
     implements HighlightableDescriptor<Window> {
+  private final Map<Window, ElementContext> mElementToContextMap =
+      Collections.synchronizedMap(new IdentityHashMap<Window, ElementContext>());
+
+  @Override
+  protected void onHook(Window element) {
+    ElementContext context = new ElementContext(element);
+    mElementToContextMap.put(element, context);
+    context.observe(element.peekDecorView());
+  }
+
+  @Override
+  protected void onUnhook(Window element) {
+    ElementContext context = mElementToContextMap.remove(element);
+    context.observe(null);
+  }
+
   @Override
   protected void onGetChildren(Window element, Accumulator<Object> children) {
     View decorView = element.peekDecorView();
     if (decorView != null) {
       children.store(decorView);
     }
+
+    // The decor view is created lazily, and may not have existed when we were hooked.
+    ElementContext context = mElementToContextMap.get(element);
+    if (context != null) {
+      context.observe(decorView);
+    }
   }
 
   @Override
@@ -51,4 +78,46 @@ final class WindowDescriptor extends AbstractChainedDescriptor<Window>
         ? null
         : descriptor.getElementToHighlightAtPosition(view, x, y, bounds);
   }
+
+  /**
+   * Reports the window's children as possibly changed whenever it is laid out, which any view
+   * being added or removed results in.  One listener serves every view in the window, and
+   * leaves the views themselves alone.
+   */
+  private final class ElementContext implements ViewTreeObserver.OnGlobalLayoutListener {
+    private final Window mElement;
+    @Nullable private View mDecorView;
+    @Nullable private ViewTreeObserver mViewTreeObserver;
+
+    public ElementContext(Window element) {
+      mElement = element;
+    }
+
+    @SuppressWarnings("deprecation")
+    public void observe(@Nullable View decorView) {
+      if (decorView == mDecorView) {
+        return;
+      }
+
+      if (mDecorView != null) {
+        // The observer we added to is merged into the window's when the view is attached.
+        ViewTreeObserver viewTreeObserver = mViewTreeObserver.isAlive()
+            ? mViewTreeObserver
+            : mDecorView.getViewTreeObserver();
+        viewTreeObserver.removeGlobalOnLayoutListener(this);
+        mViewTreeObserver = null;
+      }
+
+      mDecorView = decorView;
+      if (decorView != null) {
+        mViewTreeObserver = decorView.getViewTreeObserver();
+        mViewTreeObserver.addOnGlobalLayoutListener(this);
+      }
+    }
+
+    @Override
+    public void onGlobalLayout() {
+      notifyChildrenPossiblyChanged(mElement);
+    }
+  }
 }
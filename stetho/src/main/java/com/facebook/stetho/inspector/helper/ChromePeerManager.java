@@ -40,12 +40,13 @@ public class ChromePeerManager {
   @GuardedBy("this")
   private final Map<JsonRpcPeer, DisconnectReceiver> mReceivingPeers = new HashMap<>();
 
+  private static final JsonRpcPeer[] NO_PEERS = new JsonRpcPeer[0];
+
   /**
-   * This should be set to null anytime mReceivingPeers is changed. It should always be
-   * retrieved by calling getReceivingPeersSnapshot().
+   * Copy of the keys of {@link #mReceivingPeers}, republished whenever it changes so that
+   * sending events (and checking whether there is anyone to send them to) takes no lock.
    */
-  @GuardedBy("this")
-  private JsonRpcPeer[] mReceivingPeersSnapshot;
+  private volatile JsonRpcPeer[] mReceivingPeersSnapshot = NO_PEERS;
 
   @GuardedBy("this")
   private PeerRegistrationListener mListener;
@@ -77,7 +78,7 @@ public class ChromePeerManager {
     DisconnectReceiver disconnectReceiver = new UnregisterOnDisconnect(peer);
     peer.registerDisconnectReceiver(disconnectReceiver);
     mReceivingPeers.put(peer, disconnectReceiver);
-    mReceivingPeersSnapshot = null;
+    updateReceivingPeersSnapshotLocked();
     if (mListener != null) {
       mListener.onPeerRegistered(peer);
     }
@@ -91,22 +92,28 @@ public class ChromePeerManager {
    */
   public synchronized void removePeer(JsonRpcPeer peer) {
     if (mReceivingPeers.remove(peer) != null) {
-      mReceivingPeersSnapshot = null;
+      updateReceivingPeersSnapshotLocked();
       if (mListener != null) {
         mListener.onPeerUnregistered(peer);
       }
     }
   }
 
-  public synchronized boolean hasRegisteredPeers() {
-    return !mReceivingPeers.isEmpty();
+  /**
+   * Cheap enough to call before every event; no lock is taken.
+   */
+  public boolean hasRegisteredPeers() {
+    return mReceivingPeersSnapshot.length > 0;
   }
 
-  private synchronized JsonRpcPeer[] getReceivingPeersSnapshot() {
-    if (mReceivingPeersSnapshot == null) {
-      mReceivingPeersSnapshot = mReceivingPeers.keySet().toArray(
-          new JsonRpcPeer[mReceivingPeers.size()]);
-    }
+  @GuardedBy("this")
+  private void updateReceivingPeersSnapshotLocked() {
+    mReceivingPeersSnapshot = mReceivingPeers.isEmpty() ?
+        NO_PEERS :
+        mReceivingPeers.keySet().toArray(new JsonRpcPeer[mReceivingPeers.size()]);
+  }
+
+  private JsonRpcPeer[] getReceivingPeersSnapshot() {
     return mReceivingPeersSnapshot;
   }
 
@@ -115,6 +122,25 @@ public class ChromePeerManager {
     sendMessageToPeers(method, params, null /* callback */);
   }
 
+  /**
+   * Send a notification which may be dropped (or coalesced with an earlier one sharing
+   * {@code coalesceKey}) for any peer that is not keeping up.
+   *
+   * @see JsonRpcPeer#invokeLowPriorityNotification
+   */
+  public void sendLowPriorityNotificationToPeers(String method,
+      Object params,
+      @Nullable Object coalesceKey) {
+    JsonRpcPeer[] peers = getReceivingPeersSnapshot();
+    for (JsonRpcPeer peer : peers) {
+      try {
+        peer.invokeLowPriorityNotification(method, params, coalesceKey);
+      } catch (NotYetConnectedException e) {
+        LogRedirector.e(TAG, "Error delivering data to Chrome", e);
+      }
+    }
+  }
+
   public void invokeMethodOnPeers(String method,
       Object params,
       PendingRequestCallback callback) {
@@ -19,15 +19,27 @@ import java.util.Map;
 
 import android.database.Observable;
 
-import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
+import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.ObjectMapper;
 import com.facebook.stetho.websocket.SimpleSession;
 
-import org.json.JSONObject;
-
 @ThreadSafe
 public class JsonRpcPeer {
+  /**
+   * Messages are serialized on whichever thread sends them, straight into that thread's
+   * writer, whose contents are then handed to the session.
+   */
+  private static final ThreadLocal<JsonWriter> sJsonWriter = new ThreadLocal<JsonWriter>() {
+    @Override
+    protected JsonWriter initialValue() {
+      return new JsonWriter();
+    }
+  };
+
   private final SimpleSession mPeer;
   private final ObjectMapper mObjectMapper;
 
@@ -54,15 +66,112 @@ public class JsonRpcPeer {
     Util.throwIfNull(method);
 
     Long requestId = (callback != null) ? preparePendingRequest(callback) : null;
+    JsonWriter writer = serializeRequest(requestId, method, paramsObject);
+    int length = writer.length();
+    mPeer.sendText(writer.takeData(), length);
+  }
+
+  /**
+   * Send a notification which may be dropped, or superseded by a later notification with an
+   * equal {@code coalesceKey}, if the peer is not keeping up.  Use for high-frequency events
+   * whose loss only degrades what the UI shows.
+   *
+   * @return False if the notification was discarded straight away.
+   * @see SimpleSession#sendLowPriorityText
+   */
+  public boolean invokeLowPriorityNotification(
+      String method,
+      Object paramsObject,
+      @Nullable Object coalesceKey)
+      throws NotYetConnectedException {
+    Util.throwIfNull(method);
+    JsonWriter writer = serializeRequest(null /* requestId */, method, paramsObject);
+    int length = writer.length();
+    return mPeer.sendLowPriorityText(writer.takeData(), length, coalesceKey);
+  }
 
-    // magic, can basically convert anything for some amount of runtime overhead...
-    JSONObject params = mObjectMapper.convertValue(paramsObject, JSONObject.class);
+  /**
+   * Respond to a request from the peer.  {@code result} may be any object the
+   * {@link ObjectMapper} can serialize and is ignored if {@code error} is given.
+   */
+  public void sendResponse(
+      long requestId,
+      @Nullable Object result,
+      @Nullable JsonRpcError error)
+      throws NotYetConnectedException {
+    JsonWriter writer = sJsonWriter.get();
+    try {
+      writeResponse(writer, requestId, result, error);
+    } catch (OutOfMemoryError e) {
+      // Results such as huge DOM trees or query results can still be too big to encode; free
+      // whatever we managed and tell the peer instead.
+      writer.reset();
+      LogUtil.w("Response to request %d is too large: %s", requestId, e);
+      writeResponse(
+          writer,
+          requestId,
+          null /* result */,
+          new JsonRpcError(
+              JsonRpcError.ErrorCode.INTERNAL_ERROR,
+              String.valueOf(e.getMessage()),
+              null /* data */));
+    }
+    int length = writer.length();
+    mPeer.sendText(writer.takeData(), length);
+  }
+
+  private void writeResponse(
+      JsonWriter writer,
+      long requestId,
+      @Nullable Object result,
+      @Nullable JsonRpcError error) {
+    try {
+      writer.beginObject();
+      writer.name("id").value(requestId);
+      if (error != null) {
+        writer.name("error");
+        mObjectMapper.writeValue(writer, error);
+      } else {
+        writer.name("result");
+        if (result != null) {
+          mObjectMapper.writeValue(writer, result);
+        } else {
+          writer.beginObject().endObject();
+        }
+      }
+      writer.endObject();
+    } catch (RuntimeException e) {
+      writer.reset();
+      throw e;
+    }
+  }
 
-    JsonRpcRequest message = new JsonRpcRequest(requestId, method, params);
-    String requestString;
-    JSONObject jsonObject = mObjectMapper.convertValue(message, JSONObject.class);
-    requestString = jsonObject.toString();
-    mPeer.sendText(requestString);
+  /**
+   * Same document as serializing a {@link JsonRpcRequest}, streamed into the calling thread's
+   * writer.
+   */
+  private JsonWriter serializeRequest(
+      @Nullable Long requestId,
+      String method,
+      @Nullable Object paramsObject) {
+    JsonWriter writer = sJsonWriter.get();
+    try {
+      writer.beginObject();
+      if (requestId != null) {
+        writer.name("id").value(requestId.longValue());
+      }
+      writer.name("method").value(method);
+      if (paramsObject != null) {
+        // magic, can basically convert anything for some amount of runtime overhead...
+        writer.name("params");
+        mObjectMapper.writeValue(writer, paramsObject);
+      }
+      writer.endObject();
+    } catch (RuntimeException e) {
+      writer.reset();
+      throw e;
+    }
+    return writer;
   }
 
   public void registerDisconnectReceiver(DisconnectReceiver callback) {
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sums {@code Network.dataReceived} events per request according to a
+ * {@link NetworkEventCoalescingConfig}.  Merged events are emitted without holding our lock, as
+ * emitting serializes the event for every peer.  To still guarantee that nothing for a request
+ * is in flight once {@link #flush(String)} returns, emissions under way are counted per request
+ * and {@link #flush(String)} waits for those of its own request (and only those) to finish.
+ */
+@ThreadSafe
+class DataReceivedCoalescer {
+  private static final String FLUSH_THREAD_NAME = "StethoNetworkEventFlusher";
+  private static final int FLUSH_THREAD_KEEP_ALIVE_MS = 5000;
+
+  interface Sink {
+    void sendDataReceived(
+        String requestId,
+        int dataLength,
+        int encodedDataLength,
+        long timestampMs);
+  }
+
+  private final Sink mSink;
+  private volatile NetworkEventCoalescingConfig mConfig =
+      NetworkEventCoalescingConfig.createDefault();
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, PendingData> mPending = new LinkedHashMap<>();
+
+  /**
+   * Number of emissions under way, by request ID.  Requests with none are absent.
+   */
+  @GuardedBy("this")
+  private final HashMap<String, Integer> mEmittingCounts = new HashMap<>();
+
+  @GuardedBy("this")
+  @Nullable
+  private ScheduledThreadPoolExecutor mFlushExecutor;
+
+  @GuardedBy("this")
+  private boolean mFlushScheduled;
+
+  public DataReceivedCoalescer(Sink sink) {
+    mSink = sink;
+  }
+
+  public void setConfig(NetworkEventCoalescingConfig config) {
+    mConfig = config;
+    if (!config.isEnabled()) {
+      flushAll();
+    }
+  }
+
+  public void dataReceived(
+      String requestId,
+      int dataLength,
+      int encodedDataLength,
+      long timestampMs) {
+    NetworkEventCoalescingConfig config = mConfig;
+    if (!config.isEnabled()) {
+      mSink.sendDataReceived(requestId, dataLength, encodedDataLength, timestampMs);
+      return;
+    }
+    PendingData toEmit = null;
+    synchronized (this) {
+      PendingData pending = mPending.get(requestId);
+      if (pending == null) {
+        pending = new PendingData(timestampMs);
+        mPending.put(requestId, pending);
+      }
+      pending.dataLength += dataLength;
+      pending.encodedDataLength += encodedDataLength;
+      pending.lastTimestampMs = timestampMs;
+
+      if (Math.max(pending.dataLength, pending.encodedDataLength) >= config.thresholdBytes ||
+          timestampMs - pending.firstTimestampMs >= config.windowMs) {
+        mPending.remove(requestId);
+        beginEmitLocked(requestId);
+        toEmit = pending;
+      } else {
+        scheduleFlushLocked(config.windowMs);
+      }
+    }
+    if (toEmit != null) {
+      emit(requestId, toEmit);
+    }
+  }
+
+  /**
+   * Emit anything pending for {@code requestId}, and wait for any emission of it already under
+   * way on another thread.  Must be called before reporting that the request finished or failed.
+   */
+  public void flush(String requestId) {
+    PendingData pending;
+    synchronized (this) {
+      pending = mPending.remove(requestId);
+      if (pending != null) {
+        beginEmitLocked(requestId);
+      }
+    }
+    if (pending != null) {
+      emit(requestId, pending);
+    }
+
+    synchronized (this) {
+      boolean interrupted = false;
+      while (mEmittingCounts.containsKey(requestId)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void flushAll() {
+    ArrayList<String> requestIds;
+    ArrayList<PendingData> pendings;
+    synchronized (this) {
+      mFlushScheduled = false;
+      requestIds = new ArrayList<>(mPending.size());
+      pendings = new ArrayList<>(mPending.size());
+      for (Map.Entry<String, PendingData> entry : mPending.entrySet()) {
+        beginEmitLocked(entry.getKey());
+        requestIds.add(entry.getKey());
+        pendings.add(entry.getValue());
+      }
+      mPending.clear();
+    }
+    for (int i = 0, N = requestIds.size(); i < N; i++) {
+      emit(requestIds.get(i), pendings.get(i));
+    }
+  }
+
+  @GuardedBy("this")
+  private void beginEmitLocked(String requestId) {
+    Integer count = mEmittingCounts.get(requestId);
+    mEmittingCounts.put(requestId, (count != null) ? count + 1 : 1);
+  }
+
+  /**
+   * Send {@code pending}, which was taken out of {@link #mPending} along with a call to
+   * {@link #beginEmitLocked}.  Must not be called while holding our lock.
+   */
+  private void emit(String requestId, PendingData pending) {
+    try {
+      mSink.sendDataReceived(
+          requestId,
+          pending.dataLength,
+          pending.encodedDataLength,
+          pending.lastTimestampMs);
+    } finally {
+      synchronized (this) {
+        int count = mEmittingCounts.get(requestId);
+        if (count > 1) {
+          mEmittingCounts.put(requestId, count - 1);
+        } else {
+          mEmittingCounts.remove(requestId);
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void scheduleFlushLocked(int delayMs) {
+    if (mFlushScheduled) {
+      return;
+    }
+    if (mFlushExecutor == null) {
+      mFlushExecutor = new ScheduledThreadPoolExecutor(1, new FlushThreadFactory());
+      mFlushExecutor.setKeepAliveTime(FLUSH_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+      mFlushExecutor.allowCoreThreadTimeOut(true);
+    }
+    mFlushExecutor.schedule(mFlushRunnable, delayMs, TimeUnit.MILLISECONDS);
+    mFlushScheduled = true;
+  }
+
+  private final Runnable mFlushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      flushAll();
+    }
+  };
+
+  private static class PendingData {
+    public final long firstTimestampMs;
+    public long lastTimestampMs;
+    public int dataLength;
+    public int encodedDataLength;
+
+    public PendingData(long firstTimestampMs) {
+      this.firstTimestampMs = firstTimestampMs;
+    }
+  }
+
+  private static class FlushThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, FLUSH_THREAD_NAME);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
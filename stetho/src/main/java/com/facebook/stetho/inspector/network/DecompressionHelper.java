@@ -54,6 +54,24 @@ public class DecompressionHelper {
       }
     }
 
+    ResponseCaptureConfig captureConfig = NetworkPeerManager.getResponseCaptureConfig();
+    if (captureConfig.offThread) {
+      OffThreadResponseTee tee = new OffThreadResponseTee(
+          peerManager,
+          requestId,
+          output,
+          decompressedCounter,
+          responseHandler,
+          captureConfig.bufferBytes);
+      return new ResponseHandlingInputStream(
+          availableInputStream,
+          requestId,
+          tee.getOutputStream(),
+          null /* decompressedCounter */,
+          peerManager,
+          tee);
+    }
+
     return new ResponseHandlingInputStream(
         availableInputStream,
         requestId,
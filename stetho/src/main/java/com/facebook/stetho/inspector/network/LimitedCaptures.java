@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy.Capture;
+
+/**
+ * Requests which the {@link NetworkCapturePolicy} did not want in full, from
+ * {@code requestWillBeSent} until they finish or fail.  Requests captured in full are never
+ * added.
+ * <p />
+ * An app needn't ever finish or fail a request, and won't report it to us once DevTools has
+ * gone away, so only the most recent {@code maxSize} requests are remembered.  An evicted
+ * request is then treated as if it had been captured in full.
+ */
+@ThreadSafe
+class LimitedCaptures {
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  private final int mMaxSize;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Capture> mCaptures =
+      new LinkedHashMap<String, Capture>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Capture> eldest) {
+          return size() > mMaxSize;
+        }
+      };
+
+  /**
+   * Lets {@link #isSkipped} skip the lock in the common case where the policy captures
+   * everything.
+   */
+  private volatile int mSize;
+
+  public LimitedCaptures() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public LimitedCaptures(int maxSize) {
+    mMaxSize = maxSize;
+  }
+
+  public synchronized void put(String requestId, Capture capture) {
+    mCaptures.put(requestId, capture);
+    mSize = mCaptures.size();
+  }
+
+  @Nullable
+  public Capture get(String requestId) {
+    if (mSize == 0) {
+      return null;
+    }
+    synchronized (this) {
+      return mCaptures.get(requestId);
+    }
+  }
+
+  public boolean isSkipped(String requestId) {
+    return get(requestId) == Capture.SKIP;
+  }
+
+  /**
+   * Forget {@code requestId} once it has finished or failed.
+   *
+   * @return How it was being captured, or null if in full.
+   */
+  @Nullable
+  public Capture remove(String requestId) {
+    if (mSize == 0) {
+      return null;
+    }
+    synchronized (this) {
+      Capture capture = mCaptures.remove(requestId);
+      mSize = mCaptures.size();
+      return capture;
+    }
+  }
+
+  public synchronized void clear() {
+    mCaptures.clear();
+    mSize = 0;
+  }
+
+  public synchronized int size() {
+    return mCaptures.size();
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Decides how much of each request {@link NetworkEventReporterImpl} captures while DevTools is
+ * attached, so that high volume traffic such as analytics beacons or image fetches need not
+ * pay for it.  See {@link RuleBasedCapturePolicy} for a stock implementation.
+ * <p />
+ * The policy is consulted exactly once per request, from
+ * {@link NetworkEventReporter#requestWillBeSent} on the thread making the request, and so
+ * must be thread safe and cheap.
+ */
+public interface NetworkCapturePolicy {
+  enum Capture {
+    /**
+     * Report the request along with its request and response bodies.
+     */
+    FULL,
+
+    /**
+     * Report the request and response headers but neither body.  The response is shown as
+     * finished as soon as its headers arrive.
+     */
+    HEADERS_ONLY,
+
+    /**
+     * Don't report the request at all.  Nothing more is done for it past this decision.
+     */
+    SKIP,
+  }
+
+  Capture getCapture(NetworkEventReporter.InspectorRequest request);
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Controls merging of {@code Network.dataReceived} notifications.  A response read through a
+ * small buffer otherwise produces one notification per {@code read()}, which can mean thousands
+ * of messages for a single download.  While coalescing, data reported for a request is summed
+ * and sent at most once per {@link #windowMs}, or as soon as {@link #thresholdBytes} have
+ * accumulated.  Anything pending is always sent before the request's
+ * {@code Network.loadingFinished} or {@code Network.loadingFailed}.  Merged events are sent
+ * like any other notification rather than being dropped when the peer falls behind, so the
+ * totals shown by the Network tab are unaffected.
+ */
+public final class NetworkEventCoalescingConfig {
+  public static final int DEFAULT_WINDOW_MS = 100;
+  public static final int DEFAULT_THRESHOLD_BYTES = 64 * 1024;
+
+  /**
+   * Longest that reported data is held back, or 0 to send every event as it happens.
+   */
+  public final int windowMs;
+
+  public final int thresholdBytes;
+
+  public NetworkEventCoalescingConfig(int windowMs, int thresholdBytes) {
+    if (windowMs < 0) {
+      throw new IllegalArgumentException("windowMs must not be negative: " + windowMs);
+    }
+    if (thresholdBytes < 0) {
+      throw new IllegalArgumentException("thresholdBytes must not be negative: " + thresholdBytes);
+    }
+    this.windowMs = windowMs;
+    this.thresholdBytes = thresholdBytes;
+  }
+
+  public boolean isEnabled() {
+    return windowMs > 0;
+  }
+
+  public static NetworkEventCoalescingConfig createDefault() {
+    return new NetworkEventCoalescingConfig(DEFAULT_WINDOW_MS, DEFAULT_THRESHOLD_BYTES);
+  }
+
+  public static NetworkEventCoalescingConfig createDisabled() {
+    return new NetworkEventCoalescingConfig(0 /* windowMs */, DEFAULT_THRESHOLD_BYTES);
+  }
+
+  @Override
+  public String toString() {
+    return "NetworkEventCoalescingConfig{windowMs=" + windowMs +
+        ", thresholdBytes=" + thresholdBytes + "}";
+  }
+}
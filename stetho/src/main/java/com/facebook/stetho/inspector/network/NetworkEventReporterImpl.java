@@ -11,6 +11,7 @@ package com.facebook.stetho.inspector.network;
 
 import android.os.SystemClock;
 import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.console.CLog;
 import com.facebook.stetho.inspector.protocol.module.Console;
 import com.facebook.stetho.inspector.protocol.module.Network;
@@ -25,6 +26,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy.Capture;
 
 /**
  * Implementation of {@link NetworkEventReporter} which allows callers to inform the Stetho
@@ -37,9 +41,27 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   @Nullable
   private ResourceTypeHelper mResourceTypeHelper;
 
-  private static NetworkEventReporter sInstance;
+  private final DataReceivedCoalescer mDataReceivedCoalescer =
+      new DataReceivedCoalescer(new DataReceivedCoalescer.Sink() {
+        @Override
+        public void sendDataReceived(
+            String requestId,
+            int dataLength,
+            int encodedDataLength,
+            long timestampMs) {
+          sendDataReceivedNotification(requestId, dataLength, encodedDataLength, timestampMs);
+        }
+      });
+
+  private volatile NetworkCapturePolicy mCapturePolicy = RuleBasedCapturePolicy.createDefault();
+  private final AtomicLongArray mCaptureCounts = new AtomicLongArray(Capture.values().length);
+
+  private final LimitedCaptures mLimitedCaptures = new LimitedCaptures();
 
-  private NetworkEventReporterImpl() {
+  private static NetworkEventReporterImpl sInstance;
+
+  //@VisibleForTesting
+  NetworkEventReporterImpl() {
   }
 
   /**
@@ -53,6 +75,56 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
     return sInstance;
   }
 
+  /**
+   * Choose whether and how {@code Network.dataReceived} notifications are merged.  Normally
+   * configured through {@link com.facebook.stetho.Stetho.Initializer}.
+   */
+  public static void setCoalescingConfig(NetworkEventCoalescingConfig config) {
+    get();
+    sInstance.mDataReceivedCoalescer.setConfig(config);
+  }
+
+  /**
+   * Choose which requests are captured, and how much of them, while DevTools is attached.
+   * Normally configured through {@link com.facebook.stetho.Stetho.Initializer}.
+   */
+  public static void setCapturePolicy(NetworkCapturePolicy policy) {
+    get();
+    sInstance.mCapturePolicy = Util.throwIfNull(policy);
+    resetCaptureCounts();
+  }
+
+  public static NetworkCapturePolicy getCapturePolicy() {
+    get();
+    return sInstance.mCapturePolicy;
+  }
+
+  /**
+   * @return How many requests the current {@link NetworkCapturePolicy} has decided to
+   *     capture as {@code capture}.
+   */
+  public static long getCaptureCount(Capture capture) {
+    get();
+    return sInstance.mCaptureCounts.get(capture.ordinal());
+  }
+
+  /**
+   * Forget which requests were only partially captured, as we won't hear of them finishing
+   * once DevTools has gone away.
+   */
+  static void onLastPeerUnregistered() {
+    get();
+    sInstance.mLimitedCaptures.clear();
+  }
+
+  public static void resetCaptureCounts() {
+    get();
+    AtomicLongArray counts = sInstance.mCaptureCounts;
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+  }
+
   @Override
   public boolean isEnabled() {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
@@ -72,11 +144,22 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   public void requestWillBeSent(InspectorRequest request) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
+      Capture capture = mCapturePolicy.getCapture(request);
+      mCaptureCounts.incrementAndGet(capture.ordinal());
+      if (capture != Capture.FULL) {
+        mLimitedCaptures.put(request.id(), capture);
+        if (capture == Capture.SKIP) {
+          return;
+        }
+      }
+
       Network.Request requestJSON = new Network.Request();
       requestJSON.url = request.url();
       requestJSON.method = request.method();
       requestJSON.headers = formatHeadersAsJSON(request);
-      requestJSON.postData = readBodyAsString(peerManager, request);
+      if (capture == Capture.FULL) {
+        readBodyIntoRequest(peerManager, request, requestJSON);
+      }
 
       // Hack to use the initiator of SCRIPT to generate a fake call stack that includes
       // the request's "friendly" name.
@@ -109,14 +192,20 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
     }
   }
 
-  @Nullable
-  private static String readBodyAsString(
+  private static void readBodyIntoRequest(
       NetworkPeerManager peerManager,
-      InspectorRequest request) {
+      InspectorRequest request,
+      Network.Request requestJSON) {
     try {
       byte[] body = request.body();
       if (body != null) {
-        return new String(body, Utf8Charset.INSTANCE);
+        requestJSON.hasPostData = true;
+        int maxPostDataBytes = NetworkPeerManager.getRequestBodyCaptureConfig().maxPostDataBytes;
+        if (body.length <= maxPostDataBytes ||
+            !peerManager.getResponseBodyFileManager().hasRequestBody(request.id())) {
+          // Whatever we were given is the most we can show, even if it is only a preview.
+          requestJSON.postData = new String(body, Utf8Charset.INSTANCE);
+        }
       }
     } catch (IOException | OutOfMemoryError e) {
       CLog.writeToConsole(
@@ -125,13 +214,12 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
           Console.MessageSource.NETWORK,
           "Could not reproduce POST body: " + e);
     }
-    return null;
   }
 
   @Override
   public void responseHeadersReceived(InspectorResponse response) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
-    if (peerManager != null) {
+    if (peerManager != null && !isSkipped(response.requestId())) {
       Network.Response responseJSON = new Network.Response();
       responseJSON.url = response.url();
       responseJSON.status = response.statusCode();
@@ -211,6 +299,15 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       @Nullable String contentEncoding,
       @Nullable InputStream availableInputStream,
       ResponseHandler responseHandler) {
+    // Kept until the request finishes or fails, as events for it may still follow.
+    Capture limitedCapture = mLimitedCaptures.get(requestId);
+    if (limitedCapture != null) {
+      // We won't be looking at the body, so there is nothing more to wait for.  Finishing the
+      // request here is also what forgets it, as nobody reports on the unwrapped stream.
+      responseHandler.onEOF();
+      return availableInputStream;
+    }
+
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       if (availableInputStream == null) {
@@ -263,8 +360,12 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   }
 
   private void loadingFinished(String requestId) {
+    if (mLimitedCaptures.remove(requestId) == Capture.SKIP) {
+      return;
+    }
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
+      mDataReceivedCoalescer.flush(requestId);
       Network.LoadingFinishedParams finishedParams = new Network.LoadingFinishedParams();
       finishedParams.requestId = requestId;
       finishedParams.timestamp = stethoNow() / 1000.0;
@@ -278,8 +379,12 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   }
 
   private void loadingFailed(String requestId, String errorText) {
+    if (mLimitedCaptures.remove(requestId) == Capture.SKIP) {
+      return;
+    }
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
+      mDataReceivedCoalescer.flush(requestId);
       Network.LoadingFailedParams failedParams = new Network.LoadingFailedParams();
       failedParams.requestId = requestId;
       failedParams.timestamp = stethoNow() / 1000.0;
@@ -305,17 +410,42 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       String requestId,
       int dataLength,
       int encodedDataLength) {
+    if (getPeerManagerIfEnabled() != null && !isSkipped(requestId)) {
+      mDataReceivedCoalescer.dataReceived(
+          requestId,
+          dataLength,
+          encodedDataLength,
+          stethoNow());
+    }
+  }
+
+  private void sendDataReceivedNotification(
+      String requestId,
+      int dataLength,
+      int encodedDataLength,
+      long timestampMs) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.DataReceivedParams dataReceivedParams = new Network.DataReceivedParams();
       dataReceivedParams.requestId = requestId;
-      dataReceivedParams.timestamp = stethoNow() / 1000.0;
+      dataReceivedParams.timestamp = timestampMs / 1000.0;
       dataReceivedParams.dataLength = dataLength;
       dataReceivedParams.encodedDataLength = encodedDataLength;
+      // Not sent at low priority: each event carries the sum of many reads (see
+      // DataReceivedCoalescer), so dropping one would leave the request's transfer size short.
       peerManager.sendNotificationToPeers("Network.dataReceived", dataReceivedParams);
     }
   }
 
+  //@VisibleForTesting
+  LimitedCaptures getLimitedCaptures() {
+    return mLimitedCaptures;
+  }
+
+  private boolean isSkipped(String requestId) {
+    return mLimitedCaptures.isSkipped(requestId);
+  }
+
   @Override
   public String nextRequestId() {
     return String.valueOf(mNextRequestId.getAndIncrement());
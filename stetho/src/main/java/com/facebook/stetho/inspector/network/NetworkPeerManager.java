@@ -17,14 +17,24 @@ import com.facebook.stetho.inspector.helper.ChromePeerManager;
 import com.facebook.stetho.inspector.helper.PeersRegisteredListener;
 
 public class NetworkPeerManager extends ChromePeerManager {
-  private static NetworkPeerManager sInstance;
+  /**
+   * Volatile so that {@link #getInstanceOrNull()}, which is on the path of every intercepted
+   * request, takes no lock.
+   */
+  private static volatile NetworkPeerManager sInstance;
+  private static ResponseBodyStoreConfig sResponseBodyStoreConfig =
+      ResponseBodyStoreConfig.createDefault();
+  private static volatile RequestBodyCaptureConfig sRequestBodyCaptureConfig =
+      RequestBodyCaptureConfig.createDefault();
+  private static volatile ResponseCaptureConfig sResponseCaptureConfig =
+      ResponseCaptureConfig.createDefault();
 
   private final ResponseBodyFileManager mResponseBodyFileManager;
   private AsyncPrettyPrinterInitializer mPrettyPrinterInitializer;
   private AsyncPrettyPrinterRegistry mAsyncPrettyPrinterRegistry;
 
   @Nullable
-  public static synchronized NetworkPeerManager getInstanceOrNull() {
+  public static NetworkPeerManager getInstanceOrNull() {
     return sInstance;
   }
 
@@ -32,11 +42,35 @@ public class NetworkPeerManager extends ChromePeerManager {
     if (sInstance == null) {
       sInstance = new NetworkPeerManager(
           new ResponseBodyFileManager(
-              context.getApplicationContext()));
+              context.getApplicationContext(),
+              sResponseBodyStoreConfig));
     }
     return sInstance;
   }
 
+  public static synchronized void setResponseBodyStoreConfig(ResponseBodyStoreConfig config) {
+    sResponseBodyStoreConfig = Util.throwIfNull(config);
+    if (sInstance != null) {
+      sInstance.mResponseBodyFileManager.setStoreConfig(config);
+    }
+  }
+
+  public static RequestBodyCaptureConfig getRequestBodyCaptureConfig() {
+    return sRequestBodyCaptureConfig;
+  }
+
+  public static void setRequestBodyCaptureConfig(RequestBodyCaptureConfig config) {
+    sRequestBodyCaptureConfig = Util.throwIfNull(config);
+  }
+
+  public static ResponseCaptureConfig getResponseCaptureConfig() {
+    return sResponseCaptureConfig;
+  }
+
+  public static void setResponseCaptureConfig(ResponseCaptureConfig config) {
+    sResponseCaptureConfig = Util.throwIfNull(config);
+  }
+
   public NetworkPeerManager(
       ResponseBodyFileManager responseBodyFileManager) {
     mResponseBodyFileManager = responseBodyFileManager;
@@ -72,6 +106,7 @@ public class NetworkPeerManager extends ChromePeerManager {
     protected void onLastPeerUnregistered() {
       mResponseBodyFileManager.cleanupFiles();
       AsyncPrettyPrinterExecutorHolder.shutdown();
+      NetworkEventReporterImpl.onLastPeerUnregistered();
     }
   };
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.stetho.inspector.console.CLog;
+import com.facebook.stetho.inspector.protocol.module.Console;
+
+/**
+ * Captures a response body for {@link ResponseHandlingInputStream} without doing the work on
+ * the thread reading the response.  Raw bytes written to {@link #getOutputStream()} are only
+ * copied into a single producer, single consumer ring buffer; a shared background thread
+ * decompresses and stores them.  The background thread also forwards this
+ * {@link ResponseHandler}'s events as it catches up, so {@code Network.loadingFinished} still
+ * follows the complete body.
+ * <p />
+ * Should the reader get more than the buffer ahead of us, the rest of the body is dropped and
+ * the stored body is marked as truncated.
+ */
+@ThreadSafe
+final class OffThreadResponseTee implements ResponseHandler {
+  private static final String THREAD_NAME = "StethoResponseTee";
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  /**
+   * Shared by all responses.  The thread is never retired as {@link GunzippingOutputStream}
+   * considers its pipe broken once the last thread to write to it has died.
+   */
+  private static final ExecutorService sExecutor =
+      Executors.newSingleThreadExecutor(new TeeThreadFactory());
+
+  private final NetworkPeerManager mPeerManager;
+  private final String mRequestId;
+  private final ResponseHandler mResponseHandler;
+  private final RingBufferOutputStream mRingBufferOutputStream = new RingBufferOutputStream();
+  private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+  private final byte[] mBuffer;
+  private final int mMask;
+
+  /**
+   * Advanced by the reading thread once bytes are in {@link #mBuffer}.
+   */
+  private volatile long mWriteIndex;
+
+  /**
+   * Advanced by the background thread once bytes have been consumed from {@link #mBuffer}.
+   */
+  private volatile long mReadIndex;
+
+  private final AtomicLong mBytesRead = new AtomicLong();
+  private volatile boolean mTruncated;
+  private volatile boolean mOutputClosed;
+  private volatile boolean mEofSeen;
+  @Nullable private volatile IOException mError;
+
+  // Only accessed by the background thread.
+  private final OutputStream mOutput;
+  @Nullable private final CountingOutputStream mDecompressedCounter;
+  private long mLastDecompressedCount;
+  private long mBytesReadForwarded;
+  private boolean mOutputFinished;
+  private boolean mHandlerFinished;
+
+  private final Runnable mDrainRunnable = new Runnable() {
+    @Override
+    public void run() {
+      do {
+        drain();
+        mDrainScheduled.set(false);
+      } while (hasPendingWork() && mDrainScheduled.compareAndSet(false, true));
+    }
+  };
+
+  /**
+   * @param output Stream to write the raw body to, usually through a decompressor.
+   * @param decompressedCounter See {@link ResponseHandlingInputStream}.
+   * @param responseHandler Handler to forward events to from the background thread.
+   * @param bufferBytes Raw bytes which may be waiting for the background thread before the
+   *     body is truncated.
+   */
+  public OffThreadResponseTee(
+      NetworkPeerManager peerManager,
+      String requestId,
+      OutputStream output,
+      @Nullable CountingOutputStream decompressedCounter,
+      ResponseHandler responseHandler,
+      int bufferBytes) {
+    mPeerManager = peerManager;
+    mRequestId = requestId;
+    mOutput = output;
+    mDecompressedCounter = decompressedCounter;
+    mResponseHandler = responseHandler;
+    int capacity = Integer.highestOneBit(Math.min(bufferBytes, MAX_CAPACITY));
+    if (capacity < bufferBytes && capacity < MAX_CAPACITY) {
+      capacity <<= 1;
+    }
+    mBuffer = new byte[capacity];
+    mMask = capacity - 1;
+  }
+
+  /**
+   * Stream for the thread reading the response to write raw bytes to.
+   */
+  public OutputStream getOutputStream() {
+    return mRingBufferOutputStream;
+  }
+
+  @Override
+  public void onRead(int numBytes) {
+    mBytesRead.addAndGet(numBytes);
+    scheduleDrain();
+  }
+
+  @Override
+  public void onReadDecoded(int numBytes) {
+    // Decoding happens on the background thread, which reports it directly.
+  }
+
+  @Override
+  public void onEOF() {
+    mEofSeen = true;
+    scheduleDrain();
+  }
+
+  @Override
+  public void onError(IOException e) {
+    mError = e;
+    scheduleDrain();
+  }
+
+  private void scheduleDrain() {
+    if (mDrainScheduled.compareAndSet(false, true)) {
+      sExecutor.execute(mDrainRunnable);
+    }
+  }
+
+  private boolean hasPendingWork() {
+    return mReadIndex != mWriteIndex ||
+        (!mHandlerFinished && mBytesRead.get() != mBytesReadForwarded) ||
+        (mOutputClosed && !mOutputFinished) ||
+        ((mEofSeen || mError != null) && !mHandlerFinished);
+  }
+
+  private void drain() {
+    // Read in the reverse order to which the reading thread publishes these, so that we are
+    // sure to have seen every byte written before the stream was closed or ended.
+    boolean eofSeen = mEofSeen;
+    IOException error = mError;
+    boolean outputClosed = mOutputClosed;
+    long writeIndex = mWriteIndex;
+
+    long readIndex = mReadIndex;
+    while (readIndex < writeIndex) {
+      int offset = (int) (readIndex & mMask);
+      int count = (int) Math.min(writeIndex - readIndex, mBuffer.length - offset);
+      writeToOutput(mBuffer, offset, count);
+      readIndex += count;
+      mReadIndex = readIndex;
+    }
+
+    // The reading thread counts each read before writing it to us, so this covers at least the
+    // bytes drained above.
+    if (!mHandlerFinished) {
+      forwardBytesRead();
+    }
+
+    if ((outputClosed || eofSeen) && !mOutputFinished) {
+      finishOutput();
+    }
+    if ((eofSeen || error != null) && !mHandlerFinished) {
+      mHandlerFinished = true;
+      if (eofSeen) {
+        mResponseHandler.onEOF();
+      } else {
+        mResponseHandler.onError(error);
+      }
+    }
+  }
+
+  /**
+   * Forward reads counted since our last pass.  That's usually a single read, but may be many
+   * more if we've fallen behind, so the total is forwarded in int-sized pieces.
+   */
+  private void forwardBytesRead() {
+    long bytesRead = mBytesRead.get();
+    while (mBytesReadForwarded < bytesRead) {
+      int count = (int) Math.min(bytesRead - mBytesReadForwarded, Integer.MAX_VALUE);
+      mResponseHandler.onRead(count);
+      mBytesReadForwarded += count;
+    }
+  }
+
+  private void writeToOutput(byte[] buffer, int offset, int count) {
+    if (mOutputFinished) {
+      return;
+    }
+    try {
+      mOutput.write(buffer, offset, count);
+      reportDecodedSizeIfApplicable();
+    } catch (IOException e) {
+      CLog.writeToConsole(
+          mPeerManager,
+          Console.MessageLevel.ERROR,
+          Console.MessageSource.NETWORK,
+          "Could not write response body to the stream " + e);
+      finishOutput();
+    }
+  }
+
+  private void finishOutput() {
+    mOutputFinished = true;
+    boolean truncated = mTruncated;
+    if (truncated) {
+      mPeerManager.getResponseBodyFileManager().markTruncated(mRequestId);
+      CLog.writeToConsole(
+          mPeerManager,
+          Console.MessageLevel.WARNING,
+          Console.MessageSource.NETWORK,
+          "Response body for request #" + mRequestId + " was truncated after " +
+              mWriteIndex + " bytes as it was read faster than it could be stored");
+    }
+    try {
+      mOutput.close();
+      reportDecodedSizeIfApplicable();
+    } catch (IOException e) {
+      // Expected of a decompressor cut off mid-stream.
+      if (!truncated) {
+        CLog.writeToConsole(
+            mPeerManager,
+            Console.MessageLevel.ERROR,
+            Console.MessageSource.NETWORK,
+            "Could not close the output stream" + e);
+      }
+    }
+  }
+
+  private void reportDecodedSizeIfApplicable() {
+    if (mDecompressedCounter != null) {
+      long currentCount = mDecompressedCounter.getCount();
+      int delta = (int)(currentCount - mLastDecompressedCount);
+      mResponseHandler.onReadDecoded(delta);
+      mLastDecompressedCount = currentCount;
+    }
+  }
+
+  /**
+   * Only ever written to by the thread reading the response.
+   */
+  private class RingBufferOutputStream extends OutputStream {
+    @Override
+    public void write(int oneByte) throws IOException {
+      if (mTruncated || mOutputClosed) {
+        return;
+      }
+      long writeIndex = mWriteIndex;
+      if (writeIndex - mReadIndex == mBuffer.length) {
+        mTruncated = true;
+        return;
+      }
+      mBuffer[(int) (writeIndex & mMask)] = (byte) oneByte;
+      mWriteIndex = writeIndex + 1;
+      scheduleDrain();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      if (mTruncated || mOutputClosed || count == 0) {
+        return;
+      }
+      long writeIndex = mWriteIndex;
+      int free = (int) (mBuffer.length - (writeIndex - mReadIndex));
+      int copyCount = Math.min(count, free);
+      int start = (int) (writeIndex & mMask);
+      int firstCount = Math.min(copyCount, mBuffer.length - start);
+      System.arraycopy(buffer, offset, mBuffer, start, firstCount);
+      System.arraycopy(buffer, offset + firstCount, mBuffer, 0, copyCount - firstCount);
+      if (copyCount < count) {
+        mTruncated = true;
+      }
+      mWriteIndex = writeIndex + copyCount;
+      scheduleDrain();
+    }
+
+    @Override
+    public void close() {
+      mOutputClosed = true;
+      scheduleDrain();
+    }
+  }
+
+  private static class TeeThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName(THREAD_NAME);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
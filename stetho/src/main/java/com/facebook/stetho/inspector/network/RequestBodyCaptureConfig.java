@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Controls how much of each request body is held in memory for {@code Network.requestWillBeSent}.
+ * Bodies captured by {@link RequestBodyHelper} are streamed into the same store as response
+ * bodies (see {@link ResponseBodyStoreConfig}); only a preview of up to
+ * {@link #maxPostDataBytes} is kept on the side and sent inline as {@code postData}.  Larger
+ * bodies are announced with {@code hasPostData} and fetched by DevTools through
+ * {@code Network.getRequestPostData} only if it wants them.
+ */
+public final class RequestBodyCaptureConfig {
+  public static final int DEFAULT_MAX_POST_DATA_BYTES = 64 * 1024;
+
+  /**
+   * Largest decoded body sent inline with {@code Network.requestWillBeSent}.
+   */
+  public final int maxPostDataBytes;
+
+  public RequestBodyCaptureConfig(int maxPostDataBytes) {
+    if (maxPostDataBytes < 0) {
+      throw new IllegalArgumentException(
+          "maxPostDataBytes must not be negative: " + maxPostDataBytes);
+    }
+    this.maxPostDataBytes = maxPostDataBytes;
+  }
+
+  public static RequestBodyCaptureConfig createDefault() {
+    return new RequestBodyCaptureConfig(DEFAULT_MAX_POST_DATA_BYTES);
+  }
+
+  @Override
+  public String toString() {
+    return "RequestBodyCaptureConfig{maxPostDataBytes=" + maxPostDataBytes + "}";
+  }
+}
@@ -25,12 +25,17 @@ import java.util.zip.InflaterOutputStream;
  * written.  Then invoke {@link #getDisplayBody()} to retrieve the possibly decoded body.
  * Finally, {@link #reportDataSent()} can be called to report to Stetho the raw and decompressed
  * payload sizes.
+ * <p />
+ * Only the start of the decoded body is held in memory, as configured by
+ * {@link RequestBodyCaptureConfig}.  Larger bodies are streamed into the
+ * {@link ResponseBodyFileManager} instead, from which DevTools can fetch them on demand.
  */
 public class RequestBodyHelper {
   private final NetworkEventReporter mEventReporter;
   private final String mRequestId;
 
-  private ByteArrayOutputStream mDeflatedOutput;
+  private PreviewingOutputStream mPreviewingOutput;
+  private CountingOutputStream mDeflatedOutput;
   private CountingOutputStream mDeflatingOutput;
 
   public RequestBodyHelper(NetworkEventReporter eventReporter, String requestId) {
@@ -39,8 +44,11 @@ public class RequestBodyHelper {
   }
 
   public OutputStream createBodySink(@Nullable String contentEncoding) throws IOException {
+    PreviewingOutputStream previewingOutput = new PreviewingOutputStream(
+        mRequestId,
+        NetworkPeerManager.getRequestBodyCaptureConfig().maxPostDataBytes);
+    CountingOutputStream deflatedOutput = new CountingOutputStream(previewingOutput);
     OutputStream deflatingOutput;
-    ByteArrayOutputStream deflatedOutput = new ByteArrayOutputStream();
     if (DecompressionHelper.GZIP_ENCODING.equals(contentEncoding)) {
       deflatingOutput = GunzippingOutputStream.create(deflatedOutput);
     } else if (DecompressionHelper.DEFLATE_ENCODING.equals(contentEncoding)) {
@@ -51,13 +59,19 @@ public class RequestBodyHelper {
 
     mDeflatingOutput = new CountingOutputStream(deflatingOutput);
     mDeflatedOutput = deflatedOutput;
+    mPreviewingOutput = previewingOutput;
 
     return mDeflatingOutput;
   }
 
+  /**
+   * @return The decoded body, cut short one byte past
+   *     {@link RequestBodyCaptureConfig#maxPostDataBytes} so that callers can tell whether it
+   *     is complete.
+   */
   public byte[] getDisplayBody() {
     throwIfNoBody();
-    return mDeflatedOutput.toByteArray();
+    return mPreviewingOutput.getPreview();
   }
 
   public boolean hasBody() {
@@ -68,7 +82,7 @@ public class RequestBodyHelper {
     throwIfNoBody();
     mEventReporter.dataSent(
         mRequestId,
-        mDeflatedOutput.size(),
+        (int)mDeflatedOutput.getCount(),
         (int)mDeflatingOutput.getCount());
   }
 
@@ -77,4 +91,65 @@ public class RequestBodyHelper {
       throw new IllegalStateException("No body found; has createBodySink been called?");
     }
   }
+
+  /**
+   * Keeps the start of the body in memory and, once that is exceeded, streams the whole body
+   * into the body store.  Bodies which fit are never written to disk.
+   */
+  private static class PreviewingOutputStream extends OutputStream {
+    private final String mRequestId;
+    private final int mMaxPreviewBytes;
+    private final ByteArrayOutputStream mPreview = new ByteArrayOutputStream();
+    @Nullable private OutputStream mOverflow;
+    private boolean mOverflowed;
+
+    public PreviewingOutputStream(String requestId, int maxPostDataBytes) {
+      mRequestId = requestId;
+      mMaxPreviewBytes = (int) Math.min(Integer.MAX_VALUE, maxPostDataBytes + 1L);
+    }
+
+    public byte[] getPreview() {
+      return mPreview.toByteArray();
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      write(new byte[] { (byte) oneByte }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      int previewCount = Math.min(count, mMaxPreviewBytes - mPreview.size());
+      if (previewCount > 0) {
+        mPreview.write(buffer, offset, previewCount);
+      }
+      if (!mOverflowed && mPreview.size() == mMaxPreviewBytes) {
+        mOverflowed = true;
+        mOverflow = openOverflow();
+        if (mOverflow != null) {
+          mPreview.writeTo(mOverflow);
+        }
+      }
+      if (mOverflow != null && previewCount < count) {
+        mOverflow.write(buffer, offset + previewCount, count - previewCount);
+      }
+    }
+
+    @Nullable
+    private OutputStream openOverflow() {
+      NetworkPeerManager peerManager = NetworkPeerManager.getInstanceOrNull();
+      if (peerManager == null) {
+        return null;
+      }
+      return peerManager.getResponseBodyFileManager().openRequestBodyFile(mRequestId);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (mOverflow != null) {
+        mOverflow.close();
+        mOverflow = null;
+      }
+    }
+  }
 }
@@ -9,20 +9,28 @@
 
 package com.facebook.stetho.inspector.network;
 
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -35,95 +43,228 @@ import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
 
 /**
- * Manages temporary files created by {@link ChromeHttpFlowObserver} to serve request bodies.
+ * Manages the temporary storage of response bodies captured by {@link NetworkEventReporter}
+ * to serve {@code Network.getResponseBody}, as well as request bodies too large to send inline
+ * for {@code Network.getRequestPostData}.  See {@link ResponseBodyStore}.
+ * <p>
+ * Bodies with an {@link AsyncPrettyPrinter} are pretty printed in the background as soon as
+ * they have been fully written, and the result is stored alongside the raw body.  Reading
+ * such a body only waits for the pretty printer if it is still running.
  */
 public class ResponseBodyFileManager {
   private static final String TAG = "ResponseBodyFileManager";
-  private static final String FILENAME_PREFIX = "network-response-body-";
+  private static final String STORE_DIRECTORY = "stetho-network-response-bodies";
+
+  /**
+   * Bodies used to be kept as files with this prefix directly in {@link Context#getFilesDir()},
+   * where an app upgraded from such a version may still have some.
+   */
+  private static final String LEGACY_FILENAME_PREFIX = "network-response-body-";
+  private static final String PRETTY_PRINTED_KEY_PREFIX = "pretty-printed:";
+  private static final String REQUEST_BODY_KEY_PREFIX = "request:";
   private static final int PRETTY_PRINT_TIMEOUT_SEC = 10;
+  private static final String TRUNCATED_MARKER =
+      "\n\n[Stetho: the rest of this body was not captured, see the console]";
 
   private final Context mContext;
+  private final ResponseBodyStore mStore;
   private final Map<String, AsyncPrettyPrinter> mRequestIdMap = Collections.synchronizedMap(
       new HashMap<String, AsyncPrettyPrinter>());
 
+  /**
+   * Pretty printing started for each request, whether finished or not.
+   */
+  private final Map<String, Future<Void>> mPrettyPrintTasks = Collections.synchronizedMap(
+      new HashMap<String, Future<Void>>());
+
+  /**
+   * Bodies which were only partly captured; see {@link ResponseCaptureConfig}.
+   */
+  private final Set<String> mTruncatedBodies =
+      Collections.synchronizedSet(new HashSet<String>());
+
+  @GuardedBy("this")
+  private boolean mLegacyFilesDeleted;
+
   public ResponseBodyFileManager(Context context) {
+    this(context, ResponseBodyStoreConfig.createDefault());
+  }
+
+  public ResponseBodyFileManager(Context context, ResponseBodyStoreConfig config) {
     mContext = context;
+    mStore = new ResponseBodyStore(new File(context.getCacheDir(), STORE_DIRECTORY), config);
+  }
+
+  public void setStoreConfig(ResponseBodyStoreConfig config) {
+    mStore.setConfig(config);
   }
 
   public void cleanupFiles() {
-    for (File file : mContext.getFilesDir().listFiles()) {
-      if (file.getName().startsWith(FILENAME_PREFIX)) {
+    synchronized (mPrettyPrintTasks) {
+      for (Future<Void> task : mPrettyPrintTasks.values()) {
+        task.cancel(true);
+      }
+      mPrettyPrintTasks.clear();
+    }
+    mTruncatedBodies.clear();
+    mStore.clear();
+    deleteLegacyFilesOnce();
+    LogRedirector.i(TAG, "Cleaned up temporary network files.");
+  }
+
+  private synchronized void deleteLegacyFilesOnce() {
+    if (mLegacyFilesDeleted) {
+      return;
+    }
+    mLegacyFilesDeleted = true;
+    File filesDir = mContext.getFilesDir();
+    File[] files = filesDir != null ? filesDir.listFiles() : null;
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().startsWith(LEGACY_FILENAME_PREFIX)) {
         if (!file.delete()) {
           LogRedirector.w(TAG, "Failed to delete " + file.getAbsolutePath());
         }
       }
     }
-    LogRedirector.i(TAG, "Cleaned up temporary network files.");
   }
 
   public ResponseBodyData readFile(String requestId) throws IOException {
-    InputStream in = mContext.openFileInput(getFilename(requestId));
+    ResponseBodyStore.StoredBody body = mStore.openInputStream(requestId);
+    if (body == null) {
+      throw new FileNotFoundException("No response body available for request #" + requestId);
+    }
+    InputStream in = body.stream;
     try {
-      int firstByte = in.read();
-      if (firstByte == -1) {
-        throw new EOFException("Failed to read base64Encode byte");
-      }
       ResponseBodyData bodyData = new ResponseBodyData();
-      bodyData.base64Encoded = firstByte != 0;
-
-      AsyncPrettyPrinter asyncPrettyPrinter = mRequestIdMap.get(requestId);
-      if (asyncPrettyPrinter != null) {
-        // TODO: this line blocks for up to 10 seconds and create problems as described
-        // in issue #243 allow asynchronous dispatch for MethodDispatcher
-        bodyData.data = prettyPrintContentWithTimeOut(asyncPrettyPrinter, in);
+      bodyData.base64Encoded = body.base64Encoded;
+      if (mRequestIdMap.get(requestId) != null) {
+        bodyData.data = readPrettyPrinted(requestId, in);
       } else {
         bodyData.data = Util.readAsUTF8(in);
       }
+      if (!body.base64Encoded && bodyData.data != null && mTruncatedBodies.contains(requestId)) {
+        bodyData.data += TRUNCATED_MARKER;
+      }
       return bodyData;
-
     } finally {
       in.close();
     }
   }
 
-  private String prettyPrintContentWithTimeOut(
-      AsyncPrettyPrinter asyncPrettyPrinter,
-      InputStream in) throws IOException {
-    AsyncPrettyPrintingCallable prettyPrintingCallable = new AsyncPrettyPrintingCallable(
-        in,
-        asyncPrettyPrinter);
-    ExecutorService executorService = AsyncPrettyPrinterExecutorHolder.getExecutorService();
-    if (executorService == null) {
-      //last peer is unregistered...
-      return null;
+  @Nullable
+  private String readPrettyPrinted(String requestId, InputStream rawBody) throws IOException {
+    String prettyPrintedKey = getPrettyPrintedKey(requestId);
+    Future<Void> task = mPrettyPrintTasks.get(requestId);
+    if (task == null || (task.isDone() && !mStore.contains(prettyPrintedKey))) {
+      // Either the body was written before a peer connected or the pretty printed copy has
+      // since been evicted.
+      task = startPrettyPrinting(requestId);
+      if (task == null) {
+        //last peer is unregistered...
+        return null;
+      }
     }
-    Future<String> future = executorService.submit(prettyPrintingCallable);
+
     try {
-      return Util.getUninterruptibly(future, PRETTY_PRINT_TIMEOUT_SEC, TimeUnit.SECONDS);
-    } catch (TimeoutException e) {
-      future.cancel(true);
+      Util.getUninterruptibly(task, PRETTY_PRINT_TIMEOUT_SEC, TimeUnit.SECONDS);
+    } catch (TimeoutException | CancellationException e) {
+      task.cancel(true);
       return "Time out after " + PRETTY_PRINT_TIMEOUT_SEC +
-          " seconds of attempting to pretty print\n" + Util.readAsUTF8(in);
-    }  catch (ExecutionException e) {
+          " seconds of attempting to pretty print\n" + Util.readAsUTF8(rawBody);
+    } catch (ExecutionException e) {
       Throwable cause = e.getCause();
       ExceptionUtil.propagateIfInstanceOf(cause, IOException.class);
       throw ExceptionUtil.propagate(cause);
     }
+
+    ResponseBodyStore.StoredBody prettyPrinted = mStore.openInputStream(prettyPrintedKey);
+    if (prettyPrinted == null) {
+      // Too large to keep, so show it as is rather than pretty printing on every request.
+      return Util.readAsUTF8(rawBody);
+    }
+    try {
+      return Util.readAsUTF8(prettyPrinted.stream);
+    } finally {
+      prettyPrinted.stream.close();
+    }
   }
 
   public OutputStream openResponseBodyFile(String requestId, boolean base64Encode)
       throws IOException {
-    OutputStream out = mContext.openFileOutput(getFilename(requestId), Context.MODE_PRIVATE);
-    out.write(base64Encode ? 1 : 0);
+    OutputStream out = mStore.openOutputStream(requestId, base64Encode);
     if (base64Encode) {
-      return new Base64OutputStream(out, Base64.DEFAULT);
-    } else {
-      return out;
+      out = new Base64OutputStream(out, Base64.DEFAULT);
+    }
+    if (mRequestIdMap.get(requestId) != null) {
+      out = new PrettyPrintOnCloseOutputStream(out, requestId);
     }
+    return out;
   }
 
-  private static String getFilename(String requestId) {
-    return FILENAME_PREFIX + requestId;
+  /**
+   * Note that the body of {@code requestId} is incomplete, which is pointed out to DevTools
+   * when it is read as text.  Must be called before the stream is closed.
+   */
+  public void markTruncated(String requestId) {
+    mTruncatedBodies.add(requestId);
+  }
+
+  @Nullable
+  private Future<Void> startPrettyPrinting(String requestId) {
+    AsyncPrettyPrinter asyncPrettyPrinter = mRequestIdMap.get(requestId);
+    ExecutorService executorService = AsyncPrettyPrinterExecutorHolder.getExecutorService();
+    if (asyncPrettyPrinter == null || executorService == null) {
+      return null;
+    }
+    synchronized (mPrettyPrintTasks) {
+      Future<Void> task;
+      try {
+        task = executorService.submit(new PrettyPrintingCallable(requestId, asyncPrettyPrinter));
+      } catch (RejectedExecutionException e) {
+        // Raced with the last peer unregistering.
+        return null;
+      }
+      Future<Void> previous = mPrettyPrintTasks.put(requestId, task);
+      if (previous != null) {
+        previous.cancel(true);
+      }
+      return task;
+    }
+  }
+
+  /**
+   * Open a stream for the decoded body of a request, which is kept alongside the response
+   * bodies for {@code Network.getRequestPostData}.
+   */
+  public OutputStream openRequestBodyFile(String requestId) {
+    return mStore.openOutputStream(getRequestBodyKey(requestId), false /* base64Encoded */);
+  }
+
+  public boolean hasRequestBody(String requestId) {
+    return mStore.contains(getRequestBodyKey(requestId));
+  }
+
+  public String readRequestBody(String requestId) throws IOException {
+    ResponseBodyStore.StoredBody body = mStore.openInputStream(getRequestBodyKey(requestId));
+    if (body == null) {
+      throw new FileNotFoundException("No request body available for request #" + requestId);
+    }
+    try {
+      return Util.readAsUTF8(body.stream);
+    } finally {
+      body.stream.close();
+    }
+  }
+
+  private static String getRequestBodyKey(String requestId) {
+    return REQUEST_BODY_KEY_PREFIX + requestId;
+  }
+
+  private static String getPrettyPrintedKey(String requestId) {
+    return PRETTY_PRINTED_KEY_PREFIX + requestId;
   }
 
   /**
@@ -144,29 +285,68 @@ public class ResponseBodyFileManager {
     }
   }
 
-  private class AsyncPrettyPrintingCallable implements Callable<String> {
-    private final InputStream mInputStream;
-    private final AsyncPrettyPrinter mAsyncPrettyPrinter;
+  /**
+   * Starts pretty printing once the raw body has been stored.
+   */
+  private class PrettyPrintOnCloseOutputStream extends FilterOutputStream {
+    private final String mRequestId;
+    private boolean mClosed;
 
-    public AsyncPrettyPrintingCallable(
-        InputStream in,
-        AsyncPrettyPrinter asyncPrettyPrinter) {
-      mInputStream = in;
-      mAsyncPrettyPrinter = asyncPrettyPrinter;
+    public PrettyPrintOnCloseOutputStream(OutputStream out, String requestId) {
+      super(out);
+      mRequestId = requestId;
     }
 
     @Override
-    public String call() throws IOException {
-      return prettyPrintContent(mInputStream, mAsyncPrettyPrinter);
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      out.write(buffer, offset, count);
     }
 
-    private String prettyPrintContent(InputStream in, AsyncPrettyPrinter asyncPrettyPrinter)
-        throws IOException {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      PrintWriter writer = new PrintWriter(out);
-      asyncPrettyPrinter.printTo(writer, in);
-      writer.flush();
-      return out.toString("UTF-8");
+    @Override
+    public void close() throws IOException {
+      if (mClosed) {
+        return;
+      }
+      mClosed = true;
+      super.close();
+      startPrettyPrinting(mRequestId);
+    }
+  }
+
+  /**
+   * Streams the raw body through the pretty printer straight back into the store.
+   */
+  private class PrettyPrintingCallable implements Callable<Void> {
+    private final String mRequestId;
+    private final AsyncPrettyPrinter mAsyncPrettyPrinter;
+
+    public PrettyPrintingCallable(String requestId, AsyncPrettyPrinter asyncPrettyPrinter) {
+      mRequestId = requestId;
+      mAsyncPrettyPrinter = asyncPrettyPrinter;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      ResponseBodyStore.StoredBody rawBody = mStore.openInputStream(mRequestId);
+      if (rawBody == null) {
+        return null;
+      }
+      String prettyPrintedKey = getPrettyPrintedKey(mRequestId);
+      PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+          mStore.openOutputStream(prettyPrintedKey, rawBody.base64Encoded),
+          "UTF-8"));
+      boolean success = false;
+      try {
+        mAsyncPrettyPrinter.printTo(writer, rawBody.stream);
+        success = !writer.checkError();
+      } finally {
+        writer.close();
+        rawBody.stream.close();
+        if (!success) {
+          mStore.remove(prettyPrintedKey);
+        }
+      }
+      return null;
     }
   }
 }
@@ -0,0 +1,600 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.facebook.stetho.common.LogRedirector;
+
+/**
+ * Append-only log of response bodies.  Writers buffer a chunk at a time and append it to the
+ * current segment file, so bodies for concurrent requests may be interleaved; the in-memory
+ * index records where each chunk of a body landed and reads go straight to those positions.
+ * Space for a chunk is reserved under our lock but written outside of it, so threads writing
+ * bodies don't wait on each other's file I/O.
+ * <p>
+ * Bodies are only indexed once their stream is closed.  The index is kept in LRU order and
+ * trimmed to {@link ResponseBodyStoreConfig#maxBytes}.  A segment file is deleted as soon as
+ * nothing live remains in it; should evicted bodies leave too much dead space behind, whole
+ * segments are dropped oldest first, along with any body still being written into them (as
+ * one whose stream is never closed would otherwise keep its segments forever).
+ */
+@ThreadSafe
+class ResponseBodyStore {
+  private static final String TAG = "ResponseBodyStore";
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final long MIN_SEGMENT_BYTES = 256 * 1024;
+
+  /**
+   * Segments per {@link ResponseBodyStoreConfig#maxBytes}.  More segments reclaim space from
+   * evicted bodies sooner at the cost of more open files.
+   */
+  private static final int SEGMENTS_PER_BUDGET = 8;
+
+  private final File mDirectory;
+
+  @GuardedBy("this")
+  private ResponseBodyStoreConfig mConfig;
+
+  /**
+   * Committed bodies, least recently used first.
+   */
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Entry> mIndex =
+      new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+
+  /**
+   * Bodies whose streams are open, and which haven't been abandoned.
+   */
+  @GuardedBy("this")
+  private final Set<Entry> mOpenEntries =
+      Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+
+  @GuardedBy("this")
+  private final ArrayList<Segment> mSegments = new ArrayList<>();
+
+  @GuardedBy("this")
+  @Nullable
+  private Segment mActiveSegment;
+
+  @GuardedBy("this")
+  private int mNextSegmentId;
+
+  /**
+   * Incremented by {@link #clear()} to invalidate streams opened before it.
+   */
+  @GuardedBy("this")
+  private int mGeneration;
+
+  /**
+   * Sum of {@link Entry#storedBytes} over {@link #mIndex}.
+   */
+  @GuardedBy("this")
+  private long mIndexedBytes;
+
+  /**
+   * Sum of the sizes of all segment files.
+   */
+  @GuardedBy("this")
+  private long mDiskBytes;
+
+  public ResponseBodyStore(File directory, ResponseBodyStoreConfig config) {
+    mDirectory = directory;
+    mConfig = config;
+  }
+
+  public synchronized void setConfig(ResponseBodyStoreConfig config) {
+    mConfig = config;
+    trimLocked();
+  }
+
+  /**
+   * Open a stream for the body of {@code requestId}, replacing any body already stored for it
+   * once the stream is closed.
+   */
+  public OutputStream openOutputStream(String requestId, boolean base64Encoded) {
+    Entry entry;
+    synchronized (this) {
+      entry = new Entry(requestId, mGeneration, base64Encoded, mConfig.compress);
+      mOpenEntries.add(entry);
+    }
+    boolean compress = entry.compressed;
+    BodyWriter writer = new BodyWriter(entry);
+    if (compress) {
+      return new EndingDeflaterOutputStream(writer, new Deflater(Deflater.BEST_SPEED));
+    }
+    return writer;
+  }
+
+  /**
+   * @return The stored body or null if none is available, either because the response has
+   *     not been fully read yet or because it was evicted.
+   */
+  @Nullable
+  public StoredBody openInputStream(String requestId) {
+    Entry entry;
+    ArrayList<Extent> extents;
+    synchronized (this) {
+      entry = mIndex.get(requestId);
+      if (entry == null) {
+        return null;
+      }
+      // Copied under our lock as eviction clears the entry's list.
+      extents = new ArrayList<>(entry.extents);
+    }
+    InputStream in = new ExtentInputStream(extents);
+    if (entry.compressed) {
+      in = new EndingInflaterInputStream(in, new Inflater());
+    }
+    return new StoredBody(entry.base64Encoded, in);
+  }
+
+  public synchronized boolean contains(String requestId) {
+    return mIndex.containsKey(requestId);
+  }
+
+  public synchronized void remove(String requestId) {
+    Entry entry = mIndex.remove(requestId);
+    if (entry != null) {
+      mIndexedBytes -= entry.storedBytes;
+      releaseLocked(entry);
+    }
+  }
+
+  /**
+   * Forget all bodies and delete every file in our directory, including any left behind by a
+   * previous process.  Streams still being written are silently discarded when closed.
+   */
+  public synchronized void clear() {
+    mGeneration++;
+    mIndex.clear();
+    mOpenEntries.clear();
+    mIndexedBytes = 0;
+    while (!mSegments.isEmpty()) {
+      deleteSegmentLocked(mSegments.get(mSegments.size() - 1));
+    }
+    File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.delete()) {
+          LogRedirector.w(TAG, "Failed to delete " + file.getAbsolutePath());
+        }
+      }
+    }
+  }
+
+  /**
+   * Reserve space for the next {@code length} bytes of {@code entry}, to be written by the
+   * caller after releasing our lock.
+   *
+   * @return Where to write, or null if the body is being discarded.
+   */
+  @GuardedBy("this")
+  @Nullable
+  private Extent reserveLocked(Entry entry, int length) throws IOException {
+    if (isDiscardedLocked(entry)) {
+      return null;
+    }
+    Segment segment = mActiveSegment;
+    if (segment == null || segment.size >= getSegmentBytesLocked()) {
+      segment = rollSegmentLocked();
+    }
+    Extent extent = new Extent(segment, segment.size, length);
+    entry.extents.add(extent);
+    entry.storedBytes += length;
+    segment.size += length;
+    segment.liveBytes += length;
+    mDiskBytes += length;
+    return extent;
+  }
+
+  /**
+   * Whether {@code entry} was cleared or abandoned while it was being written.
+   */
+  @GuardedBy("this")
+  private boolean isDiscardedLocked(Entry entry) {
+    return entry.generation != mGeneration || entry.abandoned;
+  }
+
+  @GuardedBy("this")
+  private void commitLocked(Entry entry) {
+    mOpenEntries.remove(entry);
+    if (isDiscardedLocked(entry)) {
+      releaseLocked(entry);
+      return;
+    }
+    if (entry.storedBytes > mConfig.maxBytes) {
+      LogRedirector.w(TAG, "Response body for request #" + entry.requestId + " is larger " +
+          "than the store (" + entry.storedBytes + " > " + mConfig.maxBytes + " bytes)");
+      releaseLocked(entry);
+      return;
+    }
+    Entry replaced = mIndex.put(entry.requestId, entry);
+    mIndexedBytes += entry.storedBytes;
+    if (replaced != null) {
+      mIndexedBytes -= replaced.storedBytes;
+      releaseLocked(replaced);
+    }
+    trimLocked();
+  }
+
+  @GuardedBy("this")
+  private void trimLocked() {
+    long maxBytes = mConfig.maxBytes;
+    Iterator<Entry> iterator = mIndex.values().iterator();
+    while (mIndexedBytes > maxBytes && iterator.hasNext()) {
+      Entry eldest = iterator.next();
+      iterator.remove();
+      mIndexedBytes -= eldest.storedBytes;
+      releaseLocked(eldest);
+    }
+
+    // Evicted bodies can pin dead space in segments that still hold something live.
+    if (mDiskBytes > 2 * maxBytes) {
+      Segment[] segments = mSegments.toArray(new Segment[mSegments.size()]);
+      for (int i = 0; i < segments.length && mDiskBytes > 2 * maxBytes; i++) {
+        if (segments[i] != mActiveSegment) {
+          evictSegmentLocked(segments[i]);
+        }
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void evictSegmentLocked(Segment segment) {
+    Iterator<Entry> iterator = mIndex.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.isStoredIn(segment)) {
+        iterator.remove();
+        mIndexedBytes -= entry.storedBytes;
+        releaseLocked(entry);
+      }
+    }
+
+    // Nor can a body still being written keep the segment, or one whose stream is never closed
+    // would pin it (and us over budget) forever.  It's discarded when it is closed.
+    Iterator<Entry> openIterator = mOpenEntries.iterator();
+    while (openIterator.hasNext()) {
+      Entry entry = openIterator.next();
+      if (entry.isStoredIn(segment)) {
+        openIterator.remove();
+        entry.abandoned = true;
+        releaseLocked(entry);
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void releaseLocked(Entry entry) {
+    for (int i = 0, N = entry.extents.size(); i < N; i++) {
+      Extent extent = entry.extents.get(i);
+      Segment segment = extent.segment;
+      if (!segment.deleted) {
+        segment.liveBytes -= extent.length;
+        if (segment.liveBytes == 0 && segment != mActiveSegment) {
+          deleteSegmentLocked(segment);
+        }
+      }
+    }
+    entry.extents.clear();
+  }
+
+  @GuardedBy("this")
+  private Segment rollSegmentLocked() throws IOException {
+    Segment previous = mActiveSegment;
+    mActiveSegment = null;
+    if (previous != null && previous.liveBytes == 0) {
+      deleteSegmentLocked(previous);
+    }
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+      throw new IOException("Failed to create " + mDirectory);
+    }
+    Segment segment = new Segment(new File(mDirectory, SEGMENT_PREFIX + mNextSegmentId++));
+    mSegments.add(segment);
+    mActiveSegment = segment;
+    return segment;
+  }
+
+  @GuardedBy("this")
+  private void deleteSegmentLocked(Segment segment) {
+    segment.deleted = true;
+    mSegments.remove(segment);
+    mDiskBytes -= segment.size;
+    if (segment == mActiveSegment) {
+      mActiveSegment = null;
+    }
+    try {
+      segment.file.close();
+    } catch (IOException e) {
+      LogRedirector.w(TAG, "Failed to close " + segment.path, e);
+    }
+    if (!segment.path.delete()) {
+      LogRedirector.w(TAG, "Failed to delete " + segment.path);
+    }
+  }
+
+  @GuardedBy("this")
+  private long getSegmentBytesLocked() {
+    return Math.max(mConfig.maxBytes / SEGMENTS_PER_BUDGET, MIN_SEGMENT_BYTES);
+  }
+
+  public static class StoredBody {
+    public final boolean base64Encoded;
+    public final InputStream stream;
+
+    StoredBody(boolean base64Encoded, InputStream stream) {
+      this.base64Encoded = base64Encoded;
+      this.stream = stream;
+    }
+  }
+
+  private static class Segment {
+    public final File path;
+    public final RandomAccessFile file;
+    public final FileChannel channel;
+    public long size;
+
+    /**
+     * Bytes belonging to bodies which are indexed or still being written.
+     */
+    public long liveBytes;
+
+    public boolean deleted;
+
+    public Segment(File path) throws IOException {
+      this.path = path;
+      this.file = new RandomAccessFile(path, "rw");
+      this.channel = file.getChannel();
+    }
+  }
+
+  private static class Extent {
+    public final Segment segment;
+    public final long offset;
+    public final int length;
+
+    public Extent(Segment segment, long offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class Entry {
+    public final String requestId;
+    public final int generation;
+    public final boolean base64Encoded;
+    public final boolean compressed;
+
+    /**
+     * Appended to while the body is written, then never modified until the entry is
+     * released.
+     */
+    public final ArrayList<Extent> extents = new ArrayList<>();
+
+    public long storedBytes;
+
+    /**
+     * Set when the segments this body was being written into were dropped before its stream
+     * was closed.
+     */
+    public boolean abandoned;
+
+    public Entry(String requestId, int generation, boolean base64Encoded, boolean compressed) {
+      this.requestId = requestId;
+      this.generation = generation;
+      this.base64Encoded = base64Encoded;
+      this.compressed = compressed;
+    }
+
+    public boolean isStoredIn(Segment segment) {
+      for (int i = 0, N = extents.size(); i < N; i++) {
+        if (extents.get(i).segment == segment) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private class BodyWriter extends OutputStream {
+    private final Entry mEntry;
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private int mChunkLength;
+    private boolean mClosed;
+
+    public BodyWriter(Entry entry) {
+      mEntry = entry;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      if (mChunkLength == mChunk.length) {
+        flushChunk();
+      }
+      mChunk[mChunkLength++] = (byte) oneByte;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      while (count > 0) {
+        if (mChunkLength == mChunk.length) {
+          flushChunk();
+        }
+        int n = Math.min(count, mChunk.length - mChunkLength);
+        System.arraycopy(buffer, offset, mChunk, mChunkLength, n);
+        mChunkLength += n;
+        offset += n;
+        count -= n;
+      }
+    }
+
+    private void flushChunk() throws IOException {
+      if (mClosed) {
+        throw new IOException("Stream closed");
+      }
+      Extent extent;
+      synchronized (ResponseBodyStore.this) {
+        try {
+          extent = reserveLocked(mEntry, mChunkLength);
+        } catch (IOException e) {
+          fail();
+          throw e;
+        }
+      }
+      if (extent != null) {
+        try {
+          ByteBuffer buffer = ByteBuffer.wrap(mChunk, 0, mChunkLength);
+          long position = extent.offset;
+          while (buffer.hasRemaining()) {
+            position += extent.segment.channel.write(buffer, position);
+          }
+        } catch (IOException e) {
+          synchronized (ResponseBodyStore.this) {
+            if (isDiscardedLocked(mEntry)) {
+              // The segment was closed under us because we're no longer wanted, which the
+              // app needn't know about.
+              mChunkLength = 0;
+              return;
+            }
+            fail();
+          }
+          throw e;
+        }
+      }
+      mChunkLength = 0;
+    }
+
+    @GuardedBy("ResponseBodyStore.this")
+    private void fail() {
+      mClosed = true;
+      mOpenEntries.remove(mEntry);
+      releaseLocked(mEntry);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (mClosed) {
+        return;
+      }
+      if (mChunkLength > 0) {
+        flushChunk();
+      }
+      mClosed = true;
+      synchronized (ResponseBodyStore.this) {
+        commitLocked(mEntry);
+      }
+    }
+  }
+
+  /**
+   * Reads a body's extents with positioned reads, which neither block nor are disturbed by
+   * writers appending to the same segment.
+   */
+  private static class ExtentInputStream extends InputStream {
+    private final ArrayList<Extent> mExtents;
+    private int mExtentIndex;
+    private int mExtentPosition;
+
+    /**
+     * @param extents A snapshot which this stream then owns.
+     */
+    public ExtentInputStream(ArrayList<Extent> extents) {
+      mExtents = extents;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      if (count == 0) {
+        return 0;
+      }
+      while (mExtentIndex < mExtents.size()) {
+        Extent extent = mExtents.get(mExtentIndex);
+        int remaining = extent.length - mExtentPosition;
+        if (remaining == 0) {
+          mExtentIndex++;
+          mExtentPosition = 0;
+          continue;
+        }
+        ByteBuffer dst = ByteBuffer.wrap(buffer, offset, Math.min(count, remaining));
+        int n = extent.segment.channel.read(dst, extent.offset + mExtentPosition);
+        if (n < 0) {
+          throw new IOException("Response body truncated in " + extent.segment.path);
+        }
+        mExtentPosition += n;
+        return n;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Releases the native zlib state on close, which {@link DeflaterOutputStream} only does for
+   * a deflater it created itself.
+   */
+  private static class EndingDeflaterOutputStream extends DeflaterOutputStream {
+    public EndingDeflaterOutputStream(OutputStream out, Deflater deflater) {
+      super(out, deflater, CHUNK_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        def.end();
+      }
+    }
+  }
+
+  private static class EndingInflaterInputStream extends InflaterInputStream {
+    public EndingInflaterInputStream(InputStream in, Inflater inflater) {
+      super(in, inflater, CHUNK_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        inf.end();
+      }
+    }
+  }
+}
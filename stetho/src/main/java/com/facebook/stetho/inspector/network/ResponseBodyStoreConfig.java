@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Controls how captured response bodies are kept for {@code Network.getResponseBody}.  Bodies
+ * are appended to a small number of segment files in the app's cache directory; once more than
+ * {@link #maxBytes} are stored the least recently read or written bodies are forgotten.
+ */
+public final class ResponseBodyStoreConfig {
+  public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+  /**
+   * Upper bound on the stored (possibly compressed) size of all bodies.  Disk usage may
+   * temporarily exceed this by up to the same amount again while evicted bodies share a
+   * segment file with live ones.
+   */
+  public final long maxBytes;
+
+  /**
+   * Whether to deflate bodies as they are stored, trading some CPU on the thread reading the
+   * response for a much smaller footprint with text content.
+   */
+  public final boolean compress;
+
+  public ResponseBodyStoreConfig(long maxBytes, boolean compress) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    this.compress = compress;
+  }
+
+  public static ResponseBodyStoreConfig createDefault() {
+    return new ResponseBodyStoreConfig(DEFAULT_MAX_BYTES, true /* compress */);
+  }
+
+  @Override
+  public String toString() {
+    return "ResponseBodyStoreConfig{maxBytes=" + maxBytes + ", compress=" + compress + "}";
+  }
+}
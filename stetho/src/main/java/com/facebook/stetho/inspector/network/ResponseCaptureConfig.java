@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Controls where response bodies are copied as the app reads them.  By default the copy is
+ * decompressed and written to the {@link ResponseBodyFileManager} on the thread reading the
+ * response.  With {@link #offThread} that thread only copies raw bytes into a buffer of
+ * {@link #bufferBytes} and a background thread does the rest; should the buffer fill up, the
+ * rest of the body is not captured (and is marked as truncated) rather than slowing the app.
+ */
+public final class ResponseCaptureConfig {
+  public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+
+  /**
+   * Whether to decompress and store bodies on a background thread.
+   */
+  public final boolean offThread;
+
+  /**
+   * Raw bytes each response may have waiting for the background thread.  Only used with
+   * {@link #offThread}.
+   */
+  public final int bufferBytes;
+
+  public ResponseCaptureConfig(boolean offThread, int bufferBytes) {
+    if (bufferBytes <= 0) {
+      throw new IllegalArgumentException("bufferBytes must be positive: " + bufferBytes);
+    }
+    this.offThread = offThread;
+    this.bufferBytes = bufferBytes;
+  }
+
+  public static ResponseCaptureConfig createDefault() {
+    return new ResponseCaptureConfig(false /* offThread */, DEFAULT_BUFFER_BYTES);
+  }
+
+  public static ResponseCaptureConfig createOffThread() {
+    return new ResponseCaptureConfig(true /* offThread */, DEFAULT_BUFFER_BYTES);
+  }
+
+  @Override
+  public String toString() {
+    return "ResponseCaptureConfig{offThread=" + offThread + ", bufferBytes=" + bufferBytes + "}";
+  }
+}
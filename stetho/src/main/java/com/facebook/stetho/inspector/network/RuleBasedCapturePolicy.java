@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import com.facebook.stetho.common.Util;
+
+/**
+ * {@link NetworkCapturePolicy} made of an ordered list of {@link Rule}s.  The first rule
+ * matching a request decides how it is captured; requests matching no rule get the default
+ * (normally {@link Capture#FULL}).  For example, to leave out analytics beacons and keep only
+ * the headers of one image request in ten:
+ * <pre>
+ *   new RuleBasedCapturePolicy.Builder()
+ *       .addRule(new Rule.Builder("beacons")
+ *           .host("analytics.example.com")
+ *           .capture(Capture.SKIP)
+ *           .build())
+ *       .addRule(new Rule.Builder("images")
+ *           .urlPattern(".*\\.(png|jpe?g|webp)(\\?.*)?")
+ *           .capture(Capture.HEADERS_ONLY)
+ *           .sampleRate(0.1)
+ *           .build())
+ *       .build();
+ * </pre>
+ * Each rule counts how many requests it decided, which {@code dumpapp network} shows.
+ */
+public final class RuleBasedCapturePolicy implements NetworkCapturePolicy {
+  private final List<Rule> mRules;
+  private final Capture mDefaultCapture;
+
+  private RuleBasedCapturePolicy(Builder b) {
+    mRules = Collections.unmodifiableList(new ArrayList<>(b.mRules));
+    mDefaultCapture = b.mDefaultCapture;
+  }
+
+  /**
+   * Captures every request in full.
+   */
+  public static RuleBasedCapturePolicy createDefault() {
+    return new Builder().build();
+  }
+
+  public List<Rule> getRules() {
+    return mRules;
+  }
+
+  @Override
+  public Capture getCapture(NetworkEventReporter.InspectorRequest request) {
+    if (mRules.isEmpty()) {
+      return mDefaultCapture;
+    }
+    String url = request.url();
+    String host = getHost(url);
+    String contentType = request.firstHeaderValue("Content-Type");
+    for (int i = 0, count = mRules.size(); i < count; i++) {
+      Rule rule = mRules.get(i);
+      if (rule.matches(url, host, contentType)) {
+        return rule.decide(request.id());
+      }
+    }
+    return mDefaultCapture;
+  }
+
+  @Override
+  public String toString() {
+    return "RuleBasedCapturePolicy{rules=" + mRules + ", default=" + mDefaultCapture + "}";
+  }
+
+  //@VisibleForTesting
+  static String getHost(String url) {
+    int start = url.indexOf("://");
+    start = start >= 0 ? start + 3 : 0;
+    int end = start;
+    while (end < url.length()) {
+      char c = url.charAt(end);
+      if (c == '/' || c == ':' || c == '?' || c == '#') {
+        break;
+      }
+      end++;
+    }
+    int userInfoEnd = url.lastIndexOf('@', end - 1);
+    if (userInfoEnd >= start) {
+      start = userInfoEnd + 1;
+    }
+    return url.substring(start, end).toLowerCase(Locale.US);
+  }
+
+  public static final class Builder {
+    private final ArrayList<Rule> mRules = new ArrayList<>();
+    private Capture mDefaultCapture = Capture.FULL;
+
+    /**
+     * Add a rule, which is consulted after those already added.
+     */
+    public Builder addRule(Rule rule) {
+      mRules.add(Util.throwIfNull(rule));
+      return this;
+    }
+
+    /**
+     * How to capture requests which match no rule.
+     */
+    public Builder defaultCapture(Capture capture) {
+      mDefaultCapture = Util.throwIfNull(capture);
+      return this;
+    }
+
+    public RuleBasedCapturePolicy build() {
+      return new RuleBasedCapturePolicy(this);
+    }
+  }
+
+  /**
+   * Matches requests on each of the criteria given (all must match) and captures a sample of
+   * them as configured, skipping the rest.
+   */
+  public static final class Rule {
+    public final String name;
+    @Nullable public final String host;
+    @Nullable public final Pattern urlPattern;
+    @Nullable public final Pattern contentTypePattern;
+    public final Capture capture;
+    public final double sampleRate;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(Capture.values().length);
+
+    private Rule(Builder b) {
+      name = b.mName;
+      host = b.mHost;
+      urlPattern = b.mUrlPattern;
+      contentTypePattern = b.mContentTypePattern;
+      capture = b.mCapture;
+      sampleRate = b.mSampleRate;
+    }
+
+    /**
+     * @return How many requests this rule has decided to capture as {@code capture}.
+     */
+    public long getCount(Capture capture) {
+      return mCounts.get(capture.ordinal());
+    }
+
+    public void resetCounts() {
+      for (int i = 0; i < mCounts.length(); i++) {
+        mCounts.set(i, 0);
+      }
+    }
+
+    boolean matches(String url, String requestHost, @Nullable String contentType) {
+      if (host != null && !requestHost.equals(host) && !requestHost.endsWith("." + host)) {
+        return false;
+      }
+      if (urlPattern != null && !urlPattern.matcher(url).matches()) {
+        return false;
+      }
+      if (contentTypePattern != null &&
+          (contentType == null || !contentTypePattern.matcher(contentType).matches())) {
+        return false;
+      }
+      return true;
+    }
+
+    Capture decide(String requestId) {
+      Capture decision = isSampled(requestId) ? capture : Capture.SKIP;
+      mCounts.incrementAndGet(decision.ordinal());
+      return decision;
+    }
+
+    /**
+     * Sample on a hash of the request id rather than a shared {@link java.util.Random}, which
+     * is as good given that ids are unique and takes no lock.
+     */
+    private boolean isSampled(String requestId) {
+      if (sampleRate >= 1.0) {
+        return true;
+      }
+      int hash = requestId.hashCode() * 0x9E3779B9;
+      hash ^= hash >>> 16;
+      return (hash & 0xffffffffL) < sampleRate * (1L << 32);
+    }
+
+    @Override
+    public String toString() {
+      return "Rule{name=" + name +
+          ", host=" + host +
+          ", urlPattern=" + urlPattern +
+          ", contentTypePattern=" + contentTypePattern +
+          ", capture=" + capture +
+          ", sampleRate=" + sampleRate + "}";
+    }
+
+    public static final class Builder {
+      private final String mName;
+      @Nullable private String mHost;
+      @Nullable private Pattern mUrlPattern;
+      @Nullable private Pattern mContentTypePattern;
+      private Capture mCapture = Capture.FULL;
+      private double mSampleRate = 1.0;
+
+      /**
+       * @param name Name to show alongside this rule's counters.
+       */
+      public Builder(String name) {
+        mName = Util.throwIfNull(name);
+      }
+
+      /**
+       * Match requests to this host or any of its subdomains.
+       */
+      public Builder host(String host) {
+        mHost = Util.throwIfNull(host).toLowerCase(Locale.US);
+        return this;
+      }
+
+      /**
+       * Match requests whose whole URL matches {@code regex}.
+       */
+      public Builder urlPattern(String regex) {
+        mUrlPattern = Pattern.compile(regex);
+        return this;
+      }
+
+      /**
+       * Match requests whose {@code Content-Type} header matches {@code regex}.  Note that
+       * only the request's headers are known when the policy is consulted; to single out
+       * responses of a given type use {@link #urlPattern} or {@link #host}.
+       */
+      public Builder contentTypePattern(String regex) {
+        mContentTypePattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+        return this;
+      }
+
+      public Builder capture(Capture capture) {
+        mCapture = Util.throwIfNull(capture);
+        return this;
+      }
+
+      /**
+       * Capture only this fraction of matching requests, skipping the others.
+       */
+      public Builder sampleRate(double sampleRate) {
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+          throw new IllegalArgumentException("sampleRate must be within [0, 1]: " + sampleRate);
+        }
+        mSampleRate = sampleRate;
+        return this;
+      }
+
+      public Rule build() {
+        return new Rule(this);
+      }
+    }
+  }
+}
@@ -14,4 +14,12 @@ import java.lang.annotation.RetentionPolicy;
 
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ChromeDevtoolsMethod {
+  /**
+   * Run the method off the thread reading the peer's messages, so that a slow call does not
+   * hold up the requests queued behind it.  Asynchronous methods of a domain run one at a time
+   * and in the order requested, but concurrently with the domain's other methods and with
+   * every other domain, so they must be safe to call from any thread.  Responses are sent as
+   * each call completes.
+   */
+  boolean async() default false;
 }
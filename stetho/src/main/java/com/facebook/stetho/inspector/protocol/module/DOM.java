@@ -11,7 +11,6 @@ package com.facebook.stetho.inspector.protocol.module;
 
 import android.graphics.Color;
 import com.facebook.stetho.common.Accumulator;
-import com.facebook.stetho.common.ArrayListAccumulator;
 import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.UncheckedCallable;
 import com.facebook.stetho.common.Util;
@@ -34,17 +33,30 @@ import org.json.JSONObject;
 
 import javax.annotation.Nullable;
 
+import java.nio.channels.NotYetConnectedException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class DOM implements ChromeDevtoolsDomain {
+  /**
+   * Levels of the tree sent by {@link #getDocument} when the peer doesn't say: the root and its
+   * children.  Anything deeper is sent when the peer asks for it with {@link #requestChildNodes}.
+   */
+  private static final int DEFAULT_GET_DOCUMENT_DEPTH = 1;
+
+  private static final int DEFAULT_REQUEST_CHILD_NODES_DEPTH = 1;
+
   private final ObjectMapper mObjectMapper;
   private final Document mDocument;
   private final Map<String, List<Integer>> mSearchResults;
+  private final Map<JsonRpcPeer, PeerState> mPeerStates;
   private final AtomicInteger mResultCounter;
   private final ChromePeerManager mPeerManager;
   private final DocumentUpdateListener mListener;
@@ -57,6 +69,7 @@ public class DOM implements ChromeDevtoolsDomain {
     mDocument = Util.throwIfNull(document);
     mSearchResults = Collections.synchronizedMap(
       new HashMap<String, List<Integer>>());
+    mPeerStates = Collections.synchronizedMap(new HashMap<JsonRpcPeer, PeerState>());
     mResultCounter = new AtomicInteger(0);
     mPeerManager = new ChromePeerManager();
     mPeerManager.setListener(new PeerManagerListener());
@@ -74,20 +87,67 @@ public class DOM implements ChromeDevtoolsDomain {
   }
 
   @ChromeDevtoolsMethod
-  public JsonRpcResult getDocument(JsonRpcPeer peer, JSONObject params) {
+  public JsonRpcResult getDocument(final JsonRpcPeer peer, JSONObject params) {
+    final GetDocumentRequest request =
+        mObjectMapper.convertValue(params, GetDocumentRequest.class);
+    final int depth = getMaxDepth(
+        request != null ? request.depth : null,
+        DEFAULT_GET_DOCUMENT_DEPTH);
+
     final GetDocumentResponse result = new GetDocumentResponse();
 
     result.root = mDocument.postAndWait(new UncheckedCallable<Node>() {
       @Override
       public Node call() {
+        // The peer throws away whatever it had been sent before.
+        PeerState peerState = mPeerStates.get(peer);
+        if (peerState != null) {
+          peerState.clear();
+        }
+
         Object element = mDocument.getRootElement();
-        return createNodeForElement(element, mDocument.getDocumentView(), null);
+        return createNodeForElement(element, mDocument.getDocumentView(), depth, peerState);
       }
     });
 
     return result;
   }
 
+  @ChromeDevtoolsMethod
+  public void requestChildNodes(final JsonRpcPeer peer, JSONObject params)
+      throws JsonRpcException {
+    final RequestChildNodesRequest request =
+        mObjectMapper.convertValue(params, RequestChildNodesRequest.class);
+    if (request.depth != null && request.depth == 0) {
+      throw new JsonRpcException(
+          new JsonRpcError(
+              JsonRpcError.ErrorCode.INVALID_PARAMS,
+              "depth must be positive, or -1 for the entire sub-tree",
+              null /* data */));
+    }
+    final int depth = getMaxDepth(request.depth, DEFAULT_REQUEST_CHILD_NODES_DEPTH);
+
+    boolean found = mDocument.postAndWait(new UncheckedCallable<Boolean>() {
+      @Override
+      public Boolean call() {
+        Object element = mDocument.getElementForNodeId(request.nodeId);
+        if (element == null) {
+          return false;
+        }
+        pushChildNodesToPeer(peer, mPeerStates.get(peer), element, depth);
+        return true;
+      }
+    });
+
+    if (!found) {
+      throw new JsonRpcException(
+          new JsonRpcError(
+              JsonRpcError.ErrorCode.INVALID_PARAMS,
+              "No known nodeId=" + request.nodeId,
+              null /* data */));
+    }
+  }
+
   @ChromeDevtoolsMethod
   public void highlightNode(JsonRpcPeer peer, JSONObject params) {
     final HighlightNodeRequest request =
@@ -196,14 +256,8 @@ public class DOM implements ChromeDevtoolsDomain {
         params,
         PerformSearchRequest.class);
 
-    final ArrayListAccumulator<Integer> resultNodeIds = new ArrayListAccumulator<>();
-
-    mDocument.postAndWait(new Runnable() {
-      @Override
-      public void run() {
-        mDocument.findMatchingElements(request.query, resultNodeIds);
-      }
-    });
+    // Answered from the document's search index, off the main thread.
+    final List<Integer> resultNodeIds = mDocument.findMatchingElements(request.query);
 
     // Each search action has a unique ID so that
     // it can be queried later.
@@ -219,7 +273,7 @@ public class DOM implements ChromeDevtoolsDomain {
   }
 
   @ChromeDevtoolsMethod
-  public GetSearchResultsResponse getSearchResults(JsonRpcPeer peer, JSONObject params) {
+  public GetSearchResultsResponse getSearchResults(final JsonRpcPeer peer, JSONObject params) {
     final GetSearchResultsRequest request = mObjectMapper.convertValue(
         params,
         GetSearchResultsRequest.class);
@@ -238,6 +292,23 @@ public class DOM implements ChromeDevtoolsDomain {
 
     final List<Integer> resultsRange = results.subList(request.fromIndex, request.toIndex);
 
+    // The peer can only show results it has been sent, along with their ancestors.
+    mDocument.postAndWait(new Runnable() {
+      @Override
+      public void run() {
+        PeerState peerState = mPeerStates.get(peer);
+        if (peerState == null) {
+          return;
+        }
+        for (int i = 0, N = resultsRange.size(); i < N; ++i) {
+          Object element = mDocument.getElementForNodeId(resultsRange.get(i));
+          if (element != null) {
+            pushNodePathToPeer(peerState, element);
+          }
+        }
+      }
+    });
+
     final GetSearchResultsResponse response = new GetSearchResultsResponse();
     response.nodeIds = resultsRange;
 
@@ -255,14 +326,16 @@ public class DOM implements ChromeDevtoolsDomain {
     }
   }
 
+  /**
+   * @param depth Levels of descendants to include, where -1 (in fact anything negative) means
+   *     all of them.  Nodes whose children are left out still say how many there are.
+   * @param peerState Where to record what is being sent, if anywhere.
+   */
   private Node createNodeForElement(
       Object element,
       DocumentView view,
-      @Nullable Accumulator<Object> processedElements) {
-    if (processedElements != null) {
-      processedElements.store(element);
-    }
-
+      int depth,
+      @Nullable PeerState peerState) {
     NodeDescriptor descriptor = mDocument.getNodeDescriptor(element);
 
     Node node = new DOM.Node();
@@ -280,20 +353,174 @@ public class DOM implements ChromeDevtoolsDomain {
 
     // Children
     ElementInfo elementInfo = view.getElementInfo(element);
+    node.childNodeCount = elementInfo.children.size();
+    if (depth != 0) {
+      node.children = createChildNodes(elementInfo, view, depth - 1, peerState);
+      if (peerState != null) {
+        peerState.expandedNodeIds.add(node.nodeId);
+      }
+    }
+
+    if (peerState != null) {
+      peerState.knownNodeIds.add(node.nodeId);
+    }
+
+    return node;
+  }
+
+  private List<Node> createChildNodes(
+      ElementInfo elementInfo,
+      DocumentView view,
+      int depth,
+      @Nullable PeerState peerState) {
     List<Node> childrenNodes = (elementInfo.children.size() == 0)
         ? Collections.<Node>emptyList()
         : new ArrayList<Node>(elementInfo.children.size());
 
     for (int i = 0, N = elementInfo.children.size(); i < N; ++i) {
       final Object childElement = elementInfo.children.get(i);
-      Node childNode = createNodeForElement(childElement, view, processedElements);
+      Node childNode = createNodeForElement(childElement, view, depth, peerState);
       childrenNodes.add(childNode);
     }
 
-    node.children = childrenNodes;
-    node.childNodeCount = childrenNodes.size();
+    return childrenNodes;
+  }
 
-    return node;
+  private static int getMaxDepth(@Nullable Integer depth, int defaultDepth) {
+    if (depth == null) {
+      return defaultDepth;
+    }
+    return depth < 0 ? -1 : depth;
+  }
+
+  /**
+   * Send {@code element}'s children to {@code peer} with DOM.setChildNodes, unless it already has
+   * them, and so on down to {@code depth} levels below {@code element}.
+   */
+  private void pushChildNodesToPeer(
+      JsonRpcPeer peer,
+      @Nullable PeerState peerState,
+      Object element,
+      int depth) {
+    DocumentView view = mDocument.getDocumentView();
+    ElementInfo elementInfo = view.getElementInfo(element);
+    int nodeId = mDocument.getNodeIdForElement(element);
+
+    if (peerState != null && peerState.expandedNodeIds.contains(nodeId)) {
+      if (depth != 1) {
+        for (int i = 0, N = elementInfo.children.size(); i < N; ++i) {
+          pushChildNodesToPeer(peer, peerState, elementInfo.children.get(i), depth - 1);
+        }
+      }
+      return;
+    }
+
+    SetChildNodesEvent event = new SetChildNodesEvent();
+    event.parentId = nodeId;
+    event.nodes = createChildNodes(elementInfo, view, depth - 1, peerState);
+    if (peerState != null) {
+      peerState.expandedNodeIds.add(nodeId);
+    }
+    sendNotificationToPeer(peer, "DOM.setChildNodes", event);
+  }
+
+  /**
+   * Make sure that {@code element}, and so all of its ancestors, have been sent to the peer.
+   *
+   * @return Whether the peer now knows about {@code element}; it can't if it has no document.
+   */
+  private boolean pushNodePathToPeer(PeerState peerState, Object element) {
+    DocumentView view = mDocument.getDocumentView();
+    ArrayList<Object> path = new ArrayList<>();
+    for (Object e = element; e != null; ) {
+      ElementInfo elementInfo = view.getElementInfo(e);
+      if (elementInfo == null) {
+        return false;
+      }
+      path.add(e);
+      e = elementInfo.parentElement;
+    }
+
+    Object rootElement = path.get(path.size() - 1);
+    if (!peerState.knownNodeIds.contains(mDocument.getNodeIdForElement(rootElement))) {
+      return false;
+    }
+
+    for (int i = path.size() - 1; i > 0; --i) {
+      pushChildNodesToPeer(peerState.peer, peerState, path.get(i), 1 /* depth */);
+    }
+    return true;
+  }
+
+  /**
+   * Drop {@code nodeId}, and everything the peer was sent beneath it, from what it knows about.
+   */
+  private void forgetNode(PeerState peerState, int nodeId) {
+    peerState.knownNodeIds.remove(nodeId);
+    if (!peerState.expandedNodeIds.remove(nodeId)) {
+      return;
+    }
+
+    // The peer's view of the children is the one from before the current update, if any.
+    Object element = mDocument.getElementForNodeId(nodeId);
+    ElementInfo elementInfo = (element != null)
+        ? mDocument.getDocumentView().getElementInfo(element)
+        : null;
+    if (elementInfo != null) {
+      for (int i = 0, N = elementInfo.children.size(); i < N; ++i) {
+        Integer childNodeId = mDocument.getNodeIdForElement(elementInfo.children.get(i));
+        if (childNodeId != null) {
+          forgetNode(peerState, childNodeId);
+        }
+      }
+    }
+  }
+
+  private void sendChildNodeCountUpdated(PeerState peerState, DocumentView view, int nodeId) {
+    Object element = mDocument.getElementForNodeId(nodeId);
+    ElementInfo elementInfo = (element != null) ? view.getElementInfo(element) : null;
+    if (elementInfo == null) {
+      return;
+    }
+
+    ChildNodeCountUpdatedEvent event = new ChildNodeCountUpdatedEvent();
+    event.nodeId = nodeId;
+    event.childNodeCount = elementInfo.children.size();
+    sendNotificationToPeer(peerState.peer, "DOM.childNodeCountUpdated", event);
+  }
+
+  private static void storeSubTree(
+      DocumentView view,
+      Object element,
+      Accumulator<Object> accumulator) {
+    accumulator.store(element);
+
+    ElementInfo elementInfo = view.getElementInfo(element);
+    for (int i = 0, N = elementInfo.children.size(); i < N; ++i) {
+      storeSubTree(view, elementInfo.children.get(i), accumulator);
+    }
+  }
+
+  private PeerState[] getPeerStates() {
+    synchronized (mPeerStates) {
+      return mPeerStates.values().toArray(new PeerState[mPeerStates.size()]);
+    }
+  }
+
+  private void sendNotificationToPeersKnowing(int nodeId, String method, Object params) {
+    for (PeerState peerState : getPeerStates()) {
+      if (peerState.knownNodeIds.contains(nodeId)) {
+        sendNotificationToPeer(peerState.peer, method, params);
+      }
+    }
+  }
+
+  private static void sendNotificationToPeer(JsonRpcPeer peer, String method, Object params) {
+    try {
+      peer.invokeMethod(method, params, null /* callback */);
+    } catch (NotYetConnectedException e) {
+      LogUtil.e(e, "Error delivering data to Chrome");
+    }
   }
 
   private ChildNodeInsertedEvent acquireChildNodeInsertedEvent() {
@@ -337,14 +564,14 @@ public class DOM implements ChromeDevtoolsDomain {
       message.nodeId = mDocument.getNodeIdForElement(element);
       message.name = name;
       message.value = value;
-      mPeerManager.sendNotificationToPeers("DOM.attributeModified", message);
+      sendNotificationToPeersKnowing(message.nodeId, "DOM.attributeModified", message);
     }
 
     public void onAttributeRemoved(Object element, String name) {
       AttributeRemovedEvent message = new AttributeRemovedEvent();
       message.nodeId = mDocument.getNodeIdForElement(element);
       message.name = name;
-      mPeerManager.sendNotificationToPeers("DOM.attributeRemoved", message);
+      sendNotificationToPeersKnowing(message.nodeId, "DOM.attributeRemoved", message);
     }
 
     public void onInspectRequested(Object element) {
@@ -357,18 +584,30 @@ public class DOM implements ChromeDevtoolsDomain {
       } else {
         InspectNodeRequestedEvent message = new InspectNodeRequestedEvent();
         message.nodeId = nodeId;
-        mPeerManager.sendNotificationToPeers("DOM.inspectNodeRequested", message);
+        for (PeerState peerState : getPeerStates()) {
+          if (pushNodePathToPeer(peerState, element)) {
+            sendNotificationToPeer(peerState.peer, "DOM.inspectNodeRequested", message);
+          }
+        }
       }
     }
 
     public void onChildNodeRemoved(
+        DocumentView view,
         int parentNodeId,
         int nodeId) {
       ChildNodeRemovedEvent removedEvent = acquireChildNodeRemovedEvent();
 
       removedEvent.parentNodeId = parentNodeId;
       removedEvent.nodeId = nodeId;
-      mPeerManager.sendNotificationToPeers("DOM.childNodeRemoved", removedEvent);
+      for (PeerState peerState : getPeerStates()) {
+        if (peerState.expandedNodeIds.contains(parentNodeId)) {
+          forgetNode(peerState, nodeId);
+          sendNotificationToPeer(peerState.peer, "DOM.childNodeRemoved", removedEvent);
+        } else if (peerState.knownNodeIds.contains(parentNodeId)) {
+          peerState.childNodeCountChangedNodeIds.add(parentNodeId);
+        }
+      }
 
       releaseChildNodeRemovedEvent(removedEvent);
     }
@@ -379,16 +618,43 @@ public class DOM implements ChromeDevtoolsDomain {
         int parentNodeId,
         int previousNodeId,
         Accumulator<Object> insertedElements) {
+      // Peers are sent only the node itself, and ask for its children if they want them. Either
+      // way, there is nothing more to tell them about its sub-tree in this update.
+      storeSubTree(view, element, insertedElements);
+
       ChildNodeInsertedEvent insertedEvent = acquireChildNodeInsertedEvent();
 
       insertedEvent.parentNodeId = parentNodeId;
       insertedEvent.previousNodeId = previousNodeId;
-      insertedEvent.node = createNodeForElement(element, view, insertedElements);
-
-      mPeerManager.sendNotificationToPeers("DOM.childNodeInserted", insertedEvent);
+      for (PeerState peerState : getPeerStates()) {
+        if (peerState.expandedNodeIds.contains(parentNodeId)) {
+          if (insertedEvent.node == null) {
+            insertedEvent.node = createNodeForElement(element, view, 0 /* depth */, null);
+          }
+          peerState.knownNodeIds.add(insertedEvent.node.nodeId);
+          sendNotificationToPeer(peerState.peer, "DOM.childNodeInserted", insertedEvent);
+        } else if (peerState.knownNodeIds.contains(parentNodeId)) {
+          peerState.childNodeCountChangedNodeIds.add(parentNodeId);
+        }
+      }
 
       releaseChildNodeInsertedEvent(insertedEvent);
     }
+
+    public void onUpdateComplete(DocumentView view) {
+      // One count per node for the whole update, however many children came and went.
+      for (PeerState peerState : getPeerStates()) {
+        if (peerState.childNodeCountChangedNodeIds.isEmpty()) {
+          continue;
+        }
+        for (Integer nodeId : peerState.childNodeCountChangedNodeIds) {
+          if (peerState.knownNodeIds.contains(nodeId)) {
+            sendChildNodeCountUpdated(peerState, view, nodeId);
+          }
+        }
+        peerState.childNodeCountChangedNodeIds.clear();
+      }
+    }
   }
 
   private final class PeerManagerListener extends PeersRegisteredListener {
@@ -404,6 +670,51 @@ public class DOM implements ChromeDevtoolsDomain {
       mDocument.removeUpdateListener(mListener);
       mDocument.release();
     }
+
+    @Override
+    protected void onPeerAdded(JsonRpcPeer peer) {
+      mPeerStates.put(peer, new PeerState(peer));
+    }
+
+    @Override
+    protected void onPeerRemoved(JsonRpcPeer peer) {
+      mPeerStates.remove(peer);
+    }
+  }
+
+  /**
+   * Which nodes a peer has been sent, and which of those it has been sent the children of, so
+   * that it is only told about changes to nodes it knows.  Only used on the {@link Document}'s
+   * thread.
+   */
+  private static final class PeerState {
+    public final JsonRpcPeer peer;
+    public final Set<Integer> knownNodeIds = new HashSet<>();
+    public final Set<Integer> expandedNodeIds = new HashSet<>();
+
+    /**
+     * Known nodes whose children the peer hasn't been sent, and which have gained or lost some
+     * in the update being applied.
+     */
+    public final Set<Integer> childNodeCountChangedNodeIds = new LinkedHashSet<>();
+
+    public PeerState(JsonRpcPeer peer) {
+      this.peer = peer;
+    }
+
+    public void clear() {
+      knownNodeIds.clear();
+      expandedNodeIds.clear();
+      childNodeCountChangedNodeIds.clear();
+    }
+  }
+
+  private static class GetDocumentRequest {
+    @JsonProperty
+    public Integer depth;
+
+    @JsonProperty
+    public Boolean pierce;
   }
 
   private static class GetDocumentResponse implements JsonRpcResult {
@@ -475,6 +786,33 @@ public class DOM implements ChromeDevtoolsDomain {
     public int nodeId;
   }
 
+  private static class ChildNodeCountUpdatedEvent {
+    @JsonProperty(required = true)
+    public int nodeId;
+
+    @JsonProperty(required = true)
+    public int childNodeCount;
+  }
+
+  private static class RequestChildNodesRequest {
+    @JsonProperty(required = true)
+    public int nodeId;
+
+    @JsonProperty
+    public Integer depth;
+
+    @JsonProperty
+    public Boolean pierce;
+  }
+
+  private static class SetChildNodesEvent {
+    @JsonProperty(required = true)
+    public int parentId;
+
+    @JsonProperty(required = true)
+    public List<Node> nodes;
+  }
+
   private static class HighlightNodeRequest {
     @JsonProperty(required = true)
     public HighlightConfig highlightConfig;
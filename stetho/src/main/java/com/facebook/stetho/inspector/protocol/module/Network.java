@@ -55,7 +55,7 @@ public class Network implements ChromeDevtoolsDomain {
     // Not implemented...
   }
 
-  @ChromeDevtoolsMethod
+  @ChromeDevtoolsMethod(async = true)
   public JsonRpcResult getResponseBody(JsonRpcPeer peer, JSONObject params)
       throws JsonRpcException {
     try {
@@ -88,6 +88,25 @@ public class Network implements ChromeDevtoolsDomain {
     return response;
   }
 
+  @ChromeDevtoolsMethod(async = true)
+  public JsonRpcResult getRequestPostData(JsonRpcPeer peer, JSONObject params)
+      throws JsonRpcException {
+    try {
+      String requestId = params.getString("requestId");
+      GetRequestPostDataResponse response = new GetRequestPostDataResponse();
+      response.postData = mResponseBodyFileManager.readRequestBody(requestId);
+      return response;
+    } catch (IOException | OutOfMemoryError e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          e.toString(),
+          null /* data */));
+    } catch (JSONException e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          e.toString(),
+          null /* data */));
+    }
+  }
+
   /**
    * Method that allows callers to provide an {@link AsyncPrettyPrinterInitializer} that is
    * responsible for registering all
@@ -108,6 +127,11 @@ public class Network implements ChromeDevtoolsDomain {
     public boolean base64Encoded;
   }
 
+  private static class GetRequestPostDataResponse implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public String postData;
+  }
+
   public static class RequestWillBeSentParams {
     @JsonProperty(required = true)
     public String requestId;
@@ -209,6 +233,13 @@ public class Network implements ChromeDevtoolsDomain {
 
     @JsonProperty
     public String postData;
+
+    /**
+     * Set whenever there is a body, which may be too large to send as {@link #postData} and
+     * must then be fetched with {@code Network.getRequestPostData}.
+     */
+    @JsonProperty
+    public Boolean hasPostData;
   }
 
   public static class Initiator {
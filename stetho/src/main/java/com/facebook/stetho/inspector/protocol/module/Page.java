@@ -171,8 +171,9 @@ public class Page implements ChromeDevtoolsDomain {
 
   @ChromeDevtoolsMethod
   public void screencastFrameAck(JsonRpcPeer peer, JSONObject params) {
-    // Nothing to do here, just need to make sure Chrome doesn't get an error that this method
-    // isn't implemented
+    if (mScreencastDispatcher != null) {
+      mScreencastDispatcher.onFrameAck(params != null ? params.optInt("sessionId", -1) : -1);
+    }
   }
 
   @ChromeDevtoolsMethod
@@ -275,6 +276,12 @@ public class Page implements ChromeDevtoolsDomain {
 
     @JsonProperty(required = true)
     public ScreencastFrameEventMetadata metadata;
+
+    /**
+     * Echoed back by the peer's {@code Page.screencastFrameAck}.
+     */
+    @JsonProperty
+    public int sessionId;
   }
 
   public static class ScreencastFrameEventMetadata {
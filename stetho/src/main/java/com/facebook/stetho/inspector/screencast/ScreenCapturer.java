@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.screencast;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Handler;
+import android.view.PixelCopy;
+import android.view.View;
+import android.view.Window;
+import com.facebook.stetho.common.LogUtil;
+
+import javax.annotation.Nullable;
+
+/**
+ * Takes screenshots of an activity's window for {@link ScreencastDispatcher}, scaled to fit
+ * within the requested size.
+ */
+abstract class ScreenCapturer {
+  interface Callback {
+    /**
+     * @param frame The captured frame, which stays valid until the next capture, or null if
+     *     nothing could be captured this time.
+     */
+    void onFrameCaptured(@Nullable Bitmap frame);
+  }
+
+  /**
+   * Start capturing {@code activity}'s window.  Called on the main thread, which should be
+   * held up as little as possible; {@code callback} is then called on {@code handler}.
+   */
+  abstract void capture(
+      Activity activity,
+      int maxWidth,
+      int maxHeight,
+      Handler handler,
+      Callback callback);
+
+  /**
+   * Short name of the mechanism in use, for logging.
+   */
+  abstract String getName();
+
+  abstract void release();
+
+  static ScreenCapturer newInstance() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      return new PixelCopyScreenCapturer();
+    }
+    return new DrawingScreenCapturer();
+  }
+
+  /**
+   * Draws the view hierarchy into a bitmap on the main thread, which costs about as much as the
+   * app drawing a frame itself.
+   */
+  private static class DrawingScreenCapturer extends ScreenCapturer {
+    private final RectF mTempSrc = new RectF();
+    private final RectF mTempDst = new RectF();
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+
+    @Override
+    void capture(
+        Activity activity,
+        int maxWidth,
+        int maxHeight,
+        Handler handler,
+        final Callback callback) {
+      View rootView = activity.getWindow().getDecorView();
+      try {
+        if (mBitmap == null) {
+          int viewWidth = rootView.getWidth();
+          int viewHeight = rootView.getHeight();
+          float scale = Math.min((float) maxWidth / (float) viewWidth,
+              (float) maxHeight / (float) viewHeight);
+          int destWidth = (int) (viewWidth * scale);
+          int destHeight = (int) (viewHeight * scale);
+          mBitmap = Bitmap.createBitmap(destWidth, destHeight, Bitmap.Config.RGB_565);
+          mCanvas = new Canvas(mBitmap);
+          Matrix matrix = new Matrix();
+          mTempSrc.set(0, 0, viewWidth, viewHeight);
+          mTempDst.set(0, 0, destWidth, destHeight);
+          matrix.setRectToRect(mTempSrc, mTempDst, Matrix.ScaleToFit.CENTER);
+          mCanvas.setMatrix(matrix);
+        }
+        rootView.draw(mCanvas);
+      } catch (OutOfMemoryError e) {
+        LogUtil.w("Out of memory trying to allocate screencast Bitmap.");
+      }
+      final Bitmap frame = mBitmap;
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          callback.onFrameCaptured(frame);
+        }
+      });
+    }
+
+    @Override
+    String getName() {
+      return "draw";
+    }
+
+    @Override
+    void release() {
+      mBitmap = null;
+      mCanvas = null;
+    }
+  }
+
+  /**
+   * Asks the system to copy the window's surface, which happens off the main thread and
+   * scales into the destination bitmap as it goes.  The main thread only pays for starting
+   * the request.  Windows which {@link PixelCopy} can't read (such as those without hardware
+   * acceleration) are drawn instead.
+   */
+  @TargetApi(Build.VERSION_CODES.O)
+  //@VisibleForTesting
+  static class PixelCopyScreenCapturer extends ScreenCapturer {
+    private final DrawingScreenCapturer mFallback = new DrawingScreenCapturer();
+    private volatile boolean mUseFallback;
+
+    // Only used on the main thread, and on the handler thread while a copy is pending.
+    private Bitmap mBitmap;
+
+    @Override
+    void capture(
+        Activity activity,
+        int maxWidth,
+        int maxHeight,
+        Handler handler,
+        final Callback callback) {
+      if (mUseFallback) {
+        mFallback.capture(activity, maxWidth, maxHeight, handler, callback);
+        return;
+      }
+      Window window = activity.getWindow();
+      View rootView = window.getDecorView();
+      int viewWidth = rootView.getWidth();
+      int viewHeight = rootView.getHeight();
+      if (viewWidth <= 0 || viewHeight <= 0) {
+        postNoFrame(handler, callback);
+        return;
+      }
+      float scale = Math.min((float) maxWidth / (float) viewWidth,
+          (float) maxHeight / (float) viewHeight);
+      int destWidth = Math.max(1, (int) (viewWidth * scale));
+      int destHeight = Math.max(1, (int) (viewHeight * scale));
+      try {
+        if (mBitmap == null ||
+            mBitmap.getWidth() != destWidth ||
+            mBitmap.getHeight() != destHeight) {
+          mBitmap = Bitmap.createBitmap(destWidth, destHeight, Bitmap.Config.ARGB_8888);
+        }
+      } catch (OutOfMemoryError e) {
+        LogUtil.w("Out of memory trying to allocate screencast Bitmap.");
+        postNoFrame(handler, callback);
+        return;
+      }
+
+      try {
+        requestPixelCopy(window, mBitmap, handler, callback);
+      } catch (IllegalArgumentException e) {
+        // Thrown for windows without a backing surface.
+        LogUtil.w(e, "PixelCopy unavailable, drawing screencast frames instead");
+        mUseFallback = true;
+        mBitmap = null;
+        mFallback.capture(activity, maxWidth, maxHeight, handler, callback);
+      }
+    }
+
+    //@VisibleForTesting
+    void requestPixelCopy(Window window, Bitmap frame, Handler handler, Callback callback) {
+      new PixelCopyRequest(frame, callback).start(window, handler);
+    }
+
+    //@VisibleForTesting
+    void onPixelCopyFinished(int copyResult, Bitmap frame, Callback callback) {
+      if (copyResult == PixelCopy.SUCCESS) {
+        callback.onFrameCaptured(frame);
+      } else {
+        if (copyResult != PixelCopy.ERROR_SOURCE_NO_DATA) {
+          // Not just a window that hasn't drawn yet; this isn't going to get better.
+          LogUtil.w("PixelCopy failed (%d), drawing screencast frames instead", copyResult);
+          mUseFallback = true;
+        }
+        callback.onFrameCaptured(null);
+      }
+    }
+
+    @Override
+    String getName() {
+      return mUseFallback ? mFallback.getName() : "PixelCopy";
+    }
+
+    @Override
+    void release() {
+      mBitmap = null;
+      mFallback.release();
+    }
+
+    private static void postNoFrame(Handler handler, final Callback callback) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          callback.onFrameCaptured(null);
+        }
+      });
+    }
+
+    /**
+     * Keeps every mention of {@link PixelCopy} types out of the capturer itself, so that it can
+     * be loaded where they don't exist.
+     */
+    private class PixelCopyRequest implements PixelCopy.OnPixelCopyFinishedListener {
+      private final Bitmap mFrame;
+      private final Callback mCallback;
+
+      public PixelCopyRequest(Bitmap frame, Callback callback) {
+        mFrame = frame;
+        mCallback = callback;
+      }
+
+      public void start(Window window, Handler handler) {
+        PixelCopy.request(window, mFrame, this, handler);
+      }
+
+      @Override
+      public void onPixelCopyFinished(int copyResult) {
+        PixelCopyScreenCapturer.this.onPixelCopyFinished(copyResult, mFrame, mCallback);
+      }
+    }
+  }
+}
@@ -11,56 +11,88 @@ package com.facebook.stetho.inspector.screencast;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.RectF;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
-import android.util.Base64;
-import android.util.Base64OutputStream;
-import android.view.View;
+import android.os.SystemClock;
 import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.inspector.elements.android.ActivityTracker;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.protocol.module.Page;
+import com.facebook.stetho.json.annotation.JsonProperty;
+
+import javax.annotation.Nullable;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
 
+/**
+ * Streams screenshots of the top activity to the peer as {@code Page.screencastFrame} events.
+ * <p>
+ * At most {@link ScreencastFlowControl#MAX_FRAMES_IN_FLIGHT} frames are sent ahead of the
+ * peer's {@code Page.screencastFrameAck}; once that many are outstanding, capture pauses until an
+ * ack arrives.  The round trip of each ack then sets the frame rate and, if the link is still slow,
+ * the JPEG quality, so a slow adb connection gets fewer, smaller frames instead of a growing
+ * backlog.  Frames whose pixels are unchanged since the last one sent are not sent at all.
+ * <p>
+ * Frames are captured by a {@link ScreenCapturer}, which where possible copies the window's
+ * surface without involving the main thread; everything else happens on a dedicated handler
+ * thread.  The main thread time spent per frame is logged every {@link #STATS_INTERVAL} frames
+ * and when the screencast stops.
+ */
 public final class ScreencastDispatcher {
-  private static final long FRAME_DELAY = 200l;
+  private static final String SCREENCAST_FRAME_KEY = "Page.screencastFrame";
+
+  private static final int STATS_INTERVAL = 100;
 
   private final Handler mMainHandler = new Handler(Looper.getMainLooper());
   private final BitmapFetchRunnable mBitmapFetchRunnable = new BitmapFetchRunnable();
   private final ActivityTracker mActivityTracker = ActivityTracker.get();
   private final EventDispatchRunnable mEventDispatchRunnable = new EventDispatchRunnable();
-  private final RectF mTempSrc = new RectF();
-  private final RectF mTempDst = new RectF();
+  private final AckTimeoutRunnable mAckTimeoutRunnable = new AckTimeoutRunnable();
+  private final ScreenCapturer mScreenCapturer = ScreenCapturer.newInstance();
 
   private boolean mIsRunning;
   private Handler mBackgroundHandler;
   private JsonRpcPeer mPeer;
   private HandlerThread mHandlerThread;
   private Bitmap mBitmap;
-  private Canvas mCanvas;
   private Page.StartScreencastRequest mRequest;
-  private ByteArrayOutputStream mStream;
-  private Page.ScreencastFrameEvent mEvent = new Page.ScreencastFrameEvent();
+  private Bitmap.CompressFormat mFormat;
+  private ReusableByteArrayOutputStream mStream;
+  private ByteBuffer mPixels;
+  private BufferScreencastFrameEvent mEvent = new BufferScreencastFrameEvent();
   private Page.ScreencastFrameEventMetadata mMetadata = new Page.ScreencastFrameEventMetadata();
 
+  // Flow control state, only touched on the background thread.
+  private ScreencastFlowControl mFlowControl;
+  private int mNextSessionId;
+  private boolean mHasLastFrame;
+  private int mLastFrameHash;
+
+  // Main thread time spent capturing, only touched on the main thread.
+  private int mCapturedFrames;
+  private long mCaptureNanos;
+  private long mMaxCaptureNanos;
+
   public ScreencastDispatcher() {
   }
 
   public void startScreencast(JsonRpcPeer peer, Page.StartScreencastRequest request) {
     LogUtil.d("Starting screencast");
     mRequest = request;
+    // request format is either "jpeg" or "png"
+    mFormat = Bitmap.CompressFormat.valueOf(request.format.toUpperCase(Locale.US));
+    mFlowControl = new ScreencastFlowControl(request.quality);
     mHandlerThread = new HandlerThread("Screencast Thread");
     mHandlerThread.start();
     mPeer = peer;
     mIsRunning = true;
-    mStream = new ByteArrayOutputStream();
+    mStream = new ReusableByteArrayOutputStream();
     mBackgroundHandler = new Handler(mHandlerThread.getLooper());
-    mMainHandler.postDelayed(mBitmapFetchRunnable, FRAME_DELAY);
+    mMainHandler.postDelayed(mBitmapFetchRunnable, mFlowControl.getFrameDelay());
   }
 
   public void stopScreencast() {
@@ -68,73 +100,170 @@ public final class ScreencastDispatcher {
     mBackgroundHandler.post(new CancellationRunnable());
   }
 
-  private class BitmapFetchRunnable implements Runnable {
-    @Override
-    public void run() {
-      updateScreenBitmap();
-      mBackgroundHandler.post(mEventDispatchRunnable.withEndAction(this));
+  /**
+   * Called for each {@code Page.screencastFrameAck}, on any thread.
+   *
+   * @param sessionId The acked frame's {@code sessionId}, or -1 if the peer didn't say, in
+   *     which case the oldest frame in flight is assumed.
+   */
+  public void onFrameAck(final int sessionId) {
+    mBackgroundHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        handleFrameAck(sessionId);
+      }
+    });
+  }
+
+  private void handleFrameAck(int sessionId) {
+    if (!mIsRunning || !mFlowControl.onFrameAcked(sessionId, SystemClock.uptimeMillis())) {
+      // Stopped, or already given up on by the timeout.
+      return;
     }
+    mBackgroundHandler.removeCallbacks(mAckTimeoutRunnable);
+    if (mFlowControl.getFramesInFlight() > 0) {
+      mBackgroundHandler.postDelayed(mAckTimeoutRunnable, ScreencastFlowControl.ACK_TIMEOUT);
+    }
+    resumeCaptureIfWaiting();
+  }
 
-    private void updateScreenBitmap() {
-      if (!mIsRunning) {
-        return;
-      }
-      Activity activity = mActivityTracker.tryGetTopActivity();
+  private void scheduleNextFrame() {
+    if (mFlowControl.canCaptureFrame()) {
+      mMainHandler.postDelayed(mBitmapFetchRunnable, mFlowControl.getFrameDelay());
+    }
+  }
+
+  private void resumeCaptureIfWaiting() {
+    if (mFlowControl.takeResume()) {
+      mMainHandler.postDelayed(mBitmapFetchRunnable, mFlowControl.getFrameDelay());
+    }
+  }
+
+  private class BitmapFetchRunnable implements Runnable, ScreenCapturer.Callback {
+    @Override
+    public void run() {
+      Activity activity = mIsRunning ? mActivityTracker.tryGetTopActivity() : null;
       if (activity == null) {
+        mBackgroundHandler.post(mEventDispatchRunnable);
         return;
       }
-      // This stuff needs to happen in the UI thread
-      View rootView = activity.getWindow().getDecorView();
-      try {
-        if (mBitmap == null) {
-          int viewWidth = rootView.getWidth();
-          int viewHeight = rootView.getHeight();
-          float scale = Math.min((float) mRequest.maxWidth / (float) viewWidth,
-              (float) mRequest.maxHeight / (float) viewHeight);
-          int destWidth = (int) (viewWidth * scale);
-          int destHeight = (int) (viewHeight * scale);
-          mBitmap = Bitmap.createBitmap(destWidth, destHeight, Bitmap.Config.RGB_565);
-          mCanvas = new Canvas(mBitmap);
-          Matrix matrix = new Matrix();
-          mTempSrc.set(0, 0, viewWidth, viewHeight);
-          mTempDst.set(0, 0, destWidth, destHeight);
-          matrix.setRectToRect(mTempSrc, mTempDst, Matrix.ScaleToFit.CENTER);
-          mCanvas.setMatrix(matrix);
-        }
-        rootView.draw(mCanvas);
-      } catch (OutOfMemoryError e) {
-        LogUtil.w("Out of memory trying to allocate screencast Bitmap.");
+      long start = System.nanoTime();
+      mScreenCapturer.capture(
+          activity,
+          mRequest.maxWidth,
+          mRequest.maxHeight,
+          mBackgroundHandler,
+          this);
+      recordCaptureTime(System.nanoTime() - start);
+    }
+
+    /**
+     * Called on the background thread.
+     */
+    @Override
+    public void onFrameCaptured(@Nullable Bitmap frame) {
+      if (frame != null) {
+        mBitmap = frame;
       }
+      mEventDispatchRunnable.run();
     }
-  }
 
-  private class EventDispatchRunnable implements Runnable {
-    private Runnable mEndAction;
+    private void recordCaptureTime(long nanos) {
+      mCapturedFrames++;
+      mCaptureNanos += nanos;
+      mMaxCaptureNanos = Math.max(mMaxCaptureNanos, nanos);
+      if (mCapturedFrames % STATS_INTERVAL == 0) {
+        logCaptureStats();
+      }
+    }
+  }
 
-    private EventDispatchRunnable withEndAction(Runnable endAction) {
-      mEndAction = endAction;
-      return this;
+  private void logCaptureStats() {
+    if (mCapturedFrames > 0) {
+      LogUtil.d(
+          "Screencast captured %d frames using %s: %.2f ms average, %.2f ms max on main thread",
+          mCapturedFrames,
+          mScreenCapturer.getName(),
+          mCaptureNanos / 1e6 / mCapturedFrames,
+          mMaxCaptureNanos / 1e6);
     }
+  }
 
+  private class EventDispatchRunnable implements Runnable {
     @Override
     public void run() {
-      if (!mIsRunning || mBitmap == null) {
+      if (!mIsRunning) {
         return;
       }
-      int width = mBitmap.getWidth();
-      int height = mBitmap.getHeight();
+      if (mBitmap != null && hasFrameChanged()) {
+        sendFrame();
+      }
+      scheduleNextFrame();
+    }
+
+    /**
+     * Compare a hash of the raw pixels with that of the last frame sent, which costs far less
+     * than compressing and sending a frame the peer already shows.
+     */
+    private boolean hasFrameChanged() {
+      // Bitmap.getByteCount() needs API 12.
+      int byteCount = mBitmap.getRowBytes() * mBitmap.getHeight();
+      if (mPixels == null || mPixels.capacity() != byteCount) {
+        mPixels = ByteBuffer.allocate(byteCount);
+        mHasLastFrame = false;
+      }
+      mPixels.clear();
+      mBitmap.copyPixelsToBuffer(mPixels);
+      int hash = Arrays.hashCode(mPixels.array());
+      if (mHasLastFrame && hash == mLastFrameHash) {
+        return false;
+      }
+      mHasLastFrame = true;
+      mLastFrameHash = hash;
+      return true;
+    }
+
+    private void sendFrame() {
       mStream.reset();
-      Base64OutputStream base64Stream = new Base64OutputStream(mStream, Base64.DEFAULT);
-      // request format is either "jpeg" or "png"
-      Bitmap.CompressFormat format = Bitmap.CompressFormat.valueOf(mRequest.format.toUpperCase());
-      mBitmap.compress(format, mRequest.quality, base64Stream);
-      mEvent.data = mStream.toString();
+      mBitmap.compress(mFormat, mFlowControl.getQuality(), mStream);
+      int sessionId = ++mNextSessionId;
+      // Base64 encoded by the ObjectMapper straight into the outgoing message.
+      mEvent.data = mStream.asByteBuffer();
+      mEvent.sessionId = sessionId;
       mMetadata.pageScaleFactor = 1;
-      mMetadata.deviceWidth = width;
-      mMetadata.deviceHeight = height;
+      mMetadata.deviceWidth = mBitmap.getWidth();
+      mMetadata.deviceHeight = mBitmap.getHeight();
       mEvent.metadata = mMetadata;
-      mPeer.invokeMethod("Page.screencastFrame", mEvent, null);
-      mMainHandler.postDelayed(mEndAction, FRAME_DELAY);
+
+      // A newer frame makes any frame still queued for the peer obsolete.  The ack for the
+      // newer frame then accounts for it too.
+      boolean sent = mPeer.invokeLowPriorityNotification(
+          "Page.screencastFrame",
+          mEvent,
+          SCREENCAST_FRAME_KEY);
+      mEvent.data = null;
+
+      if (!sent) {
+        // Never to be acked, so not in flight, and the peer still shows an older frame.
+        mHasLastFrame = false;
+        return;
+      }
+      if (mFlowControl.onFrameSent(sessionId, SystemClock.uptimeMillis())) {
+        mBackgroundHandler.postDelayed(mAckTimeoutRunnable, ScreencastFlowControl.ACK_TIMEOUT);
+      }
+    }
+  }
+
+  private class AckTimeoutRunnable implements Runnable {
+    @Override
+    public void run() {
+      if (!mIsRunning || !mFlowControl.onAckTimeout()) {
+        return;
+      }
+      LogUtil.d("Screencast frames not acked, resuming");
+      // The frame the peer shows is unknown, so send the next one even if unchanged.
+      mHasLastFrame = false;
+      resumeCaptureIfWaiting();
     }
   }
 
@@ -144,11 +273,49 @@ public final class ScreencastDispatcher {
       mHandlerThread.interrupt();
       mMainHandler.removeCallbacks(mBitmapFetchRunnable);
       mBackgroundHandler.removeCallbacks(mEventDispatchRunnable);
+      mBackgroundHandler.removeCallbacks(mAckTimeoutRunnable);
       mIsRunning = false;
       mHandlerThread = null;
       mBitmap = null;
-      mCanvas = null;
       mStream = null;
+      mPixels = null;
+      mMainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          mScreenCapturer.release();
+          logCaptureStats();
+        }
+      });
+    }
+  }
+
+  /**
+   * Exposes the compressed frame in place so that it can be encoded without copying, and
+   * keeps its buffer from one frame to the next.
+   */
+  /**
+   * {@link Page.ScreencastFrameEvent} with the image as the encoded bytes themselves, which the
+   * {@link com.facebook.stetho.json.ObjectMapper} base64 encodes straight into the outgoing
+   * message rather than into a String first.
+   */
+  private static class BufferScreencastFrameEvent {
+    @JsonProperty(required = true)
+    public ByteBuffer data;
+
+    @JsonProperty(required = true)
+    public Page.ScreencastFrameEventMetadata metadata;
+
+    @JsonProperty
+    public int sessionId;
+  }
+
+  private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    public ReusableByteArrayOutputStream() {
+      super(64 * 1024);
+    }
+
+    public ByteBuffer asByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
     }
   }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.screencast;
+
+/**
+ * Flow control for {@link ScreencastDispatcher}: tracks the frames awaiting the peer's
+ * {@code Page.screencastFrameAck} and derives the frame rate and JPEG quality from how long
+ * those acks take.  Only used on the screencast thread; times are in
+ * {@link android.os.SystemClock#uptimeMillis()}.
+ */
+final class ScreencastFlowControl {
+  static final long FRAME_DELAY = 200l;
+  static final long MAX_FRAME_DELAY = 1000l;
+  static final int MAX_FRAMES_IN_FLIGHT = 2;
+
+  /**
+   * Frames may be dropped by the session if the peer isn't keeping up, in which case their ack
+   * never comes.  After this long without one we assume the worst and carry on.
+   */
+  static final long ACK_TIMEOUT = 3000l;
+
+  static final int MIN_QUALITY = 30;
+  static final int QUALITY_STEP_DOWN = 10;
+  static final int QUALITY_STEP_UP = 5;
+
+  private final int mRequestedQuality;
+  private final int[] mInFlightSessionIds = new int[MAX_FRAMES_IN_FLIGHT];
+  private final long[] mInFlightSendTimes = new long[MAX_FRAMES_IN_FLIGHT];
+  private int mFramesInFlight;
+  private boolean mWaitingForAck;
+  private long mFrameDelay = FRAME_DELAY;
+  private long mSmoothedAckLatency = -1;
+  private int mQuality;
+
+  public ScreencastFlowControl(int requestedQuality) {
+    mRequestedQuality = requestedQuality;
+    mQuality = requestedQuality;
+  }
+
+  public long getFrameDelay() {
+    return mFrameDelay;
+  }
+
+  public int getQuality() {
+    return mQuality;
+  }
+
+  public int getFramesInFlight() {
+    return mFramesInFlight;
+  }
+
+  /**
+   * @return Whether another frame may be captured, or else capture must wait for an ack (see
+   *     {@link #takeResume()}).
+   */
+  public boolean canCaptureFrame() {
+    if (mFramesInFlight < MAX_FRAMES_IN_FLIGHT) {
+      return true;
+    }
+    mWaitingForAck = true;
+    return false;
+  }
+
+  /**
+   * @return Whether this is now the only frame in flight, so the ack timeout should be started.
+   */
+  public boolean onFrameSent(int sessionId, long nowMs) {
+    mInFlightSessionIds[mFramesInFlight] = sessionId;
+    mInFlightSendTimes[mFramesInFlight] = nowMs;
+    mFramesInFlight++;
+    return mFramesInFlight == 1;
+  }
+
+  /**
+   * Chrome acks frames in the order they were sent, so an ack also accounts for any earlier
+   * frame still in flight.  Such a frame was lost or replaced on its way to the peer, and
+   * would otherwise hold its slot until {@link #onAckTimeout()}.
+   *
+   * @param sessionId The acked frame's {@code sessionId}, or -1 if the peer didn't say, in
+   *     which case the oldest frame in flight is assumed.
+   * @return Whether the frame was still in flight, rather than already given up on by
+   *     {@link #onAckTimeout()}.
+   */
+  public boolean onFrameAcked(int sessionId, long nowMs) {
+    int index = sessionId < 0 ? 0 : indexOfLastFrameSentBy(sessionId);
+    if (index < 0 || index >= mFramesInFlight) {
+      return false;
+    }
+    long latency = nowMs - mInFlightSendTimes[index];
+    removeFramesInFlightThrough(index);
+    adapt(latency);
+    return true;
+  }
+
+  /**
+   * Give up on every frame in flight, as if each had taken {@link #ACK_TIMEOUT} to be acked.
+   *
+   * @return Whether any frames were in flight.
+   */
+  public boolean onAckTimeout() {
+    if (mFramesInFlight == 0) {
+      return false;
+    }
+    mFramesInFlight = 0;
+    adapt(ACK_TIMEOUT);
+    return true;
+  }
+
+  /**
+   * @return Whether capture had been held back by {@link #canCaptureFrame()} and should now
+   *     resume, which is then no longer the case.
+   */
+  public boolean takeResume() {
+    if (mWaitingForAck && mFramesInFlight < MAX_FRAMES_IN_FLIGHT) {
+      mWaitingForAck = false;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Capture no faster than frames are acked, and once that is as slow as we'll go, trade
+   * quality for size instead.  Quality creeps back up to what was asked for once acks are
+   * prompt again.
+   */
+  private void adapt(long ackLatency) {
+    mSmoothedAckLatency = mSmoothedAckLatency < 0
+        ? ackLatency
+        : (mSmoothedAckLatency * 3 + ackLatency) / 4;
+    mFrameDelay = Math.max(FRAME_DELAY, Math.min(MAX_FRAME_DELAY, mSmoothedAckLatency));
+    if (mSmoothedAckLatency > MAX_FRAME_DELAY / 2) {
+      mQuality = Math.max(Math.min(MIN_QUALITY, mRequestedQuality), mQuality - QUALITY_STEP_DOWN);
+    } else if (mSmoothedAckLatency < FRAME_DELAY) {
+      mQuality = Math.min(mRequestedQuality, mQuality + QUALITY_STEP_UP);
+    }
+  }
+
+  /**
+   * @return The index of the newest frame in flight sent no later than {@code sessionId}, or
+   *     -1 if there is none.  Session ids are assigned in increasing order.
+   */
+  private int indexOfLastFrameSentBy(int sessionId) {
+    int index = -1;
+    for (int i = 0; i < mFramesInFlight && mInFlightSessionIds[i] <= sessionId; i++) {
+      index = i;
+    }
+    return index;
+  }
+
+  private void removeFramesInFlightThrough(int index) {
+    int remaining = mFramesInFlight - index - 1;
+    System.arraycopy(mInFlightSessionIds, index + 1, mInFlightSessionIds, 0, remaining);
+    System.arraycopy(mInFlightSendTimes, index + 1, mInFlightSendTimes, 0, remaining);
+    mFramesInFlight = remaining;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.json.annotation.JsonValue;
+
+/**
+ * Everything {@link ObjectMapper} needs to know about a class, resolved by reflection once and
+ * then shared by all mappers.  Bindings are immutable so lookups take no locks; two threads
+ * racing to bind the same class just do the work twice.
+ */
+@Immutable
+final class ClassBinding {
+  private static final ConcurrentHashMap<Class<?>, ClassBinding> sBindings =
+      new ConcurrentHashMap<>();
+
+  public final Class<?> type;
+
+  /**
+   * Every public instance field, in {@link Class#getFields()} order, which is what
+   * deserialization populates.
+   */
+  public final FieldBinding[] fields;
+
+  /**
+   * Subset of {@link #fields} annotated with {@link JsonProperty}, which is what serialization
+   * emits.
+   */
+  public final FieldBinding[] properties;
+
+  /**
+   * The first method annotated with {@link JsonValue} or null if one does not exist.
+   */
+  @Nullable public final Method jsonValueMethod;
+
+  @Nullable private final Constructor<?> mConstructor;
+  @Nullable private final NoSuchMethodException mConstructorException;
+
+  /**
+   * For enums, constants keyed by their serialized form.
+   */
+  @Nullable private final Map<String, Enum<?>> mEnumConstants;
+
+  public static ClassBinding of(Class<?> type) {
+    ClassBinding binding = sBindings.get(type);
+    if (binding == null) {
+      binding = new ClassBinding(type);
+      ClassBinding existing = sBindings.putIfAbsent(type, binding);
+      if (existing != null) {
+        binding = existing;
+      }
+    }
+    return binding;
+  }
+
+  private ClassBinding(Class<?> type) {
+    this.type = type;
+    this.jsonValueMethod = findJsonValueMethod(type);
+
+    ArrayList<FieldBinding> fields = new ArrayList<>();
+    ArrayList<FieldBinding> properties = new ArrayList<>();
+    for (Field field : type.getFields()) {
+      if (Modifier.isStatic(field.getModifiers())) {
+        continue;
+      }
+      FieldBinding binding = new FieldBinding(field);
+      fields.add(binding);
+      if (binding.isProperty) {
+        properties.add(binding);
+      }
+    }
+    this.fields = fields.toArray(new FieldBinding[fields.size()]);
+    this.properties = properties.toArray(new FieldBinding[properties.size()]);
+
+    Constructor<?> constructor = null;
+    NoSuchMethodException constructorException = null;
+    try {
+      constructor = type.getDeclaredConstructor((Class[]) null);
+      constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      // Only a problem if we are ever asked to deserialize this type.
+      constructorException = e;
+    }
+    mConstructor = constructor;
+    mConstructorException = constructorException;
+
+    mEnumConstants = type.isEnum() ? buildEnumConstants(type, jsonValueMethod) : null;
+  }
+
+  public Object newInstance()
+      throws NoSuchMethodException, IllegalAccessException, InstantiationException,
+      InvocationTargetException {
+    if (mConstructor == null) {
+      throw mConstructorException;
+    }
+    return mConstructor.newInstance();
+  }
+
+  /**
+   * Equivalent to matching {@code value} against each constant's {@link JsonValue} (first
+   * wins), or {@link Enum#valueOf} if there is no such method.
+   *
+   * @throws IllegalArgumentException if no constant matches.
+   */
+  public Enum<?> getEnumConstant(String value) {
+    Enum<?> constant = mEnumConstants != null ? mEnumConstants.get(value) : null;
+    if (constant == null) {
+      throw new IllegalArgumentException("No enum constant " + type.getName() + "." + value);
+    }
+    return constant;
+  }
+
+  private static Map<String, Enum<?>> buildEnumConstants(
+      Class<?> type,
+      @Nullable Method jsonValueMethod) {
+    Enum<?>[] constants = (Enum<?>[]) type.getEnumConstants();
+    HashMap<String, Enum<?>> byValue = new HashMap<>();
+    for (Enum<?> constant : constants) {
+      String key;
+      if (jsonValueMethod != null) {
+        Object o;
+        try {
+          o = jsonValueMethod.invoke(constant);
+        } catch (Exception e) {
+          throw new IllegalArgumentException(e);
+        }
+        if (o == null) {
+          continue;
+        }
+        key = o.toString();
+      } else {
+        key = constant.name();
+      }
+      if (!byValue.containsKey(key)) {
+        byValue.put(key, constant);
+      }
+    }
+    return byValue;
+  }
+
+  @Nullable
+  private static Method findJsonValueMethod(Class<?> clazz) {
+    Method[] methods = clazz.getMethods();
+    for (int i = 0; i < methods.length; ++i) {
+      Annotation jsonValue = methods[i].getAnnotation(JsonValue.class);
+      if (jsonValue != null) {
+        return methods[i];
+      }
+    }
+    return null;
+  }
+
+  @Immutable
+  static final class FieldBinding {
+    public final Field field;
+    public final String name;
+    public final Class<?> type;
+    public final boolean isProperty;
+    public final boolean required;
+
+    /**
+     * Element class for {@link List} fields, or null if the field is not a list.
+     */
+    @Nullable public final Class<?> listElementType;
+
+    /**
+     * Explains why {@link #listElementType} couldn't be determined for a {@link List} field.
+     */
+    @Nullable public final String listElementError;
+
+    FieldBinding(Field field) {
+      // Public fields of a private class (as with most request and response types) are
+      // otherwise inaccessible to the mapper on a standard JVM.
+      field.setAccessible(true);
+      this.field = field;
+      this.name = field.getName();
+      this.type = field.getType();
+
+      JsonProperty property = field.getAnnotation(JsonProperty.class);
+      this.isProperty = property != null;
+      this.required = property != null && property.required();
+
+      Class<?> listElementType = null;
+      String listElementError = null;
+      if (List.class.isAssignableFrom(type)) {
+        Type genericType = field.getGenericType();
+        if (genericType instanceof ParameterizedType) {
+          Type[] types = ((ParameterizedType) genericType).getActualTypeArguments();
+          if (types.length != 1) {
+            listElementError = "Only able to handle a single type in a list " + name;
+          } else if (types[0] instanceof Class) {
+            listElementType = (Class<?>) types[0];
+          } else {
+            listElementError = "Unsupported list element type " + types[0] + " on " + name;
+          }
+        } else {
+          listElementError = "Raw list type on field " + name;
+        }
+      }
+      this.listElementType = listElementType;
+      this.listElementError = listElementError;
+    }
+  }
+}
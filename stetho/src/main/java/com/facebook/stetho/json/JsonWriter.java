@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+/**
+ * Streaming JSON encoder writing UTF-8 directly into a reusable byte buffer.  Output matches
+ * {@link JSONObject#toString()} (other than not escaping {@code '/'}) but is produced without
+ * an intermediate tree, {@link StringBuilder} or {@link String}.
+ * <p>
+ * No attempt is made to validate the structure of the document beyond inserting separators;
+ * callers are expected to balance {@code begin}/{@code end} calls and to precede every object
+ * member with {@link #name}.
+ */
+@NotThreadSafe
+public final class JsonWriter {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * Buffers which grew beyond this for an unusually large document are dropped by
+   * {@link #reset()} rather than pinned for the lifetime of the writer.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+  private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+  private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+  private static final byte[] HEX = {
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f',
+  };
+  private static final byte[] BASE64 = {
+      'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
+      'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
+      'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/',
+  };
+
+  private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+  private int mLength;
+
+  /**
+   * Whether the next value (or name) at each nesting level must be preceded by a comma.
+   */
+  private boolean[] mNeedsComma = new boolean[16];
+  private int mDepth;
+  private boolean mAfterName;
+
+  public JsonWriter beginObject() {
+    beforeValue();
+    append('{');
+    push();
+    return this;
+  }
+
+  public JsonWriter endObject() {
+    mDepth--;
+    append('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() {
+    beforeValue();
+    append('[');
+    push();
+    return this;
+  }
+
+  public JsonWriter endArray() {
+    mDepth--;
+    append(']');
+    return this;
+  }
+
+  public JsonWriter name(String name) {
+    separate();
+    writeString(name);
+    append(':');
+    mAfterName = true;
+    return this;
+  }
+
+  public JsonWriter value(@Nullable String value) {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeString(value);
+    return this;
+  }
+
+  public JsonWriter value(boolean value) {
+    beforeValue();
+    append(value ? TRUE : FALSE);
+    return this;
+  }
+
+  public JsonWriter value(long value) {
+    beforeValue();
+    writeLong(value);
+    return this;
+  }
+
+  /**
+   * Format a number the way {@link JSONObject#numberToString} does, so that integral
+   * floating point values are written without a fraction.
+   *
+   * @throws IllegalArgumentException if {@code value} is NaN or infinite.
+   */
+  public JsonWriter value(Number value) {
+    beforeValue();
+    if (value instanceof Long ||
+        value instanceof Integer ||
+        value instanceof Short ||
+        value instanceof Byte) {
+      writeLong(value.longValue());
+      return this;
+    }
+    double doubleValue = value.doubleValue();
+    if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    long longValue = value.longValue();
+    if (doubleValue == (double) longValue) {
+      if (longValue == 0 && 1 / doubleValue < 0) {
+        writeAscii("-0");
+      } else {
+        writeLong(longValue);
+      }
+    } else {
+      writeAscii(value.toString());
+    }
+    return this;
+  }
+
+  /**
+   * Write {@code count} bytes of {@code data} as a base64 string (standard alphabet, padded, no
+   * line breaks), encoding straight into the output rather than through a {@link String}.
+   */
+  public JsonWriter base64Value(byte[] data, int offset, int count) {
+    beforeValue();
+    ensureCapacity(mLength + ((count + 2) / 3) * 4 + 2);
+    byte[] buffer = mBuffer;
+    int pos = mLength;
+    buffer[pos++] = '"';
+    int end = offset + count;
+    int i = offset;
+    for (; end - i >= 3; i += 3) {
+      int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+      buffer[pos++] = BASE64[bits >> 18];
+      buffer[pos++] = BASE64[(bits >> 12) & 0x3f];
+      buffer[pos++] = BASE64[(bits >> 6) & 0x3f];
+      buffer[pos++] = BASE64[bits & 0x3f];
+    }
+    if (end - i == 1) {
+      int bits = (data[i] & 0xff) << 16;
+      buffer[pos++] = BASE64[bits >> 18];
+      buffer[pos++] = BASE64[(bits >> 12) & 0x3f];
+      buffer[pos++] = '=';
+      buffer[pos++] = '=';
+    } else if (end - i == 2) {
+      int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8;
+      buffer[pos++] = BASE64[bits >> 18];
+      buffer[pos++] = BASE64[(bits >> 12) & 0x3f];
+      buffer[pos++] = BASE64[(bits >> 6) & 0x3f];
+      buffer[pos++] = '=';
+    }
+    buffer[pos++] = '"';
+    mLength = pos;
+    return this;
+  }
+
+  public JsonWriter nullValue() {
+    beforeValue();
+    append(NULL);
+    return this;
+  }
+
+  /**
+   * Encoded document, valid up to {@link #length()} until the writer is next modified.
+   */
+  public byte[] data() {
+    return mBuffer;
+  }
+
+  public int length() {
+    return mLength;
+  }
+
+  /**
+   * Hand the encoded document to the caller and reset the writer.  Small documents are copied
+   * so that the buffer can be reused; a buffer that has grown too large to be retained is
+   * handed over as is and may therefore be longer than {@link #length()}.
+   */
+  public byte[] takeData() {
+    byte[] data;
+    if (mBuffer.length > MAX_RETAINED_CAPACITY) {
+      data = mBuffer;
+      mBuffer = new byte[INITIAL_CAPACITY];
+    } else {
+      data = Arrays.copyOf(mBuffer, mLength);
+    }
+    mLength = 0;
+    mDepth = 0;
+    mAfterName = false;
+    return data;
+  }
+
+  public void reset() {
+    if (mBuffer.length > MAX_RETAINED_CAPACITY) {
+      mBuffer = new byte[INITIAL_CAPACITY];
+    }
+    mLength = 0;
+    mDepth = 0;
+    mAfterName = false;
+  }
+
+  private void push() {
+    mDepth++;
+    if (mDepth == mNeedsComma.length) {
+      mNeedsComma = Arrays.copyOf(mNeedsComma, mNeedsComma.length * 2);
+    }
+    mNeedsComma[mDepth] = false;
+  }
+
+  private void beforeValue() {
+    if (mAfterName) {
+      mAfterName = false;
+    } else {
+      separate();
+    }
+  }
+
+  private void separate() {
+    if (mDepth > 0) {
+      if (mNeedsComma[mDepth]) {
+        append(',');
+      } else {
+        mNeedsComma[mDepth] = true;
+      }
+    }
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeAscii(Long.toString(value));
+      return;
+    }
+    ensureCapacity(mLength + 20);
+    if (value < 0) {
+      mBuffer[mLength++] = '-';
+      value = -value;
+    }
+    int start = mLength;
+    do {
+      mBuffer[mLength++] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+    // Digits were produced least significant first.
+    for (int i = start, j = mLength - 1; i < j; i++, j--) {
+      byte tmp = mBuffer[i];
+      mBuffer[i] = mBuffer[j];
+      mBuffer[j] = tmp;
+    }
+  }
+
+  private void writeAscii(String str) {
+    int length = str.length();
+    ensureCapacity(mLength + length);
+    for (int i = 0; i < length; i++) {
+      mBuffer[mLength++] = (byte) str.charAt(i);
+    }
+  }
+
+  /**
+   * Quote, escape and UTF-8 encode in a single pass.  Unpaired surrogates are replaced with
+   * {@code '?'}, as {@link String#getBytes} would.
+   */
+  private void writeString(String str) {
+    int length = str.length();
+    // Reserve for the common case of one byte per char; a char needs at most 6 (as an escape
+    // sequence) so we only grow again if that runs out.
+    ensureCapacity(mLength + length + 2);
+    byte[] buffer = mBuffer;
+    int pos = mLength;
+    int limit = buffer.length;
+    buffer[pos++] = '"';
+    for (int i = 0; i < length; i++) {
+      if (limit - pos < 6) {
+        mLength = pos;
+        ensureCapacity(pos + Math.max(length - i, 6) + 1);
+        buffer = mBuffer;
+        limit = buffer.length;
+      }
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          buffer[pos++] = (byte) c;
+        } else {
+          pos = writeEscape(buffer, pos, c);
+        }
+      } else if (c < 0x800) {
+        buffer[pos++] = (byte) (0xc0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) &&
+          i + 1 < length &&
+          Character.isLowSurrogate(str.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, str.charAt(++i));
+        buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        buffer[pos++] = '?';
+      } else {
+        buffer[pos++] = (byte) (0xe0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    mLength = pos;
+    append('"');
+  }
+
+  private static int writeEscape(byte[] buffer, int pos, char c) {
+    buffer[pos++] = '\\';
+    switch (c) {
+      case '"':
+      case '\\':
+        buffer[pos++] = (byte) c;
+        break;
+      case '\t':
+        buffer[pos++] = 't';
+        break;
+      case '\b':
+        buffer[pos++] = 'b';
+        break;
+      case '\n':
+        buffer[pos++] = 'n';
+        break;
+      case '\r':
+        buffer[pos++] = 'r';
+        break;
+      case '\f':
+        buffer[pos++] = 'f';
+        break;
+      default:
+        buffer[pos++] = 'u';
+        buffer[pos++] = '0';
+        buffer[pos++] = '0';
+        buffer[pos++] = HEX[c >> 4];
+        buffer[pos++] = HEX[c & 0xf];
+        break;
+    }
+    return pos;
+  }
+
+  private void append(char c) {
+    ensureCapacity(mLength + 1);
+    mBuffer[mLength++] = (byte) c;
+  }
+
+  private void append(byte[] bytes) {
+    ensureCapacity(mLength + bytes.length);
+    System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+    mLength += bytes.length;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > mBuffer.length) {
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(capacity, mBuffer.length * 2));
+    }
+  }
+}
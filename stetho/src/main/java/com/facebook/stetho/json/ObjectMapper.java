@@ -9,21 +9,16 @@
 
 package com.facebook.stetho.json;
 
+import android.util.Base64;
+
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import com.facebook.stetho.common.ExceptionUtil;
 import com.facebook.stetho.json.annotation.JsonProperty;
@@ -42,14 +37,12 @@ import org.json.JSONObject;
  * <p>
  * Admittedly the other approach would be to use an Annotation Processor to create static conversion
  * functions that discover something like a {@link JsonProperty} and create a function at compile
- * time however since this is just being used for a simple debug utility and Kit-Kat caches the
- * results of reflection this class is sufficient for stethos needs.
+ * time however since this is just being used for a simple debug utility this class is sufficient
+ * for stethos needs.  The reflective lookups are done once per class (see {@link ClassBinding})
+ * so that only the field accesses themselves are paid per conversion.
  */
 public class ObjectMapper {
 
-  @GuardedBy("mJsonValueMethodCache")
-  private final Map<Class<?>, Method> mJsonValueMethodCache = new IdentityHashMap<>();
-
   /**
    * Support mapping between arbitrary classes and {@link JSONObject}.
    * <note>
@@ -96,26 +89,40 @@ public class ObjectMapper {
     }
   }
 
+  /**
+   * Serialize {@code value} directly into {@code writer}, producing the same document as
+   * {@code convertValue(value, JSONObject.class).toString()} without building either.  Values
+   * which are already {@link JSONObject} or {@link JSONArray} trees are copied through.
+   *
+   * @throws IllegalArgumentException when there is an error converting.
+   */
+  public void writeValue(JsonWriter writer, @Nullable Object value)
+      throws IllegalArgumentException {
+    try {
+      writePlainValue(writer, value);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
   private <T> T _convertFromJSONObject(JSONObject jsonObject, Class<T> type)
       throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
       InstantiationException, JSONException {
-    Constructor<T> constructor = type.getDeclaredConstructor((Class[]) null);
-    constructor.setAccessible(true);
-    T instance = constructor.newInstance();
-    Field[] fields = type.getFields();
+    ClassBinding binding = ClassBinding.of(type);
+    T instance = type.cast(binding.newInstance());
+    ClassBinding.FieldBinding[] fields = binding.fields;
     for (int i = 0; i < fields.length; ++i) {
-      Field field = fields[i];
-      if (Modifier.isStatic(field.getModifiers())) {
-        continue;
-      }
-      Object value = jsonObject.opt(field.getName());
+      ClassBinding.FieldBinding field = fields[i];
+      Object value = jsonObject.opt(field.name);
       Object setValue = getValueForField(field, value);
       try {
-        field.set(instance, setValue);
+        field.field.set(instance, setValue);
       } catch (IllegalArgumentException e) {
         throw new IllegalArgumentException(
             "Class: " + type.getSimpleName() + " " +
-            "Field: " + field.getName() + " type " + (setValue != null ?
+            "Field: " + field.name + " type " + (setValue != null ?
                 setValue.getClass().getName()
                 : "null"),
             e);
@@ -124,28 +131,28 @@ public class ObjectMapper {
     return instance;
   }
 
-  private Object getValueForField(Field field, Object value)
+  private Object getValueForField(ClassBinding.FieldBinding field, Object value)
       throws JSONException {
     try {
       if (value != null) {
         if (value == JSONObject.NULL) {
           return null;
         }
-        if (value.getClass() == field.getType()) {
+        if (value.getClass() == field.type) {
           return value;
         }
         if (value instanceof JSONObject) {
-          return convertValue(value, field.getType());
+          return convertValue(value, field.type);
         } else {
-          if (field.getType().isEnum()) {
-            return getEnumValue((String) value, field.getType().asSubclass(Enum.class));
+          if (field.type.isEnum()) {
+            return getEnumValue((String) value, field.type);
           } else if (value instanceof JSONArray) {
             return convertArrayToList(field, (JSONArray) value);
           } else if (value instanceof Number) {
             // Need to convert value to Number This happens because json treats 1 as an Integer even
             // if the field is supposed to be a Long
             Number numberValue = (Number) value;
-            Class<?> clazz = field.getType();
+            Class<?> clazz = field.type;
             if (clazz == Integer.class || clazz == int.class) {
               return numberValue.intValue();
             } else if (clazz == Long.class || clazz == long.class) {
@@ -165,58 +172,22 @@ public class ObjectMapper {
         }
       }
     } catch (IllegalAccessException e) {
-      throw new IllegalArgumentException("Unable to set value for field " + field.getName(), e);
+      throw new IllegalArgumentException("Unable to set value for field " + field.name, e);
     }
     return value;
   }
 
-  private Enum getEnumValue(String value, Class<? extends Enum> clazz) {
-    Method method = getJsonValueMethod(clazz);
-    if (method != null) {
-      return getEnumByMethod(value, clazz, method);
-    } else {
-      return Enum.valueOf(clazz, value);
-    }
+  private static Enum getEnumValue(String value, Class<?> clazz) {
+    return ClassBinding.of(clazz).getEnumConstant(value);
   }
 
-  /**
-   * In this case we know that there is an {@link Enum} decorated with {@link JsonValue}. This means
-   * that we need to iterate through all of the values of the {@link Enum} returned by the given
-   * {@link Method} to check the given value.
-   * @param value
-   * @param clazz
-   * @param method
-   * @return
-   */
-  private Enum getEnumByMethod(String value, Class<? extends Enum> clazz, Method method) {
-    Enum[] enumValues = clazz.getEnumConstants();
-    // Start at the front to ensure first always wins
-    for (int i = 0; i < enumValues.length; ++i) {
-      Enum enumValue = enumValues[i];
-      try {
-        Object o = method.invoke(enumValue);
-        if (o != null) {
-          if (o.toString().equals(value)) {
-            return enumValue;
-          }
-        }
-      } catch (Exception ex) {
-        throw new IllegalArgumentException(ex);
-      }
-    }
-    throw new IllegalArgumentException("No enum constant " + clazz.getName() + "." + value);
-  }
-
-  private List<Object> convertArrayToList(Field field, JSONArray array)
+  private List<Object> convertArrayToList(ClassBinding.FieldBinding field, JSONArray array)
       throws IllegalAccessException, JSONException {
-    if (List.class.isAssignableFrom(field.getType())) {
-      ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-      Type[] types = parameterizedType.getActualTypeArguments();
-      if (types.length != 1) {
-        throw new IllegalArgumentException("Only able to handle a single type in a list " +
-            field.getName());
+    if (List.class.isAssignableFrom(field.type)) {
+      if (field.listElementType == null) {
+        throw new IllegalArgumentException(field.listElementError);
       }
-      Class arrayClass = (Class)types[0];
+      Class<?> arrayClass = field.listElementType;
       List<Object> objectList = new ArrayList<Object>();
       for (int i = 0; i < array.length(); ++i) {
         if (arrayClass.isEnum()) {
@@ -235,42 +206,35 @@ public class ObjectMapper {
       return objectList;
     } else {
       throw new IllegalArgumentException("only know how to deserialize List<?> on field "
-          + field.getName());
+          + field.name);
     }
   }
 
   private JSONObject _convertToJSONObject(Object fromValue)
       throws JSONException, InvocationTargetException, IllegalAccessException {
     JSONObject jsonObject = new JSONObject();
-    Field[] fields = fromValue.getClass().getFields();
-    for (int i = 0; i < fields.length; ++i) {
-      Field field = fields[i];
-      if (Modifier.isStatic(field.getModifiers())) {
-        continue;
+    ClassBinding.FieldBinding[] properties = ClassBinding.of(fromValue.getClass()).properties;
+    for (int i = 0; i < properties.length; ++i) {
+      ClassBinding.FieldBinding property = properties[i];
+      // AutoBox here ...
+      Object value = property.field.get(fromValue);
+      Class clazz = property.type;
+      if (value != null) {
+        clazz = value.getClass();
       }
-      JsonProperty property = field.getAnnotation(JsonProperty.class);
-      if (property != null) {
-        // AutoBox here ...
-        Object value = field.get(fromValue);
-        Class clazz = field.getType();
-        if (value != null) {
-          clazz = value.getClass();
-        }
-        String name = field.getName();
-        if (property.required() && value == null) {
-          value = JSONObject.NULL;
-        } else if (value == JSONObject.NULL) {
-          // Leave it as null in this case.
-        } else {
-          value = getJsonValue(value, clazz, field);
-        }
-        jsonObject.put(name, value);
+      if (property.required && value == null) {
+        value = JSONObject.NULL;
+      } else if (value == JSONObject.NULL) {
+        // Leave it as null in this case.
+      } else {
+        value = getJsonValue(value, clazz);
       }
+      jsonObject.put(property.name, value);
     }
     return jsonObject;
   }
 
-  private Object getJsonValue(Object value, Class<?> clazz, Field field)
+  private Object getJsonValue(Object value, Class<?> clazz)
       throws InvocationTargetException, IllegalAccessException {
     if (value == null) {
       // Now technically we /could/ return JsonNode.NULL here but Chrome's webkit inspector croaks
@@ -280,12 +244,18 @@ public class ObjectMapper {
     if (List.class.isAssignableFrom(clazz)) {
       return convertListToJsonArray(value);
     }
-    // Finally check to see if there is a JsonValue present
-    Method m = getJsonValueMethod(clazz);
-    if (m != null) {
-      return m.invoke(value);
+    if (value instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) value;
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return Base64.encodeToString(bytes, Base64.NO_WRAP);
     }
     if (!canDirectlySerializeClass(clazz)) {
+      // Finally check to see if there is a JsonValue present
+      Method m = ClassBinding.of(clazz).jsonValueMethod;
+      if (m != null) {
+        return m.invoke(value);
+      }
       return convertValue(value, JSONObject.class);
     }
     // JSON has no support for NaN, Infinity or -Infinity, so we serialize
@@ -310,38 +280,145 @@ public class ObjectMapper {
     List<Object> list = (List<Object>) value;
     for(Object obj : list) {
       // Send null, if this is an array of arrays we are screwed
-      array.put(obj != null ? getJsonValue(obj, obj.getClass(), null /* field */) : null);
+      array.put(obj != null ? getJsonValue(obj, obj.getClass()) : null);
     }
     return array;
   }
 
   /**
-   *
-   * @param clazz
-   * @return the first method annotated with {@link JsonValue} or null if one does not exist.
+   * Streaming equivalent of {@link #_convertToJSONObject}.
    */
-  @Nullable
-  private Method getJsonValueMethod(Class<?> clazz) {
-    synchronized (mJsonValueMethodCache) {
-      Method method = mJsonValueMethodCache.get(clazz);
-      if (method == null && !mJsonValueMethodCache.containsKey(clazz)) {
-        method = getJsonValueMethodImpl(clazz);
-        mJsonValueMethodCache.put(clazz, method);
+  private void writeObject(JsonWriter writer, Object fromValue)
+      throws InvocationTargetException, IllegalAccessException {
+    writer.beginObject();
+    ClassBinding.FieldBinding[] properties = ClassBinding.of(fromValue.getClass()).properties;
+    for (int i = 0; i < properties.length; ++i) {
+      ClassBinding.FieldBinding property = properties[i];
+      Object value = property.field.get(fromValue);
+      if (value == null) {
+        // Absent unless required, just as JSONObject.put drops null values.
+        if (property.required) {
+          writer.name(property.name).nullValue();
+        }
+      } else {
+        writer.name(property.name);
+        if (value == JSONObject.NULL) {
+          writer.nullValue();
+        } else {
+          writeJsonValue(writer, value, value.getClass());
+        }
       }
-      return method;
     }
+    writer.endObject();
   }
 
-  @Nullable
-  private static Method getJsonValueMethodImpl(Class<?> clazz) {
-    Method[] methods = clazz.getMethods();
-    for(int i = 0; i < methods.length; ++i) {
-      Annotation jsonValue = methods[i].getAnnotation(JsonValue.class);
-      if (jsonValue != null) {
-        return methods[i];
+  /**
+   * Streaming equivalent of {@link #getJsonValue}.
+   */
+  private void writeJsonValue(JsonWriter writer, Object value, Class<?> clazz)
+      throws InvocationTargetException, IllegalAccessException {
+    if (List.class.isAssignableFrom(clazz)) {
+      writer.beginArray();
+      List<?> list = (List<?>) value;
+      for (int i = 0, N = list.size(); i < N; i++) {
+        Object obj = list.get(i);
+        if (obj != null) {
+          writeJsonValue(writer, obj, obj.getClass());
+        } else {
+          writer.nullValue();
+        }
+      }
+      writer.endArray();
+      return;
+    }
+    if (value instanceof ByteBuffer) {
+      writeByteBuffer(writer, (ByteBuffer) value);
+      return;
+    }
+    if (!canDirectlySerializeClass(clazz)) {
+      Method m = ClassBinding.of(clazz).jsonValueMethod;
+      writePlainValue(writer, m != null ? m.invoke(value) : value);
+      return;
+    }
+    if (clazz.equals(Double.class) || clazz.equals(Float.class)) {
+      double doubleValue = ((Number) value).doubleValue();
+      if (Double.isNaN(doubleValue)) {
+        writer.value("NaN");
+        return;
+      } else if (doubleValue == Double.POSITIVE_INFINITY) {
+        writer.value("Infinity");
+        return;
+      } else if (doubleValue == Double.NEGATIVE_INFINITY) {
+        writer.value("-Infinity");
+        return;
       }
     }
-    return null;
+    writePlainValue(writer, value);
+  }
+
+  /**
+   * Write a value as {@link JSONObject#toString()} would render it as a member, falling back to
+   * reflection for anything that isn't a JSON primitive or tree.
+   */
+  private void writePlainValue(JsonWriter writer, @Nullable Object value)
+      throws InvocationTargetException, IllegalAccessException {
+    if (value == null || value == JSONObject.NULL) {
+      writer.nullValue();
+    } else if (value instanceof String) {
+      writer.value((String) value);
+    } else if (value instanceof Number) {
+      writer.value((Number) value);
+    } else if (value instanceof Boolean) {
+      writer.value(((Boolean) value).booleanValue());
+    } else if (value instanceof Character) {
+      writer.value(value.toString());
+    } else if (value instanceof ByteBuffer) {
+      writeByteBuffer(writer, (ByteBuffer) value);
+    } else if (value instanceof JSONObject) {
+      writeJSONObject(writer, (JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      writeJSONArray(writer, (JSONArray) value);
+    } else {
+      writeObject(writer, value);
+    }
+  }
+
+  /**
+   * Binary values are sent base64 encoded, as the DevTools protocol expects of screencast frames
+   * and the like.  Only the buffer's remaining bytes are written and its position is unchanged.
+   */
+  private static void writeByteBuffer(JsonWriter writer, ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      writer.base64Value(
+          buffer.array(),
+          buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+    } else {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      writer.base64Value(bytes, 0, bytes.length);
+    }
+  }
+
+  private void writeJSONObject(JsonWriter writer, JSONObject jsonObject)
+      throws InvocationTargetException, IllegalAccessException {
+    writer.beginObject();
+    Iterator<String> keys = jsonObject.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      writer.name(key);
+      writePlainValue(writer, jsonObject.opt(key));
+    }
+    writer.endObject();
+  }
+
+  private void writeJSONArray(JsonWriter writer, JSONArray jsonArray)
+      throws InvocationTargetException, IllegalAccessException {
+    writer.beginArray();
+    for (int i = 0, N = jsonArray.length(); i < N; i++) {
+      writePlainValue(writer, jsonArray.opt(i));
+    }
+    writer.endArray();
   }
 
   private static boolean canDirectlySerializeClass(Class clazz)  {
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters describing how a single {@link LocalSocketServer} is dispatching its
+ * connections.
+ *
+ * @see LocalSocketServer#getStats()
+ */
+@ThreadSafe
+public class ConnectionStats {
+  private final AtomicLong mAccepted = new AtomicLong();
+  private final AtomicLong mRejected = new AtomicLong();
+  private final AtomicInteger mQueued = new AtomicInteger();
+  private final AtomicInteger mActive = new AtomicInteger();
+
+  /**
+   * @return Total number of connections accepted since the server started.
+   */
+  public long getAcceptedConnections() {
+    return mAccepted.get();
+  }
+
+  /**
+   * @return Total number of connections that did not fit in the worker pool and were handled
+   *     by the configured {@link WorkerPoolConfig.RejectPolicy}.
+   */
+  public long getRejectedConnections() {
+    return mRejected.get();
+  }
+
+  /**
+   * @return Connections accepted but still waiting for a free worker thread.
+   */
+  public int getQueuedConnections() {
+    return mQueued.get();
+  }
+
+  /**
+   * @return Connections currently being serviced by a worker.
+   */
+  public int getActiveConnections() {
+    return mActive.get();
+  }
+
+  void onAccepted() {
+    mAccepted.incrementAndGet();
+  }
+
+  void onQueued() {
+    mQueued.incrementAndGet();
+  }
+
+  void onDequeued() {
+    mQueued.decrementAndGet();
+  }
+
+  void onRejected() {
+    mRejected.incrementAndGet();
+  }
+
+  void onActive() {
+    mActive.incrementAndGet();
+  }
+
+  void onInactive() {
+    mActive.decrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return "accepted=" + getAcceptedConnections() +
+        ", active=" + getActiveConnections() +
+        ", queued=" + getQueuedConnections() +
+        ", rejected=" + getRejectedConnections();
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+import com.facebook.stetho.common.LogUtil;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single thread multiplexing reads for many {@link EventLoopConnection}s with {@code poll(2)}.
+ * Other threads communicate with the loop by posting tasks with {@link #execute}, which wakes
+ * the loop using a self-pipe.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class EventLoop implements Runnable {
+  private static final byte[] WAKEUP_TOKEN = new byte[1];
+
+  private final String mName;
+  private final FileDescriptor mWakeupReadFd;
+  private final FileDescriptor mWakeupWriteFd;
+  private final byte[] mWakeupBuffer = new byte[64];
+  private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+  private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+  // Loop thread only.
+  private final ArrayList<EventLoopConnection> mConnections = new ArrayList<>();
+  private final ArrayList<EventLoopConnection> mPolledConnections = new ArrayList<>();
+  private StructPollfd[] mPollFds = new StructPollfd[0];
+
+  private volatile boolean mStopped;
+  private volatile Thread mThread;
+
+  public EventLoop(String name) throws IOException {
+    mName = name;
+    try {
+      FileDescriptor[] pipe = Os.pipe();
+      mWakeupReadFd = pipe[0];
+      mWakeupWriteFd = pipe[1];
+    } catch (ErrnoException e) {
+      throw e.rethrowAsIOException();
+    }
+  }
+
+  public void start() {
+    Thread thread = new Thread(this, mName);
+    thread.setDaemon(true);
+    mThread = thread;
+    thread.start();
+  }
+
+  public void stop() {
+    mStopped = true;
+    wakeup();
+  }
+
+  public boolean inLoop() {
+    return Thread.currentThread() == mThread;
+  }
+
+  /**
+   * Run the task on the loop thread as soon as possible.  Tasks run in the order posted.
+   */
+  public void execute(Runnable task) {
+    mTasks.add(task);
+    if (!inLoop()) {
+      wakeup();
+    }
+  }
+
+  void register(final EventLoopConnection connection) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        // May have been closed before we got around to registering it.
+        if (connection.isOpen()) {
+          mConnections.add(connection);
+        }
+      }
+    });
+  }
+
+  void unregister(EventLoopConnection connection) {
+    mConnections.remove(connection);
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!mStopped) {
+        runPendingTasks();
+        if (mStopped) {
+          break;
+        }
+
+        StructPollfd[] pollFds = preparePollFds();
+        try {
+          Os.poll(pollFds, -1 /* timeoutMs */);
+        } catch (ErrnoException e) {
+          if (e.errno == OsConstants.EINTR) {
+            continue;
+          }
+          LogUtil.e(e, "poll failed on %s", mName);
+          break;
+        }
+
+        if (pollFds[0].revents != 0) {
+          drainWakeup();
+        }
+        for (int i = 1, N = pollFds.length; i < N; i++) {
+          if (pollFds[i].revents != 0) {
+            mPolledConnections.get(i - 1).onPollReady();
+          }
+        }
+      }
+    } finally {
+      shutdownOnLoop();
+    }
+  }
+
+  private void runPendingTasks() {
+    // Must happen before draining the queue so that a task posted while we run the others
+    // is guaranteed to trigger another wakeup.
+    mWakeupPending.set(false);
+
+    Runnable task;
+    while ((task = mTasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LogUtil.e(e, "Unexpected exception in %s", mName);
+      }
+    }
+  }
+
+  private StructPollfd[] preparePollFds() {
+    mPolledConnections.clear();
+    for (int i = 0, N = mConnections.size(); i < N; i++) {
+      EventLoopConnection connection = mConnections.get(i);
+      if (connection.isReadingPolled()) {
+        mPolledConnections.add(connection);
+      }
+    }
+
+    int count = mPolledConnections.size() + 1;
+    if (mPollFds.length != count) {
+      StructPollfd[] pollFds = new StructPollfd[count];
+      for (int i = 0; i < count; i++) {
+        pollFds[i] = (i < mPollFds.length) ? mPollFds[i] : new StructPollfd();
+      }
+      mPollFds = pollFds;
+    }
+
+    setPollFd(mPollFds[0], mWakeupReadFd);
+    for (int i = 1; i < count; i++) {
+      setPollFd(mPollFds[i], mPolledConnections.get(i - 1).getFileDescriptor());
+    }
+    return mPollFds;
+  }
+
+  private static void setPollFd(StructPollfd pollFd, FileDescriptor fd) {
+    pollFd.fd = fd;
+    pollFd.events = (short) OsConstants.POLLIN;
+    pollFd.revents = 0;
+  }
+
+  private void wakeup() {
+    if (mWakeupPending.compareAndSet(false, true)) {
+      try {
+        Os.write(mWakeupWriteFd, WAKEUP_TOKEN, 0, WAKEUP_TOKEN.length);
+      } catch (ErrnoException | InterruptedIOException e) {
+        LogUtil.w(e, "Unable to wake %s", mName);
+      }
+    }
+  }
+
+  private void drainWakeup() {
+    try {
+      Os.read(mWakeupReadFd, mWakeupBuffer, 0, mWakeupBuffer.length);
+    } catch (ErrnoException | InterruptedIOException e) {
+      LogUtil.w(e, "Unable to drain wakeup pipe for %s", mName);
+    }
+  }
+
+  private void shutdownOnLoop() {
+    runPendingTasks();
+    for (EventLoopConnection connection : new ArrayList<>(mConnections)) {
+      connection.closeOnLoop();
+    }
+    mConnections.clear();
+    mPolledConnections.clear();
+    closeQuietly(mWakeupReadFd);
+    closeQuietly(mWakeupWriteFd);
+  }
+
+  private static void closeQuietly(FileDescriptor fd) {
+    try {
+      Os.close(fd);
+    } catch (ErrnoException e) {
+      // Don't care...
+    }
+  }
+}
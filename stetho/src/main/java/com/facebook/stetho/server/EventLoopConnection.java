@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import com.facebook.stetho.common.LogUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single connection owned by an {@link EventLoopGroup}.  Input is read by the owning loop
+ * thread only when the peer has sent something and is then fed to the current
+ * {@link EventLoopHandler}, which may replace itself as the protocol is upgraded (for example
+ * from protocol sniffing to HTTP to WebSocket).
+ * <p />
+ * Output is written synchronously on the calling thread through {@link #getOutput()}.
+ * <p />
+ * All access to the descriptor and the owning loop goes through a handful of package-private
+ * methods which tests override to drive a connection without either.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EventLoopConnection {
+  private static final int INITIAL_INPUT_BUFFER_SIZE = 1024;
+  private static final int MAX_INPUT_BUFFER_SIZE = 16 * 1024 * 1024;
+  private static final int HANDOFF_BUFFER_SIZE = 1024;
+
+  private final EventLoopGroup mGroup;
+  private final EventLoop mLoop;
+  private final FileDescriptor mFd;
+  private final OutputStream mOutput = new FdOutputStream();
+
+  /**
+   * Guards {@link #mFdClosed} and the actual {@code close(2)} so that a concurrent writer can
+   * never write to a recycled descriptor.
+   */
+  private final Object mFdLock = new Object();
+  private boolean mFdClosed;
+
+  private final AtomicBoolean mClosed = new AtomicBoolean();
+  private volatile boolean mReadingPaused;
+
+  // Owned by the loop thread, or by whichever thread the loop handed work to while reads are
+  // paused.
+  private ByteBuffer mInput = ByteBuffer.allocate(INITIAL_INPUT_BUFFER_SIZE);
+  private EventLoopHandler mHandler;
+
+  EventLoopConnection(
+      EventLoopGroup group,
+      EventLoop loop,
+      FileDescriptor fd,
+      EventLoopHandler handler) {
+    mGroup = group;
+    mLoop = loop;
+    mFd = fd;
+    mHandler = handler;
+  }
+
+  /**
+   * Raw, unbuffered output to the peer.  Writes block the calling thread and are safe to
+   * perform from any thread, though callers are responsible for framing concurrent writes.
+   */
+  public OutputStream getOutput() {
+    return mOutput;
+  }
+
+  /**
+   * Replace the protocol handler, for example after a successful upgrade.  Any input still
+   * buffered will be offered to the new handler.  Must be called from within
+   * {@link EventLoopHandler#onReadable} or while reading is paused.
+   */
+  public void setHandler(EventLoopHandler handler) {
+    mHandler = handler;
+  }
+
+  /**
+   * Stop reading from the peer until {@link #resumeReading()} is called.  Typically used
+   * while work is {@link #dispatch dispatched} to another thread.
+   */
+  public void pauseReading() {
+    mReadingPaused = true;
+  }
+
+  /**
+   * Resume reading and immediately offer any input that was already buffered to the current
+   * handler.  May be called from any thread.
+   */
+  public void resumeReading() {
+    executeOnLoop(new Runnable() {
+      @Override
+      public void run() {
+        if (mClosed.get()) {
+          return;
+        }
+        mReadingPaused = false;
+        if (mInput.position() > 0) {
+          try {
+            deliverInput();
+          } catch (IOException e) {
+            LogUtil.w("I/O error: %s", e);
+            closeOnLoop();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Run potentially blocking work off of the loop thread.  The connection is closed if the
+   * work throws or cannot be scheduled.
+   */
+  public void dispatch(final Runnable task) {
+    try {
+      dispatchOffLoop(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            LogUtil.e(e, "Unexpected exception handling connection");
+            close();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LogUtil.w("Dispatch pool exhausted for %s, dropping connection", mGroup.getName());
+      close();
+    }
+  }
+
+  /**
+   * Give up on non-blocking processing and service the rest of the connection with a
+   * traditional blocking {@link SocketLikeHandler} on a dispatch thread.  The connection is
+   * closed once the handler returns.
+   *
+   * @param input The buffer passed to {@link EventLoopHandler#onReadable}; all of its
+   *     remaining bytes are consumed and replayed to {@code handler}.
+   */
+  public void handOff(ByteBuffer input, final SocketLikeHandler handler) {
+    pauseReading();
+    final SocketLike socketLike = createSocketLike(drain(input));
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          handler.onAccepted(socketLike);
+        } catch (IOException e) {
+          LogUtil.w("I/O error: %s", e);
+        } finally {
+          close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Create a blocking view of this connection which first replays {@code pending} and then
+   * reads directly from the peer.  Reading must be paused while the returned socket is in use.
+   */
+  public BlockingSocketLike createSocketLike(byte[] pending) {
+    InputStream rawInput = new FdInputStream();
+    if (pending.length > 0) {
+      rawInput = new CompositeInputStream(new InputStream[] {
+          new ByteArrayInputStream(pending),
+          rawInput
+      });
+    }
+    return new BlockingSocketLike(
+        mOutput,
+        new LeakyBufferedInputStream(rawInput, HANDOFF_BUFFER_SIZE));
+  }
+
+  /**
+   * Copy out and consume all remaining bytes in {@code input}.
+   */
+  public static byte[] drain(ByteBuffer input) {
+    byte[] bytes = new byte[input.remaining()];
+    input.get(bytes);
+    return bytes;
+  }
+
+  public boolean isOpen() {
+    return !mClosed.get();
+  }
+
+  /**
+   * Close the connection from any thread.  The current handler's
+   * {@link EventLoopHandler#onClosed} is invoked on the loop thread.
+   */
+  public void close() {
+    if (mClosed.compareAndSet(false, true)) {
+      shutdownQuietly();
+      executeOnLoop(new Runnable() {
+        @Override
+        public void run() {
+          finishClose();
+        }
+      });
+    }
+  }
+
+  void closeOnLoop() {
+    if (mClosed.compareAndSet(false, true)) {
+      shutdownQuietly();
+      finishClose();
+    }
+  }
+
+  FileDescriptor getFileDescriptor() {
+    return mFd;
+  }
+
+  boolean isReadingPolled() {
+    return !mReadingPaused && !mClosed.get();
+  }
+
+  void onPollReady() {
+    if (!isReadingPolled()) {
+      return;
+    }
+    try {
+      ensureInputSpace();
+      int n = readFd(
+          mInput.array(),
+          mInput.arrayOffset() + mInput.position(),
+          mInput.remaining());
+      if (n <= 0) {
+        // Orderly shutdown by the peer.
+        closeOnLoop();
+        return;
+      }
+      mInput.position(mInput.position() + n);
+      deliverInput();
+    } catch (ErrnoException e) {
+      if (e.errno != OsConstants.EAGAIN) {
+        LogUtil.w("I/O error: %s", e);
+        closeOnLoop();
+      }
+    } catch (IOException e) {
+      LogUtil.w("I/O error: %s", e);
+      closeOnLoop();
+    }
+  }
+
+  private void deliverInput() throws IOException {
+    EventLoopHandler handler;
+    do {
+      handler = mHandler;
+      mInput.flip();
+      try {
+        handler.onReadable(this, mInput);
+      } finally {
+        mInput.compact();
+      }
+
+      // If the handler upgraded the protocol, let the new handler see what's left over.
+    } while (handler != mHandler &&
+        mInput.position() > 0 &&
+        !mReadingPaused &&
+        !mClosed.get());
+  }
+
+  private void ensureInputSpace() throws IOException {
+    if (mInput.hasRemaining()) {
+      return;
+    }
+    int capacity = mInput.capacity();
+    if (capacity >= MAX_INPUT_BUFFER_SIZE) {
+      throw new IOException("Input exceeds " + MAX_INPUT_BUFFER_SIZE + " bytes");
+    }
+    ByteBuffer grown = ByteBuffer.allocate(Math.min(capacity * 2, MAX_INPUT_BUFFER_SIZE));
+    mInput.flip();
+    grown.put(mInput);
+    mInput = grown;
+  }
+
+  private void shutdownQuietly() {
+    // Unblocks any thread stuck reading or writing so that we can safely take mFdLock below.
+    try {
+      shutdownFd();
+    } catch (ErrnoException e) {
+      // Don't care...
+    }
+  }
+
+  private void finishClose() {
+    unregisterFromLoop();
+    synchronized (mFdLock) {
+      mFdClosed = true;
+      try {
+        closeFd();
+      } catch (ErrnoException e) {
+        // Don't care...
+      }
+    }
+    try {
+      mHandler.onClosed(this);
+    } catch (RuntimeException e) {
+      LogUtil.e(e, "Unexpected exception closing connection");
+    }
+  }
+
+  //@VisibleForTesting
+  void executeOnLoop(Runnable task) {
+    mLoop.execute(task);
+  }
+
+  //@VisibleForTesting
+  void dispatchOffLoop(Runnable task) {
+    mGroup.dispatch(task);
+  }
+
+  //@VisibleForTesting
+  void unregisterFromLoop() {
+    mLoop.unregister(this);
+  }
+
+  //@VisibleForTesting
+  int readFd(byte[] buffer, int offset, int count) throws ErrnoException, InterruptedIOException {
+    return Os.read(mFd, buffer, offset, count);
+  }
+
+  //@VisibleForTesting
+  int writeFd(byte[] buffer, int offset, int count) throws ErrnoException, InterruptedIOException {
+    return Os.write(mFd, buffer, offset, count);
+  }
+
+  //@VisibleForTesting
+  void shutdownFd() throws ErrnoException {
+    Os.shutdown(mFd, OsConstants.SHUT_RDWR);
+  }
+
+  //@VisibleForTesting
+  void closeFd() throws ErrnoException {
+    Os.close(mFd);
+  }
+
+  /**
+   * {@link SocketLike} backed by an {@link EventLoopConnection} for use by blocking handlers.
+   */
+  public static class BlockingSocketLike extends SocketLike {
+    private volatile boolean mInputUsed;
+
+    private BlockingSocketLike(OutputStream output, LeakyBufferedInputStream leakyInput) {
+      super(output, leakyInput);
+    }
+
+    @Override
+    public InputStream getInput() throws IOException {
+      mInputUsed = true;
+      return super.getInput();
+    }
+
+    /**
+     * @return True if the handler consumed input directly, in which case the connection can
+     *     no longer be returned to the event loop.
+     */
+    public boolean isInputUsed() {
+      return mInputUsed;
+    }
+  }
+
+  private class FdInputStream extends InputStream {
+    @Override
+    public int read() throws IOException {
+      byte[] buf = new byte[1];
+      int n = read(buf, 0, 1);
+      return (n == 1) ? (buf[0] & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      if (count == 0) {
+        return 0;
+      }
+      if (mClosed.get()) {
+        return -1;
+      }
+      try {
+        int n = readFd(buffer, offset, count);
+        return (n > 0) ? n : -1;
+      } catch (ErrnoException e) {
+        throw e.rethrowAsIOException();
+      }
+    }
+  }
+
+  private class FdOutputStream extends OutputStream {
+    @Override
+    public void write(int oneByte) throws IOException {
+      write(new byte[] { (byte)oneByte }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      synchronized (mFdLock) {
+        if (mFdClosed) {
+          throw new IOException("Connection closed");
+        }
+        try {
+          while (count > 0) {
+            int n = writeFd(buffer, offset, count);
+            offset += n;
+            count -= n;
+          }
+        } catch (ErrnoException e) {
+          throw e.rethrowAsIOException();
+        }
+      }
+    }
+  }
+}
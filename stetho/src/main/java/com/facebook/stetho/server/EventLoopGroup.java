@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import com.facebook.stetho.common.Util;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small fixed set of {@link EventLoop} threads which together service any number of idle
+ * connections, plus a bounded pool of dispatch threads for the (comparatively rare) work that
+ * must block such as invoking HTTP handlers or delivering WebSocket messages.
+ * <p />
+ * Threads are started lazily when the first connection is registered.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EventLoopGroup {
+  public static final int DEFAULT_LOOP_THREADS = 1;
+
+  private static final String LOOP_THREAD_NAME_PREFIX = "StethoEventLoop";
+  private static final String DISPATCH_THREAD_NAME_PREFIX = "StethoDispatch";
+
+  private final String mName;
+  private final EventLoop[] mLoops;
+  private final ThreadPoolExecutor mDispatchPool;
+  private final AtomicInteger mNextLoop = new AtomicInteger();
+  private final AtomicInteger mDispatchThreadId = new AtomicInteger();
+
+  private boolean mStarted;
+  private boolean mShutdown;
+
+  /**
+   * @param name identifier to help debug this group, used for naming threads.
+   * @param loopThreads number of threads polling for input.
+   * @param dispatchConfig limits on the threads running blocking work on behalf of
+   *     connections.
+   */
+  public EventLoopGroup(String name, int loopThreads, WorkerPoolConfig dispatchConfig) {
+    if (loopThreads <= 0) {
+      throw new IllegalArgumentException("loopThreads must be positive: " + loopThreads);
+    }
+    mName = Util.throwIfNull(name);
+    mLoops = new EventLoop[loopThreads];
+    mDispatchPool = dispatchConfig.createExecutor(
+        new DispatchThreadFactory(),
+        new DispatchRejectedHandler(dispatchConfig.rejectPolicy));
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * Take ownership of {@code fd} and begin servicing it on one of the loop threads.  The
+   * descriptor will be closed when the connection is.
+   */
+  public EventLoopConnection register(FileDescriptor fd, EventLoopHandler handler)
+      throws IOException {
+    EventLoop loop = nextLoop();
+    EventLoopConnection connection = new EventLoopConnection(this, loop, fd, handler);
+    loop.register(connection);
+    return connection;
+  }
+
+  /**
+   * Stop all loop threads, closing every registered connection.
+   */
+  public synchronized void shutdown() {
+    mShutdown = true;
+    for (EventLoop loop : mLoops) {
+      if (loop != null) {
+        loop.stop();
+      }
+    }
+    mDispatchPool.shutdown();
+  }
+
+  void dispatch(Runnable task) {
+    mDispatchPool.execute(task);
+  }
+
+  private synchronized EventLoop nextLoop() throws IOException {
+    if (mShutdown) {
+      throw new IOException("Event loop group " + mName + " has been shut down");
+    }
+    if (!mStarted) {
+      for (int i = 0; i < mLoops.length; i++) {
+        mLoops[i] = new EventLoop(LOOP_THREAD_NAME_PREFIX + "-" + mName + "-" + (i + 1));
+        mLoops[i].start();
+      }
+      mStarted = true;
+    }
+    int index = (mNextLoop.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length;
+    return mLoops[index];
+  }
+
+  private class DispatchThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName(
+          DISPATCH_THREAD_NAME_PREFIX +
+          "-" + mName +
+          "-" + mDispatchThreadId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  private static class DispatchRejectedHandler implements RejectedExecutionHandler {
+    private final WorkerPoolConfig.RejectPolicy mPolicy;
+
+    public DispatchRejectedHandler(WorkerPoolConfig.RejectPolicy policy) {
+      mPolicy = policy;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      if (mPolicy == WorkerPoolConfig.RejectPolicy.RUN_ON_LISTENER_THREAD &&
+          !executor.isShutdown()) {
+        // The "listener" in this case is the event loop thread itself.
+        r.run();
+      } else {
+        throw new RejectedExecutionException();
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental protocol state machine driven by an {@link EventLoopGroup}.  Unlike
+ * {@link SocketHandler} and {@link SocketLikeHandler}, implementations never block waiting for
+ * data; they are simply called again when more arrives.
+ * <p />
+ * All callbacks are invoked on the event loop thread that owns the connection and so must
+ * not perform lengthy work.  Use {@link EventLoopConnection#dispatch} for anything that may
+ * block, pausing reads with {@link EventLoopConnection#pauseReading} if the work must finish
+ * before further input is processed.
+ */
+public interface EventLoopHandler {
+  /**
+   * New input has arrived.
+   *
+   * @param connection Connection the input was read from.
+   * @param input Buffer in read mode holding all unconsumed input, including any bytes left
+   *     over from prior calls.  Advance its position past whatever was consumed; the remainder
+   *     will be offered again on the next call.  The buffer must not be retained.
+   *
+   * @throws IOException Protocol error; the connection will be closed.
+   */
+  void onReadable(EventLoopConnection connection, ByteBuffer input) throws IOException;
+
+  /**
+   * The connection was closed, either by the peer, due to an error, or because
+   * {@link EventLoopConnection#close} was called.  Invoked at most once.
+   */
+  void onClosed(EventLoopConnection connection);
+}
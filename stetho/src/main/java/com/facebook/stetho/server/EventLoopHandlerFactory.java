@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+/**
+ * Optionally implemented by a {@link SocketLikeHandler} whose protocol can also be driven
+ * without blocking by an {@link EventLoopGroup}.  Handlers which do not implement this are
+ * still supported but are handed a dedicated thread for the lifetime of the connection.
+ */
+public interface EventLoopHandlerFactory {
+  /**
+   * @return A fresh state machine for a single new connection.
+   */
+  EventLoopHandler createEventLoopHandler();
+}
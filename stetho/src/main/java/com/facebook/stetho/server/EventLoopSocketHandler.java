@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.LocalSocket;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Moves each accepted socket onto an {@link EventLoopGroup} so that the worker thread is
+ * released as soon as the peer is authorized.  Idle connections (such as a DevTools tab
+ * which isn't doing anything) then cost no thread at all.
+ * <p />
+ * The loop works on a duplicate of the socket's descriptor, leaving {@link LocalSocketServer}
+ * free to close the original {@link LocalSocket} as usual once this method returns.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EventLoopSocketHandler extends SecureSocketHandler {
+  private final EventLoopGroup mEventLoopGroup;
+  private final EventLoopHandlerFactory mHandlerFactory;
+
+  public EventLoopSocketHandler(
+      Context context,
+      EventLoopGroup eventLoopGroup,
+      EventLoopHandlerFactory handlerFactory) {
+    super(context);
+    mEventLoopGroup = eventLoopGroup;
+    mHandlerFactory = handlerFactory;
+  }
+
+  @Override
+  protected void onSecured(LocalSocket socket) throws IOException {
+    FileDescriptor fd;
+    try {
+      fd = Os.dup(socket.getFileDescriptor());
+    } catch (ErrnoException e) {
+      throw e.rethrowAsIOException();
+    }
+
+    try {
+      mEventLoopGroup.register(fd, mHandlerFactory.createEventLoopHandler());
+    } catch (IOException e) {
+      try {
+        Os.close(fd);
+      } catch (ErrnoException ignore) {
+      }
+      throw e;
+    }
+  }
+}
@@ -21,6 +21,9 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.BindException;
 import java.net.SocketException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocalSocketServer {
@@ -31,6 +34,9 @@ public class LocalSocketServer {
   private final String mFriendlyName;
   private final String mAddress;
   private final SocketHandler mSocketHandler;
+  private final WorkerPoolConfig mWorkerPoolConfig;
+  private final ThreadPoolExecutor mWorkerPool;
+  private final ConnectionStats mStats = new ConnectionStats();
   private final AtomicInteger mThreadId = new AtomicInteger();
 
   private Thread mListenerThread;
@@ -46,15 +52,45 @@ public class LocalSocketServer {
       String friendlyName,
       String address,
       SocketHandler socketHandler) {
+    this(friendlyName, address, socketHandler, WorkerPoolConfig.createDefault());
+  }
+
+  /**
+   * @param friendlyName identifier to help debug this server, used for naming threads and such.
+   * @param address the local socket address to listen on.
+   * @param socketHandler functional handler once a socket is accepted.
+   * @param workerPoolConfig limits on the number of threads servicing accepted sockets.
+   */
+  public LocalSocketServer(
+      String friendlyName,
+      String address,
+      SocketHandler socketHandler,
+      WorkerPoolConfig workerPoolConfig) {
     mFriendlyName = Util.throwIfNull(friendlyName);
     mAddress = Util.throwIfNull(address);
     mSocketHandler = socketHandler;
+    mWorkerPoolConfig = Util.throwIfNull(workerPoolConfig);
+    mWorkerPool = workerPoolConfig.createExecutor(
+        new WorkerThreadFactory(),
+        new WorkerRejectedHandler(workerPoolConfig.rejectPolicy));
   }
 
   public String getName() {
     return mFriendlyName;
   }
 
+  public WorkerPoolConfig getWorkerPoolConfig() {
+    return mWorkerPoolConfig;
+  }
+
+  /**
+   * Live connection counters for this server, useful for diagnosing whether the worker pool
+   * is sized appropriately.
+   */
+  public ConnectionStats getStats() {
+    return mStats;
+  }
+
   /**
    * Binds to the address and listens for connections.
    * <p/>
@@ -83,15 +119,7 @@ public class LocalSocketServer {
         // Use previously accepted socket the first time around, otherwise wait to
         // accept another.
         LocalSocket socket = mServerSocket.accept();
-
-        // Start worker thread
-        Thread t = new WorkerThread(socket, mSocketHandler);
-        t.setName(
-            WORKER_THREAD_NAME_PREFIX +
-            "-" + mFriendlyName +
-            "-" + mThreadId.incrementAndGet());
-        t.setDaemon(true);
-        t.start();
+        dispatch(socket);
       } catch (SocketException se) {
         // ignore exception if interrupting the thread
         if (Thread.interrupted()) {
@@ -109,6 +137,14 @@ public class LocalSocketServer {
     LogUtil.i("Server shutdown on @" + address);
   }
 
+  private void dispatch(LocalSocket socket) {
+    mStats.onAccepted();
+    mStats.onQueued();
+
+    // Rejections are handled by WorkerRejectedHandler according to the configured policy.
+    mWorkerPool.execute(new WorkerRunnable(socket));
+  }
+
   /**
    * Stops the listener thread and unbinds the address.
    */
@@ -120,6 +156,7 @@ public class LocalSocketServer {
       }
     }
 
+    mWorkerPool.shutdown();
     mListenerThread.interrupt();
     try {
       if (mServerSocket != null) {
@@ -152,26 +189,72 @@ public class LocalSocketServer {
     throw firstException;
   }
 
-  private static class WorkerThread extends Thread {
+  private class WorkerThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName(
+          WORKER_THREAD_NAME_PREFIX +
+          "-" + mFriendlyName +
+          "-" + mThreadId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  private class WorkerRejectedHandler implements RejectedExecutionHandler {
+    private final WorkerPoolConfig.RejectPolicy mPolicy;
+
+    public WorkerRejectedHandler(WorkerPoolConfig.RejectPolicy policy) {
+      mPolicy = policy;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      WorkerRunnable worker = (WorkerRunnable) r;
+      mStats.onRejected();
+      if (mPolicy == WorkerPoolConfig.RejectPolicy.RUN_ON_LISTENER_THREAD &&
+          !executor.isShutdown()) {
+        worker.run();
+      } else {
+        LogUtil.w("Worker pool exhausted for %s (%s), dropping connection",
+            mFriendlyName,
+            mStats);
+        worker.abandon();
+      }
+    }
+  }
+
+  private class WorkerRunnable implements Runnable {
     private final LocalSocket mSocket;
-    private final SocketHandler mSocketHandler;
 
-    public WorkerThread(LocalSocket socket, SocketHandler socketHandler) {
+    public WorkerRunnable(LocalSocket socket) {
       mSocket = socket;
-      mSocketHandler = socketHandler;
     }
 
     @Override
     public void run() {
+      mStats.onDequeued();
+      mStats.onActive();
       try {
         mSocketHandler.onAccepted(mSocket);
       } catch (IOException ex) {
         LogUtil.w("I/O error: %s", ex);
       } finally {
-        try {
-          mSocket.close();
-        } catch (IOException ignore) {
-        }
+        closeQuietly();
+        mStats.onInactive();
+      }
+    }
+
+    public void abandon() {
+      mStats.onDequeued();
+      closeQuietly();
+    }
+
+    private void closeQuietly() {
+      try {
+        mSocket.close();
+      } catch (IOException ignore) {
       }
     }
   }
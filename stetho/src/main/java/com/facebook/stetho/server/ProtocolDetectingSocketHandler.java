@@ -17,6 +17,7 @@ import javax.annotation.concurrent.NotThreadSafe;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -29,8 +30,13 @@ import java.util.Arrays;
  * Note this trick is only possible if the protocol requires that the client initiate the
  * conversation.  Otherwise, the server would be expected to say something before we know what
  * protocol the client is speaking.
+ * <p />
+ * When driven by an {@link EventLoopSocketHandler} the same detection is performed
+ * incrementally as bytes arrive.  Handlers which implement {@link EventLoopHandlerFactory}
+ * then continue on the event loop; all others are handed a dedicated thread.
  */
-public class ProtocolDetectingSocketHandler extends SecureSocketHandler {
+public class ProtocolDetectingSocketHandler extends SecureSocketHandler
+    implements EventLoopHandlerFactory {
   private static final int SENSING_BUFFER_SIZE = 256;
 
   private final ArrayList<HandlerInfo> mHandlers = new ArrayList<>(2);
@@ -68,6 +74,102 @@ public class ProtocolDetectingSocketHandler extends SecureSocketHandler {
     throw new IOException("No matching handler, firstByte=" + leakyIn.read());
   }
 
+  @Override
+  public EventLoopHandler createEventLoopHandler() {
+    if (mHandlers.isEmpty()) {
+      throw new IllegalStateException("No handlers added");
+    }
+    return new DetectingEventLoopHandler();
+  }
+
+  /**
+   * Non-blocking equivalent of {@link #onSecured}.  Matchers are run against whatever has been
+   * buffered so far and we simply wait for more input if a matcher tries to read past it.
+   */
+  private class DetectingEventLoopHandler implements EventLoopHandler {
+    @Override
+    public void onReadable(EventLoopConnection connection, ByteBuffer input) throws IOException {
+      boolean saturated = input.remaining() >= SENSING_BUFFER_SIZE;
+      for (int i = 0, N = mHandlers.size(); i < N; i++) {
+        HandlerInfo handlerInfo = mHandlers.get(i);
+        boolean matches;
+        try {
+          matches = handlerInfo.magicMatcher.matches(
+              new SensingInputStream(input.duplicate(), saturated));
+        } catch (NeedMoreInputException e) {
+          // Handlers are tried in order, so we can't skip ahead to the next one.
+          return;
+        }
+        if (matches) {
+          if (handlerInfo.handler instanceof EventLoopHandlerFactory) {
+            connection.setHandler(
+                ((EventLoopHandlerFactory) handlerInfo.handler).createEventLoopHandler());
+          } else {
+            connection.handOff(input, handlerInfo.handler);
+          }
+          return;
+        }
+      }
+
+      throw new IOException("No matching handler, firstByte=" + input.get(input.position()));
+    }
+
+    @Override
+    public void onClosed(EventLoopConnection connection) {
+    }
+  }
+
+  private static class NeedMoreInputException extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Presents buffered input to a {@link MagicMatcher}, signaling with
+   * {@link NeedMoreInputException} if the matcher asks for more than has arrived so far.  Once
+   * {@link #SENSING_BUFFER_SIZE} bytes are available this behaves like an ordinary stream that
+   * ends where the buffer does, mirroring the mark limit of the blocking implementation.
+   */
+  private static class SensingInputStream extends InputStream {
+    private final ByteBuffer mBuffer;
+    private final boolean mSaturated;
+
+    public SensingInputStream(ByteBuffer buffer, boolean saturated) {
+      mBuffer = buffer;
+      mSaturated = saturated;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!mBuffer.hasRemaining()) {
+        if (!mSaturated) {
+          throw new NeedMoreInputException();
+        }
+        return -1;
+      }
+      return mBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      if (count > mBuffer.remaining()) {
+        if (!mSaturated) {
+          throw new NeedMoreInputException();
+        }
+        if (!mBuffer.hasRemaining()) {
+          return -1;
+        }
+        count = mBuffer.remaining();
+      }
+      mBuffer.get(buffer, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return mBuffer.remaining();
+    }
+  }
+
   public interface MagicMatcher {
     boolean matches(InputStream in) throws IOException;
   }
@@ -13,6 +13,8 @@ import android.net.LocalSocket;
 import com.facebook.stetho.server.CompositeInputStream;
 import com.facebook.stetho.server.LeakyBufferedInputStream;
 
+import javax.annotation.Nullable;
+
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,15 +27,29 @@ import java.io.OutputStream;
  * connection to the websocket protocol.
  */
 public class SocketLike {
-  private final LocalSocket mSocket;
+  @Nullable private final LocalSocket mSocket;
+  @Nullable private final OutputStream mOutput;
   private final LeakyBufferedInputStream mLeakyInput;
 
   public SocketLike(SocketLike socketLike, LeakyBufferedInputStream leakyInput) {
-    this(socketLike.mSocket, leakyInput);
+    mSocket = socketLike.mSocket;
+    mOutput = socketLike.mOutput;
+    mLeakyInput = leakyInput;
   }
 
   public SocketLike(LocalSocket socket, LeakyBufferedInputStream leakyInput) {
     mSocket = socket;
+    mOutput = null;
+    mLeakyInput = leakyInput;
+  }
+
+  /**
+   * Construct a socket which is not directly backed by a {@link LocalSocket}, such as a
+   * connection handed off from an {@link EventLoopConnection}.
+   */
+  public SocketLike(OutputStream output, LeakyBufferedInputStream leakyInput) {
+    mSocket = null;
+    mOutput = output;
     mLeakyInput = leakyInput;
   }
 
@@ -42,6 +58,6 @@ public class SocketLike {
   }
 
   public OutputStream getOutput() throws IOException {
-    return mSocket.getOutputStream();
+    return (mSocket != null) ? mSocket.getOutputStream() : mOutput;
   }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how a {@link LocalSocketServer} dispatches accepted connections to worker threads.
+ * Connections are handed to a pool of at most {@link #maxThreads} threads, with up to
+ * {@link #maxQueued} further connections waiting for a free thread.  Anything beyond that is
+ * handled according to {@link #rejectPolicy}.
+ * <p />
+ * The {@link #createDefault() default} doesn't bound the pool, so that, as before pools were
+ * configurable, every connection gets a thread right away (idle ones are reused, though).  Apps
+ * which want to cap the threads Stetho may hold can opt in with a bounded configuration such as
+ * {@code new WorkerPoolConfig(8, 16, RejectPolicy.CLOSE_CONNECTION)}.  Note that unless an
+ * {@link EventLoopGroup} is used, a DevTools WebSocket session occupies its worker for the
+ * lifetime of the session so {@link #maxThreads} should then leave room for several tabs plus
+ * Chrome's discovery polling.
+ */
+public final class WorkerPoolConfig {
+  public static final int DEFAULT_MAX_THREADS = Integer.MAX_VALUE;
+  public static final int DEFAULT_MAX_QUEUED = 0;
+  public static final int DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+  public enum RejectPolicy {
+    /**
+     * Close the connection immediately without reading from it.  Clients like Chrome's
+     * discovery loop and {@code dumpapp} will simply retry.
+     */
+    CLOSE_CONNECTION,
+
+    /**
+     * Handle the connection on the listener thread itself.  This throttles the accept loop
+     * until the connection finishes, which naturally pushes back on the peer.
+     */
+    RUN_ON_LISTENER_THREAD,
+  }
+
+  public final int maxThreads;
+  public final int maxQueued;
+  public final int idleTimeoutMs;
+  public final RejectPolicy rejectPolicy;
+
+  public WorkerPoolConfig(int maxThreads, int maxQueued, RejectPolicy rejectPolicy) {
+    this(maxThreads, maxQueued, DEFAULT_IDLE_TIMEOUT_MS, rejectPolicy);
+  }
+
+  public WorkerPoolConfig(
+      int maxThreads,
+      int maxQueued,
+      int idleTimeoutMs,
+      RejectPolicy rejectPolicy) {
+    if (maxThreads <= 0) {
+      throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+    }
+    if (maxQueued < 0) {
+      throw new IllegalArgumentException("maxQueued must not be negative: " + maxQueued);
+    }
+    if (idleTimeoutMs < 0) {
+      throw new IllegalArgumentException("idleTimeoutMs must not be negative: " + idleTimeoutMs);
+    }
+    if (rejectPolicy == null) {
+      throw new IllegalArgumentException("rejectPolicy must not be null");
+    }
+    this.maxThreads = maxThreads;
+    this.maxQueued = maxQueued;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.rejectPolicy = rejectPolicy;
+  }
+
+  /**
+   * An unbounded pool which hands each connection straight to an idle or new thread, and so
+   * never rejects one.
+   */
+  public static WorkerPoolConfig createDefault() {
+    return new WorkerPoolConfig(
+        DEFAULT_MAX_THREADS,
+        DEFAULT_MAX_QUEUED,
+        RejectPolicy.CLOSE_CONNECTION);
+  }
+
+  ThreadPoolExecutor createExecutor(
+      ThreadFactory threadFactory,
+      RejectedExecutionHandler rejectedHandler) {
+    BlockingQueue<Runnable> queue = (maxQueued > 0) ?
+        new ArrayBlockingQueue<Runnable>(maxQueued) :
+        new SynchronousQueue<Runnable>();
+
+    if (maxQueued == 0) {
+      // Without a queue, work goes to an idle thread if there is one and otherwise to a new
+      // thread, as in Executors.newCachedThreadPool().
+      return new ThreadPoolExecutor(
+          0 /* corePoolSize */,
+          maxThreads,
+          (idleTimeoutMs > 0) ? idleTimeoutMs : Long.MAX_VALUE,
+          TimeUnit.MILLISECONDS,
+          queue,
+          threadFactory,
+          rejectedHandler);
+    }
+
+    // Core and max sizes are equal so that new work gets a fresh thread right away rather than
+    // waiting behind long-lived sessions in the queue; idle threads are still reclaimed via
+    // allowCoreThreadTimeOut.
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+        maxThreads,
+        maxThreads,
+        idleTimeoutMs,
+        TimeUnit.MILLISECONDS,
+        queue,
+        threadFactory,
+        rejectedHandler);
+    if (idleTimeoutMs > 0) {
+      pool.allowCoreThreadTimeOut(true);
+    }
+    return pool;
+  }
+
+  @Override
+  public String toString() {
+    return "WorkerPoolConfig{maxThreads=" + maxThreads +
+        ", maxQueued=" + maxQueued +
+        ", idleTimeoutMs=" + idleTimeoutMs +
+        ", rejectPolicy=" + rejectPolicy + "}";
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server.http;
+
+import android.support.annotation.Nullable;
+import com.facebook.stetho.server.EventLoopConnection;
+import com.facebook.stetho.server.EventLoopHandler;
+
+import java.io.IOException;
+
+/**
+ * Optional extension of {@link HttpHandler} for handlers which would otherwise block the
+ * connection indefinitely (such as upgrading to WebSocket) but are able to continue without
+ * a dedicated thread when the server is driven by an
+ * {@link com.facebook.stetho.server.EventLoopGroup}.  Never given the deprecated
+ * {@link LightHttpRequest#uri}.
+ */
+public interface EventLoopHttpHandler extends LazyUriHttpHandler {
+  /**
+   * Non-blocking counterpart to {@link #handleRequest}.  Invoked on a dispatch thread with
+   * reading paused.
+   *
+   * @return Null to send {@code response} and continue processing keep-alive requests, or
+   *     a handler which takes over the connection from HTTP.  In the latter case the
+   *     implementation must already have written any response itself.
+   */
+  @Nullable
+  EventLoopHandler handleEventLoopRequest(
+      EventLoopConnection connection,
+      LightHttpRequest request,
+      LightHttpResponse response)
+      throws IOException;
+}
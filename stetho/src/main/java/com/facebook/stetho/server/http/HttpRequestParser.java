@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Byte-level parser for the request line and headers, writing directly into the reusable
+ * storage of a {@link LightHttpRequest}.  Like the rest of {@link LightHttpServer} it assumes
+ * the peer is a well behaved, mechanized client speaking ASCII.
+ */
+final class HttpRequestParser {
+  /**
+   * Upper bound on the request line and headers.  Chrome's requests are well under 1KB.
+   */
+  static final int MAX_HEADERS_SIZE = 8192;
+
+  private static final String[] KNOWN_METHODS = {
+      "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS",
+  };
+
+  private static final String[] KNOWN_PROTOCOLS = {
+      "HTTP/1.1", "HTTP/1.0",
+  };
+
+  private HttpRequestParser() {
+  }
+
+  /**
+   * Scan for the blank line terminating the headers.
+   *
+   * @param from offset to resume scanning at, relative to {@code start}, so that we don't
+   *     rescan from the beginning each time a few more bytes trickle in.
+   * @return length of the headers including the terminating blank line, or -1 if the headers
+   *     are not yet complete.
+   */
+  static int findEndOfHeaders(byte[] buffer, int start, int limit, int from) {
+    for (int i = start + Math.max(from - 3, 0); i + 3 < limit; i++) {
+      if (buffer[i] == '\r' &&
+          buffer[i + 1] == '\n' &&
+          buffer[i + 2] == '\r' &&
+          buffer[i + 3] == '\n') {
+        return i + 4 - start;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parse a complete header block, such as one located by {@link #findEndOfHeaders}.  The
+   * bytes are copied so the caller is free to reuse {@code data} afterwards.
+   */
+  static void parse(LightHttpRequest request, byte[] data, int offset, int length)
+      throws IOException {
+    request.reset();
+    request.ensureCapacity(length);
+    System.arraycopy(data, offset, request.buffer(), 0, length);
+    request.setLength(length);
+    parseInPlace(request);
+  }
+
+  /**
+   * Read and parse the next request from a blocking stream.  Input is consumed one byte at a
+   * time so that nothing past the headers is taken from the stream, which is necessary for
+   * protocol upgrades.  Callers should therefore supply a buffered stream.
+   *
+   * @return false if the stream ended cleanly before the start of a request.
+   */
+  static boolean read(LightHttpRequest request, InputStream in) throws IOException {
+    request.reset();
+    int length = 0;
+    while (true) {
+      int b = in.read();
+      if (b < 0) {
+        if (length == 0) {
+          return false;
+        }
+        throw new EOFException();
+      }
+      if (length == MAX_HEADERS_SIZE) {
+        throw new IOException("Request headers too large");
+      }
+      request.ensureCapacity(length + 1);
+      byte[] buffer = request.buffer();
+      buffer[length++] = (byte) b;
+      if (b == '\n' &&
+          length >= 4 &&
+          buffer[length - 2] == '\r' &&
+          buffer[length - 3] == '\n' &&
+          buffer[length - 4] == '\r') {
+        break;
+      }
+    }
+    request.setLength(length);
+    parseInPlace(request);
+    return true;
+  }
+
+  private static void parseInPlace(LightHttpRequest request) throws IOException {
+    byte[] buffer = request.buffer();
+    int limit = request.length();
+
+    // Zero tolerance on URI encoding, that URI better not have a space in it...
+    int lineEnd = indexOfCrlf(buffer, 0, limit);
+    int methodEnd = indexOf(buffer, ' ', 0, lineEnd);
+    int uriEnd = methodEnd >= 0 ? indexOf(buffer, ' ', methodEnd + 1, lineEnd) : -1;
+    if (uriEnd < 0) {
+      throw new IOException(
+          "Invalid request line: " + LightHttpRequest.decodeAscii(buffer, 0, lineEnd));
+    }
+    request.method = toKnownString(KNOWN_METHODS, buffer, 0, methodEnd);
+    request.setUriSlice(methodEnd + 1, uriEnd);
+    request.protocol = toKnownString(KNOWN_PROTOCOLS, buffer, uriEnd + 1, lineEnd);
+
+    int lineStart = lineEnd + 2;
+    while (true) {
+      lineEnd = indexOfCrlf(buffer, lineStart, limit);
+      if (lineEnd == lineStart) {
+        break;
+      }
+      int colon = indexOf(buffer, ':', lineStart, lineEnd);
+      if (colon <= lineStart) {
+        throw new IOException(
+            "Malformed header: " + LightHttpRequest.decodeAscii(buffer, lineStart, lineEnd));
+      }
+      int valueStart = colon + 1;
+      while (valueStart < lineEnd && isWhitespace(buffer[valueStart])) {
+        valueStart++;
+      }
+      int valueEnd = lineEnd;
+      while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1])) {
+        valueEnd--;
+      }
+      request.addHeaderSlice(lineStart, colon, valueStart, valueEnd);
+      lineStart = lineEnd + 2;
+    }
+  }
+
+  private static int indexOfCrlf(byte[] buffer, int start, int limit) throws EOFException {
+    for (int i = start; i + 1 < limit; i++) {
+      if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+        return i;
+      }
+    }
+    throw new EOFException();
+  }
+
+  private static int indexOf(byte[] buffer, char c, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Return one of the shared constants if the slice matches it, so that the common case does
+   * not allocate.
+   */
+  private static String toKnownString(String[] candidates, byte[] buffer, int start, int end) {
+    int length = end - start;
+    for (String candidate : candidates) {
+      if (candidate.length() != length) {
+        continue;
+      }
+      boolean match = true;
+      for (int i = 0; i < length; i++) {
+        if (buffer[start + i] != candidate.charAt(i)) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        return candidate;
+      }
+    }
+    return LightHttpRequest.decodeAscii(buffer, start, end);
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server.http;
+
+/**
+ * Marks an {@link HttpHandler} which reads the request target only through
+ * {@link LightHttpRequest#getPath()} or {@link LightHttpRequest#getUri()}, and headers only
+ * through {@link LightHttpRequest#getFirstHeaderValue} and the indexed header accessors.  Such
+ * handlers spare {@link LightHttpServer} from parsing every request's target and copying its
+ * headers up front; the deprecated {@link LightHttpRequest#uri} field is left null for them and
+ * the {@link LightHttpMessage#headerNames} and {@link LightHttpMessage#headerValues} lists empty.
+ */
+public interface LazyUriHttpHandler extends HttpHandler {
+}
@@ -10,17 +10,261 @@
 package com.facebook.stetho.server.http;
 
 import android.net.Uri;
+import android.support.annotation.Nullable;
 
+/**
+ * HTTP request as parsed by {@link HttpRequestParser}.  The request line and headers are kept
+ * as the raw bytes received from the peer and individual fields are exposed as slices of that
+ * buffer, so that a request object can be reused across a keep-alive connection without
+ * allocating per header.  Strings are only materialized when a caller asks for them.
+ */
 public class LightHttpRequest extends LightHttpMessage {
+  private static final int INITIAL_BUFFER_SIZE = 512;
+  private static final int INITIAL_HEADER_CAPACITY = 16;
+
+  /** Each header occupies four slots: name start, name end, value start and value end. */
+  private static final int HEADER_SLOTS = 4;
+
   public String method;
-  public Uri uri;
   public String protocol;
 
+  /**
+   * Parsed request target.  Only filled in for handlers that do not implement
+   * {@link LazyUriHttpHandler}, as are the {@link #headerNames} and {@link #headerValues}
+   * lists.
+   *
+   * @deprecated Use {@link #getUri()}, or {@link #getPath()} which is cheaper, and implement
+   *     {@link LazyUriHttpHandler} so that the server needn't parse the target up front.
+   */
+  @Deprecated
+  @Nullable
+  public Uri uri;
+
+  private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+  private int mLength;
+
+  private int mUriStart;
+  private int mUriEnd;
+
+  private int[] mHeaderOffsets = new int[INITIAL_HEADER_CAPACITY * HEADER_SLOTS];
+  private int mHeaderCount;
+
+  @Nullable private Uri mUri;
+
+  // Deliberately survives reset() so that a client polling the same path over a keep-alive
+  // connection (Chrome hammering /json) does not decode it again for every request.
+  @Nullable private String mCachedPath;
+  private byte[] mCachedPathBytes = new byte[0];
+
+  /**
+   * Full request target exactly as it appeared on the request line.
+   */
+  public String getRawUri() {
+    return decodeAscii(mBuffer, mUriStart, mUriEnd);
+  }
+
+  /**
+   * Parsed request target.  This is constructed lazily; prefer {@link #getPath()} if only the
+   * path is needed.
+   */
+  public Uri getUri() {
+    if (mUri == null) {
+      mUri = Uri.parse(getRawUri());
+    }
+    return mUri;
+  }
+
+  /**
+   * Decoded path component of the request target, equivalent to {@code getUri().getPath()}.
+   */
+  @Nullable
+  public String getPath() {
+    int pathEnd = mUriStart;
+    while (pathEnd < mUriEnd) {
+      byte b = mBuffer[pathEnd];
+      if (b == '?' || b == '#') {
+        break;
+      } else if (b == '%') {
+        // Leave escape handling to Uri.
+        return getUri().getPath();
+      }
+      pathEnd++;
+    }
+
+    if (pathEnd == mUriStart || mBuffer[mUriStart] != '/') {
+      // Absolute-form or otherwise unusual request target.
+      return getUri().getPath();
+    }
+
+    if (mCachedPath == null || !regionEquals(mCachedPathBytes, mBuffer, mUriStart, pathEnd)) {
+      int length = pathEnd - mUriStart;
+      mCachedPathBytes = new byte[length];
+      System.arraycopy(mBuffer, mUriStart, mCachedPathBytes, 0, length);
+      mCachedPath = decodeAscii(mBuffer, mUriStart, pathEnd);
+    }
+    return mCachedPath;
+  }
+
+  public int getHeaderCount() {
+    return mHeaderCount;
+  }
+
+  public String getHeaderName(int index) {
+    checkHeaderIndex(index);
+    int base = index * HEADER_SLOTS;
+    return decodeAscii(mBuffer, mHeaderOffsets[base], mHeaderOffsets[base + 1]);
+  }
+
+  public String getHeaderValue(int index) {
+    checkHeaderIndex(index);
+    int base = index * HEADER_SLOTS;
+    return decodeAscii(mBuffer, mHeaderOffsets[base + 2], mHeaderOffsets[base + 3]);
+  }
+
+  /**
+   * Compares header names exactly, as {@link LightHttpMessage} does, but directly against the
+   * received bytes so that it works whether or not the header lists have been filled in.
+   */
+  @Nullable
+  @Override
+  public String getFirstHeaderValue(String name) {
+    int index = indexOfHeader(name);
+    return index >= 0 ? getHeaderValue(index) : null;
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    super.addHeader(name, value);
+    int nameStart = mLength;
+    appendAscii(name);
+    int nameEnd = mLength;
+    appendAscii(value);
+    addHeaderSlice(nameStart, nameEnd, nameEnd, mLength);
+  }
+
   @Override
   public void reset() {
     super.reset();
     this.method = null;
-    this.uri = null;
     this.protocol = null;
+    this.uri = null;
+    mLength = 0;
+    mUriStart = 0;
+    mUriEnd = 0;
+    mHeaderCount = 0;
+    mUri = null;
+  }
+
+  /**
+   * Fills in {@link #uri} and the header lists for handlers that predate the accessors above.
+   * Called by {@link LightHttpServer} just before handing the request over.
+   */
+  void populateLegacyFields() {
+    this.uri = getUri();
+    headerNames.clear();
+    headerValues.clear();
+    for (int i = 0; i < mHeaderCount; i++) {
+      headerNames.add(getHeaderName(i));
+      headerValues.add(getHeaderValue(i));
+    }
+  }
+
+  private int indexOfHeader(String name) {
+    int nameLength = name.length();
+    for (int i = 0; i < mHeaderCount; i++) {
+      int base = i * HEADER_SLOTS;
+      int start = mHeaderOffsets[base];
+      if (mHeaderOffsets[base + 1] - start != nameLength) {
+        continue;
+      }
+      boolean match = true;
+      for (int j = 0; j < nameLength; j++) {
+        if ((mBuffer[start + j] & 0xff) != name.charAt(j)) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void checkHeaderIndex(int index) {
+    if (index < 0 || index >= mHeaderCount) {
+      throw new IndexOutOfBoundsException("index=" + index + ", count=" + mHeaderCount);
+    }
+  }
+
+  private void appendAscii(String str) {
+    int length = str.length();
+    ensureCapacity(mLength + length);
+    for (int i = 0; i < length; i++) {
+      mBuffer[mLength++] = (byte) str.charAt(i);
+    }
+  }
+
+  /**
+   * Raw storage for the request line and headers, valid up to {@link #length()}.  Only
+   * {@link HttpRequestParser} writes into it.
+   */
+  byte[] buffer() {
+    return mBuffer;
+  }
+
+  int length() {
+    return mLength;
+  }
+
+  void setLength(int length) {
+    mLength = length;
+  }
+
+  void ensureCapacity(int capacity) {
+    if (capacity > mBuffer.length) {
+      byte[] newBuffer = new byte[Math.max(capacity, mBuffer.length * 2)];
+      System.arraycopy(mBuffer, 0, newBuffer, 0, mLength);
+      mBuffer = newBuffer;
+    }
+  }
+
+  void setUriSlice(int start, int end) {
+    mUriStart = start;
+    mUriEnd = end;
+  }
+
+  void addHeaderSlice(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+    int base = mHeaderCount * HEADER_SLOTS;
+    if (base + HEADER_SLOTS > mHeaderOffsets.length) {
+      int[] newOffsets = new int[mHeaderOffsets.length * 2];
+      System.arraycopy(mHeaderOffsets, 0, newOffsets, 0, base);
+      mHeaderOffsets = newOffsets;
+    }
+    mHeaderOffsets[base] = nameStart;
+    mHeaderOffsets[base + 1] = nameEnd;
+    mHeaderOffsets[base + 2] = valueStart;
+    mHeaderOffsets[base + 3] = valueEnd;
+    mHeaderCount++;
+  }
+
+  static String decodeAscii(byte[] buffer, int start, int end) {
+    char[] chars = new char[end - start];
+    for (int i = start; i < end; i++) {
+      chars[i - start] = (char) (buffer[i] & 0xff);
+    }
+    return new String(chars);
+  }
+
+  private static boolean regionEquals(byte[] expected, byte[] buffer, int start, int end) {
+    if (expected.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i] != buffer[start + i]) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -9,20 +9,20 @@
 
 package com.facebook.stetho.server.http;
 
-import android.net.LocalSocket;
-import android.net.Uri;
 import android.support.annotation.Nullable;
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.server.EventLoopConnection;
+import com.facebook.stetho.server.EventLoopHandler;
 import com.facebook.stetho.server.LeakyBufferedInputStream;
 import com.facebook.stetho.server.SocketLike;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 
 /**
  * Somewhat crude but very fast HTTP server designed exclusively to handle the
@@ -42,7 +42,6 @@ public class LightHttpServer {
   public void serve(SocketLike socket) throws IOException {
     LeakyBufferedInputStream input = new LeakyBufferedInputStream(socket.getInput(), 1024);
     OutputStream output = socket.getOutput();
-    HttpMessageReader reader = new HttpMessageReader(input);
     HttpMessageWriter writer = new HttpMessageWriter(new BufferedOutputStream(output));
 
     SocketLike anotherSocketLike = new SocketLike(socket, input);
@@ -52,7 +51,7 @@ public class LightHttpServer {
 
     // This loops assumes we are always using keep-alive connections.  If we're wrong, we
     // expect the client to just close the connection.
-    while ((request = readRequestMessage(scratchRequest, reader)) != null) {
+    while ((request = readRequestMessage(scratchRequest, input)) != null) {
       final LightHttpResponse response = scratchResponse;
       response.reset();
 
@@ -73,82 +72,159 @@ public class LightHttpServer {
       LightHttpRequest request,
       LightHttpResponse response)
       throws IOException {
-    HttpHandler handler = mHandlerRegistry.lookup(request.uri.getPath());
+    HttpHandler handler = mHandlerRegistry.lookup(request.getPath());
     if (handler == null) {
       response.code = HttpStatus.HTTP_NOT_FOUND;
       response.reasonPhrase = "Not found";
       response.body = LightHttpBody.create("No handler found\n", "text/plain");
       return true;
     } else {
+      if (!(handler instanceof LazyUriHttpHandler)) {
+        request.populateLegacyFields();
+      }
       try {
         return handler.handleRequest(socketLike, request, response);
       } catch (RuntimeException e) {
-        response.code = HttpStatus.HTTP_INTERNAL_SERVER_ERROR;
-        response.reasonPhrase = "Internal Server Error";
-        StringWriter stack = new StringWriter();
-        PrintWriter stackWriter = new PrintWriter(stack);
-        try {
-          e.printStackTrace(stackWriter);
-        } finally {
-          stackWriter.close();
-        }
-        response.body = LightHttpBody.create(stack.toString(), "text/plain");
+        setInternalServerError(response, e);
         return true;
       }
     }
   }
 
-  @Nullable
-  private static LightHttpRequest readRequestMessage(
-      LightHttpRequest request,
-      HttpMessageReader reader)
-      throws IOException {
-    request.reset();
-
-    String requestLine = reader.readLine();
-    if (requestLine == null) {
-      return null;
+  private static void setInternalServerError(LightHttpResponse response, RuntimeException e) {
+    response.code = HttpStatus.HTTP_INTERNAL_SERVER_ERROR;
+    response.reasonPhrase = "Internal Server Error";
+    StringWriter stack = new StringWriter();
+    PrintWriter stackWriter = new PrintWriter(stack);
+    try {
+      e.printStackTrace(stackWriter);
+    } finally {
+      stackWriter.close();
     }
+    response.body = LightHttpBody.create(stack.toString(), "text/plain");
+  }
 
-    // Zero tolerance on URI encoding, that URI better not have a space in it...
-    String[] requestParts = requestLine.split(" ", 3);
-    if (requestParts.length != 3) {
-      throw new IOException("Invalid request line: " + requestLine);
+  /**
+   * Create a non-blocking equivalent of {@link #serve} for connections driven by an
+   * {@link com.facebook.stetho.server.EventLoopGroup}.  Requests are parsed on the loop thread
+   * and handlers are invoked on a dispatch thread.  Handlers implementing
+   * {@link EventLoopHttpHandler} may take over the connection without blocking; any other
+   * handler which does so is simply given a blocking view of the connection.
+   */
+  public EventLoopHandler createEventLoopHandler() {
+    return new EventLoopRequestHandler();
+  }
+
+  private class EventLoopRequestHandler implements EventLoopHandler {
+    private final LightHttpRequest mRequest = new LightHttpRequest();
+    private final LightHttpResponse mResponse = new LightHttpResponse();
+
+    /**
+     * Number of bytes already scanned for the end of the headers so that we don't rescan
+     * from the start each time a few more bytes trickle in.
+     */
+    private int mScanned;
+
+    @Override
+    public void onReadable(final EventLoopConnection connection, ByteBuffer input)
+        throws IOException {
+      int start = input.arrayOffset() + input.position();
+      int headersLength = HttpRequestParser.findEndOfHeaders(
+          input.array(),
+          start,
+          input.arrayOffset() + input.limit(),
+          mScanned);
+      if (headersLength < 0) {
+        mScanned = input.remaining();
+        if (mScanned > HttpRequestParser.MAX_HEADERS_SIZE) {
+          throw new IOException("Request headers too large");
+        }
+        return;
+      }
+      mScanned = 0;
+
+      HttpRequestParser.parse(mRequest, input.array(), start, headersLength);
+      input.position(input.position() + headersLength);
+
+      // Anything after the headers belongs either to the next request or to whatever protocol
+      // we upgrade to.  It stays in the connection's buffer but a blocking handler would need
+      // its own copy.
+      final byte[] pending = new byte[input.remaining()];
+      input.duplicate().get(pending);
+
+      connection.pauseReading();
+      connection.dispatch(new Runnable() {
+        @Override
+        public void run() {
+          handleRequest(connection, pending);
+        }
+      });
     }
 
-    request.method = requestParts[0];
-    request.uri = Uri.parse(requestParts[1]);
-    request.protocol = requestParts[2];
+    @Override
+    public void onClosed(EventLoopConnection connection) {
+    }
 
-    readHeaders(request, reader);
+    private void handleRequest(EventLoopConnection connection, byte[] pending) {
+      LightHttpRequest request = mRequest;
+      LightHttpResponse response = mResponse;
+      response.reset();
 
-    return request;
-  }
+      try {
+        HttpHandler handler = mHandlerRegistry.lookup(request.getPath());
+        EventLoopConnection.BlockingSocketLike socketLike = null;
+        boolean keepGoing;
+        if (handler instanceof EventLoopHttpHandler) {
+          EventLoopHandler upgradedHandler = null;
+          try {
+            upgradedHandler = ((EventLoopHttpHandler) handler).handleEventLoopRequest(
+                connection,
+                request,
+                response);
+          } catch (RuntimeException e) {
+            setInternalServerError(response, e);
+          }
+          if (upgradedHandler != null) {
+            connection.setHandler(upgradedHandler);
+            connection.resumeReading();
+            return;
+          }
+          keepGoing = true;
+        } else {
+          socketLike = connection.createSocketLike(pending);
+          keepGoing = dispatchToHandler(socketLike, request, response);
+        }
 
-  private static void readHeaders(
-      LightHttpMessage message,
-      HttpMessageReader reader) throws IOException {
-    String headerLine;
-    while (true) {
-      headerLine = reader.readLine();
-      if (headerLine == null) {
-        throw new EOFException();
-      } else if ("".equals(headerLine)) {
-        break;
-      } else {
-        String[] headerParts = headerLine.split(": ", 2);
-        if (headerParts.length != 2) {
-          throw new IOException("Malformed header: " + headerLine);
+        if (!keepGoing) {
+          connection.close();
+          return;
         }
-        String name = headerParts[0];
-        String value = headerParts[1];
 
-        message.headerNames.add(name);
-        message.headerValues.add(value);
+        BufferedOutputStream output = new BufferedOutputStream(connection.getOutput());
+        writeFullResponse(response, new HttpMessageWriter(output), output);
+        output.flush();
+
+        if (socketLike != null && socketLike.isInputUsed()) {
+          // The handler read from the connection directly so our buffer is now stale.
+          connection.close();
+        } else {
+          connection.resumeReading();
+        }
+      } catch (IOException e) {
+        LogUtil.w("I/O error: %s", e);
+        connection.close();
       }
     }
   }
 
+  @Nullable
+  private static LightHttpRequest readRequestMessage(
+      LightHttpRequest request,
+      InputStream input)
+      throws IOException {
+    return HttpRequestParser.read(request, input) ? request : null;
+  }
+
   private static void writeFullResponse(
       LightHttpResponse response,
       HttpMessageWriter writer,
@@ -163,123 +239,112 @@ public class LightHttpServer {
 
   public static void writeResponseMessage(LightHttpResponse response, HttpMessageWriter writer)
       throws IOException {
-    writer.writeLine("HTTP/1.1 " + response.code + " " + response.reasonPhrase);
+    writer.writeStatusLine(response.code, response.reasonPhrase);
     for (int i = 0, N = response.headerNames.size(); i < N; i++) {
-      String name = response.headerNames.get(i);
-      String value = response.headerValues.get(i);
-      writer.writeLine(name + ": " + value);
+      writer.writeHeader(response.headerNames.get(i), response.headerValues.get(i));
     }
     writer.writeLine();
     writer.flush();
   }
 
   /**
-   * Efficient, unbuffered variation of {@link InputStreamReader} which assumes the input is
-   * always ASCII.  This is especially useful when you are certain that the client and server
-   * are both mechanized and will not contain non-ASCII characters in the control messages upon
-   * which this reader is applied.
+   * Writes status and header lines straight into the output buffer assuming ASCII for all
+   * messages as a performance optimization.  Each line is assembled in a scratch array and
+   * handed to the underlying stream in a single write.  Caller is responsible for flushing
+   * the writer.
+   * <p />
+   * Exposed publicly as a hack to support WebSocket upgrade.
    */
-  private static class HttpMessageReader {
-    private final BufferedInputStream mIn;
-    private final StringBuilder mBuffer = new StringBuilder();
-    private final NewLineDetector mNewLineDetector = new NewLineDetector();
+  public static class HttpMessageWriter {
+    private static final byte[] STATUS_LINE_PREFIX = "HTTP/1.1 ".getBytes();
+    private static final byte[] HEADER_SEPARATOR = ": ".getBytes();
+
+    private final BufferedOutputStream mOut;
+    private byte[] mLine = new byte[128];
+    private int mLineLength;
 
-    public HttpMessageReader(BufferedInputStream in) {
-      mIn = in;
+    public HttpMessageWriter(BufferedOutputStream out) {
+      mOut = out;
     }
 
-    @Nullable
-    public String readLine() throws IOException {
-      while (true) {
-        int b = mIn.read();
-        if (b < 0) {
-          return null;
-        }
+    public void writeStatusLine(int code, String reasonPhrase) throws IOException {
+      append(STATUS_LINE_PREFIX);
+      appendDecimal(code);
+      appendChar(' ');
+      append(reasonPhrase);
+      endLine();
+    }
 
-        char c = (char)b;
-        mNewLineDetector.accept(c);
-
-        switch (mNewLineDetector.state()) {
-          case NewLineDetector.STATE_ON_CRLF:
-            String result = mBuffer.toString();
-            mBuffer.setLength(0);
-            return result;
-          case NewLineDetector.STATE_ON_CR:
-            break;
-          case NewLineDetector.STATE_ON_OTHER:
-            mBuffer.append(c);
-            break;
-        }
-      }
+    public void writeHeader(String name, String value) throws IOException {
+      append(name);
+      append(HEADER_SEPARATOR);
+      append(value);
+      endLine();
     }
 
-    private static class NewLineDetector {
-      private static final int STATE_ON_OTHER = 1;
-      private static final int STATE_ON_CR = 2;
-      private static final int STATE_ON_CRLF = 3;
-
-      private int state = STATE_ON_OTHER;
-
-      public void accept(char c) {
-        switch (state) {
-          case STATE_ON_OTHER:
-            if (c == '\r') {
-              state = STATE_ON_CR;
-            }
-            break;
-          case STATE_ON_CR:
-            if (c == '\n') {
-              state = STATE_ON_CRLF;
-            } else {
-              state = STATE_ON_OTHER;
-            }
-            break;
-          case STATE_ON_CRLF:
-            if (c == '\r') {
-              state = STATE_ON_CR;
-            } else {
-              state = STATE_ON_OTHER;
-            }
-            break;
-          default:
-            throw new IllegalArgumentException("Unknown state: " + state);
-        }
-      }
+    public void writeLine(String line) throws IOException {
+      append(line);
+      endLine();
+    }
+
+    public void writeLine() throws IOException {
+      endLine();
+    }
+
+    public void flush() throws IOException {
+      mOut.flush();
+    }
 
-      public int state() {
-        return state;
+    private void append(String str) {
+      int length = str.length();
+      ensureCapacity(mLineLength + length);
+      for (int i = 0; i < length; i++) {
+        mLine[mLineLength++] = (byte) str.charAt(i);
       }
     }
-  }
 
-  /**
-   * Similar in spirit to {@link HttpMessageReader} which assumes ASCII for all messages as
-   * a performance optimization.  Caller is responsible for flushing the writer.
-   * <p />
-   * Exposed publicly as a hack to support WebSocket upgrade.
-   */
-  public static class HttpMessageWriter {
-    private final BufferedOutputStream mOut;
-    private static final byte[] CRLF = "\r\n".getBytes();
+    private void append(byte[] bytes) {
+      ensureCapacity(mLineLength + bytes.length);
+      System.arraycopy(bytes, 0, mLine, mLineLength, bytes.length);
+      mLineLength += bytes.length;
+    }
 
-    public HttpMessageWriter(BufferedOutputStream out) {
-      mOut = out;
+    private void appendChar(char c) {
+      ensureCapacity(mLineLength + 1);
+      mLine[mLineLength++] = (byte) c;
     }
 
-    public void writeLine(String line) throws IOException {
-      for (int i = 0, N = line.length(); i < N; i++) {
-        char c = line.charAt(i);
-        mOut.write((int)c);
+    private void appendDecimal(int value) {
+      if (value < 0) {
+        appendChar('-');
+        value = -value;
+      }
+      int digits = 1;
+      for (int v = value / 10; v != 0; v /= 10) {
+        digits++;
+      }
+      ensureCapacity(mLineLength + digits);
+      for (int i = mLineLength + digits - 1; i >= mLineLength; i--) {
+        mLine[i] = (byte) ('0' + value % 10);
+        value /= 10;
       }
-      mOut.write(CRLF);
+      mLineLength += digits;
     }
 
-    public void writeLine() throws IOException {
-      mOut.write(CRLF);
+    private void endLine() throws IOException {
+      ensureCapacity(mLineLength + 2);
+      mLine[mLineLength++] = '\r';
+      mLine[mLineLength++] = '\n';
+      mOut.write(mLine, 0, mLineLength);
+      mLineLength = 0;
     }
 
-    public void flush() throws IOException {
-      mOut.flush();
+    private void ensureCapacity(int capacity) {
+      if (capacity > mLine.length) {
+        byte[] newLine = new byte[Math.max(capacity, mLine.length * 2)];
+        System.arraycopy(mLine, 0, newLine, 0, mLineLength);
+        mLine = newLine;
+      }
     }
   }
 }
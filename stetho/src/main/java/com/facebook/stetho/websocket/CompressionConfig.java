@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+/**
+ * Controls RFC 7692 {@code permessage-deflate} compression of WebSocket sessions.  Compression
+ * is only used if the peer offers it during the handshake and requires KitKat or later.
+ * <p />
+ * Large messages such as {@code DOM.getDocument} results, response bodies and screencast
+ * frames typically shrink several-fold, which matters over the bandwidth limited adb forward.
+ * Messages smaller than {@link #thresholdBytes} are sent as is since compressing them costs
+ * more CPU than it saves on the wire.
+ */
+public final class CompressionConfig {
+  public static final int DEFAULT_THRESHOLD_BYTES = 1024;
+
+  public final boolean enabled;
+  public final int thresholdBytes;
+
+  /**
+   * Whether our compressor keeps its sliding window between messages.  This improves the
+   * ratio for the repetitive JSON we send at the cost of holding a compressor's memory for
+   * the life of each session.
+   */
+  public final boolean contextTakeover;
+
+  public CompressionConfig(boolean enabled, int thresholdBytes, boolean contextTakeover) {
+    if (thresholdBytes < 0) {
+      throw new IllegalArgumentException("thresholdBytes must not be negative: " + thresholdBytes);
+    }
+    this.enabled = enabled;
+    this.thresholdBytes = thresholdBytes;
+    this.contextTakeover = contextTakeover;
+  }
+
+  public static CompressionConfig createDefault() {
+    return new CompressionConfig(
+        true /* enabled */,
+        DEFAULT_THRESHOLD_BYTES,
+        true /* contextTakeover */);
+  }
+
+  public static CompressionConfig createDisabled() {
+    return new CompressionConfig(
+        false /* enabled */,
+        DEFAULT_THRESHOLD_BYTES,
+        true /* contextTakeover */);
+  }
+
+  @Override
+  public String toString() {
+    return "CompressionConfig{enabled=" + enabled +
+        ", thresholdBytes=" + thresholdBytes +
+        ", contextTakeover=" + contextTakeover + "}";
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters describing {@code permessage-deflate} compression for a single session.
+ *
+ * @see SimpleSession#getCompressionStats()
+ */
+@ThreadSafe
+public class CompressionStats {
+  private final AtomicLong mMessagesCompressed = new AtomicLong();
+  private final AtomicLong mMessagesBelowThreshold = new AtomicLong();
+  private final AtomicLong mOutboundRawBytes = new AtomicLong();
+  private final AtomicLong mOutboundWireBytes = new AtomicLong();
+  private final AtomicLong mMessagesDecompressed = new AtomicLong();
+  private final AtomicLong mInboundWireBytes = new AtomicLong();
+  private final AtomicLong mInboundRawBytes = new AtomicLong();
+
+  /**
+   * @return Number of outbound messages sent compressed.
+   */
+  public long getMessagesCompressed() {
+    return mMessagesCompressed.get();
+  }
+
+  /**
+   * @return Number of outbound messages sent uncompressed because they were smaller than
+   *     {@link CompressionConfig#thresholdBytes}.
+   */
+  public long getMessagesBelowThreshold() {
+    return mMessagesBelowThreshold.get();
+  }
+
+  /**
+   * @return Size of outbound compressed messages before compression.
+   */
+  public long getOutboundRawBytes() {
+    return mOutboundRawBytes.get();
+  }
+
+  /**
+   * @return Size of outbound compressed messages after compression.
+   */
+  public long getOutboundWireBytes() {
+    return mOutboundWireBytes.get();
+  }
+
+  /**
+   * @return Ratio of raw to compressed size for outbound compressed messages, or 1 if
+   *     nothing has been compressed yet.
+   */
+  public double getOutboundRatio() {
+    return ratio(getOutboundRawBytes(), getOutboundWireBytes());
+  }
+
+  /**
+   * @return Number of compressed messages received from the peer.
+   */
+  public long getMessagesDecompressed() {
+    return mMessagesDecompressed.get();
+  }
+
+  /**
+   * @return Ratio of decompressed to received size for inbound compressed messages, or 1 if
+   *     nothing has been received compressed yet.
+   */
+  public double getInboundRatio() {
+    return ratio(mInboundRawBytes.get(), mInboundWireBytes.get());
+  }
+
+  void onCompressed(int rawBytes, int wireBytes) {
+    mMessagesCompressed.incrementAndGet();
+    mOutboundRawBytes.addAndGet(rawBytes);
+    mOutboundWireBytes.addAndGet(wireBytes);
+  }
+
+  void onBelowThreshold() {
+    mMessagesBelowThreshold.incrementAndGet();
+  }
+
+  void onDecompressed(int wireBytes, int rawBytes) {
+    mMessagesDecompressed.incrementAndGet();
+    mInboundWireBytes.addAndGet(wireBytes);
+    mInboundRawBytes.addAndGet(rawBytes);
+  }
+
+  private static double ratio(long raw, long wire) {
+    return wire > 0 ? (double) raw / wire : 1.0;
+  }
+
+  @Override
+  public String toString() {
+    return "compressed=" + getMessagesCompressed() +
+        ", belowThreshold=" + getMessagesBelowThreshold() +
+        ", outboundRaw=" + getOutboundRawBytes() +
+        ", outboundWire=" + getOutboundWireBytes() +
+        ", outboundRatio=" + String.format(Locale.US, "%.2f", getOutboundRatio()) +
+        ", decompressed=" + getMessagesDecompressed() +
+        ", inboundRatio=" + String.format(Locale.US, "%.2f", getInboundRatio());
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import com.facebook.stetho.server.EventLoopConnection;
+import com.facebook.stetho.server.EventLoopHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking counterpart to {@link ReadHandler}.  Frames are decoded and unmasked in place
+ * in the event loop's input buffer once they have fully arrived; each complete message is
+ * then delivered to the session on a dispatch thread with reading paused, preserving the
+ * one-message-at-a-time semantics of the blocking read loop.
+ */
+class EventLoopReadHandler implements EventLoopHandler {
+  private final WebSocketSession mSession;
+  private final ReadCallback mReadCallback;
+  private final byte[] mMaskingKey = new byte[4];
+
+  /**
+   * Holds the message being delivered, built up over multiple frames if necessary.  The
+   * connection's buffer is recycled as soon as we return from {@link #onReadable}, so payloads
+   * are copied here once; nothing is allocated per message.  Control frames may be interleaved
+   * with fragments and therefore get their own buffer.  Both are only touched by the dispatch
+   * thread while reading is paused.
+   */
+  private final PayloadBuffer mCurrentPayload = new PayloadBuffer();
+  private final PayloadBuffer mControlPayload = new PayloadBuffer();
+  private boolean mInFragmentedMessage;
+  private byte mFragmentedOpcode;
+  private boolean mFragmentedCompressed;
+
+  public EventLoopReadHandler(WebSocketSession session) {
+    mSession = session;
+    mReadCallback = session.getReadCallback();
+  }
+
+  @Override
+  public void onReadable(EventLoopConnection connection, ByteBuffer input) throws IOException {
+    while (input.remaining() >= 2) {
+      int start = input.position();
+      byte firstByte = input.get(start);
+      byte maskAndFirstLengthBits = input.get(start + 1);
+
+      boolean fin = (firstByte & 0x80) != 0;
+      boolean rsv1 = (firstByte & 0x40) != 0;
+      byte opcode = (byte)(firstByte & 0xf);
+      boolean hasMask = (maskAndFirstLengthBits & 0x80) != 0;
+      int firstLengthBits = maskAndFirstLengthBits & 0x7f;
+
+      int headerLen = 2;
+      long payloadLen;
+      if (firstLengthBits <= 125) {
+        payloadLen = firstLengthBits;
+      } else if (firstLengthBits == 126) {
+        headerLen += 2;
+        if (input.remaining() < headerLen) {
+          return;
+        }
+        payloadLen = input.getShort(start + 2) & 0xffff;
+      } else {
+        headerLen += 8;
+        if (input.remaining() < headerLen) {
+          return;
+        }
+        payloadLen = input.getLong(start + 2);
+      }
+      if (payloadLen < 0 || payloadLen > Frame.MAX_PAYLOAD_SIZE) {
+        throw new IOException("Unsupported frame payload length: " + payloadLen);
+      }
+      if (hasMask) {
+        headerLen += 4;
+      }
+      if (input.remaining() < headerLen + payloadLen) {
+        // Wait for the rest of the frame; the connection grows its buffer as needed.
+        return;
+      }
+
+      int payloadStart = start + headerLen;
+      int len = (int) payloadLen;
+      byte[] array = input.array();
+      int arrayPayloadStart = input.arrayOffset() + payloadStart;
+      if (hasMask) {
+        for (int i = 0; i < mMaskingKey.length; i++) {
+          mMaskingKey[i] = input.get(payloadStart - mMaskingKey.length + i);
+        }
+        MaskingHelper.unmask(mMaskingKey, array, arrayPayloadStart, len);
+      }
+      input.position(payloadStart + len);
+
+      boolean isControlFrame = (opcode & 0x8) != 0;
+      if (isControlFrame) {
+        mControlPayload.reset();
+        mControlPayload.append(array, arrayPayloadStart, len);
+        deliver(connection, opcode, rsv1, mControlPayload);
+      } else {
+        if (!mInFragmentedMessage) {
+          mInFragmentedMessage = true;
+          mFragmentedOpcode = opcode;
+          mFragmentedCompressed = rsv1;
+          mCurrentPayload.reset();
+        }
+        if (mCurrentPayload.length() + len > Frame.MAX_PAYLOAD_SIZE) {
+          throw new IOException("Fragmented message too large");
+        }
+        mCurrentPayload.append(array, arrayPayloadStart, len);
+        if (!fin) {
+          continue;
+        }
+        mInFragmentedMessage = false;
+        deliver(connection, mFragmentedOpcode, mFragmentedCompressed, mCurrentPayload);
+      }
+      return;
+    }
+  }
+
+  private void deliver(
+      final EventLoopConnection connection,
+      final byte opcode,
+      final boolean compressed,
+      final PayloadBuffer payload) {
+    connection.pauseReading();
+    connection.dispatch(new Runnable() {
+      @Override
+      public void run() {
+        mReadCallback.onCompleteFrame(opcode, compressed, payload.data(), payload.length());
+        if (opcode == Frame.OPCODE_CONNECTION_CLOSE) {
+          // The close acknowledgement has only been queued; closing now would lose it.
+          mSession.closeAfterFlush(new Runnable() {
+            @Override
+            public void run() {
+              connection.close();
+            }
+          });
+        } else {
+          connection.resumeReading();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onClosed(EventLoopConnection connection) {
+    // No-op if we already processed a close frame.
+    mSession.markAndSignalClosed(CloseCodes.UNEXPECTED_CONDITION, "EOF while reading");
+  }
+}
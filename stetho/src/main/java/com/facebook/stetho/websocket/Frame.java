@@ -9,14 +9,18 @@
 
 package com.facebook.stetho.websocket;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * WebSocket frame as per RFC6455.
+ * <p />
+ * A frame used for reading is meant to be reused: the masking key and payload are read into
+ * storage owned by the frame, so {@link #payloadData} is only valid until the next
+ * {@link #readFrom} and may be longer than {@link #payloadLen}.
  */
 class Frame {
   public static final byte OPCODE_TEXT_FRAME = 0x1;
@@ -25,6 +29,12 @@ class Frame {
   public static final byte OPCODE_CONNECTION_PING = 0x9;
   public static final byte OPCODE_CONNECTION_PONG = 0xA;
 
+  /**
+   * Chrome never sends us anything close to this, but we must bound how much we're willing
+   * to buffer for a single frame.
+   */
+  public static final int MAX_PAYLOAD_SIZE = 8 * 1024 * 1024;
+
   public boolean fin;
   public boolean rsv1;
   public boolean rsv2;
@@ -35,28 +45,46 @@ class Frame {
   public byte[] maskingKey;
   public byte[] payloadData;
 
-  public void readFrom(BufferedInputStream input) throws IOException {
+  private byte[] mMaskingKeyBuffer;
+  private PayloadBuffer mReadBuffer;
+
+  public void readFrom(InputStream input) throws IOException {
     decodeFirstByte(readByteOrThrow(input));
     byte maskAndFirstLengthBits = readByteOrThrow(input);
     hasMask = (maskAndFirstLengthBits & 0x80) != 0;
     payloadLen = decodeLength((byte)(maskAndFirstLengthBits & ~0x80), input);
-    maskingKey = hasMask ? decodeMaskingKey(input) : null;
-    payloadData = new byte[(int)payloadLen];
-    readBytesOrThrow(input, payloadData, 0, (int)payloadLen);
-    MaskingHelper.unmask(maskingKey, payloadData, 0, (int)payloadLen);
-  }
+    if (payloadLen < 0 || payloadLen > MAX_PAYLOAD_SIZE) {
+      throw new IOException("Unsupported frame payload length: " + payloadLen);
+    }
+    int len = (int) payloadLen;
 
-  public void writeTo(BufferedOutputStream output) throws IOException {
-    output.write(encodeFirstByte());
-    byte[] lengthAndMaskBit = encodeLength(payloadLen);
     if (hasMask) {
-      lengthAndMaskBit[0] |= 0x80;
+      if (mMaskingKeyBuffer == null) {
+        mMaskingKeyBuffer = new byte[4];
+      }
+      readBytesOrThrow(input, mMaskingKeyBuffer, 0, mMaskingKeyBuffer.length);
+      maskingKey = mMaskingKeyBuffer;
+    } else {
+      maskingKey = null;
+    }
+
+    if (mReadBuffer == null) {
+      mReadBuffer = new PayloadBuffer();
+    }
+    mReadBuffer.reset();
+    payloadData = mReadBuffer.ensureCapacity(len);
+    readBytesOrThrow(input, payloadData, 0, len);
+    if (hasMask) {
+      MaskingHelper.unmask(maskingKey, payloadData, 0, len);
     }
-    output.write(lengthAndMaskBit, 0, lengthAndMaskBit.length);
+  }
 
+  public void writeTo(BufferedOutputStream output) throws IOException {
     if (hasMask) {
       throw new UnsupportedOperationException("Writing masked data not implemented");
     }
+    output.write(encodeFirstByte());
+    writeLength(output, payloadLen);
     output.write(payloadData, 0, (int) payloadLen);
   }
 
@@ -94,8 +122,7 @@ class Frame {
     } else if (firstLenByte == 127) {
       long len = 0;
       for (int i = 0; i < 8; i++) {
-        len |= (readByteOrThrow(in) & 0xff);
-        len <<= 8;
+        len = (len << 8) | (readByteOrThrow(in) & 0xff);
       }
       return len;
     } else {
@@ -103,36 +130,25 @@ class Frame {
     }
   }
 
-  private static byte[] encodeLength(long len) {
+  /**
+   * Write the length straight into the (buffered) output rather than assembling it in a
+   * temporary array.  The mask bit is always clear as we only write unmasked frames.
+   */
+  private static void writeLength(OutputStream out, long len) throws IOException {
     if (len <= 125) {
-      return new byte[] { (byte)len };
+      out.write((int) len);
     } else if (len <= 0xffff) {
-      return new byte[] {
-          126,
-          (byte)((len >> 8) & 0xff),
-          (byte)((len) & 0xff)
-      };
+      out.write(126);
+      out.write((int) ((len >> 8) & 0xff));
+      out.write((int) (len & 0xff));
     } else {
-      return new byte[] {
-          127,
-          (byte)((len >> 56) & 0xff),
-          (byte)((len >> 48) & 0xff),
-          (byte)((len >> 40) & 0xff),
-          (byte)((len >> 32) & 0xff),
-          (byte)((len >> 24) & 0xff),
-          (byte)((len >> 16) & 0xff),
-          (byte)((len >> 8) & 0xff),
-          (byte)((len) & 0xff)
-      };
+      out.write(127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        out.write((int) ((len >> shift) & 0xff));
+      }
     }
   }
 
-  private static byte[] decodeMaskingKey(InputStream in) throws IOException {
-    byte[] key = new byte[4];
-    readBytesOrThrow(in, key, 0, key.length);
-    return key;
-  }
-
   private static void readBytesOrThrow(InputStream in, byte[] buf, int offset, int count)
       throws IOException {
     while (count > 0) {
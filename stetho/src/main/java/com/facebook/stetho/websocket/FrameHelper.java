@@ -16,6 +16,10 @@ class FrameHelper {
     return createSimpleFrame(Frame.OPCODE_TEXT_FRAME, Utf8Charset.encodeUTF8(payload));
   }
 
+  public static Frame createTextFrame(byte[] utf8Payload, int payloadLen) {
+    return createSimpleFrame(Frame.OPCODE_TEXT_FRAME, utf8Payload, payloadLen);
+  }
+
   public static Frame createBinaryFrame(byte[] payload) {
     return createSimpleFrame(Frame.OPCODE_BINARY_FRAME, payload);
   }
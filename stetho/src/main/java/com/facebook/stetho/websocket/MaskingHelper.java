@@ -10,10 +10,13 @@
 package com.facebook.stetho.websocket;
 
 class MaskingHelper {
+  /**
+   * Unmask {@code data} in place.  RFC6455 masking keys are always 4 bytes long.
+   */
   public static void unmask(byte[] key, byte[] data, int offset, int count) {
     int index = 0;
     while (count-- > 0) {
-      data[offset++] ^= key[index++ % key.length];
+      data[offset++] ^= key[index++ & 3];
     }
   }
 }
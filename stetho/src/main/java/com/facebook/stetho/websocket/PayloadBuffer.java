@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+/**
+ * Growable byte array reused across WebSocket messages so that steady-state reading does not
+ * allocate.  Storage that grew to accommodate an unusually large message is released on
+ * {@link #reset()} rather than retained for the lifetime of the session.
+ */
+class PayloadBuffer {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private byte[] mData = new byte[INITIAL_CAPACITY];
+  private int mLength;
+
+  /**
+   * Backing array, valid up to {@link #length()}.  The array may be replaced by subsequent
+   * calls which grow the buffer.
+   */
+  public byte[] data() {
+    return mData;
+  }
+
+  public int length() {
+    return mLength;
+  }
+
+  public void setLength(int length) {
+    ensureCapacity(length);
+    mLength = length;
+  }
+
+  /**
+   * @return The backing array, at least {@code capacity} bytes long, with its first
+   *     {@link #length()} bytes preserved.
+   */
+  public byte[] ensureCapacity(int capacity) {
+    if (capacity > mData.length) {
+      byte[] newData = new byte[Math.max(capacity, mData.length * 2)];
+      System.arraycopy(mData, 0, newData, 0, mLength);
+      mData = newData;
+    }
+    return mData;
+  }
+
+  public void append(byte[] src, int offset, int count) {
+    ensureCapacity(mLength + count);
+    System.arraycopy(src, offset, mData, mLength, count);
+    mLength += count;
+  }
+
+  public void reset() {
+    mLength = 0;
+    if (mData.length > MAX_RETAINED_CAPACITY) {
+      mData = new byte[INITIAL_CAPACITY];
+    }
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * RFC 7692 {@code permessage-deflate} extension as negotiated for a single session.  Outbound
+ * messages are compressed by the session's writer and inbound messages decompressed by its
+ * reader.  Each direction has its own lock so that compressing a large message never holds
+ * up reading.
+ */
+@ThreadSafe
+@TargetApi(Build.VERSION_CODES.KITKAT)
+class PerMessageDeflate {
+  public static final String EXTENSION_NAME = "permessage-deflate";
+
+  private static final String PARAM_SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  private static final String PARAM_CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  private static final String PARAM_SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  private static final String PARAM_CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  /**
+   * {@link Deflater} offers no control over the window size, so we can only accept the
+   * default (and maximum) of 15 bits for our side.
+   */
+  private static final int DEFLATER_WINDOW_BITS = 15;
+
+  /**
+   * Empty uncompressed block ending every message compressed with {@code SYNC_FLUSH}; it is
+   * removed on the wire and must be restored before inflating.
+   */
+  private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+  private final int mThresholdBytes;
+  private final boolean mServerContextTakeover;
+  private final boolean mClientContextTakeover;
+  private final String mResponseHeaderValue;
+  private final CompressionStats mStats = new CompressionStats();
+
+  private final Object mDeflaterLock = new Object();
+  private final Object mInflaterLock = new Object();
+
+  @GuardedBy("mDeflaterLock")
+  private boolean mDeflaterReleased;
+
+  @GuardedBy("mInflaterLock")
+  private boolean mInflaterReleased;
+
+  private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */);
+  private final PayloadBuffer mDeflated = new PayloadBuffer();
+
+  private final Inflater mInflater = new Inflater(true /* nowrap */);
+  private final PayloadBuffer mInflaterInput = new PayloadBuffer();
+  private final PayloadBuffer mInflated = new PayloadBuffer();
+
+  private PerMessageDeflate(
+      int thresholdBytes,
+      boolean serverContextTakeover,
+      boolean clientContextTakeover) {
+    mThresholdBytes = thresholdBytes;
+    mServerContextTakeover = serverContextTakeover;
+    mClientContextTakeover = clientContextTakeover;
+
+    StringBuilder response = new StringBuilder(EXTENSION_NAME);
+    if (!serverContextTakeover) {
+      response.append("; ").append(PARAM_SERVER_NO_CONTEXT_TAKEOVER);
+    }
+    if (!clientContextTakeover) {
+      response.append("; ").append(PARAM_CLIENT_NO_CONTEXT_TAKEOVER);
+    }
+    mResponseHeaderValue = response.toString();
+  }
+
+  /**
+   * Accept the first {@code permessage-deflate} offer in the client's
+   * {@code Sec-WebSocket-Extensions} header that we are able to honour.
+   *
+   * @return Negotiated extension or null if compression will not be used.
+   */
+  @Nullable
+  public static PerMessageDeflate negotiate(
+      @Nullable String extensionsHeader,
+      CompressionConfig config) {
+    return negotiate(extensionsHeader, config, Build.VERSION.SDK_INT);
+  }
+
+  //@VisibleForTesting
+  @Nullable
+  static PerMessageDeflate negotiate(
+      @Nullable String extensionsHeader,
+      CompressionConfig config,
+      int sdkInt) {
+    if (extensionsHeader == null ||
+        !config.enabled ||
+        sdkInt < Build.VERSION_CODES.KITKAT) {
+      return null;
+    }
+    for (String offer : extensionsHeader.split(",")) {
+      String[] params = offer.split(";");
+      if (!EXTENSION_NAME.equals(params[0].trim())) {
+        continue;
+      }
+      boolean serverContextTakeover = config.contextTakeover;
+      boolean clientContextTakeover = true;
+      boolean acceptable = true;
+      for (int i = 1; i < params.length && acceptable; i++) {
+        String param = params[i].trim();
+        String value = null;
+        int equals = param.indexOf('=');
+        if (equals >= 0) {
+          value = unquote(param.substring(equals + 1).trim());
+          param = param.substring(0, equals).trim();
+        }
+        if (PARAM_SERVER_NO_CONTEXT_TAKEOVER.equals(param)) {
+          serverContextTakeover = false;
+        } else if (PARAM_CLIENT_NO_CONTEXT_TAKEOVER.equals(param)) {
+          clientContextTakeover = false;
+        } else if (PARAM_SERVER_MAX_WINDOW_BITS.equals(param)) {
+          acceptable = String.valueOf(DEFLATER_WINDOW_BITS).equals(value);
+        } else if (!PARAM_CLIENT_MAX_WINDOW_BITS.equals(param)) {
+          // A 15 bit inflater window copes with whatever window the client uses, so
+          // client_max_window_bits needs no answer.  Anything else we don't understand.
+          acceptable = false;
+        }
+      }
+      if (acceptable) {
+        return new PerMessageDeflate(
+            config.thresholdBytes,
+            serverContextTakeover,
+            clientContextTakeover);
+      }
+    }
+    return null;
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  /**
+   * @return Value for the {@code Sec-WebSocket-Extensions} response header.
+   */
+  public String getResponseHeaderValue() {
+    return mResponseHeaderValue;
+  }
+
+  public CompressionStats getStats() {
+    return mStats;
+  }
+
+  /**
+   * Compress a complete, unfragmented data frame in place if it is large enough to be worth
+   * it.  The frame's payload then refers to a buffer which is reused by the next call, so it
+   * must be written out before compressing another frame.
+   */
+  public void compress(Frame frame) {
+    boolean isControlFrame = (frame.opcode & 0x8) != 0;
+    if (isControlFrame || !frame.fin) {
+      return;
+    }
+    int rawLen = (int) frame.payloadLen;
+    if (rawLen < mThresholdBytes) {
+      mStats.onBelowThreshold();
+      return;
+    }
+    synchronized (mDeflaterLock) {
+      if (!mDeflaterReleased) {
+        compressLocked(frame, rawLen);
+      }
+    }
+  }
+
+  @GuardedBy("mDeflaterLock")
+  private void compressLocked(Frame frame, int rawLen) {
+    mDeflater.setInput(frame.payloadData, 0, rawLen);
+    mDeflated.reset();
+    while (true) {
+      byte[] out = mDeflated.ensureCapacity(mDeflated.length() + Math.max(rawLen / 2, 64));
+      int offset = mDeflated.length();
+      int available = out.length - offset;
+      int n = mDeflater.deflate(out, offset, available, Deflater.SYNC_FLUSH);
+      mDeflated.setLength(offset + n);
+      if (n < available) {
+        break;
+      }
+    }
+    if (!mServerContextTakeover) {
+      mDeflater.reset();
+    }
+
+    int wireLen = mDeflated.length();
+    if (endsWithTail(mDeflated.data(), wireLen)) {
+      wireLen -= TAIL.length;
+    }
+    frame.rsv1 = true;
+    frame.payloadData = mDeflated.data();
+    frame.payloadLen = wireLen;
+    mStats.onCompressed(rawLen, wireLen);
+  }
+
+  /**
+   * Decompress a complete message whose first frame had RSV1 set.
+   *
+   * @return Buffer holding the decompressed message, valid until the next call.
+   */
+  public PayloadBuffer decompress(byte[] payload, int payloadLen) throws IOException {
+    synchronized (mInflaterLock) {
+      if (mInflaterReleased) {
+        throw new IOException("Session is closed");
+      }
+      return decompressLocked(payload, payloadLen);
+    }
+  }
+
+  @GuardedBy("mInflaterLock")
+  private PayloadBuffer decompressLocked(byte[] payload, int payloadLen) throws IOException {
+    mInflaterInput.reset();
+    mInflaterInput.append(payload, 0, payloadLen);
+    mInflaterInput.append(TAIL, 0, TAIL.length);
+    mInflater.setInput(mInflaterInput.data(), 0, mInflaterInput.length());
+
+    mInflated.reset();
+    try {
+      while (true) {
+        byte[] out = mInflated.ensureCapacity(mInflated.length() + Math.max(payloadLen * 2, 64));
+        int offset = mInflated.length();
+        int n = mInflater.inflate(out, offset, out.length - offset);
+        mInflated.setLength(offset + n);
+        if (mInflated.length() > Frame.MAX_PAYLOAD_SIZE) {
+          throw new IOException("Decompressed message too large");
+        }
+        if (n == 0 && (mInflater.needsInput() || mInflater.finished())) {
+          break;
+        } else if (n == 0 && mInflater.needsDictionary()) {
+          throw new IOException("Unexpected preset dictionary");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    if (!mClientContextTakeover || mInflater.finished()) {
+      mInflater.reset();
+    }
+
+    mStats.onDecompressed(payloadLen, mInflated.length());
+    return mInflated;
+  }
+
+  /**
+   * Free the native zlib state.  Any later compression requests are ignored.
+   */
+  public void release() {
+    synchronized (mDeflaterLock) {
+      if (!mDeflaterReleased) {
+        mDeflaterReleased = true;
+        mDeflater.end();
+      }
+    }
+    synchronized (mInflaterLock) {
+      if (!mInflaterReleased) {
+        mInflaterReleased = true;
+        mInflater.end();
+      }
+    }
+  }
+
+  private static boolean endsWithTail(byte[] data, int length) {
+    if (length < TAIL.length) {
+      return false;
+    }
+    for (int i = 0; i < TAIL.length; i++) {
+      if (data[length - TAIL.length + i] != TAIL[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -10,5 +10,11 @@
 package com.facebook.stetho.websocket;
 
 interface ReadCallback {
-  void onCompleteFrame(byte opcode, byte[] payload, int payloadLen);
+  /**
+   * @param compressed True if the message's first frame had RSV1 set, meaning the payload is
+   *     still compressed with the negotiated {@code permessage-deflate} extension.
+   * @param payload Reusable buffer holding the complete message, which is only valid for the
+   *     duration of the call.  Implementations must copy anything they need to retain.
+   */
+  void onCompleteFrame(byte opcode, boolean compressed, byte[] payload, int payloadLen);
 }
@@ -10,7 +10,6 @@
 package com.facebook.stetho.websocket;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -19,9 +18,13 @@ class ReadHandler {
   private final SimpleEndpoint mEndpoint;
 
   /**
-   * Used to build a larger payload over multiple frames.
+   * Used to build a larger payload over multiple frames.  Unfragmented messages, which is
+   * virtually everything Chrome sends, are delivered straight out of the frame's own buffer.
    */
-  private final ByteArrayOutputStream mCurrentPayload = new ByteArrayOutputStream();
+  private final PayloadBuffer mCurrentPayload = new PayloadBuffer();
+  private boolean mInFragmentedMessage;
+  private byte mFragmentedOpcode;
+  private boolean mFragmentedCompressed;
 
   public ReadHandler(InputStream bufferedInput, SimpleEndpoint endpoint) {
     mBufferedInput = new BufferedInputStream(bufferedInput, 1024);
@@ -38,11 +41,30 @@ class ReadHandler {
     Frame frame = new Frame();
     do {
       frame.readFrom(mBufferedInput);
-      mCurrentPayload.write(frame.payloadData, 0, (int)frame.payloadLen);
-      if (frame.fin) {
-        byte[] completePayload = mCurrentPayload.toByteArray();
-        readCallback.onCompleteFrame(frame.opcode, completePayload, completePayload.length);
-        mCurrentPayload.reset();
+      int len = (int) frame.payloadLen;
+      boolean isControlFrame = (frame.opcode & 0x8) != 0;
+      if (isControlFrame || (frame.fin && !mInFragmentedMessage)) {
+        readCallback.onCompleteFrame(frame.opcode, frame.rsv1, frame.payloadData, len);
+      } else {
+        if (!mInFragmentedMessage) {
+          mInFragmentedMessage = true;
+          mFragmentedOpcode = frame.opcode;
+          mFragmentedCompressed = frame.rsv1;
+          mCurrentPayload.reset();
+        }
+        if (mCurrentPayload.length() + len > Frame.MAX_PAYLOAD_SIZE) {
+          throw new IOException("Fragmented message too large");
+        }
+        mCurrentPayload.append(frame.payloadData, 0, len);
+        if (frame.fin) {
+          mInFragmentedMessage = false;
+          readCallback.onCompleteFrame(
+              mFragmentedOpcode,
+              mFragmentedCompressed,
+              mCurrentPayload.data(),
+              mCurrentPayload.length());
+          mCurrentPayload.reset();
+        }
       }
     } while (frame.opcode != Frame.OPCODE_CONNECTION_CLOSE);
   }
@@ -9,6 +9,8 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+
 /**
  * Alternative to JSR-356's Session class but with a less insane J2EE-style API.
  */
@@ -16,6 +18,32 @@ public interface SimpleSession {
   void sendText(String payload);
   void sendBinary(byte[] payload);
 
+  /**
+   * Send a text message which the caller has already encoded as UTF-8, avoiding an
+   * intermediate {@link String}.  The session takes ownership of {@code payload}, of which
+   * only the first {@code payloadLen} bytes are sent.
+   */
+  void sendText(byte[] payload, int payloadLen);
+
+  /**
+   * Send a message which may be discarded if the peer is not keeping up, or replaced by a
+   * later message sent with an equal {@code coalesceKey}, according to the session's
+   * {@link WriteQueueConfig}.  Intended for high-frequency notifications which the peer can
+   * do without.
+   *
+   * @param coalesceKey Identifies messages which supersede one another, or null if the
+   *     message can only be dropped.
+   * @return False if the message was discarded straight away.  A message which was queued
+   *     may still be replaced by a later one with the same {@code coalesceKey}.
+   */
+  boolean sendLowPriorityText(String payload, @Nullable Object coalesceKey);
+
+  /**
+   * Pre-encoded variant of {@link #sendLowPriorityText(String, Object)}, with the same
+   * ownership rules as {@link #sendText(byte[], int)}.
+   */
+  boolean sendLowPriorityText(byte[] payload, int payloadLen, @Nullable Object coalesceKey);
+
   /**
    * Request that the session be closed.
    *
@@ -25,4 +53,11 @@ public interface SimpleSession {
   void close(int closeReason, String reasonPhrase);
 
   boolean isOpen();
+
+  /**
+   * @return Live {@code permessage-deflate} counters for this session, or null if the peer
+   *     did not negotiate compression.
+   */
+  @Nullable
+  CompressionStats getCompressionStats();
 }
@@ -11,6 +11,9 @@ package com.facebook.stetho.websocket;
 
 import android.util.Base64;
 import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.server.EventLoopConnection;
+import com.facebook.stetho.server.EventLoopHandler;
+import com.facebook.stetho.server.http.EventLoopHttpHandler;
 import com.facebook.stetho.server.http.HttpHandler;
 import com.facebook.stetho.server.http.HttpStatus;
 import com.facebook.stetho.server.SocketLike;
@@ -38,14 +41,19 @@ import java.security.NoSuchAlgorithmException;
  * remaining buffered input stream bytes from the socket and stitch them together with the
  * raw sockets input stream and pass everything onto the WebSocket engine which blocks
  * until WebSocket orderly shutdown.
+ * <p>
+ * When the connection is instead driven by an event loop, the upgrade hands the connection
+ * to an {@link EventLoopReadHandler} and returns immediately so that no thread is held for the
+ * lifetime of the session.
  */
-public class WebSocketHandler implements HttpHandler {
+public class WebSocketHandler implements EventLoopHttpHandler {
   private static final String HEADER_UPGRADE = "Upgrade";
   private static final String HEADER_CONNECTION = "Connection";
   private static final String HEADER_SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
   private static final String HEADER_SEC_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
   private static final String HEADER_SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
   private static final String HEADER_SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+  private static final String HEADER_SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
 
   private static final String HEADER_UPGRADE_WEBSOCKET = "websocket";
   private static final String HEADER_CONNECTION_UPGRADE = "Upgrade";
@@ -59,9 +67,24 @@ public class WebSocketHandler implements HttpHandler {
   private static final String SERVER_KEY_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 
   private final SimpleEndpoint mEndpoint;
+  private final WriteQueueConfig mWriteQueueConfig;
+  private final CompressionConfig mCompressionConfig;
 
   public WebSocketHandler(SimpleEndpoint endpoint) {
+    this(endpoint, WriteQueueConfig.createDefault(), CompressionConfig.createDefault());
+  }
+
+  public WebSocketHandler(SimpleEndpoint endpoint, WriteQueueConfig writeQueueConfig) {
+    this(endpoint, writeQueueConfig, CompressionConfig.createDefault());
+  }
+
+  public WebSocketHandler(
+      SimpleEndpoint endpoint,
+      WriteQueueConfig writeQueueConfig,
+      CompressionConfig compressionConfig) {
     mEndpoint = endpoint;
+    mWriteQueueConfig = writeQueueConfig;
+    mCompressionConfig = compressionConfig;
   }
 
   @Override
@@ -70,11 +93,7 @@ public class WebSocketHandler implements HttpHandler {
       LightHttpRequest request,
       LightHttpResponse response) throws IOException {
     if (!isSupportableUpgradeRequest(request)) {
-      response.code = HttpStatus.HTTP_NOT_IMPLEMENTED;
-      response.reasonPhrase = "Not Implemented";
-      response.body = LightHttpBody.create(
-          "Not a supported WebSocket upgrade request\n",
-          "text/plain");
+      setNotImplemented(response);
       return true;
     }
 
@@ -84,6 +103,36 @@ public class WebSocketHandler implements HttpHandler {
     return false;
   }
 
+  @Nullable
+  @Override
+  public EventLoopHandler handleEventLoopRequest(
+      EventLoopConnection connection,
+      LightHttpRequest request,
+      LightHttpResponse response) throws IOException {
+    if (!isSupportableUpgradeRequest(request)) {
+      setNotImplemented(response);
+      return null;
+    }
+
+    PerMessageDeflate deflate = prepareUpgradeResponse(request, response);
+    OutputStream out = connection.getOutput();
+    LightHttpServer.writeResponseMessage(
+        response,
+        new LightHttpServer.HttpMessageWriter(new BufferedOutputStream(out)));
+
+    WebSocketSession session = new WebSocketSession(out, mEndpoint, mWriteQueueConfig, deflate);
+    session.markAndSignalOpen();
+    return new EventLoopReadHandler(session);
+  }
+
+  private static void setNotImplemented(LightHttpResponse response) {
+    response.code = HttpStatus.HTTP_NOT_IMPLEMENTED;
+    response.reasonPhrase = "Not Implemented";
+    response.body = LightHttpBody.create(
+        "Not a supported WebSocket upgrade request\n",
+        "text/plain");
+  }
+
   private static boolean isSupportableUpgradeRequest(LightHttpRequest request) {
     return HEADER_UPGRADE_WEBSOCKET.equalsIgnoreCase(getFirstHeaderValue(request, HEADER_UPGRADE)) &&
         HEADER_CONNECTION_UPGRADE.equals(getFirstHeaderValue(request, HEADER_CONNECTION)) &&
@@ -96,6 +145,30 @@ public class WebSocketHandler implements HttpHandler {
       LightHttpRequest request,
       LightHttpResponse response)
       throws IOException {
+    PerMessageDeflate deflate = prepareUpgradeResponse(request, response);
+
+    InputStream in = socketLike.getInput();
+    OutputStream out = socketLike.getOutput();
+    LightHttpServer.writeResponseMessage(
+        response,
+        new LightHttpServer.HttpMessageWriter(new BufferedOutputStream(out)));
+
+    WebSocketSession session = new WebSocketSession(
+        in,
+        out,
+        mEndpoint,
+        mWriteQueueConfig,
+        deflate);
+    session.handle();
+  }
+
+  /**
+   * @return The negotiated compression extension, if any.
+   */
+  @Nullable
+  private PerMessageDeflate prepareUpgradeResponse(
+      LightHttpRequest request,
+      LightHttpResponse response) {
     response.code = HttpStatus.HTTP_SWITCHING_PROTOCOLS;
     response.reasonPhrase = "Switching Protocols";
     response.addHeader(HEADER_UPGRADE, HEADER_UPGRADE_WEBSOCKET);
@@ -107,14 +180,13 @@ public class WebSocketHandler implements HttpHandler {
       response.addHeader(HEADER_SEC_WEBSOCKET_ACCEPT, generateServerKey(clientKey));
     }
 
-    InputStream in = socketLike.getInput();
-    OutputStream out = socketLike.getOutput();
-    LightHttpServer.writeResponseMessage(
-        response,
-        new LightHttpServer.HttpMessageWriter(new BufferedOutputStream(out)));
-
-    WebSocketSession session = new WebSocketSession(in, out, mEndpoint);
-    session.handle();
+    PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+        getFirstHeaderValue(request, HEADER_SEC_WEBSOCKET_EXTENSIONS),
+        mCompressionConfig);
+    if (deflate != null) {
+      response.addHeader(HEADER_SEC_WEBSOCKET_EXTENSIONS, deflate.getResponseHeaderValue());
+    }
+    return deflate;
   }
 
   private static String generateServerKey(String clientKey) {
@@ -9,21 +9,36 @@
 
 package com.facebook.stetho.websocket;
 
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Utf8Charset;
+
+import javax.annotation.Nullable;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Binding driver between raw socket I/O and a high-level WebSocket interface.  This implementation
- * is generally very weak and doesn't offer sensible optimizations such as re-used buffers,
- * efficient UTF-8 encoding/decoding, or the full spectrum of features defined in the RFC.
+ * Binding driver between raw socket I/O and a high-level WebSocket interface.  Inbound payloads
+ * are read into re-used buffers, but this implementation is otherwise fairly weak and doesn't
+ * offer efficient UTF-8 encoding/decoding or the full spectrum of features defined in the RFC.
  */
 class WebSocketSession implements SimpleSession {
-  private final ReadHandler mReadHandler;
+  /**
+   * How long {@link #handle()} waits for queued output before letting the socket be closed
+   * under a peer that has stopped reading.
+   */
+  private static final long FLUSH_TIMEOUT_MS = 5000;
+
+  @Nullable private final ReadHandler mReadHandler;
   private final WriteHandler mWriteHandler;
   private final SimpleEndpoint mEndpoint;
+  @Nullable private final PerMessageDeflate mDeflate;
 
   private AtomicBoolean mIsOpen = new AtomicBoolean(false);
   private volatile boolean mSentClose;
@@ -31,13 +46,49 @@ class WebSocketSession implements SimpleSession {
   public WebSocketSession(
       InputStream rawSocketInput,
       OutputStream rawSocketOutput,
-      SimpleEndpoint endpoint) {
-    mReadHandler = new ReadHandler(rawSocketInput, endpoint);
-    mWriteHandler = new WriteHandler(rawSocketOutput);
+      SimpleEndpoint endpoint,
+      WriteQueueConfig writeQueueConfig,
+      @Nullable PerMessageDeflate deflate) {
+    this(
+        new ReadHandler(rawSocketInput, endpoint),
+        rawSocketOutput,
+        endpoint,
+        writeQueueConfig,
+        deflate);
+  }
+
+  /**
+   * Construct a session whose input is fed to {@link #getReadCallback()} by an
+   * {@link EventLoopReadHandler} rather than by a blocking {@link #handle()} loop.
+   */
+  public WebSocketSession(
+      OutputStream rawSocketOutput,
+      SimpleEndpoint endpoint,
+      WriteQueueConfig writeQueueConfig,
+      @Nullable PerMessageDeflate deflate) {
+    this((ReadHandler) null, rawSocketOutput, endpoint, writeQueueConfig, deflate);
+  }
+
+  private WebSocketSession(
+      @Nullable ReadHandler readHandler,
+      OutputStream rawSocketOutput,
+      SimpleEndpoint endpoint,
+      WriteQueueConfig writeQueueConfig,
+      @Nullable PerMessageDeflate deflate) {
+    mReadHandler = readHandler;
+    mWriteHandler = new WriteHandler(
+        rawSocketOutput,
+        writeQueueConfig,
+        mOverflowListener,
+        deflate);
     mEndpoint = endpoint;
+    mDeflate = deflate;
   }
 
   public void handle() throws IOException {
+    if (mReadHandler == null) {
+      throw new IllegalStateException("Session input is not driven by a blocking read loop");
+    }
     markAndSignalOpen();
 
     // Loop until orderly shutdown or socket exception.
@@ -51,6 +102,35 @@ class WebSocketSession implements SimpleSession {
       markAndSignalClosed(CloseCodes.CLOSED_ABNORMALLY, null /* reasonPhrase */);
       throw e;
     }
+
+    // Our caller closes the socket as soon as we return, which would otherwise race the
+    // writer for the close acknowledgement and anything queued ahead of it.
+    awaitFlush();
+  }
+
+  private void awaitFlush() {
+    final CountDownLatch flushed = new CountDownLatch(1);
+    closeAfterFlush(new Runnable() {
+      @Override
+      public void run() {
+        flushed.countDown();
+      }
+    });
+    try {
+      if (!flushed.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        LogUtil.w("Timed out flushing WebSocket output, closing anyway");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Run {@code onFlushed} once everything sent so far has been written, at which point the
+   * underlying connection can be closed.
+   */
+  void closeAfterFlush(Runnable onFlushed) {
+    mWriteHandler.closeAfterFlush(onFlushed);
   }
 
   @Override
@@ -63,6 +143,31 @@ class WebSocketSession implements SimpleSession {
     doWrite(FrameHelper.createBinaryFrame(payload));
   }
 
+  @Override
+  public void sendText(byte[] payload, int payloadLen) {
+    doWrite(FrameHelper.createTextFrame(payload, payloadLen));
+  }
+
+  @Override
+  public boolean sendLowPriorityText(String payload, @Nullable Object coalesceKey) {
+    return writeLowPriority(FrameHelper.createTextFrame(payload), coalesceKey);
+  }
+
+  @Override
+  public boolean sendLowPriorityText(
+      byte[] payload,
+      int payloadLen,
+      @Nullable Object coalesceKey) {
+    return writeLowPriority(FrameHelper.createTextFrame(payload, payloadLen), coalesceKey);
+  }
+
+  private boolean writeLowPriority(Frame frame, @Nullable Object coalesceKey) {
+    if (signalErrorIfNotOpen()) {
+      return false;
+    }
+    return mWriteHandler.writeLowPriority(frame, coalesceKey, mErrorForwardingWriteCallback);
+  }
+
   @Override
   public void close(int closeReason, String reasonPhrase) {
     sendClose(closeReason, reasonPhrase);
@@ -86,15 +191,29 @@ class WebSocketSession implements SimpleSession {
 
   void markAndSignalClosed(int closeReason, String reasonPhrase) {
     if (mIsOpen.getAndSet(false)) {
+      if (mDeflate != null) {
+        LogUtil.d("WebSocket session closed, compression: %s", mDeflate.getStats());
+        mDeflate.release();
+      }
       mEndpoint.onClose(this /* session */, closeReason, reasonPhrase);
     }
   }
 
+  @Nullable
+  @Override
+  public CompressionStats getCompressionStats() {
+    return mDeflate != null ? mDeflate.getStats() : null;
+  }
+
   @Override
   public boolean isOpen() {
     return mIsOpen.get();
   }
 
+  ReadCallback getReadCallback() {
+    return mReadCallback;
+  }
+
   private void doWrite(Frame frame) {
     if (signalErrorIfNotOpen()) {
       return;
@@ -121,7 +240,30 @@ class WebSocketSession implements SimpleSession {
 
   private final ReadCallback mReadCallback = new ReadCallback() {
     @Override
-    public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+    public void onCompleteFrame(
+        byte opcode,
+        boolean compressed,
+        byte[] payload,
+        int payloadLen) {
+      if (compressed) {
+        boolean isControlFrame = (opcode & 0x8) != 0;
+        if (mDeflate == null || isControlFrame) {
+          signalError(new IOException("Unexpected RSV1 bit, opcode=" + opcode));
+          close(CloseCodes.PROTOCOL_ERROR, "Unexpected RSV1 bit");
+          return;
+        }
+        PayloadBuffer decompressed;
+        try {
+          decompressed = mDeflate.decompress(payload, payloadLen);
+        } catch (IOException e) {
+          signalError(e);
+          close(CloseCodes.PROTOCOL_ERROR, "Invalid compressed message");
+          return;
+        }
+        payload = decompressed.data();
+        payloadLen = decompressed.length();
+      }
+
       switch (opcode) {
         case Frame.OPCODE_CONNECTION_CLOSE:
           handleClose(payload, payloadLen);
@@ -165,7 +307,8 @@ class WebSocketSession implements SimpleSession {
     }
 
     private void handlePing(byte[] payload, int payloadLen) {
-      doWrite(FrameHelper.createPongFrame(payload, payloadLen));
+      // The payload buffer is reused once we return, so the pong must not refer to it.
+      doWrite(FrameHelper.createPongFrame(Arrays.copyOf(payload, payloadLen), payloadLen));
     }
 
     private void handlePong(byte[] payload, int payloadLen) {
@@ -173,7 +316,9 @@ class WebSocketSession implements SimpleSession {
     }
 
     private void handleTextFrame(byte[] payload, int payloadLen) {
-      mEndpoint.onMessage(WebSocketSession.this, new String(payload, 0, payloadLen));
+      mEndpoint.onMessage(
+          WebSocketSession.this,
+          new String(payload, 0, payloadLen, Utf8Charset.INSTANCE));
     }
 
     private void handleBinaryFrame(byte[] payload, int payloadLen) {
@@ -181,6 +326,16 @@ class WebSocketSession implements SimpleSession {
     }
   };
 
+  private final WriteHandler.OverflowListener mOverflowListener =
+      new WriteHandler.OverflowListener() {
+    @Override
+    public void onOverflow() {
+      if (isOpen()) {
+        close(CloseCodes.UNEXPECTED_CONDITION, "Peer is not keeping up");
+      }
+    }
+  };
+
   private final WriteCallback mErrorForwardingWriteCallback = new WriteCallback() {
     @Override
     public void onFailure(IOException e) {
@@ -9,27 +9,377 @@
 
 package com.facebook.stetho.websocket;
 
+import com.facebook.stetho.common.LogUtil;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Outbound half of a session.  Frames are queued by the sending thread, which returns
+ * immediately, and written by at most one writer at a time which packs everything queued into
+ * a single flush.  See {@link WriteQueueConfig} for how a slow peer is handled.
+ */
 @ThreadSafe
 class WriteHandler {
+  private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Rough per-frame overhead (maximum header size) used when accounting queued bytes.
+   */
+  private static final int FRAME_OVERHEAD_BYTES = 10;
+
+  private static final String WRITER_THREAD_NAME = "StethoWebSocketWriter";
+  private static final int WRITER_IDLE_TIMEOUT_MS = 30000;
+
+  /**
+   * Shared by all sessions; a writer thread is only held while some session has output
+   * queued.
+   */
+  private static final Executor sWriterExecutor = new ThreadPoolExecutor(
+      0,
+      Integer.MAX_VALUE,
+      WRITER_IDLE_TIMEOUT_MS,
+      TimeUnit.MILLISECONDS,
+      new SynchronousQueue<Runnable>(),
+      new WriterThreadFactory());
+
+  interface OverflowListener {
+    /**
+     * Invoked on the sending thread after the queue was discarded because the peer exceeded
+     * the high watermark under {@link WriteQueueConfig.OverflowPolicy#DISCONNECT}.
+     */
+    void onOverflow();
+  }
+
+  // Only touched by the active writer.
   private final BufferedOutputStream mBufferedOutput;
+  private final ArrayList<QueuedFrame> mBatch = new ArrayList<>();
+
+  private final WriteQueueConfig mConfig;
+  private final OverflowListener mOverflowListener;
+  @Nullable private final PerMessageDeflate mDeflate;
+
+  @GuardedBy("this")
+  private final ArrayDeque<QueuedFrame> mQueue = new ArrayDeque<>();
+
+  /**
+   * Low priority frames still in {@link #mQueue}, by coalescing key.
+   */
+  @GuardedBy("this")
+  private final HashMap<Object, QueuedFrame> mCoalescableFrames = new HashMap<>();
+
+  /**
+   * Bytes queued or currently being written.
+   */
+  @GuardedBy("this")
+  private long mQueuedBytes;
+
+  @GuardedBy("this")
+  private boolean mCongested;
+
+  @GuardedBy("this")
+  private boolean mWriterScheduled;
+
+  /**
+   * Waiting for the queue to drain, see {@link #closeAfterFlush}.
+   */
+  @GuardedBy("this")
+  private final ArrayList<Runnable> mFlushListeners = new ArrayList<>();
+
+  public WriteHandler(
+      OutputStream rawSocketOutput,
+      WriteQueueConfig config,
+      OverflowListener overflowListener,
+      @Nullable PerMessageDeflate deflate) {
+    mBufferedOutput = new BufferedOutputStream(rawSocketOutput, OUTPUT_BUFFER_SIZE);
+    mConfig = config;
+    mOverflowListener = overflowListener;
+    mDeflate = deflate;
+  }
+
+  /**
+   * Queue a frame which is always delivered (unless the session is disconnected for being
+   * too slow).  Never blocks on I/O; {@code callback} is invoked from the writer.
+   */
+  public void write(Frame frame, WriteCallback callback) {
+    ArrayList<QueuedFrame> discarded;
+    synchronized (this) {
+      enqueueLocked(new QueuedFrame(frame, null /* coalesceKey */, callback));
+      discarded = checkHighWatermarkLocked();
+    }
+    if (discarded != null) {
+      handleOverflow(discarded);
+    }
+  }
+
+  /**
+   * Queue a frame which may be discarded, or replaced by a later frame with an equal
+   * {@code coalesceKey}, while the peer is congested.
+   *
+   * @return False if the frame was discarded; {@code callback} is not invoked in that case.
+   */
+  public boolean writeLowPriority(
+      Frame frame,
+      @Nullable Object coalesceKey,
+      WriteCallback callback) {
+    ArrayList<QueuedFrame> discarded;
+    synchronized (this) {
+      if (mCongested) {
+        if (mConfig.overflowPolicy == WriteQueueConfig.OverflowPolicy.COALESCE_LOW_PRIORITY &&
+            coalesceKey != null) {
+          QueuedFrame existing = mCoalescableFrames.get(coalesceKey);
+          if (existing != null) {
+            mQueuedBytes += sizeOf(frame) - sizeOf(existing.frame);
+            existing.frame = frame;
+            existing.callback = callback;
+            return true;
+          }
+        }
+        return false;
+      }
+
+      QueuedFrame queued = new QueuedFrame(frame, coalesceKey, callback);
+      if (coalesceKey != null) {
+        mCoalescableFrames.put(coalesceKey, queued);
+      }
+      enqueueLocked(queued);
+      discarded = checkHighWatermarkLocked();
+    }
+    if (discarded != null) {
+      handleOverflow(discarded);
+    }
+    return true;
+  }
+
+  /**
+   * Run {@code onFlushed} once everything queued so far has been written (or has failed), so
+   * that the socket can be closed without losing the close frame or any responses ahead of it.
+   * {@code onFlushed} runs on the writer, or immediately on the calling thread if nothing is
+   * queued.
+   */
+  public void closeAfterFlush(Runnable onFlushed) {
+    synchronized (this) {
+      if (mWriterScheduled) {
+        mFlushListeners.add(onFlushed);
+        return;
+      }
+    }
+    runFlushListener(onFlushed);
+  }
 
-  public WriteHandler(OutputStream rawSocketOutput) {
-    mBufferedOutput = new BufferedOutputStream(rawSocketOutput, 1024);
+  @GuardedBy("this")
+  private void enqueueLocked(QueuedFrame queued) {
+    mQueue.addLast(queued);
+    mQueuedBytes += sizeOf(queued.frame);
+    if (!mWriterScheduled) {
+      mWriterScheduled = true;
+      sWriterExecutor.execute(mWriterRunnable);
+    }
   }
 
-  public synchronized void write(Frame frame, WriteCallback callback) {
+  /**
+   * @return The frames which were discarded because the queue overflowed, or null if it didn't.
+   */
+  @GuardedBy("this")
+  @Nullable
+  private ArrayList<QueuedFrame> checkHighWatermarkLocked() {
+    if (mQueuedBytes <= mConfig.highWatermarkBytes) {
+      return null;
+    }
+    if (mConfig.overflowPolicy == WriteQueueConfig.OverflowPolicy.DISCONNECT) {
+      ArrayList<QueuedFrame> discarded = new ArrayList<>(mQueue);
+      for (QueuedFrame queued : mQueue) {
+        mQueuedBytes -= sizeOf(queued.frame);
+      }
+      mQueue.clear();
+      mCoalescableFrames.clear();
+      return discarded;
+    }
+    mCongested = true;
+    return null;
+  }
+
+  /**
+   * Invoked on the sending thread, without holding our lock, once the queue has overflowed.
+   */
+  private void handleOverflow(ArrayList<QueuedFrame> discarded) {
+    IOException e = new IOException("Peer is not keeping up, discarded queued frames");
+    for (int i = 0, N = discarded.size(); i < N; i++) {
+      notifyCallback(discarded.get(i).callback, e);
+    }
+    mOverflowListener.onOverflow();
+  }
+
+  private void drainQueue() {
+    // Taken in the same critical section that gives up the writer: once that happens another
+    // writer may be scheduled, and any listener added after that point is its to run.
+    List<Runnable> flushListeners = null;
+    try {
+      while (true) {
+        long batchBytes = 0;
+        synchronized (this) {
+          if (mQueue.isEmpty()) {
+            flushListeners = releaseWriterLocked();
+            return;
+          }
+          QueuedFrame queued;
+          while ((queued = mQueue.pollFirst()) != null) {
+            if (queued.coalesceKey != null &&
+                mCoalescableFrames.get(queued.coalesceKey) == queued) {
+              mCoalescableFrames.remove(queued.coalesceKey);
+            }
+            mBatch.add(queued);
+            batchBytes += sizeOf(queued.frame);
+          }
+        }
+
+        try {
+          writeBatch();
+        } finally {
+          synchronized (this) {
+            mQueuedBytes -= batchBytes;
+            if (mCongested && mQueuedBytes <= mConfig.lowWatermarkBytes) {
+              mCongested = false;
+            }
+          }
+        }
+      }
+    } finally {
+      if (flushListeners == null) {
+        // Something went badly wrong, but the next frame queued should still get a writer.
+        // This must not happen once we've given up the writer above, as another may since
+        // have been scheduled.
+        synchronized (this) {
+          flushListeners = releaseWriterLocked();
+        }
+      }
+      notifyFlushListeners(flushListeners);
+    }
+  }
+
+  /**
+   * Gives up the writer and takes the flush listeners that were waiting on it.
+   */
+  @GuardedBy("this")
+  private List<Runnable> releaseWriterLocked() {
+    mWriterScheduled = false;
+    if (mFlushListeners.isEmpty()) {
+      return Collections.emptyList();
+    }
+    ArrayList<Runnable> listeners = new ArrayList<>(mFlushListeners);
+    mFlushListeners.clear();
+    return listeners;
+  }
+
+  /**
+   * Invoked by the writer, without holding our lock, after giving up the writer.  Listeners
+   * are run even if the writer failed so that a closing session can't be left open forever.
+   */
+  private static void notifyFlushListeners(List<Runnable> listeners) {
+    for (int i = 0, N = listeners.size(); i < N; i++) {
+      runFlushListener(listeners.get(i));
+    }
+  }
+
+  private static void runFlushListener(Runnable onFlushed) {
     try {
-      frame.writeTo(mBufferedOutput);
+      onFlushed.run();
+    } catch (RuntimeException e) {
+      LogUtil.e(e, "WebSocket flush listener failed");
+    }
+  }
+
+  private void writeBatch() {
+    IOException failure = null;
+    try {
+      for (int i = 0, N = mBatch.size(); i < N; i++) {
+        Frame frame = mBatch.get(i).frame;
+        if (mDeflate != null) {
+          // Compression happens here rather than on the sending thread so that it stays off
+          // the app's threads and frames are compressed in the order they are sent, as
+          // context takeover requires.
+          mDeflate.compress(frame);
+        }
+        frame.writeTo(mBufferedOutput);
+      }
       mBufferedOutput.flush();
-      callback.onSuccess();
     } catch (IOException e) {
-      callback.onFailure(e);
+      failure = e;
+    } catch (RuntimeException e) {
+      // We're on a pool thread, where an uncaught exception would take down the app.  The
+      // batch is lost either way, so report it like any other write error.
+      failure = new IOException(e);
+    }
+
+    try {
+      for (int i = 0, N = mBatch.size(); i < N; i++) {
+        notifyCallback(mBatch.get(i).callback, failure);
+      }
+    } finally {
+      mBatch.clear();
+    }
+  }
+
+  private static void notifyCallback(WriteCallback callback, @Nullable IOException failure) {
+    try {
+      if (failure == null) {
+        callback.onSuccess();
+      } else {
+        callback.onFailure(failure);
+      }
+    } catch (RuntimeException e) {
+      LogUtil.e(e, "WebSocket write callback failed");
+    }
+  }
+
+  private static long sizeOf(Frame frame) {
+    return frame.payloadLen + FRAME_OVERHEAD_BYTES;
+  }
+
+  private final Runnable mWriterRunnable = new Runnable() {
+    @Override
+    public void run() {
+      drainQueue();
+    }
+  };
+
+  private static class QueuedFrame {
+    public Frame frame;
+    @Nullable public final Object coalesceKey;
+    public WriteCallback callback;
+
+    public QueuedFrame(Frame frame, @Nullable Object coalesceKey, WriteCallback callback) {
+      this.frame = frame;
+      this.coalesceKey = coalesceKey;
+      this.callback = callback;
+    }
+  }
+
+  private static class WriterThreadFactory implements ThreadFactory {
+    private final AtomicInteger mThreadId = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName(WRITER_THREAD_NAME + "-" + mThreadId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
     }
   }
 }
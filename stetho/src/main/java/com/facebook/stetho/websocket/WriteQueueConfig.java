@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+/**
+ * Controls the outbound queue of each {@link SimpleSession}.  Messages are queued by the
+ * sending thread and written by a single writer which packs as many queued frames as it can
+ * into each flush, so senders never block on socket I/O.
+ * <p />
+ * Once more than {@link #highWatermarkBytes} are queued the peer is considered congested and
+ * {@link #overflowPolicy} applies to low priority messages (see
+ * {@link SimpleSession#sendLowPriorityText}) until the writer has drained the queue below
+ * {@link #lowWatermarkBytes}.  Ordinary messages are always queued.
+ */
+public final class WriteQueueConfig {
+  public static final int DEFAULT_HIGH_WATERMARK_BYTES = 1024 * 1024;
+  public static final int DEFAULT_LOW_WATERMARK_BYTES = 256 * 1024;
+
+  public enum OverflowPolicy {
+    /**
+     * Discard low priority messages while congested.
+     */
+    DROP_LOW_PRIORITY,
+
+    /**
+     * Let a low priority message replace a still queued message with the same coalescing key,
+     * discarding it if there is nothing to replace.
+     */
+    COALESCE_LOW_PRIORITY,
+
+    /**
+     * Give up on the peer: discard everything queued and close the session.
+     */
+    DISCONNECT,
+  }
+
+  public final int highWatermarkBytes;
+  public final int lowWatermarkBytes;
+  public final OverflowPolicy overflowPolicy;
+
+  public WriteQueueConfig(
+      int highWatermarkBytes,
+      int lowWatermarkBytes,
+      OverflowPolicy overflowPolicy) {
+    if (highWatermarkBytes <= 0) {
+      throw new IllegalArgumentException(
+          "highWatermarkBytes must be positive: " + highWatermarkBytes);
+    }
+    if (lowWatermarkBytes < 0 || lowWatermarkBytes > highWatermarkBytes) {
+      throw new IllegalArgumentException(
+          "lowWatermarkBytes must be between 0 and highWatermarkBytes: " + lowWatermarkBytes);
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy must not be null");
+    }
+    this.highWatermarkBytes = highWatermarkBytes;
+    this.lowWatermarkBytes = lowWatermarkBytes;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  public static WriteQueueConfig createDefault() {
+    return new WriteQueueConfig(
+        DEFAULT_HIGH_WATERMARK_BYTES,
+        DEFAULT_LOW_WATERMARK_BYTES,
+        OverflowPolicy.DROP_LOW_PRIORITY);
+  }
+
+  @Override
+  public String toString() {
+    return "WriteQueueConfig{highWatermarkBytes=" + highWatermarkBytes +
+        ", lowWatermarkBytes=" + lowWatermarkBytes +
+        ", overflowPolicy=" + overflowPolicy + "}";
+  }
+}
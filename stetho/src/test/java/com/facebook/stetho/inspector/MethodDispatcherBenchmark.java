@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.annotation.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.ObjectMapper;
+
+import org.json.JSONObject;
+
+/**
+ * Measures {@link MethodDispatcher} both for the first request on a connection, which pays for
+ * building the dispatch table, and in steady state from several peers at once.  The legacy
+ * baseline reproduces the previous lookup under a lock with an unprepared {@link Method}.  Both
+ * call the method through {@link Method#invoke}, so only lookup and invocation overhead differ.
+ * <p />
+ * Run {@link #main} from the IDE with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodDispatcherBenchmark {
+  private static final String METHOD_NAME = "BenchmarkDomain.getState";
+
+  private final Iterable<ChromeDevtoolsDomain> mDomains =
+      Arrays.<ChromeDevtoolsDomain>asList(new BenchmarkDomain(), new OtherBenchmarkDomain());
+  private final ObjectMapper mObjectMapper = new ObjectMapper();
+  private final MethodDispatcher mDispatcher = createWarmDispatcher();
+  private final LegacyDispatcher mLegacyDispatcher = new LegacyDispatcher(mDomains);
+  private final ResultHolder mResultHolder = new ResultHolder();
+
+  @Benchmark
+  public void firstDispatch() {
+    new MethodDispatcher(mObjectMapper, mDomains).dispatch(
+        null /* peer */,
+        METHOD_NAME,
+        null /* params */,
+        mResultHolder);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void dispatch(Blackhole bh) {
+    ResultHolder holder = new ResultHolder();
+    mDispatcher.dispatch(null /* peer */, METHOD_NAME, null /* params */, holder);
+    bh.consume(holder.result);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void dispatchLegacy(Blackhole bh) throws Exception {
+    bh.consume(mLegacyDispatcher.dispatch(METHOD_NAME));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+        new OptionsBuilder()
+            .include(MethodDispatcherBenchmark.class.getSimpleName())
+            .build())
+        .run();
+  }
+
+  private MethodDispatcher createWarmDispatcher() {
+    MethodDispatcher dispatcher = new MethodDispatcher(mObjectMapper, mDomains);
+    dispatcher.dispatch(null /* peer */, METHOD_NAME, null /* params */, new ResultHolder());
+    return dispatcher;
+  }
+
+  private static class ResultHolder implements MethodDispatcher.DispatchCallback {
+    @Nullable JsonRpcResult result;
+
+    @Override
+    public void onSuccess(@Nullable JsonRpcResult result) {
+      this.result = result;
+    }
+
+    @Override
+    public void onFailure(JsonRpcException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static class LegacyDispatcher {
+    private final Iterable<ChromeDevtoolsDomain> mDomains;
+    private Map<String, Object[]> mMethods;
+
+    LegacyDispatcher(Iterable<ChromeDevtoolsDomain> domains) {
+      mDomains = domains;
+    }
+
+    synchronized Object[] find(String methodName) {
+      if (mMethods == null) {
+        mMethods = new HashMap<>();
+        for (ChromeDevtoolsDomain domain : mDomains) {
+          Class<?> domainClass = domain.getClass();
+          for (Method method : domainClass.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(ChromeDevtoolsMethod.class)) {
+              mMethods.put(
+                  domainClass.getSimpleName() + "." + method.getName(),
+                  new Object[] { domain, method });
+            }
+          }
+        }
+      }
+      return mMethods.get(methodName);
+    }
+
+    Object dispatch(String methodName) throws Exception {
+      Object[] entry = find(methodName);
+      return ((Method) entry[1]).invoke(entry[0], null, null);
+    }
+  }
+
+  public static class StateResult implements JsonRpcResult {
+    public int state;
+  }
+
+  public static class BenchmarkDomain implements ChromeDevtoolsDomain {
+    private final StateResult mResult = new StateResult();
+
+    @ChromeDevtoolsMethod
+    public void enable(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    @ChromeDevtoolsMethod
+    public void disable(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    @ChromeDevtoolsMethod
+    public JsonRpcResult getState(JsonRpcPeer peer, JSONObject params) {
+      return mResult;
+    }
+
+    @ChromeDevtoolsMethod
+    public void setState(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    @ChromeDevtoolsMethod
+    public void reset(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    public void notAMethod() {
+    }
+  }
+
+  public static class OtherBenchmarkDomain implements ChromeDevtoolsDomain {
+    @ChromeDevtoolsMethod
+    public void enable(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    @ChromeDevtoolsMethod
+    public void disable(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    @ChromeDevtoolsMethod(async = true)
+    public void doWork(JsonRpcPeer peer, JSONObject params) {
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.ObjectMapper;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class MethodDispatcherTest {
+  private static final long TIMEOUT_MS = 5000;
+
+  /**
+   * Long enough that a call wrongly allowed to run would almost certainly have finished.
+   */
+  private static final long NOT_RUN_MS = 200;
+
+  private final Slow mSlow = new Slow();
+  private final MethodDispatcher mDispatcher = new MethodDispatcher(
+      new ObjectMapper(),
+      Collections.<ChromeDevtoolsDomain>singletonList(mSlow));
+
+  @After
+  public void tearDown() {
+    // Never leave a pool thread blocked should a test fail.
+    mSlow.release.countDown();
+  }
+
+  @Test
+  public void testAsyncMethodsInSameDomainCompleteInOrder() throws InterruptedException {
+    RecordingCallback blocking = dispatch("Slow.blocking");
+    RecordingCallback quick = dispatch("Slow.quickAsync");
+    assertTrue(mSlow.blockingStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+    // Queued behind the blocked call rather than run on another thread.
+    assertFalse(quick.await(NOT_RUN_MS));
+
+    mSlow.release.countDown();
+    assertTrue(blocking.await(TIMEOUT_MS));
+    assertTrue(quick.await(TIMEOUT_MS));
+    assertEquals(Arrays.asList("blocking", "quickAsync"), mSlow.completed);
+    assertNull(blocking.error);
+    assertNull(quick.error);
+  }
+
+  @Test
+  public void testSyncCallNotBlockedBehindSlowAsync() throws InterruptedException {
+    RecordingCallback blocking = dispatch("Slow.blocking");
+    assertTrue(mSlow.blockingStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+    RecordingCallback sync = dispatch("Slow.sync");
+    assertTrue(sync.await(0));
+    assertNull(sync.error);
+    assertFalse(blocking.await(0));
+
+    mSlow.release.countDown();
+    assertTrue(blocking.await(TIMEOUT_MS));
+    assertEquals(Arrays.asList("sync", "blocking"), mSlow.completed);
+  }
+
+  @Test
+  public void testAsyncRuntimeExceptionReportedAsInternalError() throws InterruptedException {
+    RecordingCallback callback = dispatch("Slow.throwing");
+    assertTrue(callback.await(TIMEOUT_MS));
+    assertEquals(JsonRpcError.ErrorCode.INTERNAL_ERROR, callback.error.code);
+    assertTrue(callback.error.message.contains("boom"));
+
+    // The domain's serial executor carries on with later calls.
+    RecordingCallback quick = dispatch("Slow.quickAsync");
+    assertTrue(quick.await(TIMEOUT_MS));
+    assertNull(quick.error);
+  }
+
+  @Test
+  public void testUnknownMethodReportedThroughCallback() throws InterruptedException {
+    RecordingCallback callback = dispatch("Slow.missing");
+    assertTrue(callback.await(0));
+    assertEquals(JsonRpcError.ErrorCode.METHOD_NOT_FOUND, callback.error.code);
+  }
+
+  private RecordingCallback dispatch(String methodName) {
+    RecordingCallback callback = new RecordingCallback();
+    mDispatcher.dispatch(null /* peer */, methodName, null /* params */, callback);
+    return callback;
+  }
+
+  private static class RecordingCallback implements MethodDispatcher.DispatchCallback {
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    @Nullable public volatile JsonRpcError error;
+
+    @Override
+    public void onSuccess(@Nullable JsonRpcResult result) {
+      mDone.countDown();
+    }
+
+    @Override
+    public void onFailure(JsonRpcException e) {
+      error = e.getErrorMessage();
+      mDone.countDown();
+    }
+
+    public boolean await(long timeoutMs) throws InterruptedException {
+      return mDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Named for the domain it implements, as with the real domains.
+   */
+  private static class Slow implements ChromeDevtoolsDomain {
+    public final CountDownLatch blockingStarted = new CountDownLatch(1);
+    public final CountDownLatch release = new CountDownLatch(1);
+    public final List<String> completed = new CopyOnWriteArrayList<>();
+
+    @ChromeDevtoolsMethod(async = true)
+    public void blocking(JsonRpcPeer peer, JSONObject params) throws InterruptedException {
+      blockingStarted.countDown();
+      release.await();
+      completed.add("blocking");
+    }
+
+    @ChromeDevtoolsMethod(async = true)
+    public void quickAsync(JsonRpcPeer peer, JSONObject params) {
+      completed.add("quickAsync");
+    }
+
+    @ChromeDevtoolsMethod(async = true)
+    public void throwing(JsonRpcPeer peer, JSONObject params) {
+      throw new IllegalStateException("boom");
+    }
+
+    @ChromeDevtoolsMethod
+    public void sync(JsonRpcPeer peer, JSONObject params) {
+      completed.add("sync");
+    }
+  }
+}
@@ -0,0 +1,738 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import android.os.Build;
+import com.facebook.stetho.common.Accumulator;
+import com.facebook.stetho.common.UncheckedCallable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link Document} updates through a fake {@link DocumentProvider} whose thread is the
+ * test's own, and checks that replaying the events that its listener is sent gives the tree as it
+ * really is.
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class DocumentTest {
+  /**
+   * Comfortably longer than {@link Document}'s budget for a slice of an update, so that walking
+   * an element that is this slow always makes the update yield before walking the next one.
+   */
+  private static final long SLOW_WALK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+  private final Element mRoot = new Element("root");
+  private final FakeDocumentProvider mProvider = new FakeDocumentProvider();
+  private final Document mDocument = new Document(mProvider);
+  private final ReplayingUpdateListener mListener = new ReplayingUpdateListener();
+
+  @Before
+  public void setUp() {
+    mDocument.addUpdateListener(mListener);
+  }
+
+  @After
+  public void tearDown() {
+    mDocument.release();
+  }
+
+  @Test
+  public void testSlicedUpdate() {
+    Element a = new Element("a").setSlow();
+    Element b = new Element("b");
+    mRoot.setChildren(a, b);
+    startDocument();
+
+    Element c = new Element("c");
+    b.setChildren(c);
+    startFullUpdate();
+
+    // root and a were walked before yielding, and b waits for the next slice.
+    assertEquals(1, mProvider.getPendingTaskCount());
+    assertFalse(mProvider.hasWalked(b));
+    assertEquals(Collections.<String>emptyList(), mListener.getEvents());
+
+    runPendingTasks();
+    assertEquals(Arrays.asList("insert c into b"), mListener.getEvents());
+    assertListenerMatchesTree();
+  }
+
+  @Test
+  public void testOldParentWalkedAgainAfterSlice() {
+    Element a = new Element("a");
+    Element b = new Element("b");
+    Element c = new Element("c");
+    Element s = new Element("s").setSlow();
+    Element x = new Element("x");
+    mRoot.setChildren(a, b);
+    a.setChildren(x, s);
+    b.setChildren(c);
+    startDocument();
+
+    startFullUpdate();
+    runSlicesUntilWalked(s);
+
+    // a has been walked already, and won't be again unless the update notices that c's walk
+    // took x from it.
+    a.setChildren(s);
+    c.setChildren(x);
+
+    runPendingTasks();
+    assertEquals(
+        Arrays.asList("remove x from a", "insert x into c"),
+        mListener.getEvents());
+    assertListenerMatchesTree();
+  }
+
+  @Test
+  public void testElementMovedUnderNewParentAfterSlice() {
+    Element a = new Element("a");
+    Element b = new Element("b");
+    Element c = new Element("c");
+    Element s = new Element("s").setSlow();
+    mRoot.setChildren(a, b);
+    a.setChildren(s);
+    b.setChildren(c);
+    startDocument();
+
+    Element y = new Element("y");
+    Element y1 = new Element("y1");
+    a.setChildren(y, s);
+    y.setChildren(y1);
+    startFullUpdate();
+    runSlicesUntilWalked(s);
+
+    // y has been recorded along with its child y1, ahead of the new parent that it now has.
+    Element p = new Element("p");
+    a.setChildren(s);
+    c.setChildren(p);
+    p.setChildren(y);
+
+    runPendingTasks();
+    assertEquals(Arrays.asList("insert p into c"), mListener.getEvents());
+    assertListenerMatchesTree();
+  }
+
+  @Test
+  public void testElementMovedIntoGarbageAfterSlice() {
+    Element a = new Element("a");
+    Element d = new Element("d");
+    Element e = new Element("e");
+    Element f = new Element("f");
+    Element g = new Element("g");
+    Element h = new Element("h");
+    Element s1 = new Element("s1").setSlow();
+    Element s2 = new Element("s2").setSlow();
+    Element x = new Element("x");
+    mRoot.setChildren(a, d);
+    a.setChildren(x, s1);
+    d.setChildren(e);
+    e.setChildren(g, s2, h, f);
+    startDocument();
+
+    startFullUpdate();
+    runSlicesUntilWalked(s1);
+    a.setChildren(s1);
+    g.setChildren(x);
+
+    runSlicesUntilWalked(s2);
+    // g is disconnected with x in it, and taking h from e gets e walked again to find that out.
+    e.setChildren(s2, f);
+    f.setChildren(h);
+
+    runPendingTasks();
+    assertTrue(mListener.getEvents().contains("remove x from a"));
+    assertListenerMatchesTree();
+  }
+
+  @Test
+  public void testRotatedChildrenMoveOneAtATime() {
+    Element p = new Element("p");
+    Element c0 = new Element("c0");
+    Element c1 = new Element("c1");
+    Element c2 = new Element("c2");
+    Element c3 = new Element("c3");
+    mRoot.setChildren(p);
+    p.setChildren(c0, c1, c2, c3);
+    startDocument();
+
+    assertEquals(
+        Arrays.asList("remove c0 from p", "insert c0 into p after c3"),
+        updateChildren(p, c1, c2, c3, c0));
+    assertEquals(
+        Arrays.asList("remove c0 from p", "insert c0 into p"),
+        updateChildren(p, c0, c1, c2, c3));
+  }
+
+  @Test
+  public void testSwappedChildren() {
+    Element p = new Element("p");
+    Element a = new Element("a");
+    Element b = new Element("b");
+    Element c = new Element("c");
+    Element d = new Element("d");
+    mRoot.setChildren(p);
+    p.setChildren(a, b, c, d);
+    startDocument();
+
+    assertEquals(
+        Arrays.asList("remove b from p", "insert b into p after c"),
+        updateChildren(p, a, c, b, d));
+    assertEquals(
+        Arrays.asList(
+            "remove b from p",
+            "remove a from p",
+            "insert a into p after d",
+            "insert b into p after a"),
+        updateChildren(p, c, d, a, b));
+  }
+
+  @Test
+  public void testReplacedChild() {
+    Element p = new Element("p");
+    Element a = new Element("a");
+    Element b = new Element("b");
+    Element c = new Element("c");
+    mRoot.setChildren(p);
+    p.setChildren(a, b, c);
+    startDocument();
+
+    // n's sub-tree goes along with it.
+    Element n = new Element("n").setChildren(new Element("n1"));
+    assertEquals(
+        Arrays.asList("remove b from p", "insert n into p after a"),
+        updateChildren(p, a, n, c));
+  }
+
+  @Test
+  public void testChildrenAddedToAndRemovedFromEmptyList() {
+    Element p = new Element("p");
+    Element a = new Element("a");
+    Element b = new Element("b");
+    mRoot.setChildren(p);
+    startDocument();
+
+    assertEquals(
+        Arrays.asList("insert a into p", "insert b into p after a"),
+        updateChildren(p, a, b));
+    assertEquals(
+        Arrays.asList("remove a from p", "remove b from p"),
+        updateChildren(p));
+  }
+
+  @Test
+  public void testAllChildrenNew() {
+    Element p = new Element("p");
+    Element a = new Element("a");
+    Element b = new Element("b");
+    Element c = new Element("c");
+    Element d = new Element("d");
+    mRoot.setChildren(p);
+    p.setChildren(a, b);
+    startDocument();
+
+    assertEquals(
+        Arrays.asList(
+            "remove a from p",
+            "remove b from p",
+            "insert c into p",
+            "insert d into p after c"),
+        updateChildren(p, c, d));
+  }
+
+  @Test
+  public void testGarbageElementsDroppedFromSearchTextCache() {
+    Element p = new Element("p");
+    Element a = new Element("a");
+    Element b = new Element("b");
+    Element b1 = new Element("b1");
+    mRoot.setChildren(p);
+    p.setChildren(a, b);
+    b.setChildren(b1);
+    startDocument();
+
+    assertEquals(
+        Arrays.asList(getNodeId(b), getNodeId(b1)),
+        mDocument.findMatchingElements("B"));
+
+    // b goes, and its sub-tree with it; n is indexed as it arrives.
+    Element n = new Element("n");
+    updateChildren(p, a, n);
+    assertEquals(Collections.<Integer>emptyList(), mDocument.findMatchingElements("b"));
+    assertEquals(Arrays.asList(getNodeId(n)), mDocument.findMatchingElements("n"));
+  }
+
+  @Test
+  public void testSearchResultsInDocumentOrder() {
+    Element p = new Element("vp");
+    Element a = new Element("va");
+    Element b = new Element("vb");
+    Element a1 = new Element("va1");
+    mRoot.setChildren(p);
+    p.setChildren(a, b);
+    a.setChildren(a1);
+    startDocument();
+
+    // Node IDs are handed out breadth-first, so a1's comes after b's.
+    assertEquals(
+        Arrays.asList(getNodeId(p), getNodeId(a), getNodeId(a1), getNodeId(b)),
+        mDocument.findMatchingElements("v"));
+
+    updateChildren(p, b, a);
+    assertEquals(
+        Arrays.asList(getNodeId(p), getNodeId(b), getNodeId(a), getNodeId(a1)),
+        mDocument.findMatchingElements("v"));
+  }
+
+  @Test
+  public void testFullUpdateRefreshesSearchText() {
+    Element p = new Element("p");
+    Element t = new Element("t").setText("before");
+    mRoot.setChildren(p);
+    p.setChildren(t);
+    startDocument();
+    assertEquals(Arrays.asList(getNodeId(t)), mDocument.findMatchingElements("before"));
+
+    // Nothing tells the document about this, as with many of a View's attributes.
+    t.setText("after");
+    assertEquals(Arrays.asList(getNodeId(t)), mDocument.findMatchingElements("before"));
+
+    startFullUpdate();
+    runPendingTasks();
+    assertEquals(Collections.<Integer>emptyList(), mDocument.findMatchingElements("before"));
+    assertEquals(Arrays.asList(getNodeId(t)), mDocument.findMatchingElements("after"));
+  }
+
+  private void startDocument() {
+    mDocument.addRef();
+    mListener.reset(mDocument.getDocumentView());
+    mProvider.clearWalkedElements();
+  }
+
+  private void startFullUpdate() {
+    mProvider.getListener().onPossiblyChanged();
+  }
+
+  /**
+   * @return The events for {@code element}'s children becoming {@code children}.
+   */
+  private List<String> updateChildren(Element element, Element... children) {
+    mListener.getEvents().clear();
+    element.setChildren(children);
+    mProvider.getListener().onChildrenPossiblyChanged(Collections.<Object>singletonList(element));
+    runPendingTasks();
+    assertListenerMatchesTree();
+    return mListener.getEvents();
+  }
+
+  private void runSlicesUntilWalked(Element element) {
+    while (!mProvider.hasWalked(element)) {
+      assertTrue(mProvider.runPendingTask());
+    }
+    assertEquals(1, mProvider.getPendingTaskCount());
+  }
+
+  private void runPendingTasks() {
+    while (mProvider.runPendingTask()) {
+    }
+  }
+
+  private void assertListenerMatchesTree() {
+    DocumentView view = mDocument.getDocumentView();
+    int elementCount = 0;
+    List<Element> queue = new ArrayList<>();
+    queue.add(mRoot);
+    while (!queue.isEmpty()) {
+      Element element = queue.remove(0);
+      ++elementCount;
+      assertEquals(element.children, view.getElementInfo(element).children);
+
+      List<Integer> childNodeIds = new ArrayList<>();
+      for (Object child : element.children) {
+        childNodeIds.add(getNodeId(child));
+        queue.add((Element) child);
+      }
+      assertEquals(
+          "Children of " + element,
+          childNodeIds,
+          mListener.getChildNodeIds(getNodeId(element)));
+    }
+    assertEquals(elementCount, mListener.getNodeCount());
+  }
+
+  private int getNodeId(Object element) {
+    Integer nodeId = mDocument.getNodeIdForElement(element);
+    assertNotNull("No node for " + element, nodeId);
+    return nodeId;
+  }
+
+  private static class Element {
+    private final String mName;
+    private boolean mIsSlow;
+    private @Nullable String mText;
+
+    public List<Object> children = Collections.emptyList();
+
+    public Element(String name) {
+      mName = name;
+    }
+
+    public Element setSlow() {
+      mIsSlow = true;
+      return this;
+    }
+
+    public Element setText(@Nullable String text) {
+      mText = text;
+      return this;
+    }
+
+    public Element setChildren(Element... elements) {
+      children = Arrays.<Object>asList(elements);
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return mName;
+    }
+  }
+
+  /**
+   * Both the factory and what it creates.  Tasks are posted to a queue that the test runs.
+   */
+  private class FakeDocumentProvider implements DocumentProviderFactory, DocumentProvider {
+    private final ElementDescriptor mDescriptor = new ElementDescriptor();
+    private final List<Runnable> mPendingTasks = new ArrayList<>();
+    private final Set<Object> mWalkedElements = new HashSet<>();
+    private @Nullable DocumentProviderListener mListener;
+
+    public IncrementalDocumentProviderListener getListener() {
+      return (IncrementalDocumentProviderListener) mListener;
+    }
+
+    public int getPendingTaskCount() {
+      return mPendingTasks.size();
+    }
+
+    public boolean runPendingTask() {
+      if (mPendingTasks.isEmpty()) {
+        return false;
+      }
+      mPendingTasks.remove(0).run();
+      return true;
+    }
+
+    public boolean hasWalked(Object element) {
+      return mWalkedElements.contains(element);
+    }
+
+    public void clearWalkedElements() {
+      mWalkedElements.clear();
+    }
+
+    @Override
+    public DocumentProvider create() {
+      return this;
+    }
+
+    @Override
+    public void setListener(DocumentProviderListener listener) {
+      mListener = listener;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public Object getRootElement() {
+      return mRoot;
+    }
+
+    @Override
+    public NodeDescriptor getNodeDescriptor(Object element) {
+      return mDescriptor;
+    }
+
+    @Override
+    public void highlightElement(Object element, int color) {
+    }
+
+    @Override
+    public void hideHighlight() {
+    }
+
+    @Override
+    public void setInspectModeEnabled(boolean enabled) {
+    }
+
+    @Override
+    public void setAttributesAsText(Object element, String text) {
+    }
+
+    @Override
+    public boolean checkThreadAccess() {
+      return true;
+    }
+
+    @Override
+    public void verifyThreadAccess() {
+    }
+
+    @Override
+    public <V> V postAndWait(UncheckedCallable<V> c) {
+      return c.call();
+    }
+
+    @Override
+    public void postAndWait(Runnable r) {
+      r.run();
+    }
+
+    @Override
+    public void postDelayed(Runnable r, long delayMillis) {
+      mPendingTasks.add(r);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable r) {
+      mPendingTasks.remove(r);
+    }
+
+    private class ElementDescriptor implements NodeDescriptor<Element> {
+      @Override
+      public void hook(Element element) {
+      }
+
+      @Override
+      public void unhook(Element element) {
+      }
+
+      @Override
+      public NodeType getNodeType(Element element) {
+        return NodeType.ELEMENT_NODE;
+      }
+
+      @Override
+      public String getNodeName(Element element) {
+        return element.toString();
+      }
+
+      @Override
+      public String getLocalName(Element element) {
+        return element.toString();
+      }
+
+      @Override
+      public String getNodeValue(Element element) {
+        return null;
+      }
+
+      @Override
+      public void getChildren(Element element, Accumulator<Object> children) {
+        mWalkedElements.add(element);
+        if (element.mIsSlow) {
+          long startNanos = System.nanoTime();
+          while (System.nanoTime() - startNanos < SLOW_WALK_NANOS) {
+          }
+        }
+        for (Object child : element.children) {
+          children.store(child);
+        }
+      }
+
+      @Override
+      public void getAttributes(Element element, AttributeAccumulator attributes) {
+        if (element.mText != null) {
+          attributes.store("text", element.mText);
+        }
+      }
+
+      @Override
+      public void setAttributesAsText(Element element, String text) {
+      }
+
+      @Override
+      public void getStyleRuleNames(Element element, StyleRuleNameAccumulator accumulator) {
+      }
+
+      @Override
+      public void getStyles(Element element, String ruleName, StyleAccumulator accumulator) {
+      }
+
+      @Override
+      public void setStyle(Element element, String ruleName, String name, String value) {
+      }
+
+      @Override
+      public void getComputedStyles(Element element, ComputedStyleAccumulator accumulator) {
+      }
+
+      @Override
+      public boolean checkThreadAccess() {
+        return FakeDocumentProvider.this.checkThreadAccess();
+      }
+
+      @Override
+      public void verifyThreadAccess() {
+        FakeDocumentProvider.this.verifyThreadAccess();
+      }
+
+      @Override
+      public <V> V postAndWait(UncheckedCallable<V> c) {
+        return FakeDocumentProvider.this.postAndWait(c);
+      }
+
+      @Override
+      public void postAndWait(Runnable r) {
+        FakeDocumentProvider.this.postAndWait(r);
+      }
+
+      @Override
+      public void postDelayed(Runnable r, long delayMillis) {
+        FakeDocumentProvider.this.postDelayed(r, delayMillis);
+      }
+
+      @Override
+      public void removeCallbacks(Runnable r) {
+        FakeDocumentProvider.this.removeCallbacks(r);
+      }
+    }
+  }
+
+  /**
+   * Keeps the tree as the listener is told about it, like {@code DOM} does for DevTools, and
+   * fails on any event that doesn't fit it.
+   */
+  private class ReplayingUpdateListener implements Document.UpdateListener {
+    private final Map<Integer, Object> mElements = new HashMap<>();
+    private final Map<Integer, List<Integer>> mChildNodeIds = new HashMap<>();
+    private final List<String> mEvents = new ArrayList<>();
+
+    public void reset(DocumentView view) {
+      mElements.clear();
+      mChildNodeIds.clear();
+      mEvents.clear();
+      putSubTree(view, view.getRootElement(), null);
+    }
+
+    public List<String> getEvents() {
+      return mEvents;
+    }
+
+    public List<Integer> getChildNodeIds(int nodeId) {
+      return mChildNodeIds.get(nodeId);
+    }
+
+    public int getNodeCount() {
+      return mElements.size();
+    }
+
+    @Override
+    public void onAttributeModified(Object element, String name, String value) {
+    }
+
+    @Override
+    public void onAttributeRemoved(Object element, String name) {
+    }
+
+    @Override
+    public void onInspectRequested(Object element) {
+    }
+
+    @Override
+    public void onChildNodeRemoved(DocumentView view, int parentNodeId, int nodeId) {
+      List<Integer> siblingNodeIds = mChildNodeIds.get(parentNodeId);
+      assertNotNull("Removed from unknown node " + parentNodeId, siblingNodeIds);
+      assertTrue(
+          "Removed " + nodeId + " from wrong parent " + mElements.get(parentNodeId),
+          siblingNodeIds.remove(Integer.valueOf(nodeId)));
+
+      mEvents.add("remove " + mElements.get(nodeId) + " from " + mElements.get(parentNodeId));
+      removeSubTree(nodeId);
+    }
+
+    @Override
+    public void onChildNodeInserted(
+        DocumentView view,
+        Object element,
+        int parentNodeId,
+        int previousNodeId,
+        Accumulator<Object> insertedElements) {
+      List<Integer> siblingNodeIds = mChildNodeIds.get(parentNodeId);
+      assertNotNull("Inserted " + element + " under unknown node", siblingNodeIds);
+
+      int index = 0;
+      if (previousNodeId != -1) {
+        index = siblingNodeIds.indexOf(previousNodeId) + 1;
+        assertTrue("Inserted " + element + " after unknown node", index > 0);
+      }
+      siblingNodeIds.add(index, getNodeId(element));
+
+      mEvents.add("insert " + element + " into " + mElements.get(parentNodeId) +
+          ((previousNodeId != -1) ? " after " + mElements.get(previousNodeId) : ""));
+      putSubTree(view, element, insertedElements);
+    }
+
+    @Override
+    public void onUpdateComplete(DocumentView view) {
+    }
+
+    private void putSubTree(
+        DocumentView view,
+        Object element,
+        @Nullable Accumulator<Object> insertedElements) {
+      int nodeId = getNodeId(element);
+      assertFalse("Duplicated " + element, mElements.containsKey(nodeId));
+      mElements.put(nodeId, element);
+      if (insertedElements != null) {
+        insertedElements.store(element);
+      }
+
+      List<Integer> childNodeIds = new ArrayList<>();
+      mChildNodeIds.put(nodeId, childNodeIds);
+      for (Object child : view.getElementInfo(element).children) {
+        childNodeIds.add(getNodeId(child));
+        putSubTree(view, child, insertedElements);
+      }
+    }
+
+    private void removeSubTree(int nodeId) {
+      mElements.remove(nodeId);
+      for (Integer childNodeId : mChildNodeIds.remove(nodeId)) {
+        removeSubTree(childNodeId);
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class SearchTextCacheTest {
+  private final SearchTextCache mCache = new SearchTextCache();
+
+  @Before
+  public void setUp() {
+    mCache.setEnabled();
+  }
+
+  @Test
+  public void testSubstringMatchIgnoresCase() {
+    mCache.put(1, "LinearLayout", attributes("id", "Container"));
+    mCache.put(2, "TextView", attributes("text", "Hello"));
+    mCache.put(3, "Button", Collections.<String>emptyList());
+    setDocumentOrder(1, 2, 3);
+
+    assertEquals(Arrays.asList(1), mCache.search("layout"));
+    assertEquals(Arrays.asList(1), mCache.search("CONTAIN"));
+    assertEquals(Arrays.asList(2), mCache.search("eLLo"));
+    assertEquals(Arrays.asList(1, 2, 3), mCache.search(""));
+    assertEquals(Collections.<Integer>emptyList(), mCache.search("ImageView"));
+  }
+
+  @Test
+  public void testResultsInDocumentOrder() {
+    mCache.put(7, "View", Collections.<String>emptyList());
+    mCache.put(2, "View", Collections.<String>emptyList());
+    mCache.put(5, "View", Collections.<String>emptyList());
+    setDocumentOrder(7, 2, 5);
+    assertEquals(Arrays.asList(7, 2, 5), mCache.search("view"));
+
+    // As when 5 has been moved ahead of its old siblings.
+    setDocumentOrder(5, 7, 2);
+    assertEquals(Arrays.asList(5, 7, 2), mCache.search("view"));
+  }
+
+  @Test
+  public void testQueryDoesNotMatchAcrossFields() {
+    mCache.put(1, "View", attributes("id", "main"));
+    setDocumentOrder(1);
+
+    // Only the separator stands between "view" and "id", and between "id" and "main".
+    assertEquals(Collections.<Integer>emptyList(), mCache.search("viewid"));
+    assertEquals(Collections.<Integer>emptyList(), mCache.search("idmain"));
+    assertEquals(Arrays.asList(1), mCache.search("main"));
+  }
+
+  @Test
+  public void testPutReplacesText() {
+    mCache.put(1, "TextView", attributes("text", "before"));
+    mCache.put(1, "TextView", attributes("text", "after"));
+    setDocumentOrder(1);
+
+    assertEquals(Collections.<Integer>emptyList(), mCache.search("before"));
+    assertEquals(Arrays.asList(1), mCache.search("after"));
+  }
+
+  @Test
+  public void testRemovedElementsNoLongerMatch() {
+    mCache.put(1, "View", Collections.<String>emptyList());
+    mCache.put(2, "View", Collections.<String>emptyList());
+    mCache.put(3, "View", Collections.<String>emptyList());
+    setDocumentOrder(1, 2, 3);
+
+    // The document order is only brought up to date after garbage has been removed.
+    mCache.remove(2);
+    assertEquals(Arrays.asList(1, 3), mCache.search("view"));
+
+    // As happens when an element is garbage before the cache ever saw it.
+    mCache.remove(4);
+    assertEquals(Arrays.asList(1, 3), mCache.search("view"));
+  }
+
+  @Test
+  public void testClearDisablesAndEmpties() {
+    mCache.put(1, "View", Collections.<String>emptyList());
+    setDocumentOrder(1);
+
+    mCache.clear();
+    assertFalse(mCache.isEnabled());
+    assertEquals(Collections.<Integer>emptyList(), mCache.search("view"));
+
+    mCache.setEnabled();
+    assertTrue(mCache.isEnabled());
+  }
+
+  @Test
+  public void testResultsPagedLikeGetSearchResults() {
+    // More matches than the initial capacity, and some that don't match in between.
+    List<Integer> expected = new ArrayList<>();
+    int[] documentOrder = new int[60];
+    for (int nodeId = 1; nodeId <= 60; ++nodeId) {
+      documentOrder[nodeId - 1] = nodeId;
+      if (nodeId % 3 == 0) {
+        mCache.put(nodeId, "Button", Collections.<String>emptyList());
+      } else {
+        mCache.put(nodeId, "View", Collections.<String>emptyList());
+        expected.add(nodeId);
+      }
+    }
+    mCache.setDocumentOrder(documentOrder, documentOrder.length);
+
+    List<Integer> results = mCache.search("view");
+    assertTrue(results instanceof RandomAccess);
+    assertEquals(expected, results);
+
+    // DOM.getSearchResults hands out [fromIndex, toIndex) of the results.
+    List<Integer> paged = new ArrayList<>();
+    for (int fromIndex = 0; fromIndex < results.size(); fromIndex += 16) {
+      int toIndex = Math.min(fromIndex + 16, results.size());
+      paged.addAll(results.subList(fromIndex, toIndex));
+    }
+    assertEquals(expected, paged);
+
+    try {
+      results.get(results.size());
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected: the backing array is larger than the results.
+    }
+  }
+
+  private void setDocumentOrder(int... nodeIds) {
+    mCache.setDocumentOrder(nodeIds, nodeIds.length);
+  }
+
+  private static List<String> attributes(String... namesAndValues) {
+    return Arrays.asList(namesAndValues);
+  }
+}
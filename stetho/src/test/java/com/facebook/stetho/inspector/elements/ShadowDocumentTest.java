@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import com.facebook.stetho.common.ArrayListAccumulator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ShadowDocumentTest {
+  private final Element mRoot = new Element("root");
+  private final Element mA = new Element("a");
+  private final Element mB = new Element("b");
+  private final Element mX = new Element("x");
+
+  private ShadowDocument mShadowDocument;
+
+  @Before
+  public void setUp() {
+    // root -> { a, b }, b -> { x }
+    mShadowDocument = new ShadowDocument(mRoot);
+    ShadowDocument.UpdateBuilder builder = mShadowDocument.beginUpdate();
+    builder.setElementChildren(mRoot, children(mA, mB));
+    builder.setElementChildren(mA, children());
+    builder.setElementChildren(mB, children(mX));
+    builder.setElementChildren(mX, children());
+    builder.build().commit();
+  }
+
+  @Test
+  public void testOldParentOfMovedElementIsStale() {
+    ShadowDocument.UpdateBuilder builder = mShadowDocument.beginUpdate();
+    builder.setElementChildren(mA, children(mX));
+    assertEquals(Collections.<Object>singletonList(mB), getElementsWithStaleChildren(builder));
+
+    builder.setElementChildren(mB, children());
+    assertEquals(Collections.emptyList(), getElementsWithStaleChildren(builder));
+
+    ShadowDocument.Update update = builder.build();
+    update.commit();
+    assertSame(mA, mShadowDocument.getElementInfo(mX).parentElement);
+    assertEquals(children(), mShadowDocument.getElementInfo(mB).children);
+  }
+
+  @Test
+  public void testResetElementChildrenTakesBackClaimedChildren() {
+    // a was walked just before x was moved into it, and b just after it was moved back.
+    ShadowDocument.UpdateBuilder builder = mShadowDocument.beginUpdate();
+    builder.setElementChildren(mA, children(mX));
+
+    // b's children are as they were, so this alone would leave x with a.
+    builder.setElementChildren(mB, children(mX));
+    assertSame(mA, builder.build().getElementInfo(mX).parentElement);
+
+    builder.resetElementChildren(mB, children(mX));
+    assertEquals(
+        Arrays.<Object>asList(mA, mB),
+        getElementsWithStaleChildren(builder));
+
+    builder.resetElementChildren(mA, children());
+    assertEquals(Collections.emptyList(), getElementsWithStaleChildren(builder));
+
+    ShadowDocument.Update update = builder.build();
+    assertTrue(update.isEmpty());
+    update.abandon();
+  }
+
+  @Test
+  public void testElementMovedIntoGarbageIsGarbage() {
+    // x is moved into a, which is then disconnected.
+    ShadowDocument.UpdateBuilder builder = mShadowDocument.beginUpdate();
+    builder.setElementChildren(mA, children(mX));
+    builder.setElementChildren(mB, children());
+    builder.setElementChildren(mRoot, children(mB));
+
+    ShadowDocument.Update update = builder.build();
+    assertEquals(
+        new HashSet<Object>(Arrays.asList(mA, mX)),
+        new HashSet<Object>(getGarbageElements(update)));
+
+    update.commit();
+    assertNull(mShadowDocument.getElementInfo(mA));
+    assertNull(mShadowDocument.getElementInfo(mX));
+    assertEquals(children(), mShadowDocument.getElementInfo(mB).children);
+  }
+
+  @Test
+  public void testGarbageMayListChildrenOfOtherGarbage() {
+    // x is moved into a, and then both a and b are disconnected before b is walked again, so
+    // both still list x.  a is removed first (see Element.hashCode()).
+    ShadowDocument.UpdateBuilder builder = mShadowDocument.beginUpdate();
+    builder.setElementChildren(mA, children(mX));
+    builder.setElementChildren(mRoot, children());
+
+    ShadowDocument.Update update = builder.build();
+    assertEquals(
+        new HashSet<Object>(Arrays.asList(mA, mB, mX)),
+        new HashSet<Object>(getGarbageElements(update)));
+
+    update.commit();
+    assertNull(mShadowDocument.getElementInfo(mA));
+    assertNull(mShadowDocument.getElementInfo(mB));
+    assertNull(mShadowDocument.getElementInfo(mX));
+    assertEquals(children(), mShadowDocument.getElementInfo(mRoot).children);
+  }
+
+  private static List<Object> children(Object... elements) {
+    return Arrays.asList(elements);
+  }
+
+  private static List<Object> getElementsWithStaleChildren(
+      ShadowDocument.UpdateBuilder builder) {
+    ArrayListAccumulator<Object> elements = new ArrayListAccumulator<>();
+    builder.getElementsWithStaleChildren(elements);
+    return elements;
+  }
+
+  private static List<Object> getGarbageElements(ShadowDocument.Update update) {
+    ArrayListAccumulator<Object> elements = new ArrayListAccumulator<>();
+    update.getGarbageElements(elements);
+    return elements;
+  }
+
+  private static class Element {
+    private final String mName;
+
+    public Element(String name) {
+      mName = name;
+    }
+
+    /**
+     * Fixes the order in which {@link ShadowDocument} iterates its hashed sets of elements, so
+     * that each test takes the same path every time.
+     */
+    @Override
+    public int hashCode() {
+      return mName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return mName;
+    }
+  }
+}
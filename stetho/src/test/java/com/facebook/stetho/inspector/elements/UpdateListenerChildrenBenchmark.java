@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.facebook.stetho.common.Accumulator;
+
+/**
+ * Cost of bringing the listener's view of a scrolling list's children up to date, per frame.
+ * Each round recycles 1 to 5 of 50 items from one end of the list to the other, and now and then
+ * also replaces or swaps items.  Every event is charged for the sub-tree that an insertion sends
+ * along, as {@code DOM} does.  The legacy baseline reproduces the previous slot-by-slot diff,
+ * which took about 52 events per round here against under 7 now.
+ * <p />
+ * Run {@link #main} from the IDE with the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateListenerChildrenBenchmark {
+  private static final int ITEM_COUNT = 50;
+  private static final int ITEM_CHILD_COUNT = 3;
+
+  private Random mRandom;
+  private List<Object> mChildren;
+  private int mRound;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    mRandom = new Random(42);
+    mChildren = new ArrayList<>(ITEM_COUNT);
+    for (int i = 0; i < ITEM_COUNT; i++) {
+      mChildren.add(new Item());
+    }
+    mRound = 0;
+  }
+
+  @Benchmark
+  public int update(Blackhole blackhole) {
+    CountingChildList listenerChildren = nextRound(blackhole);
+    Document.updateListenerChildren(listenerChildren, mChildren, listenerChildren);
+    return listenerChildren.getEventCount();
+  }
+
+  @Benchmark
+  public int updateLegacy(Blackhole blackhole) {
+    CountingChildList listenerChildren = nextRound(blackhole);
+    updateListenerChildrenLegacy(listenerChildren, mChildren, listenerChildren);
+    return listenerChildren.getEventCount();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+        new OptionsBuilder()
+            .include(UpdateListenerChildrenBenchmark.class.getSimpleName())
+            .build())
+        .run();
+  }
+
+  /**
+   * Scroll {@link #mChildren}, returning the listener's view of them from before.
+   */
+  private CountingChildList nextRound(Blackhole blackhole) {
+    CountingChildList listenerChildren = new CountingChildList(blackhole);
+    listenerChildren.addAll(mChildren);
+
+    int recycledCount = 1 + mRound % 5;
+    for (int i = 0; i < recycledCount; i++) {
+      if (mRound % 2 == 0) {
+        mChildren.add(mChildren.remove(0));
+      } else {
+        mChildren.add(0, mChildren.remove(mChildren.size() - 1));
+      }
+    }
+    if (mRound % 10 == 0) {
+      mChildren.set(mRandom.nextInt(ITEM_COUNT), new Item());
+    }
+    if (mRound % 7 == 0) {
+      Collections.swap(mChildren, mRandom.nextInt(ITEM_COUNT), mRandom.nextInt(ITEM_COUNT));
+    }
+
+    ++mRound;
+    return listenerChildren;
+  }
+
+  private static void updateListenerChildrenLegacy(
+      Document.ListenerChildList listenerChildren,
+      List<Object> newChildren,
+      Accumulator<Object> insertedElements) {
+    int index = 0;
+    while (index <= listenerChildren.size()) {
+      if (index == listenerChildren.size()) {
+        if (index == newChildren.size()) {
+          break;
+        }
+        listenerChildren.addWithEvent(index, newChildren.get(index), insertedElements);
+        ++index;
+        continue;
+      }
+
+      if (index == newChildren.size()) {
+        listenerChildren.removeWithEvent(index);
+        continue;
+      }
+
+      final Object listenerElement = listenerChildren.get(index);
+      final Object newElement = newChildren.get(index);
+      if (listenerElement == newElement) {
+        ++index;
+        continue;
+      }
+
+      int newElementListenerIndex = listenerChildren.indexOf(newElement);
+      if (newElementListenerIndex == -1) {
+        listenerChildren.addWithEvent(index, newElement, insertedElements);
+        ++index;
+        continue;
+      }
+
+      listenerChildren.removeWithEvent(newElementListenerIndex);
+      listenerChildren.addWithEvent(index, newElement, insertedElements);
+      ++index;
+    }
+  }
+
+  private static class Item {
+    public final Object[] children = new Object[ITEM_CHILD_COUNT];
+
+    public Item() {
+      for (int i = 0; i < children.length; i++) {
+        children[i] = new Object();
+      }
+    }
+  }
+
+  private static class CountingChildList
+      extends Document.ListenerChildList
+      implements Accumulator<Object> {
+    private final Blackhole mBlackhole;
+    private int mEventCount;
+
+    public CountingChildList(Blackhole blackhole) {
+      mBlackhole = blackhole;
+    }
+
+    public int getEventCount() {
+      return mEventCount;
+    }
+
+    @Override
+    public void addWithEvent(int index, Object element, Accumulator<Object> insertedElements) {
+      add(index, element);
+      ++mEventCount;
+
+      insertedElements.store(element);
+      for (Object child : ((Item) element).children) {
+        insertedElements.store(child);
+      }
+    }
+
+    @Override
+    public void removeWithEvent(int index) {
+      mBlackhole.consume(remove(index));
+      ++mEventCount;
+    }
+
+    @Override
+    public void store(Object element) {
+      mBlackhole.consume(element);
+    }
+  }
+}
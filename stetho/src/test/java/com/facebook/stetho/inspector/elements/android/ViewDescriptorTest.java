@@ -1,9 +1,14 @@
 package com.facebook.stetho.inspector.elements.android;
 
 import android.app.Activity;
+import android.content.Context;
 import android.os.Build;
+import android.view.View;
+import android.view.ViewDebug;
 import android.widget.CheckBox;
 import android.widget.TextView;
+import com.facebook.stetho.inspector.elements.ObjectDescriptor;
+import com.facebook.stetho.inspector.elements.StyleAccumulator;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,8 +16,10 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -57,4 +64,43 @@ public class ViewDescriptorTest {
     mDescriptor.setAttributesAsText(mTextView, "garbage");
     verify(mMethodInvoker, never()).invoke(anyObject(), anyString(), anyString());
   }
+
+  @Test
+  public void testGetStylesIncludesSubclassExportedProperties() {
+    mDescriptor.setSuper(new ObjectDescriptor());
+
+    for (int i = 0; i < 2; i++) {
+      StyleAccumulator accumulator = mock(StyleAccumulator.class);
+      mDescriptor.getStyles(new ExportingView(mActivity), "<this_view>", accumulator);
+      verify(accumulator).store("exported-count", "5", false);
+      verify(accumulator).store("exported-name", "stetho", false);
+      verify(accumulator, never()).store(eq("exported-count"), eq("3"), anyBoolean());
+    }
+  }
+
+  private static class BaseExportingView extends View {
+    public BaseExportingView(Context context) {
+      super(context);
+    }
+
+    @ViewDebug.ExportedProperty
+    public int getExportedCount() {
+      return 3;
+    }
+  }
+
+  private static class ExportingView extends BaseExportingView {
+    @ViewDebug.ExportedProperty
+    private String mExportedName = "stetho";
+
+    public ExportingView(Context context) {
+      super(context);
+    }
+
+    @Override
+    @ViewDebug.ExportedProperty
+    public int getExportedCount() {
+      return 5;
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.elements.android;
+
+import android.app.Activity;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.LinearLayout;
+import com.facebook.stetho.inspector.elements.Descriptor;
+import com.facebook.stetho.inspector.elements.DescriptorMap;
+import com.facebook.stetho.inspector.elements.ObjectDescriptor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class WindowDescriptorTest {
+  private final WindowDescriptor mDescriptor = new WindowDescriptor();
+  private final Activity mActivity = Robolectric.setupActivity(Activity.class);
+
+  @Test
+  public void testLayoutReportsWindow() {
+    Descriptor.ChildrenObservingHost host = mock(Descriptor.ChildrenObservingHost.class);
+    initialize(host);
+    Window window = mActivity.getWindow();
+    View decorView = window.getDecorView();
+
+    mDescriptor.hook(window);
+    ((ViewGroup) decorView).addView(new LinearLayout(mActivity));
+    decorView.getViewTreeObserver().dispatchOnGlobalLayout();
+    verify(host).onChildrenPossiblyChanged(window);
+
+    // Nothing is reported once we have let go of the window.
+    mDescriptor.unhook(window);
+    decorView.getViewTreeObserver().dispatchOnGlobalLayout();
+    verify(host, times(1)).onChildrenPossiblyChanged(window);
+  }
+
+  private void initialize(Descriptor.Host host) {
+    new DescriptorMap()
+        .beginInit()
+        .registerDescriptor(Object.class, new ObjectDescriptor())
+        .registerDescriptor(Window.class, mDescriptor)
+        .setHost(host)
+        .endInit();
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class DataReceivedCoalescerTest {
+  private static final int WINDOW_MS = 60000;
+  private static final int THRESHOLD_BYTES = 1000;
+  private static final long TIMEOUT_MS = 5000;
+
+  private final List<String> mEvents = new ArrayList<>();
+  private DataReceivedCoalescer mCoalescer;
+
+  @Before
+  public void setup() {
+    mCoalescer = new DataReceivedCoalescer(new DataReceivedCoalescer.Sink() {
+      @Override
+      public void sendDataReceived(
+          String requestId,
+          int dataLength,
+          int encodedDataLength,
+          long timestampMs) {
+        synchronized (mEvents) {
+          mEvents.add(requestId + ":" + dataLength + "/" + encodedDataLength + "@" + timestampMs);
+        }
+      }
+    });
+    mCoalescer.setConfig(new NetworkEventCoalescingConfig(WINDOW_MS, THRESHOLD_BYTES));
+  }
+
+  @Test
+  public void testSumsUntilFlushed() {
+    mCoalescer.dataReceived("1", 100, 50, 1);
+    mCoalescer.dataReceived("2", 10, 10, 2);
+    mCoalescer.dataReceived("1", 200, 60, 3);
+    assertEquals(0, mEvents.size());
+
+    mCoalescer.flush("1");
+    assertEquals(1, mEvents.size());
+    assertEquals("1:300/110@3", mEvents.get(0));
+
+    mCoalescer.flush("1");
+    assertEquals(1, mEvents.size());
+  }
+
+  @Test
+  public void testThresholdEmitsImmediately() {
+    mCoalescer.dataReceived("1", 600, 600, 1);
+    mCoalescer.dataReceived("1", 600, 600, 2);
+    mCoalescer.dataReceived("1", 1, 1, 3);
+    assertEquals(1, mEvents.size());
+    assertEquals("1:1200/1200@2", mEvents.get(0));
+  }
+
+  @Test
+  public void testWindowEmitsImmediately() {
+    mCoalescer.dataReceived("1", 1, 1, 1);
+    mCoalescer.dataReceived("1", 1, 1, 1 + WINDOW_MS);
+    assertEquals(1, mEvents.size());
+    assertEquals("1:2/2@" + (1 + WINDOW_MS), mEvents.get(0));
+  }
+
+  @Test
+  public void testDisablingFlushesAndPassesThrough() {
+    mCoalescer.dataReceived("1", 5, 5, 1);
+    mCoalescer.setConfig(NetworkEventCoalescingConfig.createDisabled());
+    mCoalescer.dataReceived("2", 7, 7, 2);
+    assertEquals(2, mEvents.size());
+    assertEquals("1:5/5@1", mEvents.get(0));
+    assertEquals("2:7/7@2", mEvents.get(1));
+  }
+
+  @Test
+  public void testEmitsOutsideLockButFlushWaitsForEmission() throws Exception {
+    final CountDownLatch emitting = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final DataReceivedCoalescer coalescer = new DataReceivedCoalescer(
+        new DataReceivedCoalescer.Sink() {
+          @Override
+          public void sendDataReceived(
+              String requestId,
+              int dataLength,
+              int encodedDataLength,
+              long timestampMs) {
+            if (requestId.equals("slow")) {
+              emitting.countDown();
+              awaitQuietly(release);
+            }
+            synchronized (mEvents) {
+              mEvents.add(requestId);
+            }
+          }
+        });
+    coalescer.setConfig(new NetworkEventCoalescingConfig(WINDOW_MS, THRESHOLD_BYTES));
+
+    Thread slow = startThread(new Runnable() {
+      @Override
+      public void run() {
+        coalescer.dataReceived("slow", THRESHOLD_BYTES, THRESHOLD_BYTES, 1);
+      }
+    });
+    assertTrue(emitting.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+    // Another request isn't held up by the peer I/O of the first...
+    Thread fast = startThread(new Runnable() {
+      @Override
+      public void run() {
+        coalescer.dataReceived("fast", THRESHOLD_BYTES, THRESHOLD_BYTES, 2);
+      }
+    });
+    fast.join(TIMEOUT_MS);
+    assertFalse(fast.isAlive());
+
+    // ...but flushing the first waits until its event has gone out.
+    Thread flush = startThread(new Runnable() {
+      @Override
+      public void run() {
+        coalescer.flush("slow");
+      }
+    });
+    flush.join(100);
+    assertTrue(flush.isAlive());
+
+    release.countDown();
+    flush.join(TIMEOUT_MS);
+    slow.join(TIMEOUT_MS);
+    assertFalse(flush.isAlive());
+    assertEquals(2, mEvents.size());
+    assertEquals("fast", mEvents.get(0));
+    assertEquals("slow", mEvents.get(1));
+  }
+
+  private static Thread startThread(Runnable runnable) {
+    Thread thread = new Thread(runnable);
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
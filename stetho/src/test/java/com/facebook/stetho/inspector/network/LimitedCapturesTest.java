@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy.Capture;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class LimitedCapturesTest {
+  @Test
+  public void testSkippedUntilRemoved() {
+    LimitedCaptures captures = new LimitedCaptures();
+    captures.put("1", Capture.SKIP);
+    captures.put("2", Capture.HEADERS_ONLY);
+
+    assertTrue(captures.isSkipped("1"));
+    assertFalse(captures.isSkipped("2"));
+    assertFalse(captures.isSkipped("3"));
+
+    // Looking a request up, as interpreting its response does, must not forget it.
+    assertEquals(Capture.SKIP, captures.get("1"));
+    assertTrue(captures.isSkipped("1"));
+
+    assertEquals(Capture.SKIP, captures.remove("1"));
+    assertFalse(captures.isSkipped("1"));
+    assertNull(captures.remove("1"));
+    assertEquals(1, captures.size());
+  }
+
+  @Test
+  public void testEvictsOldestWhenFull() {
+    LimitedCaptures captures = new LimitedCaptures(3 /* maxSize */);
+    for (int i = 0; i < 5; i++) {
+      captures.put(String.valueOf(i), Capture.SKIP);
+    }
+    assertEquals(3, captures.size());
+    assertFalse(captures.isSkipped("0"));
+    assertFalse(captures.isSkipped("1"));
+    assertTrue(captures.isSkipped("2"));
+    assertTrue(captures.isSkipped("4"));
+  }
+
+  @Test
+  public void testClear() {
+    LimitedCaptures captures = new LimitedCaptures();
+    captures.put("1", Capture.SKIP);
+    captures.clear();
+    assertFalse(captures.isSkipped("1"));
+    assertNull(captures.remove("1"));
+    assertEquals(0, captures.size());
+  }
+}
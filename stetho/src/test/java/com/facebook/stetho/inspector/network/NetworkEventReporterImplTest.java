@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy.Capture;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class NetworkEventReporterImplTest {
+  private final NetworkEventReporterImpl mReporter = new NetworkEventReporterImpl();
+
+  @Test
+  public void testSkippedRequestIsForgottenWithItsResponse() {
+    assertLimitedCaptureForgotten(Capture.SKIP);
+  }
+
+  @Test
+  public void testHeadersOnlyRequestIsForgottenWithItsResponse() {
+    assertLimitedCaptureForgotten(Capture.HEADERS_ONLY);
+  }
+
+  private void assertLimitedCaptureForgotten(Capture capture) {
+    LimitedCaptures limitedCaptures = mReporter.getLimitedCaptures();
+    limitedCaptures.put("1", capture);
+
+    InputStream body = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+    InputStream interpreted = mReporter.interpretResponseStream(
+        "1",
+        "text/plain",
+        null /* contentEncoding */,
+        body,
+        new DefaultResponseHandler(mReporter, "1"));
+
+    // Nobody reports on the unwrapped stream, so the request has to end here or never will.
+    assertSame(body, interpreted);
+    assertEquals(0, limitedCaptures.size());
+  }
+}
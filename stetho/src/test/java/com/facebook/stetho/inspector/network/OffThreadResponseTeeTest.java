@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.facebook.stetho.inspector.console.CLog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(CLog.class)
+public class OffThreadResponseTeeTest {
+  private static final String TEST_REQUEST_ID = "1234";
+  private static final int BUFFER_BYTES = 1024;
+
+  private NetworkPeerManager mNetworkPeerManager;
+  private ResponseBodyFileManager mResponseBodyFileManager;
+  private RecordingResponseHandler mResponseHandler;
+
+  @Before
+  public void setup() {
+    PowerMockito.mockStatic(CLog.class);
+    mResponseBodyFileManager = Mockito.mock(ResponseBodyFileManager.class);
+    mNetworkPeerManager = Mockito.mock(NetworkPeerManager.class);
+    Mockito.when(mNetworkPeerManager.getResponseBodyFileManager())
+        .thenReturn(mResponseBodyFileManager);
+    mResponseHandler = new RecordingResponseHandler();
+  }
+
+  @Test
+  public void testCapturesWholeBody() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OffThreadResponseTee tee = createTee(output);
+    byte[] body = createBody(BUFFER_BYTES * 16);
+
+    // Write no faster than the background thread drains so that nothing is dropped.
+    OutputStream teeOutput = tee.getOutputStream();
+    for (int i = 0; i < body.length; i += 100) {
+      int count = Math.min(100, body.length - i);
+      while (output.size() < i) {
+        Thread.yield();
+      }
+      teeOutput.write(body, i, count);
+      tee.onRead(count);
+    }
+    teeOutput.close();
+    tee.onEOF();
+
+    assertTrue(mResponseHandler.finished.await(5, TimeUnit.SECONDS));
+    assertArrayEquals(body, output.toByteArray());
+    assertEquals(body.length, mResponseHandler.bytesRead);
+    assertTrue(mResponseHandler.eofSeen);
+    Mockito.verify(mResponseBodyFileManager, Mockito.never()).markTruncated(TEST_REQUEST_ID);
+  }
+
+  @Test
+  public void testTruncatesWhenBehind() throws Exception {
+    final CountDownLatch firstWrite = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OffThreadResponseTee tee = createTee(new OutputStream() {
+      @Override
+      public void write(int oneByte) throws IOException {
+        write(new byte[] { (byte) oneByte }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int count) throws IOException {
+        firstWrite.countDown();
+        try {
+          unblock.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        output.write(buffer, offset, count);
+      }
+    });
+    byte[] body = createBody(BUFFER_BYTES * 4);
+
+    // Stall the background thread on the first byte, then get well ahead of it.
+    OutputStream teeOutput = tee.getOutputStream();
+    teeOutput.write(body, 0, 1);
+    assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+    teeOutput.write(body, 1, body.length - 1);
+    tee.onRead(body.length);
+    teeOutput.close();
+    tee.onEOF();
+    unblock.countDown();
+
+    assertTrue(mResponseHandler.finished.await(5, TimeUnit.SECONDS));
+    byte[] captured = output.toByteArray();
+    assertEquals(BUFFER_BYTES, captured.length);
+    assertArrayEquals(Arrays.copyOf(body, captured.length), captured);
+    assertEquals(body.length, mResponseHandler.bytesRead);
+    Mockito.verify(mResponseBodyFileManager).markTruncated(TEST_REQUEST_ID);
+  }
+
+  @Test
+  public void testForwardsReadsAsTheyAreDrained() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OffThreadResponseTee tee = createTee(output);
+    byte[] body = createBody(300);
+
+    OutputStream teeOutput = tee.getOutputStream();
+    for (int i = 0; i < body.length; i += 100) {
+      tee.onRead(100);
+      teeOutput.write(body, i, 100);
+      mResponseHandler.awaitBytesRead(i + 100);
+    }
+    assertEquals(Arrays.asList(100, 100, 100), mResponseHandler.reads);
+    assertFalse(mResponseHandler.eofSeen);
+
+    teeOutput.close();
+    tee.onEOF();
+    assertTrue(mResponseHandler.finished.await(5, TimeUnit.SECONDS));
+    assertEquals(body.length, mResponseHandler.bytesRead);
+  }
+
+  @Test
+  public void testForwardsBodiesLargerThanInt() throws Exception {
+    OffThreadResponseTee tee = createTee(new ByteArrayOutputStream());
+    tee.onRead(Integer.MAX_VALUE);
+    tee.onRead(Integer.MAX_VALUE);
+    tee.onRead(10);
+    tee.getOutputStream().close();
+    tee.onEOF();
+
+    assertTrue(mResponseHandler.finished.await(5, TimeUnit.SECONDS));
+    assertEquals(2L * Integer.MAX_VALUE + 10, mResponseHandler.bytesRead);
+    for (int read : mResponseHandler.reads) {
+      assertTrue(read > 0);
+    }
+  }
+
+  private OffThreadResponseTee createTee(OutputStream output) {
+    return new OffThreadResponseTee(
+        mNetworkPeerManager,
+        TEST_REQUEST_ID,
+        output,
+        null /* decompressedCounter */,
+        mResponseHandler,
+        BUFFER_BYTES);
+  }
+
+  private static byte[] createBody(int length) {
+    byte[] body = new byte[length];
+    for (int i = 0; i < length; i++) {
+      body[i] = (byte) i;
+    }
+    return body;
+  }
+
+  private static class RecordingResponseHandler implements ResponseHandler {
+    public final CountDownLatch finished = new CountDownLatch(1);
+    public final List<Integer> reads = new CopyOnWriteArrayList<>();
+    public volatile long bytesRead;
+    public volatile boolean eofSeen;
+
+    public synchronized void awaitBytesRead(long count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (bytesRead < count) {
+        long remaining = deadline - System.currentTimeMillis();
+        assertTrue(remaining > 0);
+        wait(remaining);
+      }
+    }
+
+    @Override
+    public synchronized void onRead(int numBytes) {
+      reads.add(numBytes);
+      bytesRead += numBytes;
+      notifyAll();
+    }
+
+    @Override
+    public void onReadDecoded(int numBytes) {
+    }
+
+    @Override
+    public void onEOF() {
+      eofSeen = true;
+      finished.countDown();
+    }
+
+    @Override
+    public void onError(IOException e) {
+      finished.countDown();
+    }
+  }
+}
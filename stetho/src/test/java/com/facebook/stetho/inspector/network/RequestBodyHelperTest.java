@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.websocket.CompressionStats;
+import com.facebook.stetho.websocket.SimpleSession;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class RequestBodyHelperTest {
+  private static final int MAX_POST_DATA_BYTES = 16;
+
+  private final ObjectMapper mObjectMapper = new ObjectMapper();
+  private final RecordingSession mSession = new RecordingSession();
+  private final JsonRpcPeer mPeer = new JsonRpcPeer(mObjectMapper, mSession);
+
+  private NetworkEventReporter mMockEventReporter;
+  private Network mNetwork;
+  private ResponseBodyFileManager mResponseBodyFileManager;
+
+  @Before
+  public void setUp() {
+    mMockEventReporter = Mockito.mock(NetworkEventReporter.class);
+    NetworkPeerManager.setRequestBodyCaptureConfig(
+        new RequestBodyCaptureConfig(MAX_POST_DATA_BYTES));
+
+    // Creates the NetworkPeerManager that the helper streams large bodies through.
+    mNetwork = new Network(Robolectric.application);
+    mNetwork.enable(mPeer, null /* params */);
+    mResponseBodyFileManager =
+        NetworkPeerManager.getInstanceOrNull().getResponseBodyFileManager();
+  }
+
+  @After
+  public void tearDown() {
+    mNetwork.disable(mPeer, null /* params */);
+    NetworkPeerManager.setRequestBodyCaptureConfig(RequestBodyCaptureConfig.createDefault());
+  }
+
+  @Test
+  public void testSmallBodyIsComplete() throws IOException {
+    byte[] data = "small body".getBytes();
+    RequestBodyHelper helper = new RequestBodyHelper(mMockEventReporter, "1");
+    OutputStream out = helper.createBodySink(null /* contentEncoding */);
+    out.write(data);
+    out.close();
+
+    assertArrayEquals(data, helper.getDisplayBody());
+    helper.reportDataSent();
+    Mockito.verify(mMockEventReporter).dataSent("1", data.length, data.length);
+
+    // Bodies that fit never touch the store.
+    assertFalse(mResponseBodyFileManager.hasRequestBody("1"));
+  }
+
+  @Test
+  public void testLargeBodyIsCutShort() throws IOException {
+    byte[] data = new byte[MAX_POST_DATA_BYTES * 100];
+    Arrays.fill(data, (byte) 'x');
+    RequestBodyHelper helper = new RequestBodyHelper(mMockEventReporter, "2");
+    OutputStream out = new GZIPOutputStream(
+        helper.createBodySink(DecompressionHelper.GZIP_ENCODING));
+    for (int i = 0; i < data.length; i += 7) {
+      out.write(data, i, Math.min(7, data.length - i));
+    }
+    out.close();
+
+    byte[] preview = helper.getDisplayBody();
+    assertEquals(MAX_POST_DATA_BYTES + 1, preview.length);
+    assertArrayEquals(Arrays.copyOf(data, preview.length), preview);
+
+    // Sizes still account for the whole body.
+    helper.reportDataSent();
+    Mockito.verify(mMockEventReporter).dataSent(
+        Mockito.eq("2"),
+        Mockito.eq(data.length),
+        Mockito.anyInt());
+  }
+
+  @Test
+  public void testLargeBodyStoredInFull() throws IOException {
+    String body = createTextBody(MAX_POST_DATA_BYTES * 100);
+    RequestBodyHelper helper = new RequestBodyHelper(mMockEventReporter, "3");
+    OutputStream out = new GZIPOutputStream(
+        helper.createBodySink(DecompressionHelper.GZIP_ENCODING));
+    byte[] data = body.getBytes("UTF-8");
+    for (int i = 0; i < data.length; i += 7) {
+      out.write(data, i, Math.min(7, data.length - i));
+    }
+    out.close();
+
+    // Overflowing the preview streamed everything, preview included, into the store.
+    assertTrue(mResponseBodyFileManager.hasRequestBody("3"));
+    assertEquals(body, mResponseBodyFileManager.readRequestBody("3"));
+  }
+
+  @Test
+  public void testLargeBodyFetchedWithGetRequestPostData() throws Exception {
+    String body = createTextBody(MAX_POST_DATA_BYTES * 100);
+    NetworkEventReporterImpl reporter = new NetworkEventReporterImpl();
+    reporter.requestWillBeSent(new PostRequest(reporter, "4", body));
+
+    // Only the flag goes out with the request; DevTools has to ask for the body itself.
+    JSONObject request = getSentRequest();
+    assertTrue(request.getBoolean("hasPostData"));
+    assertFalse(request.has("postData"));
+
+    JsonRpcResult result =
+        mNetwork.getRequestPostData(mPeer, new JSONObject().put("requestId", "4"));
+    assertEquals(
+        body,
+        mObjectMapper.convertValue(result, JSONObject.class).getString("postData"));
+  }
+
+  @Test
+  public void testSmallBodySentInline() throws Exception {
+    NetworkEventReporterImpl reporter = new NetworkEventReporterImpl();
+    reporter.requestWillBeSent(new PostRequest(reporter, "5", "small body"));
+
+    JSONObject request = getSentRequest();
+    assertTrue(request.getBoolean("hasPostData"));
+    assertEquals("small body", request.getString("postData"));
+  }
+
+  private JSONObject getSentRequest() throws JSONException {
+    List<JSONObject> messages = mSession.takeMessages();
+    assertEquals(1, messages.size());
+    assertEquals("Network.requestWillBeSent", messages.get(0).getString("method"));
+    return messages.get(0).getJSONObject("params").getJSONObject("request");
+  }
+
+  /**
+   * Lines of distinct text, so that a body put back together in the wrong order doesn't match.
+   */
+  private static String createTextBody(int minLength) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; builder.length() < minLength; i++) {
+      builder.append("line ").append(i).append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Reads its body through a {@link RequestBodyHelper}, as the interceptors do.
+   */
+  private static class PostRequest implements NetworkEventReporter.InspectorRequest {
+    private final RequestBodyHelper mRequestBodyHelper;
+    private final String mRequestId;
+    private final String mBody;
+
+    public PostRequest(NetworkEventReporter reporter, String requestId, String body) {
+      mRequestBodyHelper = new RequestBodyHelper(reporter, requestId);
+      mRequestId = requestId;
+      mBody = body;
+    }
+
+    @Override
+    public String id() {
+      return mRequestId;
+    }
+
+    @Override
+    public String friendlyName() {
+      return "test";
+    }
+
+    @Nullable
+    @Override
+    public Integer friendlyNameExtra() {
+      return null;
+    }
+
+    @Override
+    public String url() {
+      return "http://example.com/upload";
+    }
+
+    @Override
+    public String method() {
+      return "POST";
+    }
+
+    @Nullable
+    @Override
+    public byte[] body() throws IOException {
+      OutputStream out = mRequestBodyHelper.createBodySink(null /* contentEncoding */);
+      try {
+        out.write(mBody.getBytes("UTF-8"));
+      } finally {
+        out.close();
+      }
+      return mRequestBodyHelper.getDisplayBody();
+    }
+
+    @Override
+    public int headerCount() {
+      return 0;
+    }
+
+    @Override
+    public String headerName(int index) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public String headerValue(int index) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      return null;
+    }
+  }
+
+  private static class RecordingSession implements SimpleSession {
+    private final List<JSONObject> mMessages = new ArrayList<>();
+
+    public List<JSONObject> takeMessages() {
+      List<JSONObject> messages = new ArrayList<>(mMessages);
+      mMessages.clear();
+      return messages;
+    }
+
+    @Override
+    public void sendText(String payload) {
+      try {
+        mMessages.add(new JSONObject(payload));
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void sendBinary(byte[] payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendText(byte[] payload, int payloadLen) {
+      sendText(new String(payload, 0, payloadLen));
+    }
+
+    @Override
+    public boolean sendLowPriorityText(String payload, @Nullable Object coalesceKey) {
+      sendText(payload);
+      return true;
+    }
+
+    @Override
+    public boolean sendLowPriorityText(
+        byte[] payload,
+        int payloadLen,
+        @Nullable Object coalesceKey) {
+      sendText(payload, payloadLen);
+      return true;
+    }
+
+    @Override
+    public void close(int closeReason, String reasonPhrase) {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    @Nullable
+    public CompressionStats getCompressionStats() {
+      return null;
+    }
+  }
+}
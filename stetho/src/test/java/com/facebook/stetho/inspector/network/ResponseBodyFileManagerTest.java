@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.content.Context;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ResponseBodyFileManagerTest {
+  @Rule
+  public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mFilesDir;
+  private ResponseBodyFileManager mResponseBodyFileManager;
+
+  @Before
+  public void setUp() throws IOException {
+    mFilesDir = mTemporaryFolder.newFolder("files");
+    Context context = mock(Context.class);
+    when(context.getFilesDir()).thenReturn(mFilesDir);
+    when(context.getCacheDir()).thenReturn(mTemporaryFolder.newFolder("cache"));
+    mResponseBodyFileManager = new ResponseBodyFileManager(context);
+  }
+
+  @Test
+  public void testLegacyFilesDeletedOnce() throws IOException {
+    File legacyBody = createFile("network-response-body-1");
+    File otherFile = createFile("other");
+
+    mResponseBodyFileManager.cleanupFiles();
+    assertFalse(legacyBody.exists());
+    assertTrue(otherFile.exists());
+
+    // Nothing writes there anymore, so the directory is only looked at the first time.
+    File lateLegacyBody = createFile("network-response-body-2");
+    mResponseBodyFileManager.cleanupFiles();
+    assertTrue(lateLegacyBody.exists());
+  }
+
+  private File createFile(String name) throws IOException {
+    File file = new File(mFilesDir, name);
+    assertTrue(file.createNewFile());
+    return file;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ResponseBodyStoreTest {
+  private static final long MAX_BYTES = 1024 * 1024;
+
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mDirectory;
+
+  @Before
+  public void setup() {
+    mDirectory = new File(mTemporaryFolder.getRoot(), "bodies");
+  }
+
+  @Test
+  public void testInterleavedWritesRoundTrip() throws IOException {
+    for (boolean compress : new boolean[] { false, true }) {
+      ResponseBodyStore store =
+          new ResponseBodyStore(mDirectory, new ResponseBodyStoreConfig(MAX_BYTES, compress));
+      byte[] first = createTextBody(100000, 1);
+      byte[] second = createTextBody(50000, 2);
+      OutputStream firstOut = store.openOutputStream("1", false /* base64Encoded */);
+      OutputStream secondOut = store.openOutputStream("2", true /* base64Encoded */);
+      for (int i = 0; i < first.length; i += 1000) {
+        firstOut.write(first, i, 1000);
+        if (i < second.length) {
+          secondOut.write(second, i, 1000);
+        }
+      }
+      assertNull(store.openInputStream("1"));
+
+      firstOut.close();
+      secondOut.close();
+      assertArrayEquals(first, readBody(store, "1"));
+      assertArrayEquals(second, readBody(store, "2"));
+      assertFalse(store.openInputStream("1").base64Encoded);
+      assertTrue(store.openInputStream("2").base64Encoded);
+      store.clear();
+    }
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    ResponseBodyStore store =
+        new ResponseBodyStore(mDirectory, new ResponseBodyStoreConfig(MAX_BYTES, false));
+    Random random = new Random(0);
+    byte[] body = new byte[100000];
+    for (int i = 0; i < 40; i++) {
+      random.nextBytes(body);
+      writeBody(store, "r" + i, body);
+      // Keep the first body in use.
+      assertNotNull(store.openInputStream("r0"));
+    }
+    assertNotNull(store.openInputStream("r0"));
+    assertNull(store.openInputStream("r1"));
+    assertArrayEquals(body, readBody(store, "r39"));
+
+    long diskBytes = 0;
+    for (File file : mDirectory.listFiles()) {
+      diskBytes += file.length();
+    }
+    assertTrue(diskBytes <= 2 * MAX_BYTES);
+  }
+
+  @Test
+  public void testAbandonedStreamsDoNotPinSegments() throws IOException {
+    ResponseBodyStore store =
+        new ResponseBodyStore(mDirectory, new ResponseBodyStoreConfig(MAX_BYTES, false));
+    Random random = new Random(0);
+    byte[] leaked = createTextBody(20000, 0);
+    byte[] body = new byte[100000];
+    List<OutputStream> leakedStreams = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      // Enough to flush a chunk into the current segment, but never closed.
+      OutputStream out = store.openOutputStream("leaked" + i, false /* base64Encoded */);
+      out.write(leaked);
+      leakedStreams.add(out);
+      random.nextBytes(body);
+      writeBody(store, "r" + i, body);
+    }
+    assertArrayEquals(body, readBody(store, "r39"));
+
+    long diskBytes = 0;
+    for (File file : mDirectory.listFiles()) {
+      diskBytes += file.length();
+    }
+    assertTrue(diskBytes <= 2 * MAX_BYTES);
+
+    // Streams dropped from the store are still safe to use, they just don't store anything.
+    OutputStream first = leakedStreams.get(0);
+    first.write(leaked);
+    first.close();
+    assertNull(store.openInputStream("leaked0"));
+  }
+
+  @Test
+  public void testDropsBodyLargerThanStore() throws IOException {
+    ResponseBodyStore store =
+        new ResponseBodyStore(mDirectory, new ResponseBodyStoreConfig(MAX_BYTES, false));
+    writeBody(store, "small", createTextBody(1000, 0));
+    writeBody(store, "huge", new byte[(int) MAX_BYTES + 1]);
+    assertNull(store.openInputStream("huge"));
+    assertNotNull(store.openInputStream("small"));
+  }
+
+  @Test
+  public void testClear() throws IOException {
+    ResponseBodyStore store =
+        new ResponseBodyStore(mDirectory, new ResponseBodyStoreConfig(MAX_BYTES, true));
+    writeBody(store, "1", createTextBody(1000, 0));
+    OutputStream pending = store.openOutputStream("2", false /* base64Encoded */);
+    pending.write(createTextBody(1000, 1));
+
+    store.clear();
+    assertNull(store.openInputStream("1"));
+    assertEquals(0, mDirectory.list().length);
+
+    pending.close();
+    assertNull(store.openInputStream("2"));
+  }
+
+  private static void writeBody(ResponseBodyStore store, String requestId, byte[] body)
+      throws IOException {
+    OutputStream out = store.openOutputStream(requestId, false /* base64Encoded */);
+    out.write(body);
+    out.close();
+  }
+
+  private static byte[] readBody(ResponseBodyStore store, String requestId) throws IOException {
+    InputStream in = store.openInputStream(requestId).stream;
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[777];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] createTextBody(int length, int seed) {
+    Random random = new Random(seed);
+    byte[] body = new byte[length];
+    for (int i = 0; i < length; i++) {
+      body[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return body;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.inspector.network.NetworkCapturePolicy.Capture;
+import com.facebook.stetho.inspector.network.RuleBasedCapturePolicy.Rule;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RuleBasedCapturePolicyTest {
+  @Test
+  public void testDefaultCapturesEverything() {
+    RuleBasedCapturePolicy policy = RuleBasedCapturePolicy.createDefault();
+    assertEquals(Capture.FULL, policy.getCapture(mockRequest("1", "http://example.com/", null)));
+  }
+
+  @Test
+  public void testFirstMatchingRuleWins() {
+    Rule beacons = new Rule.Builder("beacons")
+        .host("analytics.example.com")
+        .capture(Capture.SKIP)
+        .build();
+    Rule uploads = new Rule.Builder("uploads")
+        .contentTypePattern("multipart/.*")
+        .capture(Capture.HEADERS_ONLY)
+        .build();
+    RuleBasedCapturePolicy policy = new RuleBasedCapturePolicy.Builder()
+        .addRule(beacons)
+        .addRule(uploads)
+        .defaultCapture(Capture.FULL)
+        .build();
+
+    assertEquals(
+        Capture.SKIP,
+        policy.getCapture(mockRequest("1", "https://eu.analytics.example.com/b", null)));
+    assertEquals(
+        Capture.SKIP,
+        policy.getCapture(
+            mockRequest("2", "https://analytics.example.com:443/b", "multipart/form-data")));
+    assertEquals(
+        Capture.HEADERS_ONLY,
+        policy.getCapture(
+            mockRequest("3", "https://example.com/upload", "multipart/form-data; boundary=x")));
+    assertEquals(
+        Capture.FULL,
+        policy.getCapture(mockRequest("4", "https://notanalytics.example.com/b", null)));
+
+    assertEquals(2, beacons.getCount(Capture.SKIP));
+    assertEquals(1, uploads.getCount(Capture.HEADERS_ONLY));
+  }
+
+  @Test
+  public void testSampleRate() {
+    Rule images = new Rule.Builder("images")
+        .urlPattern(".*\\.png")
+        .sampleRate(0.25)
+        .build();
+    RuleBasedCapturePolicy policy = new RuleBasedCapturePolicy.Builder()
+        .addRule(images)
+        .build();
+
+    int requests = 10000;
+    for (int i = 0; i < requests; i++) {
+      policy.getCapture(mockRequest(String.valueOf(i), "http://cdn.example.com/a.png", null));
+    }
+    long captured = images.getCount(Capture.FULL);
+    assertEquals(requests, captured + images.getCount(Capture.SKIP));
+    assertEquals(requests * 0.25, captured, requests * 0.02);
+  }
+
+  @Test
+  public void testGetHost() {
+    assertEquals("example.com", RuleBasedCapturePolicy.getHost("http://Example.com"));
+    assertEquals("example.com", RuleBasedCapturePolicy.getHost("http://user@example.com:80/p"));
+    assertEquals("example.com", RuleBasedCapturePolicy.getHost("https://example.com?q=/x"));
+  }
+
+  private static NetworkEventReporter.InspectorRequest mockRequest(
+      String id,
+      String url,
+      @Nullable String contentType) {
+    NetworkEventReporter.InspectorRequest request =
+        Mockito.mock(NetworkEventReporter.InspectorRequest.class);
+    Mockito.when(request.id()).thenReturn(id);
+    Mockito.when(request.url()).thenReturn(url);
+    Mockito.when(request.firstHeaderValue("Content-Type")).thenReturn(contentType);
+    return request;
+  }
+}
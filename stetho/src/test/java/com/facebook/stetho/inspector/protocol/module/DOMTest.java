@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.protocol.module;
+
+import android.os.Build;
+import com.facebook.stetho.common.Accumulator;
+import com.facebook.stetho.common.UncheckedCallable;
+import com.facebook.stetho.inspector.elements.AttributeAccumulator;
+import com.facebook.stetho.inspector.elements.ComputedStyleAccumulator;
+import com.facebook.stetho.inspector.elements.Document;
+import com.facebook.stetho.inspector.elements.DocumentProvider;
+import com.facebook.stetho.inspector.elements.DocumentProviderFactory;
+import com.facebook.stetho.inspector.elements.DocumentProviderListener;
+import com.facebook.stetho.inspector.elements.IncrementalDocumentProviderListener;
+import com.facebook.stetho.inspector.elements.NodeDescriptor;
+import com.facebook.stetho.inspector.elements.NodeType;
+import com.facebook.stetho.inspector.elements.StyleAccumulator;
+import com.facebook.stetho.inspector.elements.StyleRuleNameAccumulator;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.websocket.CompressionStats;
+import com.facebook.stetho.websocket.SimpleSession;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives {@link DOM} with a fake peer over a {@link Document} whose provider runs everything on
+ * the test's thread, and checks what the peer is sent as it expands the tree and the tree
+ * changes.
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class DOMTest {
+  private final ObjectMapper mObjectMapper = new ObjectMapper();
+  private final Element mRoot = new Element("root");
+  private final Element mA = new Element("a");
+  private final Element mA1 = new Element("a1");
+  private final Element mA11 = new Element("a11");
+  private final Element mB = new Element("b");
+  private final Element mB1 = new Element("b1");
+
+  private final FakeDocumentProvider mProvider = new FakeDocumentProvider(mRoot);
+  private final Document mDocument = new Document(mProvider);
+  private final DOM mDOM = new DOM(mDocument);
+  private final RecordingSession mSession = new RecordingSession();
+  private final JsonRpcPeer mPeer = new JsonRpcPeer(mObjectMapper, mSession);
+
+  @Before
+  public void setUp() {
+    mRoot.setChildren(mA, mB);
+    mA.setChildren(mA1);
+    mA1.setChildren(mA11);
+    mB.setChildren(mB1);
+    mDOM.enable(mPeer, null);
+  }
+
+  @After
+  public void tearDown() {
+    mDOM.disable(mPeer, null);
+  }
+
+  @Test
+  public void testGetDocumentDepth() throws JSONException {
+    JSONObject root = getDocument(null);
+    assertEquals(Arrays.asList("a", "b"), getNodeNames(root.getJSONArray("children")));
+    JSONObject a = root.getJSONArray("children").getJSONObject(0);
+    assertNull(a.optJSONArray("children"));
+    assertEquals(1, a.getInt("childNodeCount"));
+
+    JSONObject a1 = getDocument(2).getJSONArray("children").getJSONObject(0)
+        .getJSONArray("children").getJSONObject(0);
+    assertEquals("a1", a1.getString("nodeName"));
+    assertNull(a1.optJSONArray("children"));
+
+    JSONObject a11 = getDocument(-1).getJSONArray("children").getJSONObject(0)
+        .getJSONArray("children").getJSONObject(0)
+        .getJSONArray("children").getJSONObject(0);
+    assertEquals("a11", a11.getString("nodeName"));
+    assertEquals(0, a11.getJSONArray("children").length());
+  }
+
+  @Test
+  public void testRequestChildNodesEntireSubTree() throws JSONException, JsonRpcException {
+    getDocument(null);
+
+    requestChildNodes(mA, -1);
+    List<JSONObject> messages = mSession.takeMessages();
+    assertEquals(1, messages.size());
+    JSONObject params = getParams(messages.get(0), "DOM.setChildNodes");
+    assertEquals(getNodeId(mA), params.getInt("parentId"));
+    JSONObject a1 = params.getJSONArray("nodes").getJSONObject(0);
+    assertEquals("a1", a1.getString("nodeName"));
+    assertEquals(Arrays.asList("a11"), getNodeNames(a1.getJSONArray("children")));
+
+    // Nothing new to send.
+    requestChildNodes(mA, -1);
+    assertEquals(0, mSession.takeMessages().size());
+
+    try {
+      requestChildNodes(mB, 0);
+      fail();
+    } catch (JsonRpcException e) {
+      assertEquals(JsonRpcError.ErrorCode.INVALID_PARAMS, e.getErrorMessage().code);
+    }
+  }
+
+  @Test
+  public void testChildNodeCountUpdatedForCollapsedParent() throws JSONException {
+    getDocument(null);
+
+    // a is known to the peer but its children aren't, unlike those of root.
+    Element c = new Element("c");
+    mA.setChildren(mA1, new Element("a2"), new Element("a3"));
+    mRoot.setChildren(mA, mB, c);
+    updateChildren(mA, mRoot);
+
+    List<JSONObject> messages = mSession.takeMessages();
+    assertEquals(
+        Arrays.asList("DOM.childNodeInserted", "DOM.childNodeCountUpdated"),
+        getMethods(messages));
+    assertEquals(
+        getNodeId(c),
+        getParams(messages.get(0), "DOM.childNodeInserted")
+            .getJSONObject("node")
+            .getInt("nodeId"));
+    JSONObject countUpdated = getParams(messages.get(1), "DOM.childNodeCountUpdated");
+    assertEquals(getNodeId(mA), countUpdated.getInt("nodeId"));
+    assertEquals(3, countUpdated.getInt("childNodeCount"));
+
+    // Nothing at all for nodes the peer doesn't know.
+    mA11.setChildren(new Element("a111"));
+    updateChildren(mA11);
+    assertEquals(0, mSession.takeMessages().size());
+  }
+
+  @Test
+  public void testMovedNodeIsForgotten() throws JSONException {
+    getDocument(-1);
+
+    // a1 is removed from a and inserted into b as a new, collapsed node.
+    mA.setChildren();
+    mB.setChildren(mB1, mA1);
+    updateChildren(mA, mB);
+    assertEquals(
+        Arrays.asList("DOM.childNodeRemoved", "DOM.childNodeInserted"),
+        getMethods(mSession.takeMessages()));
+
+    mA1.setChildren(mA11, new Element("a12"));
+    updateChildren(mA1);
+    List<JSONObject> messages = mSession.takeMessages();
+    assertEquals(Arrays.asList("DOM.childNodeCountUpdated"), getMethods(messages));
+    assertEquals(
+        2,
+        getParams(messages.get(0), "DOM.childNodeCountUpdated").getInt("childNodeCount"));
+  }
+
+  @Test
+  public void testGetSearchResultsPushesPathToNode() throws JSONException {
+    getDocument(null);
+
+    JSONObject search = mObjectMapper.convertValue(
+        mDOM.performSearch(mPeer, new JSONObject().put("query", "A11")),
+        JSONObject.class);
+    assertEquals(1, search.getInt("resultCount"));
+
+    JSONObject results = mObjectMapper.convertValue(
+        mDOM.getSearchResults(
+            mPeer,
+            new JSONObject()
+                .put("searchId", search.getString("searchId"))
+                .put("fromIndex", 0)
+                .put("toIndex", 1)),
+        JSONObject.class);
+    assertEquals(getNodeId(mA11), results.getJSONArray("nodeIds").getInt(0));
+
+    // Every ancestor is expanded, outermost first, so that the peer can show the result.
+    List<JSONObject> messages = mSession.takeMessages();
+    assertEquals(2, messages.size());
+    JSONObject first = getParams(messages.get(0), "DOM.setChildNodes");
+    assertEquals(getNodeId(mA), first.getInt("parentId"));
+    assertEquals(Arrays.asList("a1"), getNodeNames(first.getJSONArray("nodes")));
+    JSONObject second = getParams(messages.get(1), "DOM.setChildNodes");
+    assertEquals(getNodeId(mA1), second.getInt("parentId"));
+    assertEquals(Arrays.asList("a11"), getNodeNames(second.getJSONArray("nodes")));
+  }
+
+  private JSONObject getDocument(@Nullable Integer depth) throws JSONException {
+    JSONObject params = null;
+    if (depth != null) {
+      params = new JSONObject().put("depth", depth);
+    }
+    JSONObject response = mObjectMapper.convertValue(
+        mDOM.getDocument(mPeer, params),
+        JSONObject.class);
+    return response.getJSONObject("root");
+  }
+
+  private void requestChildNodes(Element element, int depth)
+      throws JSONException, JsonRpcException {
+    mDOM.requestChildNodes(
+        mPeer,
+        new JSONObject().put("nodeId", getNodeId(element)).put("depth", depth));
+  }
+
+  private void updateChildren(Element... elements) {
+    mProvider.getListener().onChildrenPossiblyChanged(Arrays.<Object>asList(elements));
+    mProvider.runPendingTasks();
+  }
+
+  private int getNodeId(Element element) {
+    return mDocument.getNodeIdForElement(element);
+  }
+
+  private static JSONObject getParams(JSONObject message, String method) throws JSONException {
+    assertEquals(method, message.getString("method"));
+    return message.getJSONObject("params");
+  }
+
+  private static List<String> getMethods(List<JSONObject> messages) throws JSONException {
+    List<String> methods = new ArrayList<>();
+    for (JSONObject message : messages) {
+      methods.add(message.getString("method"));
+    }
+    return methods;
+  }
+
+  private static List<String> getNodeNames(JSONArray nodes) throws JSONException {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < nodes.length(); i++) {
+      names.add(nodes.getJSONObject(i).getString("nodeName"));
+    }
+    return names;
+  }
+
+  private static class RecordingSession implements SimpleSession {
+    private final List<JSONObject> mMessages = new ArrayList<>();
+
+    public List<JSONObject> takeMessages() {
+      List<JSONObject> messages = new ArrayList<>(mMessages);
+      mMessages.clear();
+      return messages;
+    }
+
+    @Override
+    public void sendText(String payload) {
+      try {
+        mMessages.add(new JSONObject(payload));
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void sendBinary(byte[] payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendText(byte[] payload, int payloadLen) {
+      sendText(new String(payload, 0, payloadLen));
+    }
+
+    @Override
+    public boolean sendLowPriorityText(String payload, @Nullable Object coalesceKey) {
+      sendText(payload);
+      return true;
+    }
+
+    @Override
+    public boolean sendLowPriorityText(
+        byte[] payload,
+        int payloadLen,
+        @Nullable Object coalesceKey) {
+      sendText(payload, payloadLen);
+      return true;
+    }
+
+    @Override
+    public void close(int closeReason, String reasonPhrase) {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    @Nullable
+    public CompressionStats getCompressionStats() {
+      return null;
+    }
+  }
+
+  private static class Element {
+    private final String mName;
+
+    public List<Object> children = Collections.emptyList();
+
+    public Element(String name) {
+      mName = name;
+    }
+
+    public Element setChildren(Element... elements) {
+      children = Arrays.<Object>asList(elements);
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return mName;
+    }
+  }
+
+  /**
+   * Both the factory and what it creates, running everything on the test's thread.  Updates
+   * are posted to a queue that the test runs.
+   */
+  private static class FakeDocumentProvider
+      implements DocumentProviderFactory, DocumentProvider {
+    private final ElementDescriptor mDescriptor = new ElementDescriptor();
+    private final List<Runnable> mPendingTasks = new ArrayList<>();
+    private final Element mRoot;
+    private @Nullable DocumentProviderListener mListener;
+
+    public FakeDocumentProvider(Element root) {
+      mRoot = root;
+    }
+
+    public IncrementalDocumentProviderListener getListener() {
+      return (IncrementalDocumentProviderListener) mListener;
+    }
+
+    public void runPendingTasks() {
+      while (!mPendingTasks.isEmpty()) {
+        mPendingTasks.remove(0).run();
+      }
+    }
+
+    @Override
+    public DocumentProvider create() {
+      return this;
+    }
+
+    @Override
+    public void setListener(DocumentProviderListener listener) {
+      mListener = listener;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public Object getRootElement() {
+      return mRoot;
+    }
+
+    @Override
+    public NodeDescriptor getNodeDescriptor(Object element) {
+      return mDescriptor;
+    }
+
+    @Override
+    public void highlightElement(Object element, int color) {
+    }
+
+    @Override
+    public void hideHighlight() {
+    }
+
+    @Override
+    public void setInspectModeEnabled(boolean enabled) {
+    }
+
+    @Override
+    public void setAttributesAsText(Object element, String text) {
+    }
+
+    @Override
+    public boolean checkThreadAccess() {
+      return true;
+    }
+
+    @Override
+    public void verifyThreadAccess() {
+    }
+
+    @Override
+    public <V> V postAndWait(UncheckedCallable<V> c) {
+      return c.call();
+    }
+
+    @Override
+    public void postAndWait(Runnable r) {
+      r.run();
+    }
+
+    @Override
+    public void postDelayed(Runnable r, long delayMillis) {
+      mPendingTasks.add(r);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable r) {
+      mPendingTasks.remove(r);
+    }
+  }
+
+  private static class ElementDescriptor implements NodeDescriptor<Element> {
+    @Override
+    public void hook(Element element) {
+    }
+
+    @Override
+    public void unhook(Element element) {
+    }
+
+    @Override
+    public NodeType getNodeType(Element element) {
+      return NodeType.ELEMENT_NODE;
+    }
+
+    @Override
+    public String getNodeName(Element element) {
+      return element.toString();
+    }
+
+    @Override
+    public String getLocalName(Element element) {
+      return element.toString();
+    }
+
+    @Override
+    public String getNodeValue(Element element) {
+      return null;
+    }
+
+    @Override
+    public void getChildren(Element element, Accumulator<Object> children) {
+      for (Object child : element.children) {
+        children.store(child);
+      }
+    }
+
+    @Override
+    public void getAttributes(Element element, AttributeAccumulator attributes) {
+    }
+
+    @Override
+    public void setAttributesAsText(Element element, String text) {
+    }
+
+    @Override
+    public void getStyleRuleNames(Element element, StyleRuleNameAccumulator accumulator) {
+    }
+
+    @Override
+    public void getStyles(Element element, String ruleName, StyleAccumulator accumulator) {
+    }
+
+    @Override
+    public void setStyle(Element element, String ruleName, String name, String value) {
+    }
+
+    @Override
+    public void getComputedStyles(Element element, ComputedStyleAccumulator accumulator) {
+    }
+
+    @Override
+    public boolean checkThreadAccess() {
+      return true;
+    }
+
+    @Override
+    public void verifyThreadAccess() {
+    }
+
+    @Override
+    public <V> V postAndWait(UncheckedCallable<V> c) {
+      return c.call();
+    }
+
+    @Override
+    public void postAndWait(Runnable r) {
+      r.run();
+    }
+
+    @Override
+    public void postDelayed(Runnable r, long delayMillis) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeCallbacks(Runnable r) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.screencast;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.view.PixelCopy;
+import android.view.Window;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Drives {@link ScreenCapturer.PixelCopyScreenCapturer} with a fake in place of
+ * {@link PixelCopy}, which isn't there to be called at this API level.
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ScreenCapturerTest {
+  private static final int MAX_SIZE = 100;
+
+  private final Activity mActivity = Robolectric.setupActivity(Activity.class);
+  private final Handler mHandler = new Handler();
+  private final FakePixelCopyScreenCapturer mCapturer = new FakePixelCopyScreenCapturer();
+  private final RecordingCallback mCallback = new RecordingCallback();
+
+  @Before
+  public void setUp() {
+    mActivity.getWindow().getDecorView().layout(0, 0, 200, 400);
+  }
+
+  @Test
+  public void testCopiedFrame() {
+    mCapturer.copyResult = PixelCopy.SUCCESS;
+    capture();
+
+    Bitmap frame = mCallback.getLastFrame();
+    assertNotNull(frame);
+    assertEquals(25, frame.getWidth());
+    assertEquals(50, frame.getHeight());
+    assertEquals("PixelCopy", mCapturer.getName());
+  }
+
+  @Test
+  public void testNoDataIsRetried() {
+    // As when the window hasn't drawn yet.
+    mCapturer.copyResult = PixelCopy.ERROR_SOURCE_NO_DATA;
+    capture();
+    assertNull(mCallback.getLastFrame());
+    assertEquals("PixelCopy", mCapturer.getName());
+
+    mCapturer.copyResult = PixelCopy.SUCCESS;
+    capture();
+    assertNotNull(mCallback.getLastFrame());
+    assertEquals(2, mCapturer.requestCount);
+  }
+
+  @Test
+  public void testErrorFallsBackToDrawing() {
+    mCapturer.copyResult = PixelCopy.ERROR_SOURCE_INVALID;
+    capture();
+    assertNull(mCallback.getLastFrame());
+    assertEquals("draw", mCapturer.getName());
+
+    // Drawn from now on, without asking PixelCopy again.
+    capture();
+    assertNotNull(mCallback.getLastFrame());
+    assertEquals(1, mCapturer.requestCount);
+  }
+
+  @Test
+  public void testNoSurfaceFallsBackToDrawingRightAway() {
+    mCapturer.throwOnRequest = true;
+    capture();
+    assertNotNull(mCallback.getLastFrame());
+    assertEquals("draw", mCapturer.getName());
+
+    capture();
+    assertNotNull(mCallback.getLastFrame());
+    assertEquals(1, mCapturer.requestCount);
+  }
+
+  @Test
+  public void testNoFrameBeforeLayout() {
+    mActivity.getWindow().getDecorView().layout(0, 0, 0, 0);
+    capture();
+    assertNull(mCallback.getLastFrame());
+    assertEquals(0, mCapturer.requestCount);
+    assertEquals("PixelCopy", mCapturer.getName());
+  }
+
+  private void capture() {
+    int frameCount = mCallback.frames.size();
+    mCapturer.capture(mActivity, MAX_SIZE / 2, MAX_SIZE / 2, mHandler, mCallback);
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    assertEquals(frameCount + 1, mCallback.frames.size());
+  }
+
+  private static class FakePixelCopyScreenCapturer extends ScreenCapturer.PixelCopyScreenCapturer {
+    public int copyResult = PixelCopy.SUCCESS;
+    public boolean throwOnRequest;
+    public int requestCount;
+
+    @Override
+    void requestPixelCopy(
+        Window window,
+        Bitmap frame,
+        Handler handler,
+        ScreenCapturer.Callback callback) {
+      ++requestCount;
+      if (throwOnRequest) {
+        throw new IllegalArgumentException("Window doesn't have a backing surface!");
+      }
+      onPixelCopyFinished(copyResult, frame, callback);
+    }
+  }
+
+  private static class RecordingCallback implements ScreenCapturer.Callback {
+    public final List<Bitmap> frames = new ArrayList<>();
+
+    @Nullable
+    public Bitmap getLastFrame() {
+      return frames.get(frames.size() - 1);
+    }
+
+    @Override
+    public void onFrameCaptured(@Nullable Bitmap frame) {
+      frames.add(frame);
+    }
+  }
+}
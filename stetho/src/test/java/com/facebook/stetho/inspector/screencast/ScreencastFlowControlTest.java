@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.inspector.screencast;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ScreencastFlowControlTest {
+  private static final int QUALITY = 80;
+
+  private final ScreencastFlowControl mFlowControl = new ScreencastFlowControl(QUALITY);
+
+  @Test
+  public void testPausesCaptureUntilAcked() {
+    assertTrue(mFlowControl.canCaptureFrame());
+    assertTrue(mFlowControl.onFrameSent(1, 0));
+    assertTrue(mFlowControl.canCaptureFrame());
+    assertFalse(mFlowControl.onFrameSent(2, 0));
+    assertFalse(mFlowControl.canCaptureFrame());
+    assertFalse(mFlowControl.takeResume());
+
+    assertTrue(mFlowControl.onFrameAcked(1, 50));
+    assertEquals(1, mFlowControl.getFramesInFlight());
+    assertTrue(mFlowControl.takeResume());
+    assertFalse(mFlowControl.takeResume());
+
+    // A peer that doesn't say which frame it acks means the oldest.
+    assertTrue(mFlowControl.onFrameAcked(-1, 60));
+    assertEquals(0, mFlowControl.getFramesInFlight());
+    assertFalse(mFlowControl.onFrameAcked(2, 70));
+    assertFalse(mFlowControl.onFrameAcked(-1, 70));
+  }
+
+  @Test
+  public void testAckCoversEarlierFramesThatNeverArrived() {
+    // Frame 1 was replaced by frame 2 before reaching the peer, so only 2 is acked.
+    mFlowControl.onFrameSent(1, 0);
+    mFlowControl.onFrameSent(2, 100);
+    assertFalse(mFlowControl.canCaptureFrame());
+
+    assertTrue(mFlowControl.onFrameAcked(2, 150));
+    assertEquals(0, mFlowControl.getFramesInFlight());
+    assertTrue(mFlowControl.takeResume());
+
+    // Measured from the acked frame rather than the lost one.
+    assertEquals(ScreencastFlowControl.FRAME_DELAY, mFlowControl.getFrameDelay());
+    assertEquals(QUALITY, mFlowControl.getQuality());
+
+    // A late ack for the lost frame changes nothing.
+    assertFalse(mFlowControl.onFrameAcked(1, 200));
+  }
+
+  @Test
+  public void testAckLeavesLaterFramesInFlight() {
+    mFlowControl.onFrameSent(3, 0);
+    mFlowControl.onFrameSent(5, 0);
+
+    assertFalse(mFlowControl.onFrameAcked(2, 50));
+    assertEquals(2, mFlowControl.getFramesInFlight());
+
+    // Only frames sent no later than the acked one are accounted for.
+    assertTrue(mFlowControl.onFrameAcked(4, 50));
+    assertEquals(1, mFlowControl.getFramesInFlight());
+    assertTrue(mFlowControl.onFrameAcked(5, 60));
+    assertEquals(0, mFlowControl.getFramesInFlight());
+  }
+
+  @Test
+  public void testPromptAcksKeepRateAndQuality() {
+    for (int i = 0; i < 10; i++) {
+      mFlowControl.onFrameSent(i, i * 1000);
+      assertTrue(mFlowControl.onFrameAcked(i, i * 1000 + 50));
+    }
+    assertEquals(ScreencastFlowControl.FRAME_DELAY, mFlowControl.getFrameDelay());
+    assertEquals(QUALITY, mFlowControl.getQuality());
+  }
+
+  @Test
+  public void testSlowAcksLowerRateThenQuality() {
+    mFlowControl.onFrameSent(1, 0);
+    mFlowControl.onFrameAcked(1, 400);
+    assertEquals(400, mFlowControl.getFrameDelay());
+    assertEquals(QUALITY, mFlowControl.getQuality());
+
+    long now = 400;
+    for (int i = 2; i < 20; i++) {
+      mFlowControl.onFrameSent(i, now);
+      now += 2000;
+      mFlowControl.onFrameAcked(i, now);
+    }
+    assertEquals(ScreencastFlowControl.MAX_FRAME_DELAY, mFlowControl.getFrameDelay());
+    assertEquals(ScreencastFlowControl.MIN_QUALITY, mFlowControl.getQuality());
+
+    // Recovers once acks are prompt again.
+    for (int i = 20; i < 60; i++) {
+      mFlowControl.onFrameSent(i, now);
+      now += 10;
+      mFlowControl.onFrameAcked(i, now);
+    }
+    assertEquals(ScreencastFlowControl.FRAME_DELAY, mFlowControl.getFrameDelay());
+    assertEquals(QUALITY, mFlowControl.getQuality());
+  }
+
+  @Test
+  public void testNeverRaisesQualityAboveRequested() {
+    ScreencastFlowControl flowControl = new ScreencastFlowControl(20 /* requestedQuality */);
+    flowControl.onFrameSent(1, 0);
+    flowControl.onFrameAcked(1, 5000);
+    assertEquals(20, flowControl.getQuality());
+    flowControl.onFrameSent(2, 5000);
+    flowControl.onFrameAcked(2, 5001);
+    assertEquals(20, flowControl.getQuality());
+  }
+
+  @Test
+  public void testAckTimeoutGivesUpOnFramesInFlight() {
+    assertFalse(mFlowControl.onAckTimeout());
+
+    mFlowControl.onFrameSent(1, 0);
+    mFlowControl.onFrameSent(2, 0);
+    assertFalse(mFlowControl.canCaptureFrame());
+
+    assertTrue(mFlowControl.onAckTimeout());
+    assertEquals(0, mFlowControl.getFramesInFlight());
+    assertEquals(ScreencastFlowControl.MAX_FRAME_DELAY, mFlowControl.getFrameDelay());
+    assertEquals(QUALITY - ScreencastFlowControl.QUALITY_STEP_DOWN, mFlowControl.getQuality());
+    assertTrue(mFlowControl.takeResume());
+
+    // Late acks for frames given up on are ignored.
+    assertFalse(mFlowControl.onFrameAcked(1, 4000));
+    assertFalse(mFlowControl.onAckTimeout());
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.json;
+
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.json.annotation.JsonValue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class ClassBindingTest {
+  @Test
+  public void testBindingIsShared() {
+    assertSame(ClassBinding.of(Fields.class), ClassBinding.of(Fields.class));
+  }
+
+  @Test
+  public void testFieldsAndProperties() {
+    ClassBinding binding = ClassBinding.of(Fields.class);
+
+    // Static and non-public fields are left out altogether.
+    assertEquals(
+        new HashSet<>(Arrays.asList("plain", "optional", "required", "names")),
+        getNames(binding.fields));
+    assertEquals(
+        new HashSet<>(Arrays.asList("optional", "required", "names")),
+        getNames(binding.properties));
+
+    ClassBinding.FieldBinding plain = getField(binding.fields, "plain");
+    assertFalse(plain.isProperty);
+    assertFalse(plain.required);
+    assertEquals(int.class, plain.type);
+    assertNull(plain.listElementType);
+    assertNull(plain.listElementError);
+
+    assertFalse(getField(binding.properties, "optional").required);
+    assertTrue(getField(binding.properties, "required").required);
+
+    ClassBinding.FieldBinding names = getField(binding.properties, "names");
+    assertEquals(List.class, names.type);
+    assertEquals(String.class, names.listElementType);
+    assertNull(names.listElementError);
+  }
+
+  @Test
+  public void testFieldsOfPrivateClassAccessible() throws Exception {
+    ClassBinding binding = ClassBinding.of(Fields.class);
+    Fields instance = Fields.class.cast(binding.newInstance());
+
+    getField(binding.fields, "required").field.set(instance, "value");
+    assertEquals("value", instance.required);
+  }
+
+  @Test
+  public void testUnsupportedListsExplained() {
+    ClassBinding binding = ClassBinding.of(Lists.class);
+
+    ClassBinding.FieldBinding raw = getField(binding.fields, "raw");
+    assertNull(raw.listElementType);
+    assertNotNull(raw.listElementError);
+
+    ClassBinding.FieldBinding nested = getField(binding.fields, "nested");
+    assertNull(nested.listElementType);
+    assertNotNull(nested.listElementError);
+  }
+
+  @Test
+  public void testNoDefaultConstructorOnlyFailsNewInstance() throws Exception {
+    ClassBinding binding = ClassBinding.of(NoDefaultConstructor.class);
+    assertEquals(1, binding.fields.length);
+
+    try {
+      binding.newInstance();
+      fail();
+    } catch (NoSuchMethodException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testJsonValueMethod() throws Exception {
+    assertNull(ClassBinding.of(Fields.class).jsonValueMethod);
+    assertEquals(
+        "getValue",
+        ClassBinding.of(JsonValueEnum.class).jsonValueMethod.getName());
+  }
+
+  @Test
+  public void testEnumConstantsByName() {
+    ClassBinding binding = ClassBinding.of(PlainEnum.class);
+    assertSame(PlainEnum.FIRST, binding.getEnumConstant("FIRST"));
+    assertSame(PlainEnum.SECOND, binding.getEnumConstant("SECOND"));
+    assertNoEnumConstant(binding, "first");
+  }
+
+  @Test
+  public void testEnumConstantsByJsonValue() {
+    ClassBinding binding = ClassBinding.of(JsonValueEnum.class);
+    assertSame(JsonValueEnum.ONE, binding.getEnumConstant("one"));
+
+    // The first of two constants with the same value wins.
+    assertSame(JsonValueEnum.TWO, binding.getEnumConstant("two"));
+
+    // Constants whose value is null can't be looked up at all, and names no longer count.
+    assertNoEnumConstant(binding, "null");
+    assertNoEnumConstant(binding, "ONE");
+  }
+
+  @Test
+  public void testEnumConstantOfNonEnum() {
+    assertNoEnumConstant(ClassBinding.of(Fields.class), "plain");
+  }
+
+  private static void assertNoEnumConstant(ClassBinding binding, String value) {
+    try {
+      binding.getEnumConstant(value);
+      fail("Found " + value);
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private static Set<String> getNames(ClassBinding.FieldBinding[] fields) {
+    Set<String> names = new HashSet<>();
+    for (ClassBinding.FieldBinding field : fields) {
+      names.add(field.name);
+    }
+    return names;
+  }
+
+  private static ClassBinding.FieldBinding getField(
+      ClassBinding.FieldBinding[] fields,
+      String name) {
+    for (ClassBinding.FieldBinding field : fields) {
+      if (field.name.equals(name)) {
+        return field;
+      }
+    }
+    throw new AssertionError("No field " + name);
+  }
+
+  private static class Fields {
+    public static int sIgnored;
+
+    public int plain;
+
+    @JsonProperty
+    public String optional;
+
+    @JsonProperty(required = true)
+    public String required;
+
+    @JsonProperty
+    public List<String> names;
+
+    private int mIgnored;
+
+    private Fields() {
+    }
+  }
+
+  private static class Lists {
+    @SuppressWarnings("rawtypes")
+    public List raw;
+
+    public List<List<String>> nested;
+  }
+
+  private static class NoDefaultConstructor {
+    public final int value;
+
+    public NoDefaultConstructor(int value) {
+      this.value = value;
+    }
+  }
+
+  private enum PlainEnum {
+    FIRST,
+    SECOND
+  }
+
+  private enum JsonValueEnum {
+    ONE("one"),
+    TWO("two"),
+    OTHER_TWO("two"),
+    NONE(null);
+
+    private final String mValue;
+
+    JsonValueEnum(String value) {
+      mValue = value;
+    }
+
+    @JsonValue
+    public String getValue() {
+      return mValue;
+    }
+  }
+}
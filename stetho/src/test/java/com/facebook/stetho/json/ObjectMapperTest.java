@@ -10,6 +10,7 @@
 package com.facebook.stetho.json;
 
 import android.os.Build;
+import com.facebook.stetho.common.Utf8Charset;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 import org.json.JSONArray;
@@ -22,6 +23,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -182,6 +184,78 @@ public class ObjectMapperTest {
     assertEquals(primitives.toString(), actual.toString());
   }
 
+  @Test
+  public void testWriteValueMatchesConvertValue() throws JSONException {
+    NestedJsonProperty njp = new NestedJsonProperty();
+    njp.child1 = new JsonPropertyString();
+    njp.child1.testString = "quote\" backslash\\ newline\n tab\t ctrl\u0001 \u00e9\u20ac\ud83d\ude00";
+    assertWriteValueMatches(njp);
+
+    JsonPropertyEnum jpe = new JsonPropertyEnum();
+    jpe.enumValue = TestEnum.VALUE_THREE;
+    assertWriteValueMatches(jpe);
+
+    List<Object> list = new ArrayList<Object>();
+    list.add("foo");
+    list.add(null);
+    list.add(Collections.singletonList(TestEnum.VALUE_ONE));
+    JsonPropertyMultitypedList multitypedList = new JsonPropertyMultitypedList();
+    multitypedList.multitypedList = list;
+    assertWriteValueMatches(multitypedList);
+
+    ArrayOfPrimitivesContainer container = new ArrayOfPrimitivesContainer();
+    container.primitives.add(Long.MIN_VALUE);
+    container.primitives.add(Integer.MAX_VALUE);
+    container.primitives.add(Float.MAX_VALUE);
+    container.primitives.add(Double.MIN_VALUE);
+    container.primitives.add(1.0d);
+    container.primitives.add(true);
+    assertWriteValueMatches(container);
+
+    JSONObject tree = new JSONObject();
+    tree.put("nested", new JSONObject().put("empty", new JSONArray()));
+    tree.put("array", new JSONArray().put(1).put(JSONObject.NULL).put("two"));
+    assertWriteValueMatches(tree);
+  }
+
+  @Test
+  public void testWriteValueSpecialDoubles() throws JSONException {
+    ArrayOfPrimitivesContainer container = new ArrayOfPrimitivesContainer();
+    container.primitives.add(Double.NaN);
+    container.primitives.add(Double.POSITIVE_INFINITY);
+    container.primitives.add(Float.NEGATIVE_INFINITY);
+
+    JsonWriter writer = new JsonWriter();
+    mObjectMapper.writeValue(writer, container);
+    assertEquals(
+        "{\"primitives\":[\"NaN\",\"Infinity\",\"-Infinity\"]}",
+        new String(writer.data(), 0, writer.length(), Utf8Charset.INSTANCE));
+  }
+
+  @Test
+  public void testWriteValueByteBuffer() throws JSONException {
+    byte[] bytes = "xfoobar\u00ff".getBytes(Utf8Charset.INSTANCE);
+    ArrayOfPrimitivesContainer container = new ArrayOfPrimitivesContainer();
+    for (int length = 0; length <= 4; length++) {
+      container.primitives.add(ByteBuffer.wrap(bytes, 1, length));
+    }
+    container.primitives.add(ByteBuffer.wrap(bytes));
+    assertWriteValueMatches(container);
+
+    JsonWriter writer = new JsonWriter();
+    mObjectMapper.writeValue(writer, container);
+    assertEquals(
+        "{\"primitives\":[\"\",\"Zg==\",\"Zm8=\",\"Zm9v\",\"Zm9vYg==\",\"eGZvb2JhcsO/\"]}",
+        new String(writer.data(), 0, writer.length(), Utf8Charset.INSTANCE));
+  }
+
+  private void assertWriteValueMatches(Object value) {
+    JsonWriter writer = new JsonWriter();
+    mObjectMapper.writeValue(writer, value);
+    String expected = mObjectMapper.convertValue(value, JSONObject.class).toString();
+    assertEquals(expected, new String(writer.data(), 0, writer.length(), Utf8Charset.INSTANCE));
+  }
+
   public static class ArrayOfPrimitivesContainer {
     @JsonProperty
     public final ArrayList<Object> primitives = new ArrayList<>();
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * {@link EventLoopConnection} without a descriptor or loop.  The test thread plays the loop:
+ * bytes passed to {@link #receive} are read in the same chunks a real peer would have sent
+ * them, and dispatched work only runs when {@link #runDispatched} is called.  Output is
+ * collected in memory and may be written from any thread.
+ */
+public class FakeEventLoopConnection extends EventLoopConnection {
+  private final ArrayDeque<byte[]> mIncoming = new ArrayDeque<>();
+  private final ArrayDeque<Runnable> mDispatched = new ArrayDeque<>();
+  private final ByteArrayOutputStream mWritten = new ByteArrayOutputStream();
+  private boolean mPeerClosed;
+  private volatile EventLoopHandler mCurrentHandler;
+
+  public FakeEventLoopConnection(EventLoopHandler handler) {
+    super(null /* group */, null /* loop */, null /* fd */, handler);
+    mCurrentHandler = handler;
+  }
+
+  public EventLoopHandler getHandler() {
+    return mCurrentHandler;
+  }
+
+  @Override
+  public void setHandler(EventLoopHandler handler) {
+    mCurrentHandler = handler;
+    super.setHandler(handler);
+  }
+
+  public boolean isReading() {
+    return isReadingPolled();
+  }
+
+  public void receive(String data) {
+    receive(data.getBytes());
+  }
+
+  public void receive(byte[] data) {
+    mIncoming.add(data);
+    pollWhileReadable();
+  }
+
+  public void receiveEof() {
+    mPeerClosed = true;
+    pollWhileReadable();
+  }
+
+  public int getDispatchedCount() {
+    return mDispatched.size();
+  }
+
+  /**
+   * Run the oldest piece of dispatched work, if any.
+   */
+  public boolean runNextDispatched() {
+    Runnable task = mDispatched.poll();
+    if (task == null) {
+      return false;
+    }
+    task.run();
+    return true;
+  }
+
+  /**
+   * Run dispatched work, including anything it dispatches in turn, until there is none left.
+   *
+   * @return Number of tasks run.
+   */
+  public int runDispatched() {
+    int count = 0;
+    while (runNextDispatched()) {
+      count++;
+    }
+    return count;
+  }
+
+  public String getWrittenString() {
+    synchronized (mWritten) {
+      return mWritten.toString();
+    }
+  }
+
+  public byte[] getWrittenBytes() {
+    synchronized (mWritten) {
+      return mWritten.toByteArray();
+    }
+  }
+
+  private void pollWhileReadable() {
+    while (isReadingPolled() && (!mIncoming.isEmpty() || mPeerClosed)) {
+      onPollReady();
+    }
+  }
+
+  @Override
+  void executeOnLoop(Runnable task) {
+    task.run();
+    pollWhileReadable();
+  }
+
+  @Override
+  void dispatchOffLoop(Runnable task) {
+    mDispatched.add(task);
+  }
+
+  @Override
+  void unregisterFromLoop() {
+  }
+
+  @Override
+  int readFd(byte[] buffer, int offset, int count) {
+    byte[] chunk = mIncoming.poll();
+    if (chunk == null) {
+      // Peer closed, or a blocking reader caught up with everything sent so far.
+      return 0;
+    }
+    int n = Math.min(count, chunk.length);
+    System.arraycopy(chunk, 0, buffer, offset, n);
+    if (n < chunk.length) {
+      byte[] rest = new byte[chunk.length - n];
+      System.arraycopy(chunk, n, rest, 0, rest.length);
+      mIncoming.addFirst(rest);
+    }
+    return n;
+  }
+
+  @Override
+  int writeFd(byte[] buffer, int offset, int count) {
+    synchronized (mWritten) {
+      mWritten.write(buffer, offset, count);
+    }
+    return count;
+  }
+
+  @Override
+  void shutdownFd() {
+  }
+
+  @Override
+  void closeFd() {
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ProtocolDetectingSocketHandlerTest {
+  private static final int SENSING_BUFFER_SIZE = 256;
+
+  @Test
+  public void testWaitsForMagicSplitAcrossReads() {
+    RecordingFactory dump = new RecordingFactory();
+    ProtocolDetectingSocketHandler detector = new ProtocolDetectingSocketHandler(null);
+    detector.addHandler(
+        new ProtocolDetectingSocketHandler.ExactMagicMatcher("DUMP".getBytes()),
+        dump);
+    detector.addHandler(
+        new ProtocolDetectingSocketHandler.AlwaysMatchMatcher(),
+        new BlockingRecordingHandler());
+    EventLoopHandler detecting = detector.createEventLoopHandler();
+    FakeEventLoopConnection connection = new FakeEventLoopConnection(detecting);
+
+    connection.receive("DU");
+    assertSame(detecting, connection.getHandler());
+    connection.receive("M");
+    assertSame(detecting, connection.getHandler());
+
+    connection.receive("P1");
+    assertSame(dump.handler, connection.getHandler());
+    assertEquals(0, connection.getDispatchedCount());
+
+    // Sniffing consumes nothing, so the new handler sees the magic too.
+    assertEquals("DUMP1", dump.handler.received.toString());
+    assertTrue(connection.isReading());
+  }
+
+  @Test
+  public void testHandsOffToBlockingHandler() {
+    BlockingRecordingHandler blocking = new BlockingRecordingHandler();
+    ProtocolDetectingSocketHandler detector = new ProtocolDetectingSocketHandler(null);
+    detector.addHandler(
+        new ProtocolDetectingSocketHandler.ExactMagicMatcher("DUMP".getBytes()),
+        new RecordingFactory());
+    detector.addHandler(new ProtocolDetectingSocketHandler.AlwaysMatchMatcher(), blocking);
+    FakeEventLoopConnection connection =
+        new FakeEventLoopConnection(detector.createEventLoopHandler());
+
+    // The first matcher can't rule out "DUMP" yet, and later ones must wait their turn.
+    connection.receive("GE");
+    assertEquals(0, connection.getDispatchedCount());
+
+    connection.receive("T / HTTP/1.1\r\n");
+    assertFalse(connection.isReading());
+    assertEquals(1, connection.getDispatchedCount());
+
+    // Arrives after the hand-off and is read directly by the blocking handler.
+    connection.receive("\r\n");
+    connection.runDispatched();
+    assertEquals("GET / HTTP/1.1\r\n\r\n", blocking.received);
+    assertFalse(connection.isOpen());
+  }
+
+  @Test
+  public void testSaturatedBufferEndsSniffing() {
+    byte[] longMagic = new byte[SENSING_BUFFER_SIZE + 1];
+    Arrays.fill(longMagic, (byte) 'x');
+    RecordingFactory fallback = new RecordingFactory();
+    ProtocolDetectingSocketHandler detector = new ProtocolDetectingSocketHandler(null);
+    detector.addHandler(
+        new ProtocolDetectingSocketHandler.ExactMagicMatcher(longMagic),
+        new RecordingFactory());
+    detector.addHandler(new ProtocolDetectingSocketHandler.AlwaysMatchMatcher(), fallback);
+    EventLoopHandler detecting = detector.createEventLoopHandler();
+    FakeEventLoopConnection connection = new FakeEventLoopConnection(detecting);
+
+    connection.receive(Arrays.copyOf(longMagic, SENSING_BUFFER_SIZE - 1));
+    assertSame(detecting, connection.getHandler());
+
+    // Matchers may not look further than this, just as with the blocking implementation.
+    connection.receive("x");
+    assertSame(fallback.handler, connection.getHandler());
+    assertEquals(SENSING_BUFFER_SIZE, fallback.handler.received.size());
+  }
+
+  private static class RecordingFactory implements SocketLikeHandler, EventLoopHandlerFactory {
+    public final RecordingHandler handler = new RecordingHandler();
+
+    @Override
+    public void onAccepted(SocketLike socket) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public EventLoopHandler createEventLoopHandler() {
+      return handler;
+    }
+  }
+
+  private static class RecordingHandler implements EventLoopHandler {
+    public final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Override
+    public void onReadable(EventLoopConnection connection, ByteBuffer input) {
+      byte[] bytes = EventLoopConnection.drain(input);
+      received.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void onClosed(EventLoopConnection connection) {
+    }
+  }
+
+  private static class BlockingRecordingHandler implements SocketLikeHandler {
+    public String received;
+
+    @Override
+    public void onAccepted(SocketLike socket) throws IOException {
+      InputStream in = socket.getInput();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != -1) {
+        out.write(b);
+      }
+      received = out.toString();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server.http;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class HttpRequestParserTest {
+  private static final String REQUEST =
+      "GET /json?foo=bar HTTP/1.1\r\n" +
+      "Host: localhost:9222\r\n" +
+      "Connection: keep-alive\r\n" +
+      "Upgrade:  websocket \r\n" +
+      "\r\n";
+
+  @Test
+  public void testParseRequest() throws IOException {
+    LightHttpRequest request = new LightHttpRequest();
+    byte[] data = REQUEST.getBytes();
+    HttpRequestParser.parse(request, data, 0, data.length);
+
+    assertSame("GET", request.method);
+    assertSame("HTTP/1.1", request.protocol);
+    assertEquals("/json?foo=bar", request.getRawUri());
+    assertEquals("/json", request.getPath());
+    assertEquals(3, request.getHeaderCount());
+    assertEquals("Host", request.getHeaderName(0));
+    assertEquals("localhost:9222", request.getHeaderValue(0));
+    assertEquals("keep-alive", request.getFirstHeaderValue("Connection"));
+    assertNull(request.getFirstHeaderValue("connection"));
+    assertEquals("websocket", request.getFirstHeaderValue("Upgrade"));
+    assertNull(request.getFirstHeaderValue("Sec-WebSocket-Key"));
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testLegacyFields() throws IOException {
+    LightHttpRequest request = new LightHttpRequest();
+    byte[] data = REQUEST.getBytes();
+    HttpRequestParser.parse(request, data, 0, data.length);
+    assertTrue(request.headerNames.isEmpty());
+    assertNull(request.uri);
+
+    request.populateLegacyFields();
+    assertEquals("/json", request.uri.getPath());
+    assertEquals(Arrays.asList("Host", "Connection", "Upgrade"), request.headerNames);
+    assertEquals(
+        Arrays.asList("localhost:9222", "keep-alive", "websocket"),
+        request.headerValues);
+
+    request.reset();
+    assertTrue(request.headerNames.isEmpty());
+    assertTrue(request.headerValues.isEmpty());
+    assertNull(request.uri);
+  }
+
+  @Test
+  public void testAddHeader() {
+    LightHttpRequest request = new LightHttpRequest();
+    request.addHeader("Upgrade", "websocket");
+
+    assertEquals(Arrays.asList("Upgrade"), request.headerNames);
+    assertEquals(Arrays.asList("websocket"), request.headerValues);
+    assertEquals(1, request.getHeaderCount());
+    assertEquals("websocket", request.getFirstHeaderValue("Upgrade"));
+  }
+
+  @Test
+  public void testReadLeavesTrailingInput() throws IOException {
+    InputStream in = new ByteArrayInputStream((REQUEST + "extra").getBytes());
+    LightHttpRequest request = new LightHttpRequest();
+
+    assertTrue(HttpRequestParser.read(request, in));
+    assertEquals("/json", request.getPath());
+    assertEquals('e', in.read());
+  }
+
+  @Test
+  public void testReuseAcrossRequests() throws IOException {
+    InputStream in = new ByteArrayInputStream(
+        (REQUEST + "POST /json/version HTTP/1.0\r\n\r\n").getBytes());
+    LightHttpRequest request = new LightHttpRequest();
+
+    assertTrue(HttpRequestParser.read(request, in));
+    String firstPath = request.getPath();
+    assertSame(firstPath, request.getPath());
+
+    assertTrue(HttpRequestParser.read(request, in));
+    assertSame("POST", request.method);
+    assertSame("HTTP/1.0", request.protocol);
+    assertEquals("/json/version", request.getPath());
+    assertEquals(0, request.getHeaderCount());
+
+    assertFalse(HttpRequestParser.read(request, in));
+  }
+
+  @Test
+  public void testFindEndOfHeaders() {
+    byte[] data = (REQUEST + "extra").getBytes();
+    assertEquals(REQUEST.length(), HttpRequestParser.findEndOfHeaders(data, 0, data.length, 0));
+    assertEquals(-1, HttpRequestParser.findEndOfHeaders(data, 0, REQUEST.length() - 1, 0));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMalformedHeader() throws IOException {
+    byte[] data = "GET / HTTP/1.1\r\nbogus\r\n\r\n".getBytes();
+    HttpRequestParser.parse(new LightHttpRequest(), data, 0, data.length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidRequestLine() throws IOException {
+    byte[] data = "GET /\r\n\r\n".getBytes();
+    HttpRequestParser.parse(new LightHttpRequest(), data, 0, data.length);
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedRequest() throws IOException {
+    InputStream in = new ByteArrayInputStream("GET / HTTP/1.1\r\nHost: x\r\n".getBytes());
+    HttpRequestParser.read(new LightHttpRequest(), in);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.server.http;
+
+import android.net.Uri;
+import com.facebook.stetho.server.EventLoopConnection;
+import com.facebook.stetho.server.EventLoopHandler;
+import com.facebook.stetho.server.FakeEventLoopConnection;
+import com.facebook.stetho.server.LeakyBufferedInputStream;
+import com.facebook.stetho.server.SocketLike;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class LightHttpServerTest {
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testLegacyFieldsOnlyFilledForLegacyHandlers() throws IOException {
+    RecordingHandler legacy = new RecordingHandler();
+    RecordingHandler lazy = new LazyRecordingHandler();
+    HandlerRegistry registry = new HandlerRegistry();
+    registry.register(new ExactPathMatcher("/legacy"), legacy);
+    registry.register(new ExactPathMatcher("/lazy"), lazy);
+
+    ByteArrayOutputStream out = serve(
+        new LightHttpServer(registry),
+        "GET /legacy?a=b HTTP/1.1\r\nHost: x\r\n\r\n" +
+        "GET /lazy?a=b HTTP/1.1\r\nHost: x\r\n\r\n");
+
+    assertNotNull(legacy.uri);
+    assertEquals("/legacy", legacy.uri.getPath());
+    assertEquals(Arrays.asList("Host"), legacy.headerNames);
+    assertNull(lazy.uri);
+    assertTrue(lazy.headerNames.isEmpty());
+    assertEquals("/lazy", lazy.path);
+    assertTrue(out.toString().startsWith("HTTP/1.1 200 OK\r\n"));
+  }
+
+  @Test
+  public void testEventLoopRequestSplitAcrossReads() {
+    LazyRecordingHandler handler = new LazyRecordingHandler();
+    FakeEventLoopConnection connection = newEventLoopConnection("/hello", handler);
+
+    connection.receive("GET /hel");
+    connection.receive("lo HTTP/1.1\r\nHost: x\r");
+    connection.receive("\n\r");
+    assertEquals(0, connection.getDispatchedCount());
+    assertTrue(connection.isReading());
+
+    connection.receive("\n");
+    assertFalse(connection.isReading());
+    assertEquals(1, connection.runDispatched());
+    assertEquals("/hello", handler.path);
+    assertTrue(connection.getWrittenString().startsWith("HTTP/1.1 200 OK\r\n"));
+    assertTrue(connection.getWrittenString().endsWith("\r\n\r\nok\n"));
+    assertTrue(connection.isReading());
+  }
+
+  @Test
+  public void testEventLoopPipelinedRequests() {
+    LazyRecordingHandler handler = new LazyRecordingHandler();
+    FakeEventLoopConnection connection = newEventLoopConnection("/hello", handler);
+
+    connection.receive(
+        "GET /hello HTTP/1.1\r\n\r\n" +
+        "GET /hello HTTP/1.1\r\n\r\n");
+
+    // The second request is only parsed once the first has been answered.
+    assertEquals(1, connection.getDispatchedCount());
+    assertEquals(2, connection.runDispatched());
+    String written = connection.getWrittenString();
+    assertEquals(2, written.split("HTTP/1.1 200 OK").length - 1);
+    assertTrue(connection.isReading());
+  }
+
+  @Test
+  public void testEventLoopUpgradeHandsOffLeftoverInput() {
+    UpgradingHandler upgrading = new UpgradingHandler();
+    FakeEventLoopConnection connection = newEventLoopConnection("/upgrade", upgrading);
+
+    connection.receive("GET /upgrade HTTP/1.1\r\n\r\nhel");
+    assertEquals(1, connection.runDispatched());
+    assertSame(upgrading.upgraded, connection.getHandler());
+    assertEquals("HTTP/1.1 101 Switching Protocols\r\n\r\n", connection.getWrittenString());
+
+    // Bytes sent along with the request belong to the new protocol.
+    assertEquals("hel", upgrading.upgraded.received.toString());
+    connection.receive("lo");
+    assertEquals("hello", upgrading.upgraded.received.toString());
+  }
+
+  private static FakeEventLoopConnection newEventLoopConnection(
+      String path,
+      HttpHandler handler) {
+    HandlerRegistry registry = new HandlerRegistry();
+    registry.register(new ExactPathMatcher(path), handler);
+    return new FakeEventLoopConnection(new LightHttpServer(registry).createEventLoopHandler());
+  }
+
+  private static ByteArrayOutputStream serve(LightHttpServer server, String requests)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SocketLike socket = new SocketLike(
+        out,
+        new LeakyBufferedInputStream(new ByteArrayInputStream(requests.getBytes()), 1024));
+    server.serve(socket);
+    return out;
+  }
+
+  private static class RecordingHandler implements HttpHandler {
+    public Uri uri;
+    public List<String> headerNames;
+    public String path;
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean handleRequest(
+        SocketLike socket,
+        LightHttpRequest request,
+        LightHttpResponse response) {
+      uri = request.uri;
+      headerNames = new ArrayList<>(request.headerNames);
+      path = request.getPath();
+      response.code = HttpStatus.HTTP_OK;
+      response.reasonPhrase = "OK";
+      response.body = LightHttpBody.create("ok\n", "text/plain");
+      return true;
+    }
+  }
+
+  private static class LazyRecordingHandler extends RecordingHandler
+      implements LazyUriHttpHandler {
+  }
+
+  private static class UpgradingHandler implements EventLoopHttpHandler {
+    public final RecordingEventLoopHandler upgraded = new RecordingEventLoopHandler();
+
+    @Override
+    public boolean handleRequest(
+        SocketLike socket,
+        LightHttpRequest request,
+        LightHttpResponse response) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public EventLoopHandler handleEventLoopRequest(
+        EventLoopConnection connection,
+        LightHttpRequest request,
+        LightHttpResponse response) throws IOException {
+      connection.getOutput().write("HTTP/1.1 101 Switching Protocols\r\n\r\n".getBytes());
+      return upgraded;
+    }
+  }
+
+  private static class RecordingEventLoopHandler implements EventLoopHandler {
+    public final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Override
+    public void onReadable(EventLoopConnection connection, ByteBuffer input) {
+      byte[] bytes = EventLoopConnection.drain(input);
+      received.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void onClosed(EventLoopConnection connection) {
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import com.facebook.stetho.server.EventLoopConnection;
+import com.facebook.stetho.server.EventLoopHandler;
+import com.facebook.stetho.server.FakeEventLoopConnection;
+import com.facebook.stetho.server.SocketLike;
+import com.facebook.stetho.server.http.EventLoopHttpHandler;
+import com.facebook.stetho.server.http.ExactPathMatcher;
+import com.facebook.stetho.server.http.HandlerRegistry;
+import com.facebook.stetho.server.http.LightHttpRequest;
+import com.facebook.stetho.server.http.LightHttpResponse;
+import com.facebook.stetho.server.http.LightHttpServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class EventLoopReadHandlerTest {
+  private static final String UPGRADE_REQUEST = "GET /inspector HTTP/1.1\r\n\r\n";
+  private static final byte[] MASKING_KEY = { 0x12, 0x34, 0x56, 0x78 };
+
+  private final RecordingEndpoint mEndpoint = new RecordingEndpoint();
+  private final FakeEventLoopConnection mConnection = createConnection(mEndpoint);
+
+  @Test
+  public void testFrameSentWithUpgradeRequest() {
+    mConnection.receive(concat(
+        UPGRADE_REQUEST.getBytes(),
+        maskedFrame(Frame.OPCODE_TEXT_FRAME, "hi")));
+    assertTrue(mConnection.runNextDispatched());
+    assertTrue(mConnection.getHandler() instanceof EventLoopReadHandler);
+    assertTrue(mEndpoint.opened);
+
+    // Decoded by the new handler without waiting for more input, then delivered off the loop.
+    assertFalse(mConnection.isReading());
+    assertTrue(mEndpoint.messages.isEmpty());
+    assertEquals(1, mConnection.runDispatched());
+    assertEquals(Arrays.asList("hi"), mEndpoint.messages);
+    assertTrue(mConnection.isReading());
+  }
+
+  @Test
+  public void testFramesSplitAcrossReads() {
+    upgrade();
+
+    byte[] first = maskedFrame(Frame.OPCODE_TEXT_FRAME, "hello");
+    byte[] second = maskedFrame(Frame.OPCODE_TEXT_FRAME, "world");
+    mConnection.receive(Arrays.copyOfRange(first, 0, 1));
+    mConnection.receive(Arrays.copyOfRange(first, 1, 4));
+    mConnection.receive(Arrays.copyOfRange(first, 4, first.length - 1));
+    assertEquals(0, mConnection.getDispatchedCount());
+
+    // One and a bit frames: only the complete one is delivered, the rest waits its turn.
+    mConnection.receive(concat(
+        Arrays.copyOfRange(first, first.length - 1, first.length),
+        Arrays.copyOfRange(second, 0, 3)));
+    assertEquals(1, mConnection.runDispatched());
+    assertEquals(Arrays.asList("hello"), mEndpoint.messages);
+
+    mConnection.receive(Arrays.copyOfRange(second, 3, second.length));
+    assertEquals(1, mConnection.runDispatched());
+    assertEquals(Arrays.asList("hello", "world"), mEndpoint.messages);
+  }
+
+  @Test
+  public void testPipelinedFramesDeliveredOneAtATime() {
+    upgrade();
+
+    mConnection.receive(concat(
+        maskedFrame(Frame.OPCODE_TEXT_FRAME, "one"),
+        maskedFrame(Frame.OPCODE_TEXT_FRAME, "two")));
+    assertEquals(1, mConnection.getDispatchedCount());
+    assertEquals(2, mConnection.runDispatched());
+    assertEquals(Arrays.asList("one", "two"), mEndpoint.messages);
+  }
+
+  @Test
+  public void testCloseFrameAnsweredBeforeClosing() throws InterruptedException {
+    upgrade();
+
+    mConnection.receive(maskedFrame(Frame.OPCODE_CONNECTION_CLOSE, new byte[] { 0x03, (byte) 0xe8 }));
+    assertEquals(1, mConnection.runDispatched());
+    assertEquals(CloseCodes.NORMAL_CLOSURE, mEndpoint.closeCode);
+
+    // The acknowledgement is written asynchronously and the connection closed after it.
+    for (int i = 0; i < 100 && mConnection.isOpen(); i++) {
+      Thread.sleep(50);
+    }
+    assertFalse(mConnection.isOpen());
+    byte[] written = mConnection.getWrittenBytes();
+    assertTrue(written.length > 0);
+    assertEquals((byte) (0x80 | Frame.OPCODE_CONNECTION_CLOSE), written[0]);
+  }
+
+  @Test
+  public void testEofClosesSession() {
+    upgrade();
+
+    mConnection.receiveEof();
+    assertFalse(mConnection.isOpen());
+    assertEquals(CloseCodes.UNEXPECTED_CONDITION, mEndpoint.closeCode);
+  }
+
+  private void upgrade() {
+    mConnection.receive(UPGRADE_REQUEST);
+    assertEquals(1, mConnection.runDispatched());
+    assertTrue(mConnection.isReading());
+  }
+
+  private static FakeEventLoopConnection createConnection(SimpleEndpoint endpoint) {
+    HandlerRegistry registry = new HandlerRegistry();
+    registry.register(new ExactPathMatcher("/inspector"), new UpgradingHandler(endpoint));
+    return new FakeEventLoopConnection(new LightHttpServer(registry).createEventLoopHandler());
+  }
+
+  private static byte[] maskedFrame(byte opcode, String payload) {
+    return maskedFrame(opcode, payload.getBytes());
+  }
+
+  private static byte[] maskedFrame(byte opcode, byte[] data) {
+    byte[] frame = new byte[2 + MASKING_KEY.length + data.length];
+    frame[0] = (byte) (0x80 | opcode);
+    frame[1] = (byte) (0x80 | data.length);
+    System.arraycopy(MASKING_KEY, 0, frame, 2, MASKING_KEY.length);
+    for (int i = 0; i < data.length; i++) {
+      frame[2 + MASKING_KEY.length + i] = (byte) (data[i] ^ MASKING_KEY[i % MASKING_KEY.length]);
+    }
+    return frame;
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  /**
+   * Hands the connection over the way {@link WebSocketHandler} does, minus the handshake
+   * headers.
+   */
+  private static class UpgradingHandler implements EventLoopHttpHandler {
+    private final SimpleEndpoint mEndpoint;
+
+    public UpgradingHandler(SimpleEndpoint endpoint) {
+      mEndpoint = endpoint;
+    }
+
+    @Override
+    public boolean handleRequest(
+        SocketLike socket,
+        LightHttpRequest request,
+        LightHttpResponse response) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public EventLoopHandler handleEventLoopRequest(
+        EventLoopConnection connection,
+        LightHttpRequest request,
+        LightHttpResponse response) throws IOException {
+      WebSocketSession session = new WebSocketSession(
+          connection.getOutput(),
+          mEndpoint,
+          WriteQueueConfig.createDefault(),
+          null /* deflate */);
+      session.markAndSignalOpen();
+      return new EventLoopReadHandler(session);
+    }
+  }
+
+  private static class RecordingEndpoint implements SimpleEndpoint {
+    public final ArrayList<String> messages = new ArrayList<>();
+    public boolean opened;
+    public int closeCode = -1;
+
+    @Override
+    public void onOpen(SimpleSession session) {
+      opened = true;
+    }
+
+    @Override
+    public void onMessage(SimpleSession session, String message) {
+      messages.add(message);
+    }
+
+    @Override
+    public void onMessage(SimpleSession session, byte[] message, int messageLen) {
+      messages.add(new String(message, 0, messageLen));
+    }
+
+    @Override
+    public void onClose(SimpleSession session, int closeReasonCode, String closeReasonPhrase) {
+      closeCode = closeReasonCode;
+    }
+
+    @Override
+    public void onError(SimpleSession session, Throwable t) {
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PerMessageDeflateTest {
+  private static final int THRESHOLD_BYTES = 64;
+
+  private static final CompressionConfig CONFIG =
+      new CompressionConfig(true /* enabled */, THRESHOLD_BYTES, true /* contextTakeover */);
+
+  private static final String MESSAGE = repeat(
+      "{\"method\":\"Network.dataReceived\",\"params\":{\"requestId\":\"1\"}}",
+      20);
+
+  @Test
+  public void testNegotiateDeclined() {
+    assertNull(negotiate(null, CONFIG));
+    assertNull(negotiate("x-webkit-deflate-frame", CONFIG));
+    assertNull(negotiate(
+        "permessage-deflate",
+        new CompressionConfig(false /* enabled */, THRESHOLD_BYTES, true)));
+    assertNull(PerMessageDeflate.negotiate(
+        "permessage-deflate",
+        CONFIG,
+        Build.VERSION_CODES.JELLY_BEAN_MR2));
+  }
+
+  @Test
+  public void testNegotiateContextTakeover() {
+    assertEquals(
+        "permessage-deflate",
+        negotiate("permessage-deflate; client_max_window_bits", CONFIG)
+            .getResponseHeaderValue());
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+        negotiate(
+            "permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+            CONFIG)
+            .getResponseHeaderValue());
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate(
+            "permessage-deflate",
+            new CompressionConfig(true, THRESHOLD_BYTES, false /* contextTakeover */))
+            .getResponseHeaderValue());
+  }
+
+  @Test
+  public void testNegotiateWindowBits() {
+    assertNotNull(negotiate("permessage-deflate; server_max_window_bits=15", CONFIG));
+    assertNotNull(negotiate("permessage-deflate; server_max_window_bits=\"15\"", CONFIG));
+    assertNull(negotiate("permessage-deflate; server_max_window_bits=10", CONFIG));
+    assertNull(negotiate("permessage-deflate; server_max_window_bits", CONFIG));
+
+    // Falls back to a later offer we can honour.
+    assertEquals(
+        "permessage-deflate; client_no_context_takeover",
+        negotiate(
+            "permessage-deflate; server_max_window_bits=10, " +
+                "permessage-deflate; client_no_context_takeover",
+            CONFIG)
+            .getResponseHeaderValue());
+  }
+
+  @Test
+  public void testNegotiateRejectsUnknownParameters() {
+    assertNull(negotiate("permessage-deflate; foo=bar", CONFIG));
+    assertNull(negotiate("permessage-deflate; ; ", CONFIG));
+  }
+
+  @Test
+  public void testRoundTripWithContextTakeover() throws IOException {
+    PerMessageDeflate server = negotiate("permessage-deflate", CONFIG);
+    PerMessageDeflate client = negotiate("permessage-deflate", CONFIG);
+
+    for (int i = 0; i < 3; i++) {
+      Frame frame = FrameHelper.createTextFrame(MESSAGE);
+      server.compress(frame);
+      assertTrue(frame.rsv1);
+      assertTrue(frame.payloadLen < MESSAGE.length());
+      assertFalse(endsWithTail(frame.payloadData, (int) frame.payloadLen));
+
+      // Only the peer's inflater, which carries over from the previous message, can
+      // decompress this one.
+      assertEquals(MESSAGE, decompress(client, frame));
+    }
+
+    CompressionStats stats = server.getStats();
+    assertEquals(3, stats.getMessagesCompressed());
+    assertEquals(3 * MESSAGE.length(), stats.getOutboundRawBytes());
+    assertTrue(stats.getOutboundRatio() > 1);
+    assertEquals(3, client.getStats().getMessagesDecompressed());
+    assertTrue(client.getStats().getInboundRatio() > 1);
+  }
+
+  @Test
+  public void testRoundTripWithoutContextTakeover() throws IOException {
+    PerMessageDeflate server = negotiate("permessage-deflate; server_no_context_takeover", CONFIG);
+
+    for (int i = 0; i < 2; i++) {
+      Frame frame = FrameHelper.createTextFrame(MESSAGE);
+      server.compress(frame);
+      // Each message stands alone, so a fresh inflater copes.
+      assertEquals(
+          MESSAGE,
+          decompress(negotiate("permessage-deflate", CONFIG), frame));
+    }
+  }
+
+  @Test
+  public void testSmallAndControlFramesLeftAlone() {
+    PerMessageDeflate deflate = negotiate("permessage-deflate", CONFIG);
+
+    Frame small = FrameHelper.createTextFrame("small");
+    deflate.compress(small);
+    assertFalse(small.rsv1);
+    assertEquals("small", new String(small.payloadData, 0, (int) small.payloadLen));
+
+    Frame close = FrameHelper.createCloseFrame(CloseCodes.NORMAL_CLOSURE, MESSAGE);
+    deflate.compress(close);
+    assertFalse(close.rsv1);
+
+    assertEquals(1, deflate.getStats().getMessagesBelowThreshold());
+    assertEquals(0, deflate.getStats().getMessagesCompressed());
+  }
+
+  @Test
+  public void testDecompressInvalidData() {
+    PerMessageDeflate deflate = negotiate("permessage-deflate", CONFIG);
+    byte[] garbage = { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+    try {
+      deflate.decompress(garbage, garbage.length);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testUnexpectedRsv1ClosesSession() {
+    RecordingEndpoint endpoint = new RecordingEndpoint();
+    WebSocketSession session = new WebSocketSession(
+        new ByteArrayOutputStream(),
+        endpoint,
+        WriteQueueConfig.createDefault(),
+        null /* deflate */);
+    session.markAndSignalOpen();
+
+    byte[] payload = "hello".getBytes();
+    session.getReadCallback().onCompleteFrame(
+        Frame.OPCODE_TEXT_FRAME,
+        true /* compressed */,
+        payload,
+        payload.length);
+
+    assertFalse(session.isOpen());
+    assertNull(endpoint.message);
+    assertNotNull(endpoint.error);
+    assertEquals(CloseCodes.PROTOCOL_ERROR, endpoint.closeCode);
+  }
+
+  @Test
+  public void testCompressedControlFrameClosesSession() {
+    RecordingEndpoint endpoint = new RecordingEndpoint();
+    WebSocketSession session = new WebSocketSession(
+        new ByteArrayOutputStream(),
+        endpoint,
+        WriteQueueConfig.createDefault(),
+        negotiate("permessage-deflate", CONFIG));
+    session.markAndSignalOpen();
+
+    session.getReadCallback().onCompleteFrame(
+        Frame.OPCODE_CONNECTION_PING,
+        true /* compressed */,
+        new byte[0],
+        0);
+
+    assertFalse(session.isOpen());
+    assertEquals(CloseCodes.PROTOCOL_ERROR, endpoint.closeCode);
+  }
+
+  private static PerMessageDeflate negotiate(String header, CompressionConfig config) {
+    return PerMessageDeflate.negotiate(header, config, Build.VERSION_CODES.KITKAT);
+  }
+
+  private static String decompress(PerMessageDeflate deflate, Frame frame) throws IOException {
+    // The compressor's buffer is reused, so hand over a copy as the wire would.
+    byte[] wire = Arrays.copyOf(frame.payloadData, (int) frame.payloadLen);
+    PayloadBuffer decompressed = deflate.decompress(wire, wire.length);
+    return new String(decompressed.data(), 0, decompressed.length(), "UTF-8");
+  }
+
+  private static boolean endsWithTail(byte[] data, int length) {
+    return length >= 4 &&
+        data[length - 4] == 0x00 &&
+        data[length - 3] == 0x00 &&
+        data[length - 2] == (byte) 0xff &&
+        data[length - 1] == (byte) 0xff;
+  }
+
+  private static String repeat(String s, int count) {
+    StringBuilder b = new StringBuilder(s.length() * count);
+    for (int i = 0; i < count; i++) {
+      b.append(s);
+    }
+    return b.toString();
+  }
+
+  private static class RecordingEndpoint implements SimpleEndpoint {
+    public String message;
+    public Throwable error;
+    public int closeCode = -1;
+
+    @Override
+    public void onOpen(SimpleSession session) {
+    }
+
+    @Override
+    public void onMessage(SimpleSession session, String message) {
+      this.message = message;
+    }
+
+    @Override
+    public void onMessage(SimpleSession session, byte[] message, int messageLen) {
+      this.message = new String(message, 0, messageLen);
+    }
+
+    @Override
+    public void onClose(SimpleSession session, int closeReasonCode, String closeReasonPhrase) {
+      closeCode = closeReasonCode;
+    }
+
+    @Override
+    public void onError(SimpleSession session, Throwable t) {
+      error = t;
+    }
+  }
+}
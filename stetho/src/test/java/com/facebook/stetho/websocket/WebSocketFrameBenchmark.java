@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the WebSocket frame codec with the allocate-per-frame implementation it replaced.
+ * Run {@link #main} from the IDE with the test classpath; the GC profiler's
+ * {@code gc.alloc.rate.norm} column reports bytes allocated per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketFrameBenchmark {
+  private static final int MESSAGES = 100;
+  private static final int PAYLOAD_SIZE = 256;
+
+  private final byte[] mInboundStream = createInboundStream();
+  private final Frame mOutboundFrame = FrameHelper.createBinaryFrame(new byte[PAYLOAD_SIZE]);
+  private final BufferedOutputStream mOutput = new BufferedOutputStream(new NullOutputStream());
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public void readPooled(final Blackhole bh) throws IOException {
+    ReadHandler reader = new ReadHandler(new ByteArrayInputStream(mInboundStream), null);
+    reader.readLoop(new ReadCallback() {
+      @Override
+      public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+        bh.consume(payload);
+      }
+    });
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public void readLegacy(Blackhole bh) throws IOException {
+    BufferedInputStream in =
+        new BufferedInputStream(new ByteArrayInputStream(mInboundStream), 1024);
+    ByteArrayOutputStream currentPayload = new ByteArrayOutputStream();
+    byte opcode;
+    do {
+      LegacyFrame frame = new LegacyFrame();
+      frame.readFrom(in);
+      opcode = frame.opcode;
+      currentPayload.write(frame.payloadData, 0, frame.payloadData.length);
+      if (frame.fin) {
+        bh.consume(currentPayload.toByteArray());
+        currentPayload.reset();
+      }
+    } while (opcode != Frame.OPCODE_CONNECTION_CLOSE);
+  }
+
+  @Benchmark
+  public void writePooled() throws IOException {
+    mOutboundFrame.writeTo(mOutput);
+    mOutput.flush();
+  }
+
+  @Benchmark
+  public void writeLegacy() throws IOException {
+    mOutput.write(0x80 | mOutboundFrame.opcode);
+    byte[] length = LegacyFrame.encodeLength(mOutboundFrame.payloadLen);
+    mOutput.write(length, 0, length.length);
+    mOutput.write(mOutboundFrame.payloadData, 0, (int) mOutboundFrame.payloadLen);
+    mOutput.flush();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+        new OptionsBuilder()
+            .include(WebSocketFrameBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build())
+        .run();
+  }
+
+  private static byte[] createInboundStream() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] maskingKey = { 0x12, 0x34, 0x56, 0x78 };
+    for (int i = 0; i <= MESSAGES; i++) {
+      boolean last = (i == MESSAGES);
+      int len = last ? 2 : PAYLOAD_SIZE;
+      out.write(0x80 | (last ? Frame.OPCODE_CONNECTION_CLOSE : Frame.OPCODE_TEXT_FRAME));
+      if (len <= 125) {
+        out.write(0x80 | len);
+      } else {
+        out.write(0x80 | 126);
+        out.write((len >> 8) & 0xff);
+        out.write(len & 0xff);
+      }
+      out.write(maskingKey, 0, maskingKey.length);
+      for (int j = 0; j < len; j++) {
+        out.write('a' ^ maskingKey[j & 3]);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Verbatim decoding logic of the previous {@link Frame} implementation.
+   */
+  private static class LegacyFrame {
+    boolean fin;
+    byte opcode;
+    byte[] payloadData;
+
+    void readFrom(InputStream input) throws IOException {
+      byte b = readByteOrThrow(input);
+      fin = (b & 0x80) != 0;
+      opcode = (byte) (b & 0xf);
+      byte maskAndFirstLengthBits = readByteOrThrow(input);
+      boolean hasMask = (maskAndFirstLengthBits & 0x80) != 0;
+      int firstLenByte = maskAndFirstLengthBits & 0x7f;
+      int payloadLen = firstLenByte <= 125
+          ? firstLenByte
+          : (readByteOrThrow(input) & 0xff) << 8 | (readByteOrThrow(input) & 0xff);
+      byte[] maskingKey = null;
+      if (hasMask) {
+        maskingKey = new byte[4];
+        readBytesOrThrow(input, maskingKey, 0, maskingKey.length);
+      }
+      payloadData = new byte[payloadLen];
+      readBytesOrThrow(input, payloadData, 0, payloadLen);
+      for (int i = 0; i < payloadLen; i++) {
+        payloadData[i] ^= maskingKey[i % maskingKey.length];
+      }
+    }
+
+    static byte[] encodeLength(long len) {
+      if (len <= 125) {
+        return new byte[] { (byte) len };
+      } else {
+        return new byte[] { 126, (byte) ((len >> 8) & 0xff), (byte) (len & 0xff) };
+      }
+    }
+
+    private static void readBytesOrThrow(InputStream in, byte[] buf, int offset, int count)
+        throws IOException {
+      while (count > 0) {
+        int n = in.read(buf, offset, count);
+        if (n == -1) {
+          throw new EOFException();
+        }
+        count -= n;
+        offset += n;
+      }
+    }
+
+    private static byte readByteOrThrow(InputStream in) throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException();
+      }
+      return (byte) b;
+    }
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class WriteHandlerTest {
+  private static final int HIGH_WATERMARK_BYTES = 100;
+  private static final int LOW_WATERMARK_BYTES = 50;
+  private static final long TIMEOUT_SECONDS = 5;
+
+  private final GatedOutputStream mOutput = new GatedOutputStream();
+  private final AtomicInteger mOverflows = new AtomicInteger();
+
+  @Test
+  public void testBatchesFramesQueuedDuringAWrite() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.DROP_LOW_PRIORITY);
+
+    RecordingCallback a = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("a"), a);
+    awaitWriterBlocked();
+
+    RecordingCallback b = new RecordingCallback();
+    RecordingCallback c = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("b"), b);
+    handler.write(FrameHelper.createTextFrame("c"), c);
+    mOutput.open();
+
+    a.assertSucceeded();
+    b.assertSucceeded();
+    c.assertSucceeded();
+    assertEquals(Arrays.asList("a", "bc"), mOutput.getPayloadsByWrite());
+  }
+
+  @Test
+  public void testDropsLowPriorityWhileCongested() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.DROP_LOW_PRIORITY);
+
+    RecordingCallback big = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame(repeat('x', HIGH_WATERMARK_BYTES)), big);
+    RecordingCallback dropped = new RecordingCallback();
+    assertFalse(handler.writeLowPriority(FrameHelper.createTextFrame("d"), "key", dropped));
+
+    // Only once the queue has drained below the low watermark are we accepting again.  The
+    // writer has accounted for the big frame by the time it gets to the next one.
+    mOutput.open();
+    big.assertSucceeded();
+    RecordingCallback next = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("n"), next);
+    next.assertSucceeded();
+
+    RecordingCallback accepted = new RecordingCallback();
+    assertTrue(handler.writeLowPriority(FrameHelper.createTextFrame("l"), "key", accepted));
+    accepted.assertSucceeded();
+    assertFalse(dropped.isDone());
+    assertEquals(0, mOverflows.get());
+  }
+
+  @Test
+  public void testCoalescesLowPriorityWhileCongested() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.COALESCE_LOW_PRIORITY);
+
+    handler.write(FrameHelper.createTextFrame("a"), new RecordingCallback());
+    awaitWriterBlocked();
+
+    RecordingCallback replaced = new RecordingCallback();
+    assertTrue(handler.writeLowPriority(FrameHelper.createTextFrame("1"), "key", replaced));
+    RecordingCallback big = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame(repeat('x', HIGH_WATERMARK_BYTES)), big);
+
+    RecordingCallback replacement = new RecordingCallback();
+    assertTrue(handler.writeLowPriority(FrameHelper.createTextFrame("2"), "key", replacement));
+    RecordingCallback dropped = new RecordingCallback();
+    assertFalse(handler.writeLowPriority(FrameHelper.createTextFrame("3"), "other", dropped));
+    mOutput.open();
+
+    replacement.assertSucceeded();
+    big.assertSucceeded();
+    assertFalse(replaced.isDone());
+    assertFalse(dropped.isDone());
+    assertEquals(
+        Arrays.asList("a", "2" + repeat('x', HIGH_WATERMARK_BYTES)),
+        mOutput.getPayloadsByWrite());
+  }
+
+  @Test
+  public void testDisconnectFailsDiscardedFrames() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.DISCONNECT);
+
+    RecordingCallback inFlight = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("a"), inFlight);
+    awaitWriterBlocked();
+
+    RecordingCallback queued = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("b"), queued);
+    RecordingCallback overflowing = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame(repeat('x', HIGH_WATERMARK_BYTES)), overflowing);
+
+    queued.assertFailed();
+    overflowing.assertFailed();
+    assertEquals(1, mOverflows.get());
+
+    mOutput.open();
+    inFlight.assertSucceeded();
+    assertEquals(Arrays.asList("a"), mOutput.getPayloadsByWrite());
+  }
+
+  @Test
+  public void testRuntimeExceptionFailsBatchAndKeepsWriting() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.DROP_LOW_PRIORITY);
+    mOutput.open();
+
+    // Writing masked frames isn't supported, so this throws from Frame.writeTo().
+    Frame masked = FrameHelper.createTextFrame("m");
+    masked.hasMask = true;
+    RecordingCallback failed = new RecordingCallback();
+    handler.write(masked, failed);
+    failed.assertFailed();
+    assertTrue(failed.failure.getCause() instanceof UnsupportedOperationException);
+
+    RecordingCallback next = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("n"), next);
+    next.assertSucceeded();
+  }
+
+  @Test
+  public void testCloseAfterFlushWaitsForCloseFrame() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.DROP_LOW_PRIORITY);
+
+    RecordingCallback response = new RecordingCallback();
+    handler.write(FrameHelper.createTextFrame("r"), response);
+    awaitWriterBlocked();
+
+    RecordingCallback closeFrame = new RecordingCallback();
+    handler.write(
+        FrameHelper.createCloseFrame(CloseCodes.NORMAL_CLOSURE, "Received close frame"),
+        closeFrame);
+    final CountDownLatch closed = new CountDownLatch(1);
+    final AtomicInteger writesWhenClosed = new AtomicInteger(-1);
+    handler.closeAfterFlush(new Runnable() {
+      @Override
+      public void run() {
+        writesWhenClosed.set(mOutput.getWriteCount());
+        closed.countDown();
+      }
+    });
+    assertEquals(1, closed.getCount());
+
+    mOutput.open();
+    assertTrue(closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    response.assertSucceeded();
+    closeFrame.assertSucceeded();
+    assertEquals(2, writesWhenClosed.get());
+  }
+
+  @Test
+  public void testCloseAfterFlushRunsImmediatelyWhenIdle() throws Exception {
+    WriteHandler handler = createHandler(WriteQueueConfig.OverflowPolicy.DROP_LOW_PRIORITY);
+
+    final AtomicInteger runs = new AtomicInteger();
+    handler.closeAfterFlush(new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+      }
+    });
+    assertEquals(1, runs.get());
+  }
+
+  private WriteHandler createHandler(WriteQueueConfig.OverflowPolicy overflowPolicy) {
+    return new WriteHandler(
+        mOutput,
+        new WriteQueueConfig(HIGH_WATERMARK_BYTES, LOW_WATERMARK_BYTES, overflowPolicy),
+        new WriteHandler.OverflowListener() {
+          @Override
+          public void onOverflow() {
+            mOverflows.incrementAndGet();
+          }
+        },
+        null /* deflate */);
+  }
+
+  private void awaitWriterBlocked() throws InterruptedException {
+    assertTrue(mOutput.entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  /**
+   * Holds up the writer until {@link #open()} is called, so that frames pile up in the queue.
+   */
+  private static class GatedOutputStream extends OutputStream {
+    public final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch mGate = new CountDownLatch(1);
+    private final List<byte[]> mWrites = new ArrayList<>();
+
+    public void open() {
+      mGate.countDown();
+    }
+
+    public int getWriteCount() {
+      synchronized (mWrites) {
+        return mWrites.size();
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      entered.countDown();
+      try {
+        mGate.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      synchronized (mWrites) {
+        mWrites.add(Arrays.copyOfRange(b, off, off + len));
+      }
+    }
+
+    /**
+     * Text payloads of the unmasked frames received, concatenated per write to the socket.
+     */
+    public List<String> getPayloadsByWrite() {
+      List<String> payloads = new ArrayList<>();
+      synchronized (mWrites) {
+        for (byte[] write : mWrites) {
+          ByteArrayOutputStream payload = new ByteArrayOutputStream();
+          int offset = 0;
+          while (offset < write.length) {
+            int length = write[offset + 1] & 0x7f;
+            offset += 2;
+            if (length == 126) {
+              length = ((write[offset] & 0xff) << 8) | (write[offset + 1] & 0xff);
+              offset += 2;
+            }
+            payload.write(write, offset, length);
+            offset += length;
+          }
+          payloads.add(new String(payload.toByteArray()));
+        }
+      }
+      return payloads;
+    }
+  }
+
+  private static class RecordingCallback implements WriteCallback {
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    public volatile boolean succeeded;
+    public volatile IOException failure;
+
+    @Override
+    public void onFailure(IOException e) {
+      failure = e;
+      mDone.countDown();
+    }
+
+    @Override
+    public void onSuccess() {
+      succeeded = true;
+      mDone.countDown();
+    }
+
+    public boolean isDone() {
+      return mDone.getCount() == 0;
+    }
+
+    public void assertSucceeded() throws InterruptedException {
+      assertTrue(mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertTrue(succeeded);
+    }
+
+    public void assertFailed() throws InterruptedException {
+      assertTrue(mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertNotNull(failure);
+    }
+  }
+}